@@ -0,0 +1,112 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks once for each thread count, with the GC profiler on so
+ * that the allocation rate is reported alongside the timings.  The results
+ * of each run are written as JSON, named for the thread count, so that they
+ * can be kept and compared between releases.
+ * <pre>
+ * java -jar target/benchmarks.jar [-t 1,4,16] [-s 1,10,100] [-o dir] [regex]
+ * </pre>
+ * <dl>
+ * <dt>-t</dt><dd>the thread counts, 1 and 4 by default</dd>
+ * <dt>-s</dt><dd>the document sizes, as copies of the transcript's academic
+ * sessions, 1, 10 and 100 by default</dd>
+ * <dt>-o</dt><dd>the directory for the JSON results, target/jmh by
+ * default</dd>
+ * <dt>regex</dt><dd>only runs the benchmarks matching it, such as
+ * TransformBenchmark</dd>
+ * </dl>
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class BenchmarkRunner
+{
+    public static void main(final String[] args) throws RunnerException
+    {
+        String threads = "1,4";
+        String sessions = "1,10,100";
+        String output = "target" + File.separator + "jmh";
+        String include = BenchmarkRunner.class.getPackage().getName() + ".*";
+
+        for (int index = 0; index < args.length; index++)
+        {
+            if ("-t".equals(args[index]) && index + 1 < args.length)
+            {
+                threads = args[++index];
+            }
+            else if ("-s".equals(args[index]) && index + 1 < args.length)
+            {
+                sessions = args[++index];
+            }
+            else if ("-o".equals(args[index]) && index + 1 < args.length)
+            {
+                output = args[++index];
+            }
+            else if (args[index].startsWith("-"))
+            {
+                System.err.println("usage: BenchmarkRunner [-t threads] " +
+                    "[-s sessions] [-o directory] [regex]");
+                System.exit(1);
+            }
+            else
+            {
+                include = args[index];
+            }
+        }
+
+        final File directory = new File(output);
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IllegalArgumentException("unable to create " + output);
+        }
+
+        final String[] threadCounts = threads.split(",");
+        for (int index = 0; index < threadCounts.length; index++)
+        {
+            final int count = Integer.parseInt(threadCounts[index].trim());
+            final File result = new File(directory,
+                "jmh-" + count + "-threads.json");
+            final Options options = new OptionsBuilder()
+                .include(include)
+                .threads(count)
+                .param("sessions", sessions.split(","))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath())
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.benchmark;
+
+import ca.athabascau.apas.xml.XMLUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the xs:date and xs:dateTime helpers.  These do not depend on the
+ * document size.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateBenchmark
+{
+    private final Calendar calendar = Calendar.getInstance();
+
+    @Benchmark
+    public String xsDateFormat()
+    {
+        return XMLUtil.xsDateFormat(calendar);
+    }
+
+    @Benchmark
+    public String xsDateTimeFormatMountain()
+    {
+        return XMLUtil.xsDateTimeFormatMountain(calendar);
+    }
+
+    @Benchmark
+    public Calendar xsDateToCalendar() throws Exception
+    {
+        return XMLUtil.xsDateToCalendar("2009-11-04");
+    }
+
+    @Benchmark
+    public Calendar xsDateTimeToCalendar() throws Exception
+    {
+        return XMLUtil.xsDateTimeToCalendar("2009-11-04T16:56:08-07:00");
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.benchmark;
+
+import ca.athabascau.apas.xml.XMLUtil;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Document;
+
+/**
+ * The transcript, already parsed.  A DOM is not thread safe, even to read,
+ * as the parser expands it's nodes lazily, so each benchmark thread parses
+ * it's own copy.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+@State(Scope.Thread)
+public class DocumentState
+{
+    private Document document;
+
+    @Setup(Level.Trial)
+    public void setUp(final TranscriptState transcript) throws Exception
+    {
+        document = XMLUtil.stringToDocument(transcript.getXML());
+    }
+
+    /**
+     * @return this thread's copy of {@link TranscriptState#getXML()},
+     *         parsed
+     */
+    public Document getDocument()
+    {
+        return document;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.benchmark;
+
+import ca.athabascau.apas.xml.XMLUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing XML out of a DOM, and to and from Map structures.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark
+{
+    @Benchmark
+    public String documentToString(final DocumentState state)
+        throws Exception
+    {
+        return XMLUtil.documentToString(state.getDocument());
+    }
+
+    @Benchmark
+    public String mapToXML(final TranscriptState state) throws Exception
+    {
+        return XMLUtil.mapToXML("transcript", state.getElements());
+    }
+
+    @Benchmark
+    public Map<String, Object> xmlToMap(final TranscriptState state)
+        throws Exception
+    {
+        return XMLUtil.xmlToMap(state.getXML());
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.benchmark;
+
+import ca.athabascau.apas.xml.XMLUtil;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The transcript used by the unit tests, grown to the size being measured
+ * by repeating its academic sessions.  The original transcript is about 14K,
+ * and each extra copy of its sessions adds about 9.5K, so 100 copies is
+ * close to a megabyte.
+ * <p/>
+ * Everything here is created once per trial and only ever read, so it is
+ * shared by all of the benchmark threads.  The parsed transcript is not, and
+ * is kept in {@link DocumentState}.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+@State(Scope.Benchmark)
+public class TranscriptState
+{
+    /**
+     * The classpath name of the transcript stylesheet.
+     */
+    public static final String TRANSCRIPT_XSL = "/transcript-test.xsl";
+
+    private static final String TRANSCRIPT_XML = "/transcript-test.xml";
+
+    private static final String SESSION_START = "<AcademicSession>";
+
+    private static final String SESSION_END = "</AcademicSession>";
+
+    /**
+     * The number of copies of the academic sessions, which is how the
+     * document size is varied.
+     */
+    @Param({"1", "10", "100"})
+    public int sessions;
+
+    private String xml;
+
+    private byte[] bytes;
+
+    private File stylesheet;
+
+    private String xmlWithStylesheetInstruction;
+
+    private Map<String, Object> parameters;
+
+    private Map<String, Object> elements;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        final String transcript = new String(read(TRANSCRIPT_XML), "UTF-8");
+        final String body = stripStylesheetInstruction(transcript);
+        xml = grow(body, sessions);
+        bytes = xml.getBytes("UTF-8");
+
+        stylesheet = File.createTempFile("transcript-", ".xsl");
+        final OutputStream out = new FileOutputStream(stylesheet);
+        try
+        {
+            out.write(read(TRANSCRIPT_XSL));
+        }
+        finally
+        {
+            out.close();
+        }
+        final String declaration = "?>";
+        final int end = xml.indexOf(declaration) + declaration.length();
+        xmlWithStylesheetInstruction = xml.substring(0, end) +
+            "\n<?xml-stylesheet type=\"text/xsl\" href=\"" +
+            stylesheet.toURI() + "\"?>" + xml.substring(end);
+
+        parameters = new HashMap<String, Object>();
+        parameters.put("title", "Transcript");
+        elements = XMLUtil.xmlToMap(xml);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        if (stylesheet != null && !stylesheet.delete())
+        {
+            stylesheet.deleteOnExit();
+        }
+    }
+
+    /**
+     * @return the transcript, without an xml-stylesheet instruction
+     */
+    public String getXML()
+    {
+        return xml;
+    }
+
+    /**
+     * @return the UTF-8 bytes of {@link #getXML()}
+     */
+    public byte[] getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * @return a copy of the transcript stylesheet on the file system
+     */
+    public File getStylesheet()
+    {
+        return stylesheet;
+    }
+
+    /**
+     * @return the transcript with an xml-stylesheet instruction that refers
+     *         to {@link #getStylesheet()}
+     */
+    public String getXMLWithStylesheetInstruction()
+    {
+        return xmlWithStylesheetInstruction;
+    }
+
+    /**
+     * @return the parameters for the transcript stylesheet
+     */
+    public Map<String, Object> getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * @return the transcript as read by {@link XMLUtil#xmlToMap(String)}
+     */
+    public Map<String, Object> getElements()
+    {
+        return elements;
+    }
+
+    /**
+     * The test transcript points at a stylesheet on the athabascau.ca web
+     * site, which would make the benchmarks measure the network.
+     */
+    private static String stripStylesheetInstruction(final String transcript)
+    {
+        final int start = transcript.indexOf("<?xml-stylesheet");
+        if (start == -1)
+        {
+            return transcript;
+        }
+        final int end = transcript.indexOf("?>", start) + 2;
+        return transcript.substring(0, start) + transcript.substring(end);
+    }
+
+    private static String grow(final String transcript, final int copies)
+    {
+        final int start = transcript.indexOf(SESSION_START);
+        final int end = transcript.lastIndexOf(SESSION_END) +
+            SESSION_END.length();
+        final String session = transcript.substring(start, end);
+        final StringBuilder grown = new StringBuilder(
+            transcript.length() + session.length() * (copies - 1));
+        grown.append(transcript, 0, start);
+        for (int copy = 0; copy < copies; copy++)
+        {
+            grown.append(session);
+        }
+        grown.append(transcript, end, transcript.length());
+        return grown.toString();
+    }
+
+    private static byte[] read(final String name) throws IOException
+    {
+        final InputStream is = XMLUtil.class.getResourceAsStream(name);
+        if (is == null)
+        {
+            throw new IOException(name + " is not on the classpath");
+        }
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.benchmark;
+
+import ca.athabascau.apas.xml.XMLUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures transforming the transcript, with the stylesheet found each of
+ * the ways XMLUtil supports.  Every stylesheet, including the one named by
+ * an xml-stylesheet instruction, is compiled once and cached, so after warm
+ * up these measure the transformation itself.  {@link
+ * #stylesheetInstructionCold} empties the cache first, to measure what a
+ * miss costs, which is what every call cost before stylesheets were cached.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark
+{
+    @Benchmark
+    public String classpathStylesheet(final TranscriptState state)
+        throws Exception
+    {
+        return XMLUtil.xslTransformation(state.getXML(),
+            TranscriptState.TRANSCRIPT_XSL, state.getParameters());
+    }
+
+    @Benchmark
+    public String fileStylesheet(final TranscriptState state) throws Exception
+    {
+        return XMLUtil.xslTransformation(state.getXML(),
+            state.getStylesheet(), state.getParameters());
+    }
+
+    @Benchmark
+    public String stylesheetInstruction(final TranscriptState state)
+        throws Exception
+    {
+        return XMLUtil.xslTransformation(
+            state.getXMLWithStylesheetInstruction());
+    }
+
+    @Benchmark
+    public String stylesheetInstructionCold(final TranscriptState state)
+        throws Exception
+    {
+        XMLUtil.getTemplatesCache().invalidateAll();
+        return XMLUtil.xslTransformation(
+            state.getXMLWithStylesheetInstruction());
+    }
+
+    @Benchmark
+    public String parsedDocument(final TranscriptState state,
+        final DocumentState document) throws Exception
+    {
+        return XMLUtil.xslTransformation(document.getDocument(),
+            TranscriptState.TRANSCRIPT_XSL, state.getParameters());
+    }
+}
@@ -0,0 +1,62 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!--
+This file is part of the au-xml-util package
+
+Copyright Trenton D. Adams &lt;trenton daught d daught adams at gmail daught ca&gt;
+
+au-xml-util is free software: you can redistribute it and/or modify it under
+the terms of the GNU Lesser General Public License as published by the
+Free Software Foundation, either version 3 of the License, or (at your
+option) any later version.
+
+au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with au-xml-util.  If not, see &lt;http://www.gnu.org/licenses/&gt;.
+
+See the COPYING file for more information.
+  -->
+<xsl:stylesheet version="1.0"
+  xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+  xmlns:ColTrn="urn:ca:applyalberta:message:CollegeTranscript:v1.0.0a"
+  xmlns:AU="urn:ca:au:messages:AUExtensions:v1.0.0"
+  exclude-result-prefixes="ColTrn AU">
+  <xsl:output method="html" encoding="UTF-8"/>
+
+  <xsl:param name="title" select="'Transcript'"/>
+
+  <xsl:template match="/ColTrn:CollegeTranscript">
+    <html>
+      <head>
+        <title><xsl:value-of select="$title"/></title>
+      </head>
+      <body>
+        <h1>
+          <xsl:value-of select="Student/Person/Name/FirstName"/>
+          <xsl:text> </xsl:text>
+          <xsl:value-of select="Student/Person/Name/LastName"/>
+        </h1>
+        <xsl:apply-templates select="Student/AcademicRecord/AcademicSession"/>
+      </body>
+    </html>
+  </xsl:template>
+
+  <xsl:template match="AcademicSession">
+    <h2><xsl:value-of select="AcademicSessionDetail/SessionName"/></h2>
+    <table>
+      <xsl:for-each select="Course">
+        <tr>
+          <td><xsl:value-of select="CourseSubjectAbbreviation"/></td>
+          <td><xsl:value-of select="CourseNumber"/></td>
+          <td><xsl:value-of select="CourseTitle"/></td>
+          <td><xsl:value-of select="CourseAcademicGrade"/></td>
+          <td><xsl:value-of
+            select="UserDefinedExtensions/AU:CourseGradePointValue"/></td>
+        </tr>
+      </xsl:for-each>
+    </table>
+  </xsl:template>
+</xsl:stylesheet>
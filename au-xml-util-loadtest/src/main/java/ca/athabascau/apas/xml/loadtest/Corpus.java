@@ -0,0 +1,362 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.loadtest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * The documents to transform, each paired with it's stylesheet, and the
+ * parameters passed to every transformation.  Documents are read into
+ * memory up front, so the load test measures transforming, not the disk.
+ * <p/>
+ * The stylesheet mapping is a text file of glob = stylesheet lines, tried in
+ * order against each document's path relative to the directory, such as
+ * <pre>
+ * # transcripts get the transcript stylesheet, the rest their own
+ * transcripts/**.xml = classpath:/transcript.xsl
+ * **.xml = xsl/render.xsl
+ * </pre>
+ * A stylesheet prefixed with classpath: is looked up in the classpath, and
+ * any other is a file, relative to the mapping file.  Without a mapping,
+ * each document's xml-stylesheet processing instruction is used.  The
+ * parameter file is a java.util.Properties file.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class Corpus
+{
+    static final String CLASSPATH_PREFIX = "classpath:";
+
+    /**
+     * Names the stylesheet of documents that use their own xml-stylesheet
+     * processing instruction.
+     */
+    static final String INSTRUCTION = "xml-stylesheet";
+
+    private final List<Document> documents;
+
+    private final List<String> stylesheetNames;
+
+    private final List<Object> stylesheets;
+
+    private final Map<String, String> parameters;
+
+    private Corpus(final List<Document> documents,
+        final List<String> stylesheetNames, final List<Object> stylesheets,
+        final Map<String, String> parameters)
+    {
+        this.documents = documents;
+        this.stylesheetNames = stylesheetNames;
+        this.stylesheets = stylesheets;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Reads every .xml file under the directory, and pairs it with it's
+     * stylesheet.  Documents that no glob matches are left out, with a
+     * warning.
+     *
+     * @param directory  the documents
+     * @param mapping    the stylesheet mapping, or null to use each
+     *                   document's xml-stylesheet instruction
+     * @param parameters the parameter file, or null for none
+     *
+     * @return the corpus
+     *
+     * @throws IOException if a file could not be read, or there are no
+     *                     documents to transform
+     */
+    static Corpus load(final File directory, final File mapping,
+        final File parameters) throws IOException
+    {
+        if (!directory.isDirectory())
+        {
+            throw new IOException(directory + " is not a directory");
+        }
+        final Map<PathMatcher, String> globs = mapping == null ?
+            Collections.<PathMatcher, String>emptyMap() : readMapping(mapping);
+        final File base = mapping == null ? null :
+            mapping.getAbsoluteFile().getParentFile();
+
+        final List<Path> files = new ArrayList<Path>();
+        final Path root = directory.toPath();
+        final Stream<Path> walk = Files.walk(root);
+        try
+        {
+            final Iterator<Path> it = walk.sorted().iterator();
+            while (it.hasNext())
+            {
+                final Path file = it.next();
+                if (Files.isRegularFile(file) && file.getFileName()
+                    .toString().toLowerCase().endsWith(".xml"))
+                {
+                    files.add(file);
+                }
+            }
+        }
+        finally
+        {
+            walk.close();
+        }
+
+        final List<Document> documents = new ArrayList<Document>();
+        final List<String> names = new ArrayList<String>();
+        final List<Object> stylesheets = new ArrayList<Object>();
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        for (int index = 0; index < files.size(); index++)
+        {
+            final Path relative = root.relativize(files.get(index));
+            final String stylesheet = mapping == null ? INSTRUCTION :
+                match(globs, relative);
+            if (stylesheet == null)
+            {
+                System.err.println("warning: no stylesheet for " + relative +
+                    ", skipping it");
+                continue;
+            }
+            Integer stylesheetIndex = indexes.get(stylesheet);
+            if (stylesheetIndex == null)
+            {
+                stylesheetIndex = Integer.valueOf(names.size());
+                indexes.put(stylesheet, stylesheetIndex);
+                names.add(stylesheet);
+                stylesheets.add(resolve(stylesheet, base));
+            }
+            documents.add(new Document(relative.toString(),
+                Files.readAllBytes(files.get(index)),
+                stylesheetIndex.intValue()));
+        }
+        if (documents.isEmpty())
+        {
+            throw new IOException("there are no documents to transform in " +
+                directory);
+        }
+        return new Corpus(Collections.unmodifiableList(documents),
+            Collections.unmodifiableList(names),
+            Collections.unmodifiableList(stylesheets),
+            Collections.unmodifiableMap(readParameters(parameters)));
+    }
+
+    private static Map<PathMatcher, String> readMapping(final File mapping)
+        throws IOException
+    {
+        final Map<PathMatcher, String> globs =
+            new LinkedHashMap<PathMatcher, String>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(mapping), StandardCharsets.UTF_8));
+        try
+        {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null)
+            {
+                number++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#"))
+                {
+                    continue;
+                }
+                final int equals = line.indexOf('=');
+                if (equals <= 0 || equals == line.length() - 1)
+                {
+                    throw new IOException(mapping + ":" + number +
+                        ": expected glob = stylesheet, but found " + line);
+                }
+                globs.put(FileSystems.getDefault().getPathMatcher("glob:" +
+                    line.substring(0, equals).trim()),
+                    line.substring(equals + 1).trim());
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return globs;
+    }
+
+    private static String match(final Map<PathMatcher, String> globs,
+        final Path relative)
+    {
+        final Iterator<Map.Entry<PathMatcher, String>> it =
+            globs.entrySet().iterator();
+        while (it.hasNext())
+        {
+            final Map.Entry<PathMatcher, String> entry = it.next();
+            if (entry.getKey().matches(relative))
+            {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Turns a stylesheet from the mapping into what xslTransformation
+     * takes; a classpath name, a File, or null for the document's own
+     * instruction.
+     */
+    private static Object resolve(final String stylesheet, final File base)
+        throws IOException
+    {
+        if (INSTRUCTION.equals(stylesheet))
+        {
+            return null;
+        }
+        else if (stylesheet.startsWith(CLASSPATH_PREFIX))
+        {
+            final String name =
+                stylesheet.substring(CLASSPATH_PREFIX.length());
+            if (Corpus.class.getResource(name) == null)
+            {
+                throw new IOException(name + " is not in the classpath");
+            }
+            return name;
+        }
+        File file = new File(stylesheet);
+        if (!file.isAbsolute())
+        {
+            file = new File(base, stylesheet);
+        }
+        if (!file.isFile())
+        {
+            throw new IOException(file + " does not exist");
+        }
+        return file;
+    }
+
+    private static Map<String, String> readParameters(final File parameters)
+        throws IOException
+    {
+        final Map<String, String> map = new HashMap<String, String>();
+        if (parameters != null)
+        {
+            final Properties properties = new Properties();
+            final InputStream in = new FileInputStream(parameters);
+            try
+            {
+                properties.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+            for (final String name : properties.stringPropertyNames())
+            {
+                map.put(name, properties.getProperty(name));
+            }
+        }
+        return map;
+    }
+
+    List<Document> getDocuments()
+    {
+        return documents;
+    }
+
+    /**
+     * @return the stylesheets, as named in the mapping
+     */
+    List<String> getStylesheetNames()
+    {
+        return stylesheetNames;
+    }
+
+    /**
+     * @param index the index of the stylesheet
+     *
+     * @return the stylesheet, as xslTransformation takes it
+     */
+    Object getStylesheet(final int index)
+    {
+        return stylesheets.get(index);
+    }
+
+    Map<String, String> getParameters()
+    {
+        return parameters;
+    }
+
+    long getSize()
+    {
+        long size = 0;
+        for (int index = 0; index < documents.size(); index++)
+        {
+            size += documents.get(index).getContent().length;
+        }
+        return size;
+    }
+
+    /**
+     * One document, and the stylesheet it is transformed with.
+     */
+    static final class Document
+    {
+        private final String name;
+
+        private final byte[] content;
+
+        private final int stylesheet;
+
+        private Document(final String name, final byte[] content,
+            final int stylesheet)
+        {
+            this.name = name;
+            this.content = content;
+            this.stylesheet = stylesheet;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        byte[] getContent()
+        {
+            return content;
+        }
+
+        int getStylesheet()
+        {
+            return stylesheet;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.loadtest;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Watches the garbage collectors while the load test runs, recording how
+ * long each pause took.  Collectors announce every collection by JMX
+ * notification, and the concurrent cycles, which don't stop the
+ * application, are left out.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class GCMonitor implements NotificationListener
+{
+    private final List<NotificationEmitter> emitters =
+        new ArrayList<NotificationEmitter>();
+
+    private final LatencyHistogram pauses = new LatencyHistogram();
+
+    private long collectionMillis;
+
+    private long collectionMillisAtStart;
+
+    /**
+     * Starts listening to every collector.
+     */
+    void start()
+    {
+        final List<GarbageCollectorMXBean> collectors =
+            ManagementFactory.getGarbageCollectorMXBeans();
+        collectionMillisAtStart = collectionMillis(collectors);
+        for (int index = 0; index < collectors.size(); index++)
+        {
+            if (collectors.get(index) instanceof NotificationEmitter)
+            {
+                final NotificationEmitter emitter =
+                    (NotificationEmitter) collectors.get(index);
+                emitter.addNotificationListener(this, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    /**
+     * Stops listening.
+     */
+    void stop()
+    {
+        for (int index = 0; index < emitters.size(); index++)
+        {
+            try
+            {
+                emitters.get(index).removeNotificationListener(this);
+            }
+            catch (ListenerNotFoundException e)
+            {   // already gone
+            }
+        }
+        emitters.clear();
+        collectionMillis = collectionMillis(
+            ManagementFactory.getGarbageCollectorMXBeans()) -
+            collectionMillisAtStart;
+    }
+
+    private static long collectionMillis(
+        final List<GarbageCollectorMXBean> collectors)
+    {
+        long millis = 0;
+        for (int index = 0; index < collectors.size(); index++)
+        {
+            millis += Math.max(0, collectors.get(index).getCollectionTime());
+        }
+        return millis;
+    }
+
+    public void handleNotification(final Notification notification,
+        final Object handback)
+    {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+            .equals(notification.getType()))
+        {
+            return;
+        }
+        final GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from(
+                (CompositeData) notification.getUserData());
+        final String name = (info.getGcName() + ' ' + info.getGcAction())
+            .toLowerCase();
+        if (name.indexOf("concurrent") == -1 && name.indexOf("cycles") == -1)
+        {
+            synchronized (pauses)
+            {
+                pauses.record(info.getGcInfo().getDuration() * 1000000L);
+            }
+        }
+    }
+
+    /**
+     * @return the pauses, in nanoseconds, although the JVM only reports them
+     *         to the millisecond
+     */
+    LatencyHistogram getPauses()
+    {
+        synchronized (pauses)
+        {
+            final LatencyHistogram copy = new LatencyHistogram();
+            copy.add(pauses);
+            return copy;
+        }
+    }
+
+    /**
+     * @return the total time the collectors reported, between start and
+     *         stop, including any concurrent work
+     */
+    long getCollectionMillis()
+    {
+        return collectionMillis;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.loadtest;
+
+/**
+ * Records latencies in nanoseconds, in buckets that grow with the value, so
+ * that any percentile can be read back to within 1% while using a fixed
+ * amount of memory, however long the test runs.  Each worker keeps it's own,
+ * as recording is not thread safe, and they are merged at the end.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class LatencyHistogram
+{
+    /**
+     * Values are kept to 8 significant bits.  The first of them is always
+     * set, so a bucket is no wider than 1/128th of it's values, which is
+     * better than 1%.
+     */
+    private static final int PRECISION = 8;
+
+    private static final int HALF = 1 << (PRECISION - 1);
+
+    private final long[] counts = new long[(64 - PRECISION) * HALF +
+        (1 << PRECISION)];
+
+    private long count;
+
+    private long total;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max;
+
+    /**
+     * @param nanos the latency of one operation
+     */
+    void record(final long nanos)
+    {
+        final long value = Math.max(0, nanos);
+        counts[index(value)]++;
+        count++;
+        total += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds everything recorded by the other histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    void add(final LatencyHistogram other)
+    {
+        for (int index = 0; index < counts.length; index++)
+        {
+            counts[index] += other.counts[index];
+        }
+        count += other.count;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return the sum of every latency recorded
+     */
+    long getTotal()
+    {
+        return total;
+    }
+
+    long getMin()
+    {
+        return count == 0 ? 0 : min;
+    }
+
+    long getMax()
+    {
+        return max;
+    }
+
+    double getMean()
+    {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * @param percentile such as 99.9
+     *
+     * @return the latency that the given percentage of operations were at or
+     *         under, rounded up to the top of it's bucket
+     */
+    long getPercentile(final double percentile)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+        final long target = Math.max(1,
+            (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++)
+        {
+            seen += counts[index];
+            if (seen >= target)
+            {
+                return Math.min(highest(index), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Small values get a bucket each, and larger ones share a bucket with
+     * the values that agree in their top PRECISION bits.
+     */
+    private static int index(final long value)
+    {
+        if (value < (1 << PRECISION))
+        {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) -
+            (PRECISION - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long highest(final int index)
+    {
+        if (index < (1 << PRECISION))
+        {
+            return index;
+        }
+        final int shift = index / HALF - 1;
+        final long bucket = index - shift * HALF;
+        return ((bucket + 1) << shift) - 1;
+    }
+}
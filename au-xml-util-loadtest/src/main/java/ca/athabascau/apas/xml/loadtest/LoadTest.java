@@ -0,0 +1,242 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replays a directory of real documents through {@link
+ * ca.athabascau.apas.xml.XMLUtil#xslTransformation(Object, Object,
+ * java.util.Map, java.io.OutputStream)} from many threads, to see how our
+ * actual mix of stylesheets and document sizes behaves under load, which
+ * the JMH benchmarks can't tell us.  After a warm up, which is not
+ * measured, it reports throughput, latency percentiles, allocation per
+ * transformation and GC pauses, as text, and optionally as JSON.
+ * <pre>
+ * java -jar target/loadtest.jar -d dir [-m mapping] [-p parameters]
+ *     [-t threads] [-v] [-w seconds] [-s seconds | -n operations]
+ *     [-o report.json]
+ * </pre>
+ * <dl>
+ * <dt>-d</dt><dd>the directory of .xml documents, searched recursively</dd>
+ * <dt>-m</dt><dd>the stylesheet mapping, see {@link Corpus}.  Without it,
+ * each document's xml-stylesheet instruction is used</dd>
+ * <dt>-p</dt><dd>a properties file of parameters, passed to every
+ * transformation</dd>
+ * <dt>-t</dt><dd>the number of threads, the number of processors by
+ * default</dd>
+ * <dt>-v</dt><dd>runs each worker on a virtual thread, which needs Java 21
+ * or later</dd>
+ * <dt>-w</dt><dd>the seconds to warm up for, 10 by default</dd>
+ * <dt>-s</dt><dd>the seconds to measure for, 60 by default</dd>
+ * <dt>-n</dt><dd>measures this many transformations, instead of running for
+ * a fixed time</dd>
+ * <dt>-o</dt><dd>where to write the JSON report</dd>
+ * </dl>
+ * The exit status is 2 if any transformation failed, so that it can gate a
+ * build.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class LoadTest
+{
+    private static final String USAGE = "usage: LoadTest -d directory " +
+        "[-m mapping] [-p parameters] [-t threads] [-v] [-w seconds] " +
+        "[-s seconds | -n operations] [-o report.json]";
+
+    public static void main(final String[] args)
+        throws IOException, InterruptedException
+    {
+        File directory = null;
+        File mapping = null;
+        File parameters = null;
+        File output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean virtual = false;
+        long warmup = 10;
+        long seconds = 60;
+        long operations = -1;
+
+        try
+        {
+            for (int index = 0; index < args.length; index++)
+            {
+                final boolean hasValue = index + 1 < args.length;
+                if ("-d".equals(args[index]) && hasValue)
+                {
+                    directory = new File(args[++index]);
+                }
+                else if ("-m".equals(args[index]) && hasValue)
+                {
+                    mapping = new File(args[++index]);
+                }
+                else if ("-p".equals(args[index]) && hasValue)
+                {
+                    parameters = new File(args[++index]);
+                }
+                else if ("-t".equals(args[index]) && hasValue)
+                {
+                    threads = Integer.parseInt(args[++index]);
+                }
+                else if ("-v".equals(args[index]))
+                {
+                    virtual = true;
+                }
+                else if ("-w".equals(args[index]) && hasValue)
+                {
+                    warmup = Long.parseLong(args[++index]);
+                }
+                else if ("-s".equals(args[index]) && hasValue)
+                {
+                    seconds = Long.parseLong(args[++index]);
+                }
+                else if ("-n".equals(args[index]) && hasValue)
+                {
+                    operations = Long.parseLong(args[++index]);
+                }
+                else if ("-o".equals(args[index]) && hasValue)
+                {
+                    output = new File(args[++index]);
+                }
+                else
+                {
+                    throw new IllegalArgumentException(args[index]);
+                }
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            directory = null;
+        }
+        if (directory == null || threads < 1 || warmup < 0 || seconds < 1)
+        {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        final Corpus corpus = Corpus.load(directory, mapping, parameters);
+        System.out.println("loaded " + corpus.getDocuments().size() +
+            " documents, for " + corpus.getStylesheetNames().size() +
+            " stylesheets");
+
+        if (warmup > 0)
+        {
+            System.out.println("warming up for " + warmup + " s");
+            run(corpus, threads, virtual, Worker.Limit.seconds(warmup));
+        }
+
+        System.out.println(operations < 0 ?
+            "measuring for " + seconds + " s" :
+            "measuring " + operations + " transformations");
+        final GCMonitor gc = new GCMonitor();
+        gc.start();
+        final long start = System.nanoTime();
+        final Worker[] workers = run(corpus, threads, virtual,
+            operations < 0 ? Worker.Limit.seconds(seconds) :
+                Worker.Limit.operations(operations));
+        final long elapsed = System.nanoTime() - start;
+        gc.stop();
+
+        final Report report = new Report(corpus, workers, virtual, elapsed, gc);
+        report.print(System.out);
+        if (output != null)
+        {
+            final Writer writer = new OutputStreamWriter(
+                new FileOutputStream(output), StandardCharsets.UTF_8);
+            try
+            {
+                writer.write(report.toJSON());
+            }
+            finally
+            {
+                writer.close();
+            }
+            System.out.println("wrote " + output);
+        }
+        if (report.getErrors() > 0)
+        {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Runs the workers until the limit is reached, and waits for all of them
+     * to finish.
+     */
+    private static Worker[] run(final Corpus corpus, final int threads,
+        final boolean virtual, final Worker.Limit limit)
+        throws InterruptedException
+    {
+        final int stride = Math.max(1,
+            corpus.getDocuments().size() / threads);
+        final Worker[] workers = new Worker[threads];
+        final Thread[] running = new Thread[threads];
+        for (int index = 0; index < threads; index++)
+        {
+            workers[index] = new Worker(corpus, index * stride, limit);
+            running[index] = newThread(workers[index], "loadtest-" + index,
+                virtual);
+        }
+        for (int index = 0; index < threads; index++)
+        {
+            running[index].start();
+        }
+        for (int index = 0; index < threads; index++)
+        {
+            running[index].join();
+        }
+        return workers;
+    }
+
+    /**
+     * Creates a platform thread, or a virtual one by way of reflection, as
+     * we still build for Java 8.
+     */
+    private static Thread newThread(final Runnable worker, final String name,
+        final boolean virtual)
+    {
+        if (!virtual)
+        {
+            return new Thread(worker, name);
+        }
+        try
+        {
+            final Class<?> builderType =
+                Class.forName("java.lang.Thread$Builder");
+            final Object builder = builderType.getMethod("name", String.class)
+                .invoke(Thread.class.getMethod("ofVirtual").invoke(null), name);
+            return (Thread) builderType.getMethod("unstarted", Runnable.class)
+                .invoke(builder, worker);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(
+                "virtual threads need Java 21 or later", e);
+        }
+    }
+}
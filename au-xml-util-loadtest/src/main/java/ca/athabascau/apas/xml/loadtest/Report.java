@@ -0,0 +1,312 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.loadtest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What a load test measured, gathered from every worker, written out as
+ * text for people and as JSON for keeping and comparing runs.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class Report
+{
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99",
+        "p999"};
+
+    private final Corpus corpus;
+
+    private final int threads;
+
+    private final boolean virtual;
+
+    private final long elapsedNanos;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LatencyHistogram[] stylesheetLatency;
+
+    private final List<String> failures = new ArrayList<String>();
+
+    private long errors;
+
+    private long inputBytes;
+
+    private long outputBytes;
+
+    private long allocatedBytes;
+
+    private final LatencyHistogram pauses;
+
+    private final long collectionMillis;
+
+    /**
+     * @param corpus       the documents that were transformed
+     * @param workers      the workers, once they have all finished
+     * @param virtual      whether the workers ran on virtual threads
+     * @param elapsedNanos how long the workers ran for
+     * @param gc           the collections while they ran
+     */
+    Report(final Corpus corpus, final Worker[] workers, final boolean virtual,
+        final long elapsedNanos, final GCMonitor gc)
+    {
+        this.corpus = corpus;
+        this.threads = workers.length;
+        this.virtual = virtual;
+        this.elapsedNanos = elapsedNanos;
+        stylesheetLatency =
+            new LatencyHistogram[corpus.getStylesheetNames().size()];
+        for (int index = 0; index < stylesheetLatency.length; index++)
+        {
+            stylesheetLatency[index] = new LatencyHistogram();
+        }
+        for (int index = 0; index < workers.length; index++)
+        {
+            final Worker worker = workers[index];
+            final LatencyHistogram[] latencies = worker.getLatencies();
+            for (int stylesheet = 0; stylesheet < latencies.length;
+                 stylesheet++)
+            {
+                stylesheetLatency[stylesheet].add(latencies[stylesheet]);
+                latency.add(latencies[stylesheet]);
+            }
+            errors += worker.getErrors();
+            inputBytes += worker.getInputBytes();
+            outputBytes += worker.getOutputBytes();
+            if (worker.getAllocatedBytes() < 0 || allocatedBytes < 0)
+            {   // one unknown makes the total unknown
+                allocatedBytes = -1;
+            }
+            else
+            {
+                allocatedBytes += worker.getAllocatedBytes();
+            }
+            failures.addAll(worker.getFailures());
+        }
+        pauses = gc.getPauses();
+        collectionMillis = gc.getCollectionMillis();
+    }
+
+    long getErrors()
+    {
+        return errors;
+    }
+
+    private double seconds()
+    {
+        return elapsedNanos / 1e9;
+    }
+
+    private double throughput()
+    {
+        return elapsedNanos == 0 ? 0 : latency.getCount() / seconds();
+    }
+
+    /**
+     * @return the bytes allocated per transformation, or -1 if unknown
+     */
+    private long allocatedPerOperation()
+    {
+        final long operations = latency.getCount() + errors;
+        return allocatedBytes < 0 || operations == 0 ? -1 :
+            allocatedBytes / operations;
+    }
+
+    /**
+     * Writes the report for people to read.
+     *
+     * @param out where to write it
+     */
+    void print(final PrintStream out)
+    {
+        out.println(format("threads          %d%s", threads,
+            virtual ? " (virtual)" : ""));
+        out.println(format("documents        %d, %d bytes",
+            corpus.getDocuments().size(), corpus.getSize()));
+        out.println(format("elapsed          %.1f s", seconds()));
+        out.println(format("operations       %d, %d errors",
+            latency.getCount(), errors));
+        out.println(format("throughput       %.1f ops/s, %.1f MB/s in",
+            throughput(), elapsedNanos == 0 ? 0 :
+                inputBytes / seconds() / (1024 * 1024)));
+        out.println("latency          " + latencyText(latency));
+        out.println("allocation       " + (allocatedPerOperation() < 0 ?
+            "unknown" : allocatedPerOperation() + " bytes/op"));
+        out.println(format("gc pauses        %d, %d ms total, %d ms max, " +
+            "%d ms p99; %d ms collecting", pauses.getCount(),
+            pauses.getTotal() / 1000000, pauses.getMax() / 1000000,
+            pauses.getPercentile(99) / 1000000, collectionMillis));
+        final List<String> names = corpus.getStylesheetNames();
+        for (int index = 0; index < names.size(); index++)
+        {
+            out.println(format("  %s%n    %d ops, %s", names.get(index),
+                stylesheetLatency[index].getCount(),
+                latencyText(stylesheetLatency[index])));
+        }
+        for (int index = 0; index < failures.size(); index++)
+        {
+            out.println("failed " + failures.get(index));
+        }
+    }
+
+    private static String latencyText(final LatencyHistogram histogram)
+    {
+        final StringBuilder text = new StringBuilder();
+        text.append(format("mean %.3f ms", millis(
+            (long) histogram.getMean())));
+        for (int index = 0; index < PERCENTILES.length; index++)
+        {
+            text.append(format(", %s %.3f ms", PERCENTILE_NAMES[index],
+                millis(histogram.getPercentile(PERCENTILES[index]))));
+        }
+        text.append(format(", max %.3f ms", millis(histogram.getMax())));
+        return text.toString();
+    }
+
+    /**
+     * Writes the report as a JSON object, with times in milliseconds.
+     *
+     * @return the JSON
+     */
+    String toJSON()
+    {
+        final StringBuilder json = new StringBuilder(1024);
+        json.append("{\n");
+        json.append("  \"threads\": ").append(threads).append(",\n");
+        json.append("  \"virtualThreads\": ").append(virtual).append(",\n");
+        json.append("  \"documents\": ").append(corpus.getDocuments().size())
+            .append(",\n");
+        json.append("  \"corpusBytes\": ").append(corpus.getSize())
+            .append(",\n");
+        json.append("  \"parameters\": ").append(corpus.getParameters().size())
+            .append(",\n");
+        json.append("  \"elapsedSeconds\": ").append(number(seconds()))
+            .append(",\n");
+        json.append("  \"operations\": ").append(latency.getCount())
+            .append(",\n");
+        json.append("  \"errors\": ").append(errors).append(",\n");
+        json.append("  \"throughput\": ").append(number(throughput()))
+            .append(",\n");
+        json.append("  \"inputBytes\": ").append(inputBytes).append(",\n");
+        json.append("  \"outputBytes\": ").append(outputBytes).append(",\n");
+        json.append("  \"allocatedBytesPerOperation\": ")
+            .append(allocatedPerOperation() < 0 ? "null" :
+                String.valueOf(allocatedPerOperation())).append(",\n");
+        json.append("  \"latencyMillis\": ");
+        latencyJSON(json, latency);
+        json.append(",\n");
+        json.append("  \"gc\": {\"pauses\": ").append(pauses.getCount())
+            .append(", \"totalPauseMillis\": ")
+            .append(pauses.getTotal() / 1000000)
+            .append(", \"maxPauseMillis\": ").append(pauses.getMax() / 1000000)
+            .append(", \"p99PauseMillis\": ")
+            .append(pauses.getPercentile(99) / 1000000)
+            .append(", \"collectionMillis\": ").append(collectionMillis)
+            .append("},\n");
+        json.append("  \"stylesheets\": [");
+        final List<String> names = corpus.getStylesheetNames();
+        for (int index = 0; index < names.size(); index++)
+        {
+            json.append(index == 0 ? "\n" : ",\n");
+            json.append("    {\"stylesheet\": ");
+            string(json, names.get(index));
+            json.append(", \"operations\": ")
+                .append(stylesheetLatency[index].getCount())
+                .append(", \"latencyMillis\": ");
+            latencyJSON(json, stylesheetLatency[index]);
+            json.append('}');
+        }
+        json.append("\n  ],\n");
+        json.append("  \"failures\": [");
+        for (int index = 0; index < failures.size(); index++)
+        {
+            json.append(index == 0 ? "\n    " : ",\n    ");
+            string(json, failures.get(index));
+        }
+        json.append(failures.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static void latencyJSON(final StringBuilder json,
+        final LatencyHistogram histogram)
+    {
+        json.append("{\"min\": ").append(number(millis(histogram.getMin())))
+            .append(", \"mean\": ")
+            .append(number(millis((long) histogram.getMean())));
+        for (int index = 0; index < PERCENTILES.length; index++)
+        {
+            json.append(", \"").append(PERCENTILE_NAMES[index]).append("\": ")
+                .append(number(millis(histogram.getPercentile(
+                    PERCENTILES[index]))));
+        }
+        json.append(", \"max\": ").append(number(millis(histogram.getMax())))
+            .append('}');
+    }
+
+    private static void string(final StringBuilder json, final String value)
+    {
+        json.append('"');
+        for (int index = 0; index < value.length(); index++)
+        {
+            final char c = value.charAt(index);
+            if (c == '"' || c == '\\')
+            {
+                json.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                json.append(format("\\u%04x", (int) c));
+            }
+            else
+            {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static double millis(final long nanos)
+    {
+        return nanos / 1e6;
+    }
+
+    private static String number(final double value)
+    {
+        return format("%.3f", value);
+    }
+
+    /**
+     * Always uses a '.' for the decimal point, whatever the default locale.
+     */
+    private static String format(final String format, final Object... args)
+    {
+        return String.format(Locale.ROOT, format, args);
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.loadtest;
+
+import ca.athabascau.apas.xml.XMLUtil;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transforms the documents of the corpus one after the other, on one
+ * thread, until the limit is reached, timing each transformation.  Each
+ * worker starts at a different document, so that the threads between them
+ * keep the whole mix of stylesheets busy at once.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class Worker implements Runnable
+{
+    /**
+     * How many failures each worker keeps the message of.
+     */
+    private static final int MAXIMUM_FAILURES = 5;
+
+    private final Corpus corpus;
+
+    private final Limit limit;
+
+    private final LatencyHistogram[] latencies;
+
+    private final Discard out = new Discard();
+
+    private final List<String> failures = new ArrayList<String>();
+
+    private int next;
+
+    private long errors;
+
+    private long inputBytes;
+
+    private long allocatedBytes = -1;
+
+    /**
+     * @param corpus the documents
+     * @param first  the index of the document to start with
+     * @param limit  when to stop, shared by every worker
+     */
+    Worker(final Corpus corpus, final int first, final Limit limit)
+    {
+        this.corpus = corpus;
+        this.limit = limit;
+        this.next = first % corpus.getDocuments().size();
+        latencies = new LatencyHistogram[corpus.getStylesheetNames().size()];
+        for (int index = 0; index < latencies.length; index++)
+        {
+            latencies[index] = new LatencyHistogram();
+        }
+    }
+
+    public void run()
+    {
+        final List<Corpus.Document> documents = corpus.getDocuments();
+        final long allocatedAtStart = allocatedBytes();
+        while (limit.next())
+        {
+            final Corpus.Document document = documents.get(next);
+            next = (next + 1) % documents.size();
+            final long start = System.nanoTime();
+            try
+            {
+                XMLUtil.xslTransformation(document.getContent(),
+                    corpus.getStylesheet(document.getStylesheet()),
+                    corpus.getParameters(), out);
+                latencies[document.getStylesheet()].record(
+                    System.nanoTime() - start);
+                inputBytes += document.getContent().length;
+            }
+            catch (Exception e)
+            {   // keep going, and report how often it happened
+                errors++;
+                if (failures.size() < MAXIMUM_FAILURES)
+                {
+                    failures.add(document.getName() + ": " + e);
+                }
+            }
+        }
+        final long allocatedAtEnd = allocatedBytes();
+        if (allocatedAtStart >= 0 && allocatedAtEnd >= 0)
+        {
+            allocatedBytes = allocatedAtEnd - allocatedAtStart;
+        }
+    }
+
+    /**
+     * @return the bytes allocated by this thread so far, or -1 if the JVM
+     *         can't tell, as with virtual threads
+     */
+    private static long allocatedBytes()
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            final com.sun.management.ThreadMXBean allocations =
+                (com.sun.management.ThreadMXBean) threads;
+            if (allocations.isThreadAllocatedMemorySupported() &&
+                allocations.isThreadAllocatedMemoryEnabled())
+            {
+                return allocations.getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the latencies of the successful transformations, one
+     *         histogram per stylesheet
+     */
+    LatencyHistogram[] getLatencies()
+    {
+        return latencies;
+    }
+
+    long getErrors()
+    {
+        return errors;
+    }
+
+    List<String> getFailures()
+    {
+        return failures;
+    }
+
+    long getInputBytes()
+    {
+        return inputBytes;
+    }
+
+    long getOutputBytes()
+    {
+        return out.count;
+    }
+
+    /**
+     * @return the bytes allocated while running, or -1 if unknown
+     */
+    long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    /**
+     * Counts the transformed output, and throws it away.
+     */
+    private static final class Discard extends OutputStream
+    {
+        private long count;
+
+        public void write(final int b)
+        {
+            count++;
+        }
+
+        public void write(final byte[] b, final int off, final int len)
+        {
+            count += len;
+        }
+    }
+
+    /**
+     * When the workers stop; after a number of transformations between
+     * them, or at a point in time.
+     */
+    static final class Limit
+    {
+        private final long deadline;
+
+        private final AtomicLong remaining;
+
+        private Limit(final long deadline, final AtomicLong remaining)
+        {
+            this.deadline = deadline;
+            this.remaining = remaining;
+        }
+
+        /**
+         * @param seconds how long to run for, from now
+         *
+         * @return the limit
+         */
+        static Limit seconds(final long seconds)
+        {
+            return new Limit(System.nanoTime() + seconds * 1000000000L, null);
+        }
+
+        /**
+         * @param operations how many transformations to run, between all of
+         *                   the workers
+         *
+         * @return the limit
+         */
+        static Limit operations(final long operations)
+        {
+            return new Limit(0, new AtomicLong(operations));
+        }
+
+        /**
+         * @return true if the caller should run another transformation
+         */
+        boolean next()
+        {
+            if (Thread.currentThread().isInterrupted())
+            {
+                return false;
+            }
+            if (remaining != null)
+            {
+                return remaining.getAndDecrement() > 0;
+            }
+            return System.nanoTime() - deadline < 0;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml.loadtest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests recording latencies and reading back their percentiles.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class LatencyHistogramTest extends TestCase
+{
+    public void testEmpty()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("count", 0, histogram.getCount());
+        assertEquals("min", 0, histogram.getMin());
+        assertEquals("max", 0, histogram.getMax());
+        assertEquals("mean", 0.0, histogram.getMean(), 0.0);
+        assertEquals("p99", 0, histogram.getPercentile(99));
+    }
+
+    public void testSmallValuesAreExact()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 200; value++)
+        {
+            histogram.record(value);
+        }
+        assertEquals("p50", 100, histogram.getPercentile(50));
+        assertEquals("p1", 2, histogram.getPercentile(1));
+        assertEquals("p100", 200, histogram.getPercentile(100));
+    }
+
+    /**
+     * Every value, from nanoseconds to hours, and on either side of each
+     * power of two, must be reported no lower than it was and within 1%.
+     */
+    public void testWithinOnePercent()
+    {
+        for (double value = 100; value < 1e13; value *= 1.013)
+        {
+            assertWithinOnePercent((long) value);
+        }
+        for (int bit = 8; bit < 44; bit++)
+        {
+            assertWithinOnePercent((1L << bit) - 1);
+            assertWithinOnePercent(1L << bit);
+            assertWithinOnePercent((1L << bit) + 1);
+        }
+    }
+
+    public void testPercentiles()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++)
+        {
+            histogram.record(micros * 1000);
+        }
+        assertNear("p50", 5000000, histogram.getPercentile(50));
+        assertNear("p90", 9000000, histogram.getPercentile(90));
+        assertNear("p99", 9900000, histogram.getPercentile(99));
+        assertNear("p99.9", 9990000, histogram.getPercentile(99.9));
+        assertEquals("p100", 10000000, histogram.getPercentile(100));
+    }
+
+    public void testAdd()
+    {
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++)
+        {
+            first.record(value * 1000);
+            second.record((value + 100) * 1000);
+        }
+        second.record(-5);
+        first.add(second);
+        assertEquals("count", 201, first.getCount());
+        assertEquals("min", 0, first.getMin());
+        assertEquals("max", 200000, first.getMax());
+        assertEquals("total", 20100000, first.getTotal());
+        assertEquals("mean", 20100000.0 / 201, first.getMean(), 0.001);
+        assertNear("p50", 100000, first.getPercentile(50));
+        assertEquals("p0", 0, first.getPercentile(0));
+
+        first.add(new LatencyHistogram());
+        assertEquals("adding an empty one", 0, first.getMin());
+        assertEquals("count", 201, first.getCount());
+    }
+
+    private static void assertWithinOnePercent(final long value)
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        histogram.record(value * 2);
+        assertNear(String.valueOf(value), value, histogram.getPercentile(50));
+    }
+
+    private static void assertNear(final String message, final long expected,
+        final long actual)
+    {
+        assertTrue(message + " was reported as " + actual,
+            actual >= expected && actual <= expected + expected / 100);
+    }
+}
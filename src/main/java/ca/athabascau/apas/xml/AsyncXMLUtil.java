@@ -0,0 +1,502 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.Result;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the {@link XMLUtil} parsing and transformation methods in the
+ * background, so that callers are not blocked while they run.
+ * <p/>
+ * At most maximumConcurrent operations run at once; the rest wait in a queue
+ * without holding a thread, and are started as running ones finish.  This
+ * keeps a burst of requests from building more documents than the heap can
+ * hold.  The queue itself may be limited, in which case operations beyond
+ * the limit fail straight away with a RejectedExecutionException.
+ * <p/>
+ * Unless an executor is given, one is created: a pool of maximumConcurrent
+ * daemon threads.  Call {@link #shutdown()} when done with it.
+ * <p/>
+ * The parsers and transformers behind XMLUtil, the factories of the
+ * stylesheet and schema caches, and the {@link XPathCache}'s compiled
+ * expressions are kept per thread, so they are only reused when the threads
+ * are.  An executor that starts a new thread for every task, such as Java
+ * 21's virtual thread per task executor, builds them all again for every
+ * operation.  If you must give it such an executor, at least switch {@link
+ * XMLUtil#setXMLPool(XMLPool) the pool} to {@link XMLPool.Mode#BOUNDED}.
+ * <p/>
+ * Streams and writers passed in are neither closed, nor touched by the
+ * caller until the returned future completes.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class AsyncXMLUtil
+{
+    private static final Logger logger = Logger.getLogger(AsyncXMLUtil.class);
+
+    /**
+     * The default number of operations that may run at once.
+     */
+    public static final int DEFAULT_MAXIMUM_CONCURRENT =
+        Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Indicates that the queue of waiting operations is not limited.
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final Executor executor;
+
+    /**
+     * Set if we created the executor, and so must shut it down.
+     */
+    private final ExecutorService ownExecutor;
+
+    private final int maximumConcurrent;
+
+    private final int maximumQueued;
+
+    private final Semaphore running;
+
+    private final Queue<Operation<?>> waiting;
+
+    private final AtomicInteger waitingCount;
+
+    /**
+     * Creates a facade running up to {@link #DEFAULT_MAXIMUM_CONCURRENT}
+     * operations at once, with an unlimited queue, on a new default
+     * executor.
+     */
+    public AsyncXMLUtil()
+    {
+        this(DEFAULT_MAXIMUM_CONCURRENT, UNLIMITED);
+    }
+
+    /**
+     * Creates a facade on a new default executor.
+     *
+     * @param maximumConcurrent the most operations that may run at once
+     * @param maximumQueued     the most operations that may wait to run, or
+     *                          {@link #UNLIMITED}
+     */
+    public AsyncXMLUtil(final int maximumConcurrent, final int maximumQueued)
+    {
+        this(null, newDefaultExecutor(maximumConcurrent), maximumConcurrent,
+            maximumQueued);
+    }
+
+    /**
+     * Creates a facade on the given executor, which is not shut down by
+     * {@link #shutdown()}.
+     *
+     * @param executor          runs the operations
+     * @param maximumConcurrent the most operations that may run at once
+     * @param maximumQueued     the most operations that may wait to run, or
+     *                          {@link #UNLIMITED}
+     */
+    public AsyncXMLUtil(final Executor executor, final int maximumConcurrent,
+        final int maximumQueued)
+    {
+        this(executor, null, maximumConcurrent, maximumQueued);
+    }
+
+    private AsyncXMLUtil(final Executor executor,
+        final ExecutorService ownExecutor, final int maximumConcurrent,
+        final int maximumQueued)
+    {
+        if (executor == null && ownExecutor == null)
+        {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (maximumConcurrent < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumConcurrent must be greater than zero: " +
+                    maximumConcurrent);
+        }
+        if (maximumQueued < 0)
+        {
+            throw new IllegalArgumentException(
+                "maximumQueued must not be negative: " + maximumQueued);
+        }
+        this.executor = executor == null ? ownExecutor : executor;
+        this.ownExecutor = ownExecutor;
+        this.maximumConcurrent = maximumConcurrent;
+        this.maximumQueued = maximumQueued;
+        running = new Semaphore(maximumConcurrent);
+        waiting = new ConcurrentLinkedQueue<Operation<?>>();
+        waitingCount = new AtomicInteger();
+    }
+
+    /**
+     * Creates the executor used when none is given: a fixed pool of daemon
+     * threads.  Since no more than maximumConcurrent operations are handed
+     * to it at once, the pool never needs to queue, and each thread keeps
+     * reusing it's own parsers and transformers.
+     *
+     * @param maximumConcurrent the most operations that will run at once
+     *
+     * @return a new executor, which the caller must shut down
+     */
+    public static ExecutorService newDefaultExecutor(
+        final int maximumConcurrent)
+    {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(maximumConcurrent,
+            new ThreadFactory()
+            {
+                public Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable,
+                        "au-xml-util-async-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * @param xml the string representation of the XML
+     *
+     * @return the Document, see {@link XMLUtil#stringToDocument(String)}
+     */
+    public CompletableFuture<Document> stringToDocument(final String xml)
+    {
+        return submit(new Callable<Document>()
+        {
+            public Document call() throws Exception
+            {
+                return XMLUtil.stringToDocument(xml);
+            }
+        });
+    }
+
+    /**
+     * @param is the input stream to load from, which is closed when done
+     *
+     * @return the Document, see {@link XMLUtil#loadXMLFrom(InputStream)}
+     */
+    public CompletableFuture<Document> loadXMLFrom(final InputStream is)
+    {
+        return submit(new Callable<Document>()
+        {
+            public Document call() throws Exception
+            {
+                return XMLUtil.loadXMLFrom(is);
+            }
+        });
+    }
+
+    /**
+     * @param is the input source to load from
+     *
+     * @return the Document, see {@link XMLUtil#loadXMLFrom(InputSource)}
+     */
+    public CompletableFuture<Document> loadXMLFrom(final InputSource is)
+    {
+        return submit(new Callable<Document>()
+        {
+            public Document call() throws Exception
+            {
+                return XMLUtil.loadXMLFrom(is);
+            }
+        });
+    }
+
+    /**
+     * @param node the node to serialize
+     *
+     * @return the XML, see {@link XMLUtil#documentToString(Node)}
+     */
+    public CompletableFuture<String> documentToString(final Node node)
+    {
+        return submit(new Callable<String>()
+        {
+            public String call() throws Exception
+            {
+                return XMLUtil.documentToString(node);
+            }
+        });
+    }
+
+    /**
+     * @param xml        see {@link XMLUtil#xslTransformation(Object, Object,
+     *                   Map)}
+     * @param xsl        see {@link XMLUtil#xslTransformation(Object, Object,
+     *                   Map)}
+     * @param parameters a map of parameters to pass to the XSL
+     *
+     * @return the transformed xml
+     */
+    public CompletableFuture<String> xslTransformation(final Object xml,
+        final Object xsl, final Map<String, ?> parameters)
+    {
+        return submit(new Callable<String>()
+        {
+            public String call() throws Exception
+            {
+                return XMLUtil.xslTransformation(xml, xsl, parameters);
+            }
+        });
+    }
+
+    /**
+     * @param xml        see {@link XMLUtil#xslTransformation(Object, Object,
+     *                   Map)}
+     * @param xsl        see {@link XMLUtil#xslTransformation(Object, Object,
+     *                   Map)}
+     * @param parameters a map of parameters to pass to the XSL
+     * @param out        the stream to write the transformed xml to
+     *
+     * @return completes once the transformed xml is written and flushed
+     */
+    public CompletableFuture<Void> xslTransformation(final Object xml,
+        final Object xsl, final Map<String, ?> parameters,
+        final OutputStream out)
+    {
+        return submit(new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                XMLUtil.xslTransformation(xml, xsl, parameters, out);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param xml        see {@link XMLUtil#xslTransformation(Object, Object,
+     *                   Map)}
+     * @param xsl        see {@link XMLUtil#xslTransformation(Object, Object,
+     *                   Map)}
+     * @param parameters a map of parameters to pass to the XSL
+     * @param writer     the writer to write the transformed xml to
+     *
+     * @return completes once the transformed xml is written and flushed
+     */
+    public CompletableFuture<Void> xslTransformation(final Object xml,
+        final Object xsl, final Map<String, ?> parameters,
+        final Writer writer)
+    {
+        return submit(new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                XMLUtil.xslTransformation(xml, xsl, parameters, writer);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param xml        see {@link XMLUtil#xslTransformation(Object, Object,
+     *                   Map)}
+     * @param xsl        see {@link XMLUtil#xslTransformation(Object, Object,
+     *                   Map)}
+     * @param parameters a map of parameters to pass to the XSL
+     * @param result     where the transformed xml goes
+     *
+     * @return completes once the transformation is done
+     */
+    public CompletableFuture<Void> xslTransformation(final Object xml,
+        final Object xsl, final Map<String, ?> parameters,
+        final Result result)
+    {
+        return submit(new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                XMLUtil.xslTransformation(xml, xsl, parameters, result);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues the operation, and starts as many waiting operations as there
+     * are free slots for.
+     *
+     * @param operation the operation to run
+     *
+     * @return the future result of the operation
+     */
+    <T> CompletableFuture<T> submit(final Callable<T> operation)
+    {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        if (waitingCount.incrementAndGet() > maximumQueued)
+        {
+            waitingCount.decrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException(
+                "more than " + maximumQueued + " operations are waiting"));
+            return future;
+        }
+        waiting.add(new Operation<T>(operation, future));
+        startWaiting();
+        return future;
+    }
+
+    private void startWaiting()
+    {
+        while (!waiting.isEmpty() && running.tryAcquire())
+        {
+            final Operation<?> next = waiting.poll();
+            if (next == null)
+            {   // someone else took it
+                running.release();
+                continue;
+            }
+            waitingCount.decrementAndGet();
+            final Runnable task = new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        next.run();
+                    }
+                    finally
+                    {
+                        running.release();
+                        startWaiting();
+                    }
+                }
+            };
+            try
+            {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e)
+            {
+                logger.warn("executor rejected an operation", e);
+                running.release();
+                next.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return the most operations that may run at once
+     */
+    public int getMaximumConcurrent()
+    {
+        return maximumConcurrent;
+    }
+
+    /**
+     * @return the most operations that may wait to run
+     */
+    public int getMaximumQueued()
+    {
+        return maximumQueued;
+    }
+
+    /**
+     * @return the number of operations running right now
+     */
+    public int getRunningCount()
+    {
+        return maximumConcurrent - running.availablePermits();
+    }
+
+    /**
+     * @return the number of operations waiting to run
+     */
+    public int getQueuedCount()
+    {
+        return waitingCount.get();
+    }
+
+    /**
+     * Shuts down the executor, if it was created by this facade.  Operations
+     * already running finish, but no more will be started.
+     */
+    public void shutdown()
+    {
+        if (ownExecutor != null)
+        {
+            ownExecutor.shutdown();
+        }
+    }
+
+    public String toString()
+    {
+        return "AsyncXMLUtil{running=" + getRunningCount() + ", queued=" +
+            getQueuedCount() + ", maximumConcurrent=" + maximumConcurrent +
+            ", maximumQueued=" + maximumQueued + ", executor=" + executor +
+            '}';
+    }
+
+    /**
+     * An operation waiting for a free slot, along with the future it
+     * completes.
+     */
+    private static final class Operation<T> implements Runnable
+    {
+        private final Callable<T> callable;
+
+        private final CompletableFuture<T> future;
+
+        private Operation(final Callable<T> callable,
+            final CompletableFuture<T> future)
+        {
+            this.callable = callable;
+            this.future = future;
+        }
+
+        public void run()
+        {
+            if (future.isDone())
+            {   // cancelled while it waited
+                return;
+            }
+            try
+            {
+                future.complete(callable.call());
+            }
+            catch (Throwable e)
+            {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
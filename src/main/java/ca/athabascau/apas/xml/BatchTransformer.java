@@ -0,0 +1,548 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Transforms many documents with the same stylesheet, in parallel.  The
+ * stylesheet is compiled once, through the {@link XMLUtil#getTemplatesCache()
+ * shared cache}, and each worker thread reuses a single Transformer of it's
+ * own for every document it is handed, so the workers never contend with
+ * each other.
+ * <p/>
+ * The items are read from the Iterable or Stream only as fast as the workers
+ * finish them, so there are never more than maximumInFlight documents, and
+ * their open sinks, in memory at once.  An item that fails is recorded in the
+ * {@link Report}, and the rest of the batch carries on.
+ * <p/>
+ * A batch transformer may be shared, and may run any number of batches at
+ * the same time.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class BatchTransformer
+{
+    private static final Logger logger =
+        Logger.getLogger(BatchTransformer.class);
+
+    private static final int FILE_BUFFER_SIZE = 8192;
+
+    private final Templates templates;
+
+    /**
+     * Names the stylesheet in the {@link XMLMetrics}.
+     */
+    private final String stylesheet;
+
+    private final Executor executor;
+
+    private final int maximumInFlight;
+
+    /**
+     * Each worker's own Transformer.  A Transformer that fails part way
+     * through is thrown away rather than trusted with the next item.
+     */
+    private final ThreadLocal<Transformer> transformers =
+        new ThreadLocal<Transformer>();
+
+    /**
+     * Creates a batch transformer that runs on the common ForkJoinPool, with
+     * up to twice as many items in flight as the pool has threads.
+     *
+     * @param xsl a String classpath name, or a java.io.File object, see
+     *            {@link XMLUtil#xslTransformation(Object, Object, Map)}
+     *
+     * @throws TransformerException if the stylesheet could not be compiled
+     * @throws IOException          if an IO error occurs reading the
+     *                              stylesheet
+     */
+    public BatchTransformer(final Object xsl)
+        throws TransformerException, IOException
+    {
+        this(xsl, ForkJoinPool.commonPool(),
+            ForkJoinPool.commonPool().getParallelism() * 2);
+    }
+
+    /**
+     * Creates a batch transformer that runs on the given executor.
+     *
+     * @param xsl             a String classpath name, or a java.io.File
+     *                        object, see {@link XMLUtil#xslTransformation(Object,
+     *                        Object, Map)}
+     * @param executor        runs the transformations, usually a
+     *                        ForkJoinPool or a fixed thread pool
+     * @param maximumInFlight the most items that may be submitted to the
+     *                        executor and not yet finished, which should be
+     *                        at least the number of threads in the executor
+     *
+     * @throws TransformerException if the stylesheet could not be compiled
+     * @throws IOException          if an IO error occurs reading the
+     *                              stylesheet
+     */
+    public BatchTransformer(final Object xsl, final Executor executor,
+        final int maximumInFlight) throws TransformerException, IOException
+    {
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (maximumInFlight < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumInFlight must be greater than zero: " +
+                    maximumInFlight);
+        }
+        this.templates = XMLUtil.getTemplatesCache().getTemplates(xsl);
+        this.stylesheet = TemplatesCache.keyFor(xsl instanceof File ?
+            ((File) xsl).getAbsoluteFile() : xsl);
+        this.executor = executor;
+        this.maximumInFlight = maximumInFlight;
+    }
+
+    /**
+     * Transforms every item, returning once they have all finished.
+     *
+     * @param items the items to transform, read lazily
+     *
+     * @return what happened
+     *
+     * @throws InterruptedException if this thread is interrupted while
+     *                              waiting for the workers, in which case the
+     *                              items already handed to them still run
+     */
+    public Report transform(final Stream<Item> items)
+        throws InterruptedException
+    {
+        return transform(new Iterable<Item>()
+        {
+            public Iterator<Item> iterator()
+            {
+                return items.iterator();
+            }
+        });
+    }
+
+    /**
+     * Transforms every item, returning once they have all finished.
+     *
+     * @param items the items to transform, read lazily
+     *
+     * @return what happened
+     *
+     * @throws InterruptedException if this thread is interrupted while
+     *                              waiting for the workers, in which case the
+     *                              items already handed to them still run
+     */
+    public Report transform(final Iterable<Item> items)
+        throws InterruptedException
+    {
+        final long start = System.currentTimeMillis();
+        final Semaphore inFlight = new Semaphore(maximumInFlight);
+        final AtomicLong succeeded = new AtomicLong();
+        final Queue<Failure> failures = new ConcurrentLinkedQueue<Failure>();
+        long index = 0;
+
+        for (final Item item : items)
+        {
+            if (item == null)
+            {
+                throw new IllegalArgumentException(
+                    "item " + index + " is null");
+            }
+            final long itemIndex = index++;
+            inFlight.acquire();
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            transform(item);
+                            succeeded.incrementAndGet();
+                        }
+                        catch (Exception e)
+                        {
+                            if (logger.isDebugEnabled())
+                            {
+                                logger.debug("item " + itemIndex + " failed",
+                                    e);
+                            }
+                            failures.add(new Failure(itemIndex, item, e));
+                        }
+                        finally
+                        {
+                            inFlight.release();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                inFlight.release();
+                failures.add(new Failure(itemIndex, item, e));
+            }
+        }
+
+        // every permit back means every item has finished
+        inFlight.acquire(maximumInFlight);
+        inFlight.release(maximumInFlight);
+
+        final Report report = new Report(index, succeeded.get(),
+            new ArrayList<Failure>(failures),
+            System.currentTimeMillis() - start);
+        if (report.getFailureCount() > 0)
+        {
+            logger.warn(report);
+        }
+        return report;
+    }
+
+    private void transform(final Item item) throws Exception
+    {
+        Transformer transformer = transformers.get();
+        if (transformer == null)
+        {
+            transformer = templates.newTransformer();
+            transformer.setErrorListener(
+                new ExceptionErrorListener(XMLMetrics.TRANSFORM, stylesheet));
+            transformers.set(transformer);
+        }
+        boolean done = false;
+        final Probe probe = Probe.start(XMLMetrics.TRANSFORM, stylesheet);
+        try
+        {
+            final Map<String, ?> parameters = item.getParameters();
+            if (parameters != null)
+            {
+                final Iterator<String> keyIt = parameters.keySet().iterator();
+                while (keyIt.hasNext())
+                {
+                    final String key = keyIt.next();
+                    transformer.setParameter(key, parameters.get(key));
+                }
+            }
+            item.transform(transformer);
+            done = true;
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+            if (done)
+            {
+                transformer.clearParameters();
+            }
+            else
+            {
+                transformers.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the most items that may be in flight at once
+     */
+    public int getMaximumInFlight()
+    {
+        return maximumInFlight;
+    }
+
+    /**
+     * One document to transform, with it's own parameters and sink.
+     */
+    public static final class Item
+    {
+        private final Object xml;
+
+        private final Map<String, ?> parameters;
+
+        private final Result result;
+
+        private final File file;
+
+        /**
+         * Creates an item that writes to the given result.  If it is a
+         * StreamResult, it's stream or writer is flushed, but not closed.
+         *
+         * @param xml        the xml, as described by {@link
+         *                   XMLUtil#xslTransformation(Object, Object, Map)}
+         * @param parameters the parameters to pass to the stylesheet, or null
+         * @param result     where the transformed xml goes
+         */
+        public Item(final Object xml, final Map<String, ?> parameters,
+            final Result result)
+        {
+            this(xml, parameters, result, null);
+            if (result == null)
+            {
+                throw new IllegalArgumentException("result must not be null");
+            }
+        }
+
+        /**
+         * Creates an item that writes to a file.  The file is only opened
+         * when the item is transformed, and is closed when it is done, so
+         * a batch never has more than maximumInFlight files open.  If the
+         * transformation fails, whatever was written is left in the file.
+         *
+         * @param xml        the xml, as described by {@link
+         *                   XMLUtil#xslTransformation(Object, Object, Map)}
+         * @param parameters the parameters to pass to the stylesheet, or null
+         * @param file       the file to write the transformed xml to
+         */
+        public Item(final Object xml, final Map<String, ?> parameters,
+            final File file)
+        {
+            this(xml, parameters, null, file);
+            if (file == null)
+            {
+                throw new IllegalArgumentException("file must not be null");
+            }
+        }
+
+        private Item(final Object xml, final Map<String, ?> parameters,
+            final Result result, final File file)
+        {
+            if (xml == null)
+            {
+                throw new IllegalArgumentException("xml must not be null");
+            }
+            this.xml = xml;
+            this.parameters = parameters;
+            this.result = result;
+            this.file = file;
+        }
+
+        public Object getXML()
+        {
+            return xml;
+        }
+
+        public Map<String, ?> getParameters()
+        {
+            return parameters;
+        }
+
+        /**
+         * @return the result, or null if this item writes to a file
+         */
+        public Result getResult()
+        {
+            return result;
+        }
+
+        /**
+         * @return the file, or null if this item writes to a result
+         */
+        public File getFile()
+        {
+            return file;
+        }
+
+        private void transform(final Transformer transformer)
+            throws TransformerException, IOException
+        {
+            if (file == null)
+            {
+                transformer.transform(XMLUtil.toSource(xml), result);
+                if (result instanceof StreamResult)
+                {
+                    final StreamResult stream = (StreamResult) result;
+                    if (stream.getOutputStream() != null)
+                    {
+                        stream.getOutputStream().flush();
+                    }
+                    if (stream.getWriter() != null)
+                    {
+                        stream.getWriter().flush();
+                    }
+                }
+                return;
+            }
+
+            final OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(file), FILE_BUFFER_SIZE);
+            try
+            {
+                final StreamResult fileResult = new StreamResult(out);
+                fileResult.setSystemId(file);
+                transformer.transform(XMLUtil.toSource(xml), fileResult);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+
+        public String toString()
+        {
+            return "Item{xml=" + xml.getClass().getName() + ", output=" +
+                (file == null ? (Object) result : file) + '}';
+        }
+    }
+
+    /**
+     * An item that could not be transformed.
+     */
+    public static final class Failure
+    {
+        private final long index;
+
+        private final Item item;
+
+        private final Exception exception;
+
+        private Failure(final long index, final Item item,
+            final Exception exception)
+        {
+            this.index = index;
+            this.item = item;
+            this.exception = exception;
+        }
+
+        /**
+         * @return the position of the item in the batch, starting at 0
+         */
+        public long getIndex()
+        {
+            return index;
+        }
+
+        public Item getItem()
+        {
+            return item;
+        }
+
+        public Exception getException()
+        {
+            return exception;
+        }
+
+        public String toString()
+        {
+            return "item " + index + ": " + exception;
+        }
+    }
+
+    /**
+     * The outcome of a batch.
+     */
+    public static final class Report
+    {
+        private final long itemCount;
+
+        private final long successCount;
+
+        private final List<Failure> failures;
+
+        private final long elapsedMillis;
+
+        private Report(final long itemCount, final long successCount,
+            final List<Failure> failures, final long elapsedMillis)
+        {
+            Collections.sort(failures, new Comparator<Failure>()
+            {
+                public int compare(final Failure first, final Failure second)
+                {
+                    return Long.compare(first.index, second.index);
+                }
+            });
+            this.itemCount = itemCount;
+            this.successCount = successCount;
+            this.failures = Collections.unmodifiableList(failures);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getItemCount()
+        {
+            return itemCount;
+        }
+
+        public long getSuccessCount()
+        {
+            return successCount;
+        }
+
+        public long getFailureCount()
+        {
+            return failures.size();
+        }
+
+        /**
+         * @return the failed items, in batch order
+         */
+        public List<Failure> getFailures()
+        {
+            return failures;
+        }
+
+        public long getElapsedMillis()
+        {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return true if every item was transformed
+         */
+        public boolean isSuccessful()
+        {
+            return failures.isEmpty() && successCount == itemCount;
+        }
+
+        public String toString()
+        {
+            return "batch of " + itemCount + " items: " + successCount +
+                " succeeded, " + failures.size() + " failed, in " +
+                elapsedMillis + "ms" +
+                (failures.isEmpty() ? "" : ", first failure " + failures.get(0));
+        }
+    }
+}
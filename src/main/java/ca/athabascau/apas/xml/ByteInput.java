@@ -0,0 +1,244 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Vector;
+
+/**
+ * Turns raw bytes into InputStreams for the parser, so that the parser
+ * detects the encoding itself, and the xml is never decoded into a String
+ * first.
+ * <p/>
+ * Files at least {@link XMLUtil#MAPPING_THRESHOLD_PROPERTY} bytes long are
+ * memory mapped, and smaller ones are read in one go.  Either way there is
+ * nothing left open for the parser to close.  Only a file too big for a
+ * byte[], on a file system that can't map it, is streamed from disk.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class ByteInput
+{
+    private static final Logger logger = Logger.getLogger(ByteInput.class);
+
+    private static final long mappingThreshold;
+
+    /**
+     * The most a single ByteBuffer, or byte[], can hold.
+     */
+    private static final long MAXIMUM_CHUNK = Integer.MAX_VALUE;
+
+    static
+    {
+        final String threshold = System.getProperty(
+            XMLUtil.MAPPING_THRESHOLD_PROPERTY);
+        long value = XMLUtil.DEFAULT_MAPPING_THRESHOLD;
+        if (threshold != null)
+        {
+            try
+            {
+                value = Long.parseLong(threshold.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                logger.warn("invalid " + XMLUtil.MAPPING_THRESHOLD_PROPERTY +
+                    " \"" + threshold + "\", using " + value);
+            }
+        }
+        mappingThreshold = value;
+    }
+
+    private ByteInput()
+    {
+    }
+
+    /**
+     * Reads the buffer's remaining bytes, without moving it's position.
+     *
+     * @param buffer a heap or direct buffer
+     *
+     * @return a stream over the buffer
+     */
+    static InputStream stream(final ByteBuffer buffer)
+    {
+        if (buffer.hasArray())
+        {
+            return new ByteArrayInputStream(buffer.array(),
+                buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * Opens the file, memory mapping it when it is at least the mapping
+     * threshold long, and the file system supports mapping.  Files too big
+     * for one mapping are mapped in chunks, which are read one after the
+     * other.
+     *
+     * @param path the file
+     *
+     * @return a stream over the file's content, which needs no closing
+     *         unless the file is too big to read onto the heap, and could
+     *         not be mapped
+     *
+     * @throws IOException if the file could not be read
+     */
+    static InputStream stream(final Path path) throws IOException
+    {
+        final long size;
+        final FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.READ);
+        try
+        {
+            size = channel.size();
+            if (size >= mappingThreshold)
+            {
+                try
+                {   // the mapping stays valid after the channel is closed
+                    return map(channel, size, MAXIMUM_CHUNK);
+                }
+                catch (UnsupportedOperationException e)
+                {
+                    logger.debug("unable to map " + path, e);
+                }
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+        if (size > MAXIMUM_CHUNK)
+        {   // too big for a byte[], so it is read as the parser goes
+            return new BufferedInputStream(Files.newInputStream(path),
+                XMLUtil.BUFFER_CAPACITY);
+        }
+        return new ByteArrayInputStream(Files.readAllBytes(path));
+    }
+
+    /**
+     * Maps the file, in chunks of at most chunkSize bytes.
+     *
+     * @param channel   the open file
+     * @param size      the size of the file
+     * @param chunkSize the most to map at once
+     *
+     * @return a stream over every chunk, in order
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    static InputStream map(final FileChannel channel, final long size,
+        final long chunkSize) throws IOException
+    {
+        if (size <= chunkSize)
+        {
+            return new ByteBufferInputStream(channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+        final Vector<InputStream> chunks = new Vector<InputStream>();
+        for (long position = 0; position < size; position += chunkSize)
+        {
+            chunks.add(new ByteBufferInputStream(channel.map(
+                FileChannel.MapMode.READ_ONLY, position,
+                Math.min(chunkSize, size - position))));
+        }
+        return new SequenceInputStream(chunks.elements());
+    }
+
+    /**
+     * Reads the channel, which must be blocking.  Closing the stream does not
+     * close the channel.
+     *
+     * @param channel the channel
+     *
+     * @return a stream over the channel
+     */
+    static InputStream stream(final ReadableByteChannel channel)
+    {
+        return new FilterInputStream(Channels.newInputStream(channel))
+        {
+            public void close()
+            {   // the caller owns the channel
+            }
+        };
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        public int read(final byte[] b, final int off, final int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!buffer.hasRemaining())
+            {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        public long skip(final long n)
+        {
+            final int skipped = (int) Math.max(0,
+                Math.min(n, buffer.remaining()));
+            // through Buffer, as ByteBuffer.position(int) only exists on
+            // Java 9 and up
+            ((Buffer) buffer).position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
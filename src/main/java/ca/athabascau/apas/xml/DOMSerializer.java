@@ -0,0 +1,678 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Result;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a DOM as XML without going through an identity Transformer.  The
+ * tree is walked iteratively, by way of the sibling and parent links, so
+ * that however deep a document is it cannot overflow the stack, and
+ * characters are escaped from precomputed tables straight into a UTF-8 byte
+ * buffer, or the writer.
+ * <p/>
+ * With the default options the output is character for character what the
+ * Xalan identity transformer produces, which is what {@link
+ * XMLUtil#documentToString(Node)} has always returned.  That includes
+ * Xalan's namespace fixup of DOMs built with createElementNS, it's splitting
+ * of CDATA sections, and the disable-output-escaping processing
+ * instructions.
+ * <p/>
+ * A serializer has no state of it's own, and may be shared by any number of
+ * threads.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class DOMSerializer
+{
+    /**
+     * The options documentToString uses.
+     */
+    static final DOMSerializer DEFAULT = new DOMSerializer();
+
+    private final boolean xmlDeclaration;
+
+    private final int indent;
+
+    private final String encoding;
+
+    private final Charset charset;
+
+    /**
+     * Creates a serializer that writes the XML declaration, does not indent,
+     * and encodes in UTF-8.
+     */
+    public DOMSerializer()
+    {
+        this(true, 0, "UTF-8");
+    }
+
+    /**
+     * Creates a serializer with the given options.
+     *
+     * @param xmlDeclaration true to start the output with an XML
+     *                       declaration
+     * @param indent         the number of spaces to indent each level of
+     *                       elements by, or 0 to add no whitespace at all.
+     *                       As with xsl:output, no whitespace is added next
+     *                       to text
+     * @param encoding       the name of the encoding to write streams in,
+     *                       which the declaration also names.  Characters it
+     *                       cannot represent are written as character
+     *                       references
+     *
+     * @throws java.nio.charset.UnsupportedCharsetException if the encoding is
+     *                                                      not supported
+     */
+    public DOMSerializer(final boolean xmlDeclaration, final int indent,
+        final String encoding)
+    {
+        if (indent < 0)
+        {
+            throw new IllegalArgumentException("indent must not be negative");
+        }
+        if (encoding == null)
+        {
+            throw new IllegalArgumentException("encoding must not be null");
+        }
+        this.xmlDeclaration = xmlDeclaration;
+        this.indent = indent;
+        this.encoding = encoding;
+        this.charset = Charset.forName(encoding);
+    }
+
+    /**
+     * Writes the node to the stream, in the serializer's encoding.  The
+     * stream is flushed, but not closed.
+     *
+     * @param node the node, usually a Document or Element
+     * @param out  the stream to write to
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public void serialize(final Node node, final OutputStream out)
+        throws IOException
+    {
+        write(node, XMLOutput.forStream(out, charset));
+    }
+
+    /**
+     * Writes the node to the writer.  The declaration still names the
+     * serializer's encoding, and characters it cannot represent are still
+     * written as references.  The writer is flushed, but not closed.
+     *
+     * @param node   the node, usually a Document or Element
+     * @param writer the writer to write to
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public void serialize(final Node node, final Writer writer)
+        throws IOException
+    {
+        write(node, XMLOutput.forWriter(writer, charset));
+    }
+
+    /**
+     * @param node the node, usually a Document or Element
+     *
+     * @return the node as XML
+     */
+    public String serialize(final Node node)
+    {
+        final StringBuilder builder =
+            new StringBuilder(XMLOutput.BUFFER_SIZE);
+        try
+        {
+            write(node, XMLOutput.forBuilder(builder));
+        }
+        catch (IOException e)
+        {   // never happens with a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param node the node, usually a Document or Element
+     *
+     * @return the node as XML, in the serializer's encoding
+     */
+    public byte[] toBytes(final Node node)
+    {
+        final ByteArrayOutputStream out =
+            new ByteArrayOutputStream(XMLOutput.BUFFER_SIZE);
+        try
+        {
+            serialize(node, out);
+        }
+        catch (IOException e)
+        {   // never happens with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void write(final Node node, final XMLOutput out)
+        throws IOException
+    {
+        if (node == null)
+        {
+            throw new IllegalArgumentException("node must not be null");
+        }
+        new Walk(out).run(node);
+        out.flush();
+    }
+
+    public boolean isXMLDeclaration()
+    {
+        return xmlDeclaration;
+    }
+
+    public int getIndent()
+    {
+        return indent;
+    }
+
+    public String getEncoding()
+    {
+        return encoding;
+    }
+
+    public String toString()
+    {
+        return "DOMSerializer{xmlDeclaration=" + xmlDeclaration +
+            ", indent=" + indent + ", encoding=" + encoding + '}';
+    }
+
+    /**
+     * The state of writing one node.
+     */
+    private final class Walk
+    {
+        private final XMLOutput out;
+
+        /**
+         * The namespace mappings in scope, as Xalan tracks them, which is
+         * not always what the output actually declares.  The first two are
+         * always there.
+         */
+        private String[] prefixes = new String[16];
+
+        private String[] uris = new String[16];
+
+        private int[] depths = new int[16];
+
+        private int mappings;
+
+        /**
+         * The attributes of the start tag being built, in the order they
+         * will be written.
+         */
+        private String[] attributeURIs = new String[8];
+
+        private String[] attributeLocalNames = new String[8];
+
+        private String[] attributeNames = new String[8];
+
+        private String[] attributeValues = new String[8];
+
+        private int attributes;
+
+        private int depth;
+
+        /**
+         * Set while a start tag has been written, but not yet closed with
+         * '>', so that empty elements can be written as &lt;name/&gt;
+         */
+        private boolean startTagOpen;
+
+        /**
+         * How many disable-output-escaping instructions are in effect.
+         */
+        private int nonEscaping;
+
+        /**
+         * Set when the last thing written was text, next to which no
+         * indentation may be added.
+         */
+        private boolean afterText;
+
+        private boolean written;
+
+        private Walk(final XMLOutput out)
+        {
+            this.out = out;
+            prefixes[0] = "";
+            uris[0] = "";
+            depths[0] = -1;
+            prefixes[1] = XMLConstants.XML_NS_PREFIX;
+            uris[1] = XMLConstants.XML_NS_URI;
+            depths[1] = -1;
+            mappings = 2;
+        }
+
+        private void run(final Node root) throws IOException
+        {
+            if (xmlDeclaration)
+            {
+                out.write(XMLOutput.declaration(encoding));
+                written = true;
+            }
+            Node node = root;
+            while (node != null)
+            {
+                final Node child = enter(node) ? node.getFirstChild() : null;
+                if (child != null)
+                {
+                    node = child;
+                    continue;
+                }
+                // nothing below this node, so climb until there is a sibling
+                while (true)
+                {
+                    if (node.getNodeType() == Node.ELEMENT_NODE)
+                    {
+                        endElement(node);
+                    }
+                    if (node == root)
+                    {
+                        return;
+                    }
+                    final Node sibling = node.getNextSibling();
+                    if (sibling != null)
+                    {
+                        node = sibling;
+                        break;
+                    }
+                    node = node.getParentNode();
+                }
+            }
+        }
+
+        /**
+         * Writes everything up to the node's children.
+         *
+         * @return true if the node's children are to be written
+         */
+        private boolean enter(final Node node) throws IOException
+        {
+            switch (node.getNodeType())
+            {
+                case Node.ELEMENT_NODE:
+                    startElement((Element) node);
+                    return true;
+                case Node.DOCUMENT_NODE:
+                case Node.DOCUMENT_FRAGMENT_NODE:
+                case Node.ENTITY_REFERENCE_NODE:
+                    // entity references are written as their replacement
+                    return true;
+                case Node.TEXT_NODE:
+                case Node.ATTRIBUTE_NODE:
+                    text(node.getNodeValue());
+                    return false;
+                case Node.CDATA_SECTION_NODE:
+                    cdata(((CharacterData) node).getData());
+                    return false;
+                case Node.COMMENT_NODE:
+                    closeStartTag();
+                    indent();
+                    out.writeComment(((CharacterData) node).getData());
+                    markup();
+                    return false;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    processingInstruction((ProcessingInstruction) node);
+                    return false;
+                default:
+                    // document types, like Xalan, and anything else
+                    return false;
+            }
+        }
+
+        private void text(final String text) throws IOException
+        {
+            if (text == null || text.length() == 0)
+            {   // Xalan leaves an element empty for empty text
+                return;
+            }
+            closeStartTag();
+            if (nonEscaping > 0)
+            {
+                out.write(text);
+            }
+            else
+            {
+                out.writeText(text);
+            }
+            afterText = true;
+            written = true;
+        }
+
+        private void cdata(final String data) throws IOException
+        {
+            if (data.length() == 0)
+            {
+                return;
+            }
+            closeStartTag();
+            if (nonEscaping > 0)
+            {
+                out.write("<![CDATA[");
+                out.write(data);
+                out.write("]]>");
+            }
+            else
+            {
+                out.writeCDATA(data);
+            }
+            afterText = true;
+            written = true;
+        }
+
+        private void processingInstruction(
+            final ProcessingInstruction instruction) throws IOException
+        {
+            closeStartTag();
+            final String target = instruction.getTarget();
+            if (Result.PI_DISABLE_OUTPUT_ESCAPING.equals(target))
+            {
+                nonEscaping++;
+            }
+            else if (Result.PI_ENABLE_OUTPUT_ESCAPING.equals(target))
+            {   // Xalan fails on an unbalanced one, which is just ignored
+                if (nonEscaping > 0)
+                {
+                    nonEscaping--;
+                }
+            }
+            else
+            {
+                indent();
+                final String data = instruction.getData();
+                out.writeProcessingInstruction(target,
+                    data == null ? "" : data);
+                markup();
+            }
+        }
+
+        /**
+         * Works out the start tag's attributes the way Xalan does: the
+         * element's own namespace is mapped, then the namespaces of it's
+         * xmlns and prefixed attributes in document order, then the
+         * element's namespace is declared if the mappings still disagree,
+         * and last of all the attributes themselves are added, replacing the
+         * values of any declarations with the same name.
+         */
+        private void startElement(final Element element) throws IOException
+        {
+            closeStartTag();
+            indent();
+            depth++;
+            attributes = 0;
+
+            final String namespace = element.getNamespaceURI();
+            if (namespace != null)
+            {
+                final String prefix = element.getPrefix();
+                startPrefixMapping(prefix == null ? "" : prefix, namespace);
+            }
+            final NamedNodeMap atts = element.getAttributes();
+            final int length = atts.getLength();
+            for (int index = 0; index < length; index++)
+            {
+                final Attr attr = (Attr) atts.item(index);
+                final String name = attr.getNodeName();
+                final int colon = name.indexOf(':');
+                if (name.equals(XMLConstants.XMLNS_ATTRIBUTE) ||
+                    name.startsWith("xmlns:"))
+                {
+                    startPrefixMapping(colon < 0 ? "" :
+                        name.substring(colon + 1), attr.getNodeValue());
+                }
+                else if (colon > 0 && attr.getNamespaceURI() != null)
+                {
+                    startPrefixMapping(name.substring(0, colon),
+                        attr.getNamespaceURI());
+                }
+            }
+
+            final String name = element.getNodeName();
+            if (namespace != null && namespace.length() > 0)
+            {
+                final int colon = name.indexOf(':');
+                final String prefix = colon < 0 ? "" : name.substring(0, colon);
+                if (!namespace.equals(lookup(prefix)))
+                {
+                    startPrefixMapping(prefix, namespace);
+                    addAttribute(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                        colon < 0 ? XMLConstants.XMLNS_ATTRIBUTE : prefix,
+                        colon < 0 ? XMLConstants.XMLNS_ATTRIBUTE :
+                            "xmlns:" + prefix, namespace);
+                }
+            }
+
+            for (int index = 0; index < length; index++)
+            {
+                final Attr attr = (Attr) atts.item(index);
+                final String attributeName = attr.getNodeName();
+                String localName = attr.getLocalName();
+                if (localName == null)
+                {
+                    localName = attributeName.substring(
+                        attributeName.indexOf(':') + 1);
+                }
+                addAttribute(attr.getNamespaceURI(), localName, attributeName,
+                    attr.getNodeValue());
+            }
+
+            out.write('<');
+            out.write(name);
+            startTagOpen = true;
+            afterText = false;
+            written = true;
+        }
+
+        private void endElement(final Node element) throws IOException
+        {
+            if (startTagOpen)
+            {
+                writeAttributes();
+                out.write("/>");
+                startTagOpen = false;
+            }
+            else
+            {
+                depth--;
+                indent();
+                depth++;
+                out.write("</");
+                out.write(element.getNodeName());
+                out.write('>');
+            }
+            while (mappings > 2 && depths[mappings - 1] == depth)
+            {
+                mappings--;
+            }
+            depth--;
+            afterText = false;
+        }
+
+        private void closeStartTag() throws IOException
+        {
+            if (startTagOpen)
+            {
+                writeAttributes();
+                out.write('>');
+                startTagOpen = false;
+            }
+        }
+
+        private void writeAttributes() throws IOException
+        {
+            for (int index = 0; index < attributes; index++)
+            {
+                out.write(' ');
+                out.write(attributeNames[index]);
+                out.write("=\"");
+                out.writeAttribute(attributeValues[index]);
+                out.write('"');
+            }
+            attributes = 0;
+        }
+
+        /**
+         * Maps the prefix, adding it's declaration, unless Xalan would not:
+         * when the prefix starts with "xml", is already mapped to the same
+         * namespace, or has already been mapped by this element.
+         */
+        private void startPrefixMapping(final String prefix, final String uri)
+        {
+            if (prefix.startsWith(XMLConstants.XML_NS_PREFIX))
+            {
+                return;
+            }
+            for (int index = mappings - 1; index >= 0; index--)
+            {
+                if (prefixes[index].equals(prefix))
+                {
+                    if (uris[index].equals(uri) || depths[index] == depth)
+                    {
+                        return;
+                    }
+                    break;
+                }
+            }
+            if (mappings == prefixes.length)
+            {
+                prefixes = grow(prefixes);
+                uris = grow(uris);
+                final int[] larger = new int[mappings * 2];
+                System.arraycopy(depths, 0, larger, 0, mappings);
+                depths = larger;
+            }
+            prefixes[mappings] = prefix;
+            uris[mappings] = uri;
+            depths[mappings] = depth;
+            mappings++;
+
+            if (prefix.length() == 0)
+            {
+                addAttribute(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    XMLConstants.XMLNS_ATTRIBUTE,
+                    XMLConstants.XMLNS_ATTRIBUTE, uri);
+            }
+            else if (uri.length() > 0)
+            {
+                addAttribute(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, prefix,
+                    "xmlns:" + prefix, uri);
+            }
+        }
+
+        private String lookup(final String prefix)
+        {
+            for (int index = mappings - 1; index >= 0; index--)
+            {
+                if (prefixes[index].equals(prefix))
+                {
+                    return uris[index];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds an attribute to the start tag, or replaces the value of the
+         * one already there.  As with SAX, attributes in no namespace are
+         * matched by name, and the rest by namespace and local name.
+         */
+        private void addAttribute(final String uri, final String localName,
+            final String name, final String value)
+        {
+            final boolean byName = uri == null || uri.length() == 0;
+            for (int index = 0; index < attributes; index++)
+            {
+                if (byName ? name.equals(attributeNames[index]) :
+                    uri.equals(attributeURIs[index]) &&
+                        localName.equals(attributeLocalNames[index]))
+                {
+                    attributeValues[index] = value;
+                    return;
+                }
+            }
+            if (attributes == attributeNames.length)
+            {
+                attributeURIs = grow(attributeURIs);
+                attributeLocalNames = grow(attributeLocalNames);
+                attributeNames = grow(attributeNames);
+                attributeValues = grow(attributeValues);
+            }
+            attributeURIs[attributes] = byName ? "" : uri;
+            attributeLocalNames[attributes] = localName;
+            attributeNames[attributes] = name;
+            attributeValues[attributes] = value;
+            attributes++;
+        }
+
+        /**
+         * Starts a new line, indented to the current depth, unless
+         * indenting is off, nothing has been written yet, or the new line
+         * would be next to text.
+         */
+        private void indent() throws IOException
+        {
+            if (indent > 0 && written && !afterText)
+            {
+                out.write('\n');
+                for (int index = depth * indent; index > 0; index--)
+                {
+                    out.write(' ');
+                }
+            }
+        }
+
+        private void markup()
+        {
+            afterText = false;
+            written = true;
+        }
+    }
+
+    private static String[] grow(final String[] array)
+    {
+        final String[] larger = new String[array.length * 2];
+        System.arraycopy(array, 0, larger, 0, array.length);
+        return larger;
+    }
+}
@@ -28,6 +28,7 @@ import javax.xml.transform.TransformerException;
 /**
  * Throws a TransformerException when an error occurs during XSL
  * transformations. The default behaviour of JAXP is to just print to stderr.
+ * Warnings are logged, and counted by the installed {@link XMLMetrics}.
  * <p/>
  * Created :  Jul 30, 2009 4:21:00 PM MST
  * <p/>
@@ -42,10 +43,37 @@ public class ExceptionErrorListener implements ErrorListener
     private static final Logger logger =
         Logger.getLogger(ExceptionErrorListener.class);
 
+    private final String operation;
+
+    private final String stylesheet;
+
+    /**
+     * Creates a listener counting warnings against {@link
+     * XMLMetrics#XSL_TRANSFORMATION}, with no particular stylesheet.
+     */
+    public ExceptionErrorListener()
+    {
+        this(XMLMetrics.XSL_TRANSFORMATION, null);
+    }
+
+    /**
+     * Creates a listener counting warnings against the given operation.
+     *
+     * @param operation  the operation or phase, see {@link XMLMetrics}
+     * @param stylesheet the stylesheet, or null if it is not known
+     */
+    public ExceptionErrorListener(final String operation,
+        final String stylesheet)
+    {
+        this.operation = operation;
+        this.stylesheet = stylesheet;
+    }
+
     public void warning(TransformerException exception)
         throws TransformerException
     {
         logger.warn("xml warning: ", exception);
+        XMLUtil.getMetrics().warning(operation, stylesheet);
     }
 
     public void error(TransformerException exception)
@@ -0,0 +1,465 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Transforms one document with several stylesheets at the same time, such as
+ * rendering a transcript to HTML, to XSL-FO and to a summary, all at once.
+ * The document is parsed once, into a recording of it's SAX events that
+ * every transformation replays on it's own thread, so the time taken is
+ * close to that of the slowest stylesheet rather than the sum of all of them.
+ * <p/>
+ * Each stylesheet comes from the {@link XMLUtil#getTemplatesCache() shared
+ * cache}, and each target has it's own parameters and output.  The calling
+ * thread runs the last target itself, and the rest are run by the executor.
+ * A fan out transformer may be shared by any number of threads.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class FanOutTransformer
+{
+    private static final Logger logger =
+        Logger.getLogger(FanOutTransformer.class);
+
+    private final Executor executor;
+
+    /**
+     * Creates a fan out transformer that runs on the common ForkJoinPool.
+     */
+    public FanOutTransformer()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a fan out transformer that runs on the given executor.
+     *
+     * @param executor runs all but one of the targets of each document
+     */
+    public FanOutTransformer(final Executor executor)
+    {
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Parses the xml once, and transforms it for every target in parallel,
+     * returning once they have all finished.  When targets fail, the rest
+     * still run to completion, and the first failure is thrown with the
+     * others suppressed by it.  Nothing is written to any target's output
+     * after this returns, or throws, so waiting for the others is not cut
+     * short by an interrupt; the interrupt status is kept for the caller.
+     *
+     * @param xml     the xml, as described by {@link XMLUtil#xslTransformation(Object,
+     *                Object, Map)}
+     * @param targets the stylesheets, and where their output goes
+     *
+     * @throws TransformerException if the xml could not be parsed, or a
+     *                              target could not be transformed
+     * @throws IOException          if an IO error occurs
+     */
+    public void transform(final Object xml, final Target... targets)
+        throws TransformerException, IOException
+    {
+        if (xml == null)
+        {
+            throw new IllegalArgumentException("xml must not be null");
+        }
+        if (targets == null || targets.length == 0)
+        {
+            throw new IllegalArgumentException(
+                "at least one target is required");
+        }
+        for (int index = 0; index < targets.length; index++)
+        {
+            if (targets[index] == null)
+            {
+                throw new IllegalArgumentException(
+                    "target " + index + " is null");
+            }
+        }
+
+        final SAXBuffer document = record(xml);
+        final String systemId = systemId(xml);
+        final List<FutureTask<Object>> tasks =
+            new ArrayList<FutureTask<Object>>(targets.length - 1);
+        for (int index = 0; index < targets.length - 1; index++)
+        {
+            final Target target = targets[index];
+            final FutureTask<Object> task = new FutureTask<Object>(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            target.transform(document, systemId);
+                        }
+                        catch (TransformerException e)
+                        {
+                            throw new Failure(e);
+                        }
+                        catch (IOException e)
+                        {
+                            throw new Failure(e);
+                        }
+                    }
+                }, null);
+            tasks.add(task);
+            try
+            {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e)
+            {   // still worth doing, just not in parallel
+                logger.debug("target " + index + " rejected", e);
+                task.run();
+            }
+        }
+
+        Exception failure = null;
+        try
+        {
+            targets[targets.length - 1].transform(document, systemId);
+        }
+        catch (TransformerException e)
+        {
+            failure = e;
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        catch (RuntimeException e)
+        {
+            failure = e;
+        }
+        finally
+        {   // the others write to the caller's outputs, so they must be done
+            // before we leave, even by way of an Error
+            failure = join(tasks, failure);
+        }
+
+        if (failure instanceof TransformerException)
+        {
+            throw (TransformerException) failure;
+        }
+        else if (failure instanceof IOException)
+        {
+            throw (IOException) failure;
+        }
+        else if (failure != null)
+        {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Waits for every task to finish, however long that takes.
+     *
+     * @param tasks   the targets run by the executor
+     * @param failure the failure so far, or null
+     *
+     * @return the first failure, with any others suppressed by it, or null
+     */
+    private static Exception join(final List<FutureTask<Object>> tasks,
+        final Exception failure)
+    {
+        Exception first = failure;
+        Error error = null;
+        boolean interrupted = false;
+        final Iterator<FutureTask<Object>> it = tasks.iterator();
+        while (it.hasNext())
+        {
+            final FutureTask<Object> task = it.next();
+            boolean done = false;
+            while (!done)
+            {
+                try
+                {
+                    task.get();
+                    done = true;
+                }
+                catch (InterruptedException e)
+                {   // keep waiting, and tell the caller afterwards
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    done = true;
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof Failure)
+                    {
+                        first = add(first, (Exception) cause.getCause());
+                    }
+                    else if (cause instanceof RuntimeException)
+                    {
+                        first = add(first, (RuntimeException) cause);
+                    }
+                    else if (error == null)
+                    {
+                        error = (Error) cause;
+                    }
+                    else
+                    {
+                        error.addSuppressed(cause);
+                    }
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+        return first;
+    }
+
+    private static Exception add(final Exception failure,
+        final Exception another)
+    {
+        if (failure == null)
+        {
+            return another;
+        }
+        logger.debug("another target failed", another);
+        failure.addSuppressed(another);
+        return failure;
+    }
+
+    /**
+     * Parses the xml, by way of a pooled identity Transformer, into events
+     * that can be replayed any number of times.
+     */
+    private static SAXBuffer record(final Object xml)
+        throws TransformerException, IOException
+    {
+        final SAXBuffer document = new SAXBuffer();
+        final SAXResult result = new SAXResult(document);
+        result.setLexicalHandler(document);
+        final Probe probe = Probe.start(XMLMetrics.PARSE, null);
+        final Transformer identity =
+            XMLUtil.getXMLPool().borrowTransformer();
+        try
+        {
+            identity.transform(XMLUtil.toSource(probe.countInput(xml)),
+                result);
+            probe.succeeded();
+        }
+        finally
+        {
+            XMLUtil.getXMLPool().returnTransformer(identity);
+            probe.stop();
+        }
+        return document;
+    }
+
+    /**
+     * Keeps the document's own location, so that relative URIs in it still
+     * resolve the same way.
+     */
+    private static String systemId(final Object xml)
+    {
+        if (xml instanceof File)
+        {
+            return ((File) xml).getAbsoluteFile().toURI().toString();
+        }
+        else if (xml instanceof Path)
+        {
+            return ((Path) xml).toUri().toString();
+        }
+        return null;
+    }
+
+    /**
+     * Carries a checked exception out of a worker.
+     */
+    private static class Failure extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Failure(final Exception cause)
+        {
+            super(cause);
+        }
+    }
+
+    /**
+     * One stylesheet to apply to the document, with it's own parameters and
+     * output.
+     */
+    public static final class Target
+    {
+        private final Object xsl;
+
+        private final Map<String, ?> parameters;
+
+        private final Result result;
+
+        /**
+         * Creates a target that sends the output to the result.  If it is a
+         * StreamResult, it's stream or writer is flushed, but not closed.
+         *
+         * @param xsl        a String classpath name, or a java.io.File
+         *                   object, see {@link XMLUtil#xslTransformation(Object,
+         *                   Object, Map)}
+         * @param parameters the parameters to pass to the stylesheet, or null
+         * @param result     where the transformed xml goes
+         */
+        public Target(final Object xsl, final Map<String, ?> parameters,
+            final Result result)
+        {
+            if (xsl == null)
+            {
+                throw new IllegalArgumentException("xsl must not be null");
+            }
+            if (result == null)
+            {
+                throw new IllegalArgumentException("result must not be null");
+            }
+            this.xsl = xsl;
+            this.parameters = parameters;
+            this.result = result;
+        }
+
+        /**
+         * Creates a target that writes to the stream, encoded according to
+         * the stylesheet's xsl:output.
+         *
+         * @param xsl        see {@link #Target(Object, Map, Result)}
+         * @param parameters the parameters to pass to the stylesheet, or null
+         * @param out        the stream to write the transformed xml to
+         */
+        public Target(final Object xsl, final Map<String, ?> parameters,
+            final OutputStream out)
+        {
+            this(xsl, parameters, new StreamResult(out));
+        }
+
+        /**
+         * Creates a target that writes to the writer.
+         *
+         * @param xsl        see {@link #Target(Object, Map, Result)}
+         * @param parameters the parameters to pass to the stylesheet, or null
+         * @param writer     the writer to write the transformed xml to
+         */
+        public Target(final Object xsl, final Map<String, ?> parameters,
+            final Writer writer)
+        {
+            this(xsl, parameters, new StreamResult(writer));
+        }
+
+        public Object getXSL()
+        {
+            return xsl;
+        }
+
+        public Map<String, ?> getParameters()
+        {
+            return parameters;
+        }
+
+        public Result getResult()
+        {
+            return result;
+        }
+
+        private void transform(final SAXBuffer document, final String systemId)
+            throws TransformerException, IOException
+        {
+            final String stylesheet = TemplatesCache.keyFor(
+                xsl instanceof File ? ((File) xsl).getAbsoluteFile() : xsl);
+            final Probe probe = Probe.start(XMLMetrics.XSL_TRANSFORMATION,
+                stylesheet);
+            try
+            {
+                final Transformer transformer =
+                    XMLUtil.getTemplatesCache().newTransformer(xsl);
+                transformer.setErrorListener(new ExceptionErrorListener(
+                    XMLMetrics.XSL_TRANSFORMATION, stylesheet));
+                if (parameters != null)
+                {
+                    final Iterator<String> keyIt =
+                        parameters.keySet().iterator();
+                    while (keyIt.hasNext())
+                    {
+                        final String key = keyIt.next();
+                        transformer.setParameter(key, parameters.get(key));
+                    }
+                }
+                transformer.transform(document.newSource(systemId),
+                    probe.countOutput(result));
+                if (result instanceof StreamResult)
+                {
+                    final StreamResult stream = (StreamResult) result;
+                    if (stream.getOutputStream() != null)
+                    {
+                        stream.getOutputStream().flush();
+                    }
+                    if (stream.getWriter() != null)
+                    {
+                        stream.getWriter().flush();
+                    }
+                }
+                probe.succeeded();
+            }
+            finally
+            {
+                probe.stop();
+            }
+        }
+
+        public String toString()
+        {
+            return "Target{xsl=" + xsl + ", result=" + result + '}';
+        }
+    }
+}
@@ -0,0 +1,1177 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read only document, for reference data that is loaded once and read by
+ * every request, such as institution lists and course catalogs.  A W3C DOM
+ * is not safe for threads to read at the same time, and spends an object or
+ * more on every node, name and piece of text.  This keeps the whole tree in
+ * a handful of arrays, indexed by node, so one instance may be shared by
+ * the whole JVM, and navigated by any number of threads without locking.
+ * <p/>
+ * Nodes are ints, numbered in document order from the document node, 0.
+ * Navigation methods return {@link #NONE} when there is no such node, and
+ * the node types are those of {@link Node}.
+ * <pre>
+ * final ImmutableDocument catalog = ImmutableDocument.load(new File("catalog.xml"));
+ * for (final int course : catalog.getElementsByTagName(
+ *     catalog.getDocumentElement(), "course"))
+ * {
+ *     final String code = catalog.getAttribute(course, "code");
+ *     final String title = catalog.getTextContent(
+ *         catalog.getChildElement(course, "title"));
+ *     ...
+ * }
+ * </pre>
+ * Element and attribute names are interned, so names may be compared with
+ * ==, and the text of every node is kept in a single char[].  Adjacent text
+ * and CDATA sections are merged into one text node, and the DTD is dropped.
+ * Namespace declarations are kept as xmlns attributes, as they are in a
+ * DOM.
+ * <p/>
+ * The document may be passed as the xml of {@link
+ * XMLUtil#xslTransformation(Object, Object, java.util.Map)}, or replayed
+ * into any transformation with {@link #newSource()}, which skips parsing
+ * altogether.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public final class ImmutableDocument
+{
+    /**
+     * Returned when there is no such node.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * The type of each node, a {@link Node} node type.
+     */
+    private final byte[] types;
+
+    private final int[] parents;
+
+    private final int[] nextSiblings;
+
+    /**
+     * The name of each element, and the target of each processing
+     * instruction, as an index into the name table.
+     */
+    private final int[] names;
+
+    /**
+     * The text of each text, comment and processing instruction node, in
+     * {@link #chars}.  For an element, the index of it's first attribute, and
+     * the number of attributes.
+     */
+    private final int[] offsets;
+
+    private final int[] lengths;
+
+    private final int[] attributeNames;
+
+    private final int[] attributeOffsets;
+
+    private final int[] attributeLengths;
+
+    /**
+     * The name table, all interned.
+     */
+    private final String[] uris;
+
+    private final String[] localNames;
+
+    private final String[] qNames;
+
+    private final char[] chars;
+
+    private ImmutableDocument(final Builder builder)
+    {
+        final int size = builder.size;
+        types = Arrays.copyOf(builder.types, size);
+        parents = Arrays.copyOf(builder.parents, size);
+        nextSiblings = Arrays.copyOf(builder.nextSiblings, size);
+        names = Arrays.copyOf(builder.names, size);
+        offsets = Arrays.copyOf(builder.offsets, size);
+        lengths = Arrays.copyOf(builder.lengths, size);
+        final int attributes = builder.attributes;
+        attributeNames = Arrays.copyOf(builder.attributeNames, attributes);
+        attributeOffsets = Arrays.copyOf(builder.attributeOffsets, attributes);
+        attributeLengths = Arrays.copyOf(builder.attributeLengths, attributes);
+        final int nameCount = builder.nameIds.size();
+        uris = Arrays.copyOf(builder.uris, nameCount);
+        localNames = Arrays.copyOf(builder.localNames, nameCount);
+        qNames = Arrays.copyOf(builder.qNames, nameCount);
+        chars = Arrays.copyOf(builder.chars, builder.charCount);
+    }
+
+    /**
+     * Parses the xml into a new document.  An existing DOM is copied, and
+     * may be thrown away afterwards.
+     *
+     * @param xml the xml, as described by {@link XMLUtil#xslTransformation(Object,
+     *            Object, java.util.Map)}
+     *
+     * @return the document
+     *
+     * @throws TransformerException if the xml could not be parsed
+     * @throws IOException          if an IO error occurs
+     */
+    public static ImmutableDocument load(final Object xml)
+        throws TransformerException, IOException
+    {
+        if (xml == null)
+        {
+            throw new IllegalArgumentException("xml must not be null");
+        }
+        final Builder builder = new Builder();
+        final SAXResult result = new SAXResult(builder);
+        result.setLexicalHandler(builder);
+        final Probe probe = Probe.start(XMLMetrics.PARSE, null);
+        final Transformer identity =
+            XMLUtil.getXMLPool().borrowTransformer();
+        try
+        {
+            identity.transform(XMLUtil.toSource(probe.countInput(xml)),
+                result);
+            probe.succeeded();
+        }
+        finally
+        {
+            XMLUtil.getXMLPool().returnTransformer(identity);
+            probe.stop();
+        }
+        return new ImmutableDocument(builder);
+    }
+
+    /**
+     * @return the number of nodes, including the document node
+     */
+    public int size()
+    {
+        return types.length;
+    }
+
+    /**
+     * @return the root element
+     */
+    public int getDocumentElement()
+    {
+        return getFirstChildElement(0);
+    }
+
+    /**
+     * @param node a node
+     *
+     * @return the {@link Node} node type
+     */
+    public short getNodeType(final int node)
+    {
+        return types[node];
+    }
+
+    public int getParent(final int node)
+    {
+        return parents[node];
+    }
+
+    public int getFirstChild(final int node)
+    {
+        final int next = node + 1;
+        return next < parents.length && parents[next] == node ? next : NONE;
+    }
+
+    public int getNextSibling(final int node)
+    {
+        return nextSiblings[node];
+    }
+
+    public int getFirstChildElement(final int node)
+    {
+        return nextElement(getFirstChild(node));
+    }
+
+    public int getNextSiblingElement(final int node)
+    {
+        return nextElement(nextSiblings[node]);
+    }
+
+    private int nextElement(final int from)
+    {
+        int node = from;
+        while (node != NONE && types[node] != Node.ELEMENT_NODE)
+        {
+            node = nextSiblings[node];
+        }
+        return node;
+    }
+
+    /**
+     * @param node      a node
+     * @param localName the local name of the child, or "*" for any
+     *
+     * @return the first child element with the name
+     */
+    public int getChildElement(final int node, final String localName)
+    {
+        int child = getFirstChildElement(node);
+        while (child != NONE && !matches(child, localName))
+        {
+            child = getNextSiblingElement(child);
+        }
+        return child;
+    }
+
+    /**
+     * Finds every element below the node with the given local name, in
+     * document order.
+     *
+     * @param node      a node, such as 0 for the whole document
+     * @param localName the local name, or "*" for every element
+     *
+     * @return the elements
+     */
+    public int[] getElementsByTagName(final int node, final String localName)
+    {
+        final int end = subtreeEnd(node);
+        int[] found = new int[16];
+        int count = 0;
+        for (int descendant = node + 1; descendant < end; descendant++)
+        {
+            if (types[descendant] == Node.ELEMENT_NODE &&
+                matches(descendant, localName))
+            {
+                if (count == found.length)
+                {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = descendant;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private boolean matches(final int element, final String localName)
+    {
+        return "*".equals(localName) ||
+            localNames[names[element]].equals(localName);
+    }
+
+    /**
+     * Descendants are numbered straight after their ancestor, so the
+     * subtree ends at the next node that isn't one of them.
+     */
+    private int subtreeEnd(final int node)
+    {
+        int ancestor = node;
+        while (ancestor != NONE)
+        {
+            if (nextSiblings[ancestor] != NONE)
+            {
+                return nextSiblings[ancestor];
+            }
+            ancestor = parents[ancestor];
+        }
+        return types.length;
+    }
+
+    /**
+     * @param node a node
+     *
+     * @return the qualified name of an element, the target of a processing
+     *         instruction, or the DOM name of any other node, such as
+     *         "#text"
+     */
+    public String getNodeName(final int node)
+    {
+        switch (types[node])
+        {
+            case Node.ELEMENT_NODE:
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                return qNames[names[node]];
+            case Node.TEXT_NODE:
+                return "#text";
+            case Node.COMMENT_NODE:
+                return "#comment";
+            default:
+                return "#document";
+        }
+    }
+
+    /**
+     * @param node a node
+     *
+     * @return the local name of an element, or null
+     */
+    public String getLocalName(final int node)
+    {
+        return types[node] == Node.ELEMENT_NODE ? localNames[names[node]] :
+            null;
+    }
+
+    /**
+     * @param node a node
+     *
+     * @return the namespace of an element, or null if it has none
+     */
+    public String getNamespaceURI(final int node)
+    {
+        return types[node] == Node.ELEMENT_NODE ? uri(names[node]) : null;
+    }
+
+    private String uri(final int name)
+    {
+        return uris[name].length() == 0 ? null : uris[name];
+    }
+
+    /**
+     * @param node a text, comment or processing instruction node
+     *
+     * @return it's text, or null for any other node
+     */
+    public String getData(final int node)
+    {
+        switch (types[node])
+        {
+            case Node.TEXT_NODE:
+            case Node.COMMENT_NODE:
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                return new String(chars, offsets[node], lengths[node]);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param node a node
+     *
+     * @return the text of the node and all of it's descendants, as for
+     *         {@link Node#getTextContent()}
+     */
+    public String getTextContent(final int node)
+    {
+        final short type = types[node];
+        if (type != Node.ELEMENT_NODE && type != Node.DOCUMENT_NODE)
+        {
+            return getData(node);
+        }
+        final StringBuilder text = new StringBuilder();
+        appendTextContent(node, text);
+        return text.toString();
+    }
+
+    /**
+     * Appends the text of the node's descendants, without making a String
+     * for each one.
+     *
+     * @param node an element or the document
+     * @param text where to append it
+     */
+    public void appendTextContent(final int node, final StringBuilder text)
+    {
+        final int end = subtreeEnd(node);
+        for (int descendant = node + 1; descendant < end; descendant++)
+        {
+            if (types[descendant] == Node.TEXT_NODE)
+            {
+                text.append(chars, offsets[descendant], lengths[descendant]);
+            }
+        }
+    }
+
+    /**
+     * @param element an element
+     *
+     * @return the number of attributes, including namespace declarations
+     */
+    public int getAttributeCount(final int element)
+    {
+        return types[element] == Node.ELEMENT_NODE ? lengths[element] : 0;
+    }
+
+    /**
+     * @param element an element
+     * @param index   the attribute, from 0 to {@link #getAttributeCount(int)}
+     *
+     * @return the qualified name of the attribute
+     */
+    public String getAttributeName(final int element, final int index)
+    {
+        return qNames[attributeNames[attribute(element, index)]];
+    }
+
+    public String getAttributeLocalName(final int element, final int index)
+    {
+        return localNames[attributeNames[attribute(element, index)]];
+    }
+
+    /**
+     * @return the namespace of the attribute, or null if it has none
+     */
+    public String getAttributeNamespaceURI(final int element, final int index)
+    {
+        return uri(attributeNames[attribute(element, index)]);
+    }
+
+    public String getAttributeValue(final int element, final int index)
+    {
+        final int attribute = attribute(element, index);
+        return new String(chars, attributeOffsets[attribute],
+            attributeLengths[attribute]);
+    }
+
+    private int attribute(final int element, final int index)
+    {
+        if (index < 0 || index >= getAttributeCount(element))
+        {
+            throw new IndexOutOfBoundsException("element " + element +
+                " has no attribute " + index);
+        }
+        return offsets[element] + index;
+    }
+
+    /**
+     * @param element an element
+     * @param qName   the qualified name of the attribute
+     *
+     * @return the value of the attribute, or "" if there isn't one, as for
+     *         {@link org.w3c.dom.Element#getAttribute(String)}
+     */
+    public String getAttribute(final int element, final String qName)
+    {
+        final int count = getAttributeCount(element);
+        for (int index = 0; index < count; index++)
+        {
+            if (getAttributeName(element, index).equals(qName))
+            {
+                return getAttributeValue(element, index);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * @param element      an element
+     * @param namespaceURI the namespace of the attribute, or null for none
+     * @param localName    the local name of the attribute
+     *
+     * @return the value of the attribute, or "" if there isn't one
+     */
+    public String getAttributeNS(final int element, final String namespaceURI,
+        final String localName)
+    {
+        final String uri = namespaceURI == null ? "" : namespaceURI;
+        final int count = getAttributeCount(element);
+        for (int index = 0; index < count; index++)
+        {
+            final int name = attributeNames[offsets[element] + index];
+            if (localNames[name].equals(localName) && uris[name].equals(uri))
+            {
+                return getAttributeValue(element, index);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Creates a source that replays the document, for a transformation.
+     *
+     * @return a new source
+     */
+    public Source newSource()
+    {
+        return newSource(null);
+    }
+
+    /**
+     * Creates a source that replays the document, for a transformation.
+     *
+     * @param systemId the system id of the document, for resolving relative
+     *                 URIs, or null
+     *
+     * @return a new source
+     */
+    public Source newSource(final String systemId)
+    {
+        final InputSource input = new InputSource();
+        input.setSystemId(systemId);
+        return new SAXSource(new ReplayReader()
+        {
+            void replay(final ContentHandler content,
+                final LexicalHandler lexical) throws SAXException
+            {
+                ImmutableDocument.this.replay(content, lexical);
+            }
+        }, input);
+    }
+
+    /**
+     * Copies the document into a new DOM, which may be changed.
+     *
+     * @return the new DOM
+     *
+     * @throws TransformerException if it could not be copied
+     */
+    public Document toDocument() throws TransformerException
+    {
+        final DOMResult result = new DOMResult();
+        final Transformer identity =
+            XMLUtil.getXMLPool().borrowTransformer();
+        try
+        {
+            identity.transform(newSource(), result);
+        }
+        finally
+        {
+            XMLUtil.getXMLPool().returnTransformer(identity);
+        }
+        return (Document) result.getNode();
+    }
+
+    /**
+     * Walks the nodes in order, closing each element once the next node
+     * isn't inside of it.
+     */
+    private void replay(final ContentHandler content,
+        final LexicalHandler lexical) throws SAXException
+    {
+        final ElementAttributes attributes = new ElementAttributes();
+        int open = 0;
+        content.startDocument();
+        for (int node = 1; node < types.length; node++)
+        {
+            while (open != parents[node])
+            {
+                end(open, content);
+                open = parents[open];
+            }
+            switch (types[node])
+            {
+                case Node.ELEMENT_NODE:
+                    final int first = offsets[node];
+                    final int count = lengths[node];
+                    int declarations = 0;
+                    while (declarations < count && isDeclaration(
+                        attributeNames[first + declarations]))
+                    {
+                        final int attribute = first + declarations;
+                        content.startPrefixMapping(
+                            prefix(attributeNames[attribute]),
+                            new String(chars, attributeOffsets[attribute],
+                                attributeLengths[attribute]));
+                        declarations++;
+                    }
+                    attributes.first = first + declarations;
+                    attributes.count = count - declarations;
+                    final int name = names[node];
+                    content.startElement(uris[name], localNames[name],
+                        qNames[name], attributes);
+                    open = node;
+                    break;
+                case Node.TEXT_NODE:
+                    content.characters(chars, offsets[node], lengths[node]);
+                    break;
+                case Node.COMMENT_NODE:
+                    if (lexical != null)
+                    {
+                        lexical.comment(chars, offsets[node], lengths[node]);
+                    }
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    content.processingInstruction(qNames[names[node]],
+                        new String(chars, offsets[node], lengths[node]));
+                    break;
+                default:
+                    throw new IllegalStateException("unknown node type " +
+                        types[node]);
+            }
+        }
+        while (open != 0)
+        {
+            end(open, content);
+            open = parents[open];
+        }
+        content.endDocument();
+    }
+
+    private void end(final int element, final ContentHandler content)
+        throws SAXException
+    {
+        final int name = names[element];
+        content.endElement(uris[name], localNames[name], qNames[name]);
+        final int first = offsets[element];
+        final int count = lengths[element];
+        for (int index = 0; index < count &&
+            isDeclaration(attributeNames[first + index]); index++)
+        {
+            content.endPrefixMapping(prefix(attributeNames[first + index]));
+        }
+    }
+
+    private boolean isDeclaration(final int name)
+    {
+        return uris[name] == XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+    }
+
+    /**
+     * @return the prefix an xmlns attribute declares, "" for the default
+     *         namespace
+     */
+    private String prefix(final int name)
+    {
+        return qNames[name] == XMLConstants.XMLNS_ATTRIBUTE ? "" :
+            localNames[name];
+    }
+
+    public String toString()
+    {
+        return "ImmutableDocument[nodes=" + types.length + ", attributes=" +
+            attributeNames.length + ", names=" + qNames.length + ", chars=" +
+            chars.length + "]";
+    }
+
+    /**
+     * The attributes of the element being replayed, read straight from the
+     * arrays.
+     */
+    private final class ElementAttributes implements Attributes
+    {
+        private int first;
+
+        private int count;
+
+        public int getLength()
+        {
+            return count;
+        }
+
+        private boolean inRange(final int index)
+        {
+            return index >= 0 && index < count;
+        }
+
+        public String getURI(final int index)
+        {
+            return inRange(index) ? uris[attributeNames[first + index]] :
+                null;
+        }
+
+        public String getLocalName(final int index)
+        {
+            return inRange(index) ?
+                localNames[attributeNames[first + index]] : null;
+        }
+
+        public String getQName(final int index)
+        {
+            return inRange(index) ? qNames[attributeNames[first + index]] :
+                null;
+        }
+
+        public String getType(final int index)
+        {
+            return inRange(index) ? "CDATA" : null;
+        }
+
+        public String getValue(final int index)
+        {
+            return inRange(index) ? new String(chars,
+                attributeOffsets[first + index],
+                attributeLengths[first + index]) : null;
+        }
+
+        public int getIndex(final String uri, final String localName)
+        {
+            for (int index = 0; index < count; index++)
+            {
+                final int name = attributeNames[first + index];
+                if (uris[name].equals(uri) &&
+                    localNames[name].equals(localName))
+                {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        public int getIndex(final String qName)
+        {
+            for (int index = 0; index < count; index++)
+            {
+                if (qNames[attributeNames[first + index]].equals(qName))
+                {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        public String getType(final String uri, final String localName)
+        {
+            return getType(getIndex(uri, localName));
+        }
+
+        public String getType(final String qName)
+        {
+            return getType(getIndex(qName));
+        }
+
+        public String getValue(final String uri, final String localName)
+        {
+            return getValue(getIndex(uri, localName));
+        }
+
+        public String getValue(final String qName)
+        {
+            return getValue(getIndex(qName));
+        }
+    }
+
+    /**
+     * Builds the arrays from the events of a parse.
+     */
+    private static final class Builder implements ContentHandler,
+        LexicalHandler
+    {
+        /**
+         * Attribute values up to this long are shared, since the same short
+         * values, such as codes and flags, tend to repeat.
+         */
+        private static final int SHARED_VALUE_LENGTH = 32;
+
+        private byte[] types = new byte[256];
+
+        private int[] parents = new int[256];
+
+        private int[] nextSiblings = new int[256];
+
+        private int[] names = new int[256];
+
+        private int[] offsets = new int[256];
+
+        private int[] lengths = new int[256];
+
+        private int size;
+
+        private int[] attributeNames = new int[64];
+
+        private int[] attributeOffsets = new int[64];
+
+        private int[] attributeLengths = new int[64];
+
+        private int attributes;
+
+        private final Map<String, Integer> nameIds =
+            new HashMap<String, Integer>();
+
+        private String[] uris = new String[32];
+
+        private String[] localNames = new String[32];
+
+        private String[] qNames = new String[32];
+
+        private final Map<String, Integer> sharedValues =
+            new HashMap<String, Integer>();
+
+        private char[] chars = new char[4096];
+
+        private int charCount;
+
+        /**
+         * The last child of each open node, by depth, so that it can be
+         * linked to the next one.
+         */
+        private int[] lastChildren = new int[32];
+
+        private int[] open = new int[32];
+
+        private int depth;
+
+        /**
+         * Prefix mappings reported ahead of the next element.
+         */
+        private String[] mappings = new String[8];
+
+        private int mappingCount;
+
+        /**
+         * The prefixes in scope, and their namespaces, so that a DOM walker
+         * repeating a declaration on every element doesn't add it again.
+         */
+        private String[] scope = new String[16];
+
+        private int scopeCount;
+
+        /**
+         * Where the scope of each open element starts, by depth.
+         */
+        private int[] scopeStarts = new int[32];
+
+        private boolean inDTD;
+
+        private Builder()
+        {
+        }
+
+        public void setDocumentLocator(final Locator locator)
+        {
+        }
+
+        public void startDocument()
+        {
+            if (size == 0)
+            {
+                add(Node.DOCUMENT_NODE, NONE, 0, 0);
+                open[0] = 0;
+                lastChildren[0] = NONE;
+            }
+        }
+
+        public void endDocument()
+        {
+        }
+
+        public void startPrefixMapping(final String prefix, final String uri)
+        {
+            if (mappingCount + 2 > mappings.length)
+            {
+                mappings = Arrays.copyOf(mappings, mappings.length * 2);
+            }
+            mappings[mappingCount++] = prefix;
+            mappings[mappingCount++] = uri;
+        }
+
+        public void endPrefixMapping(final String prefix)
+        {
+        }
+
+        public void startElement(final String uri, final String localName,
+            final String qName, final Attributes atts)
+        {
+            startDocument();
+            final int first = attributes;
+            final int scopeStart = scopeCount;
+            for (int index = 0; index < mappingCount; index += 2)
+            {
+                declare(mappings[index], mappings[index + 1]);
+            }
+            // a DOM may also pass the declarations as attributes
+            for (int index = 0; index < atts.getLength(); index++)
+            {
+                final String name = atts.getQName(index);
+                if (name.equals(XMLConstants.XMLNS_ATTRIBUTE) ||
+                    name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ':'))
+                {
+                    declare(name.equals(XMLConstants.XMLNS_ATTRIBUTE) ? "" :
+                        name.substring(6), atts.getValue(index));
+                }
+            }
+            mappingCount = 0;
+            for (int index = 0; index < atts.getLength(); index++)
+            {
+                final String name = atts.getQName(index);
+                if (!name.equals(XMLConstants.XMLNS_ATTRIBUTE) &&
+                    !name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ':'))
+                {
+                    addAttribute(atts.getURI(index), localName(
+                        atts.getLocalName(index), name), name,
+                        atts.getValue(index));
+                }
+            }
+            final int element = add(Node.ELEMENT_NODE,
+                name(uri, localName(localName, qName), qName), first,
+                attributes - first);
+            depth++;
+            if (depth == open.length)
+            {
+                open = Arrays.copyOf(open, depth * 2);
+                lastChildren = Arrays.copyOf(lastChildren, depth * 2);
+                scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+            }
+            open[depth] = element;
+            lastChildren[depth] = NONE;
+            scopeStarts[depth] = scopeStart;
+        }
+
+        /**
+         * Adds an xmlns attribute to the element being started, unless the
+         * prefix is already bound to the namespace.
+         */
+        private void declare(final String prefix, final String uri)
+        {
+            if (XMLConstants.XML_NS_PREFIX.equals(prefix) ||
+                uri.equals(lookup(prefix)))
+            {
+                return;
+            }
+            if (scopeCount + 2 > scope.length)
+            {
+                scope = Arrays.copyOf(scope, scope.length * 2);
+            }
+            scope[scopeCount++] = prefix;
+            scope[scopeCount++] = uri;
+            addAttribute(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                prefix.length() == 0 ? XMLConstants.XMLNS_ATTRIBUTE : prefix,
+                prefix.length() == 0 ? XMLConstants.XMLNS_ATTRIBUTE :
+                    XMLConstants.XMLNS_ATTRIBUTE + ':' + prefix, uri);
+        }
+
+        /**
+         * @return the namespace the prefix is bound to, "" for an unbound
+         *         default namespace, or null
+         */
+        private String lookup(final String prefix)
+        {
+            for (int index = scopeCount - 2; index >= 0; index -= 2)
+            {
+                if (scope[index].equals(prefix))
+                {
+                    return scope[index + 1];
+                }
+            }
+            return prefix.length() == 0 ? "" : null;
+        }
+
+        private static String localName(final String localName,
+            final String qName)
+        {
+            if (localName != null && localName.length() > 0)
+            {
+                return localName;
+            }
+            return qName.substring(qName.indexOf(':') + 1);
+        }
+
+        public void endElement(final String uri, final String localName,
+            final String qName)
+        {
+            scopeCount = scopeStarts[depth];
+            depth--;
+        }
+
+        public void characters(final char[] ch, final int start,
+            final int length)
+        {
+            if (length == 0)
+            {
+                return;
+            }
+            final int last = lastChildren[depth];
+            if (last != NONE && types[last] == Node.TEXT_NODE &&
+                offsets[last] + lengths[last] == charCount)
+            {   // the parser split the text, or there was a CDATA section
+                appendChars(ch, start, length);
+                lengths[last] += length;
+                return;
+            }
+            add(Node.TEXT_NODE, NONE, appendChars(ch, start, length), length);
+        }
+
+        public void ignorableWhitespace(final char[] ch, final int start,
+            final int length)
+        {
+            characters(ch, start, length);
+        }
+
+        public void processingInstruction(final String target,
+            final String data)
+        {
+            startDocument();
+            final int offset = appendChars(data.toCharArray(), 0,
+                data.length());
+            add(Node.PROCESSING_INSTRUCTION_NODE, name("", target, target),
+                offset, data.length());
+        }
+
+        public void skippedEntity(final String name)
+        {
+        }
+
+        public void startDTD(final String name, final String publicId,
+            final String systemId)
+        {
+            inDTD = true;
+        }
+
+        public void endDTD()
+        {
+            inDTD = false;
+        }
+
+        public void startEntity(final String name)
+        {
+        }
+
+        public void endEntity(final String name)
+        {
+        }
+
+        public void startCDATA()
+        {
+        }
+
+        public void endCDATA()
+        {
+        }
+
+        public void comment(final char[] ch, final int start, final int length)
+        {
+            if (!inDTD)
+            {
+                startDocument();
+                add(Node.COMMENT_NODE, NONE, appendChars(ch, start, length),
+                    length);
+            }
+        }
+
+        private int add(final short type, final int name, final int offset,
+            final int length)
+        {
+            if (size == types.length)
+            {
+                final int capacity = size * 2;
+                types = Arrays.copyOf(types, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                names = Arrays.copyOf(names, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            final int node = size++;
+            types[node] = (byte) type;
+            names[node] = name;
+            offsets[node] = offset;
+            lengths[node] = length;
+            nextSiblings[node] = NONE;
+            if (node == 0)
+            {
+                parents[node] = NONE;
+            }
+            else
+            {
+                parents[node] = open[depth];
+                if (lastChildren[depth] != NONE)
+                {
+                    nextSiblings[lastChildren[depth]] = node;
+                }
+                lastChildren[depth] = node;
+            }
+            return node;
+        }
+
+        private void addAttribute(final String uri, final String localName,
+            final String qName, final String value)
+        {
+            if (attributes == attributeNames.length)
+            {
+                final int capacity = attributes * 2;
+                attributeNames = Arrays.copyOf(attributeNames, capacity);
+                attributeOffsets = Arrays.copyOf(attributeOffsets, capacity);
+                attributeLengths = Arrays.copyOf(attributeLengths, capacity);
+            }
+            attributeNames[attributes] = name(uri, localName, qName);
+            attributeOffsets[attributes] = share(value);
+            attributeLengths[attributes] = value.length();
+            attributes++;
+        }
+
+        private int share(final String value)
+        {
+            if (value.length() > SHARED_VALUE_LENGTH)
+            {
+                return appendChars(value.toCharArray(), 0, value.length());
+            }
+            final Integer shared = sharedValues.get(value);
+            if (shared != null)
+            {
+                return shared.intValue();
+            }
+            final int offset = appendChars(value.toCharArray(), 0,
+                value.length());
+            sharedValues.put(value, Integer.valueOf(offset));
+            return offset;
+        }
+
+        private int appendChars(final char[] ch, final int start,
+            final int length)
+        {
+            if (charCount + length > chars.length)
+            {
+                chars = Arrays.copyOf(chars,
+                    Math.max(chars.length * 2, charCount + length));
+            }
+            System.arraycopy(ch, start, chars, charCount, length);
+            final int offset = charCount;
+            charCount += length;
+            return offset;
+        }
+
+        /**
+         * @return the id of the name, adding it to the table if it is new
+         */
+        private int name(final String uri, final String localName,
+            final String qName)
+        {
+            final String namespace = uri == null ? "" : uri;
+            final String key = namespace + ' ' + qName;
+            final Integer existing = nameIds.get(key);
+            if (existing != null)
+            {
+                return existing.intValue();
+            }
+            final int id = nameIds.size();
+            if (id == qNames.length)
+            {
+                uris = Arrays.copyOf(uris, id * 2);
+                localNames = Arrays.copyOf(localNames, id * 2);
+                qNames = Arrays.copyOf(qNames, id * 2);
+            }
+            uris[id] = namespace.intern();
+            localNames[id] = localName.intern();
+            qNames[id] = qName.intern();
+            nameIds.put(key, Integer.valueOf(id));
+            return id;
+        }
+    }
+}
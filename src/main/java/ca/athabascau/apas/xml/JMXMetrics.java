@@ -0,0 +1,289 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Publishes metrics as JMX MBeans, one {@link OperationStatsMBean} for each
+ * operation, and one for each operation on each stylesheet, named like
+ * <pre>
+ * ca.athabascau.apas.xml:type=XMLMetrics,operation=transform,
+ *     stylesheet="classpath:/transcript.xsl"
+ * </pre>
+ * though all on one line.
+ * The MBeans are registered the first time their operation is recorded.
+ * Sort the transform MBeans by TotalTimeMillis in jconsole to see which
+ * stylesheets are using the most time.
+ * <p/>
+ * Setting the {@link #ENABLED_PROPERTY} system property to true installs
+ * one of these on the platform MBean server when {@link XMLUtil} is loaded.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class JMXMetrics implements XMLMetrics
+{
+    private static final Logger logger = Logger.getLogger(JMXMetrics.class);
+
+    /**
+     * System property which, when true, enables JMX metrics by default.
+     */
+    public static final String ENABLED_PROPERTY =
+        "ca.athabascau.apas.xml.metrics.jmx";
+
+    /**
+     * The default JMX domain.
+     */
+    public static final String DEFAULT_DOMAIN = "ca.athabascau.apas.xml";
+
+    /**
+     * Stands in for the null stylesheet of the per operation statistics.
+     */
+    private static final String NO_STYLESHEET = "";
+
+    private final MBeanServer server;
+
+    private final String domain;
+
+    /**
+     * Operation, then stylesheet.  Two levels, so that recording does not
+     * have to build a key.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, OperationStats>>
+        stats =
+        new ConcurrentHashMap<String, ConcurrentMap<String, OperationStats>>();
+
+    /**
+     * Creates metrics published on the platform MBean server, in the {@link
+     * #DEFAULT_DOMAIN}.
+     */
+    public JMXMetrics()
+    {
+        this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+    }
+
+    /**
+     * Creates metrics published on the given MBean server.
+     *
+     * @param server the server to register with, or null to not register at
+     *               all, and only keep the statistics
+     * @param domain the JMX domain of the MBeans
+     */
+    public JMXMetrics(final MBeanServer server, final String domain)
+    {
+        this.server = server;
+        this.domain = domain;
+    }
+
+    public boolean isEnabled()
+    {
+        return true;
+    }
+
+    public void record(final String operation, final String stylesheet,
+        final long nanos, final long input, final long output,
+        final boolean failed)
+    {
+        statsFor(operation, NO_STYLESHEET).record(nanos, input, output,
+            failed);
+        if (stylesheet != null)
+        {
+            statsFor(operation, stylesheet).record(nanos, input, output,
+                failed);
+        }
+    }
+
+    public void warning(final String operation, final String stylesheet)
+    {
+        statsFor(operation, NO_STYLESHEET).warning();
+        if (stylesheet != null)
+        {
+            statsFor(operation, stylesheet).warning();
+        }
+    }
+
+    /**
+     * Retrieves the statistics recorded so far.
+     *
+     * @param operation  the operation or phase
+     * @param stylesheet the stylesheet, or null for the operation as a
+     *                   whole
+     *
+     * @return the statistics, or null if nothing has been recorded
+     */
+    public OperationStats getStats(final String operation,
+        final String stylesheet)
+    {
+        final ConcurrentMap<String, OperationStats> byStylesheet =
+            stats.get(operation);
+        if (byStylesheet == null)
+        {
+            return null;
+        }
+        return byStylesheet.get(stylesheet == null ? NO_STYLESHEET :
+            stylesheet);
+    }
+
+    /**
+     * @return all of the statistics recorded so far
+     */
+    public Collection<OperationStats> getAllStats()
+    {
+        final List<OperationStats> all = new ArrayList<OperationStats>();
+        final Iterator<ConcurrentMap<String, OperationStats>> it =
+            stats.values().iterator();
+        while (it.hasNext())
+        {
+            all.addAll(it.next().values());
+        }
+        return all;
+    }
+
+    /**
+     * Resets every statistic to zero.
+     */
+    public void reset()
+    {
+        final Iterator<OperationStats> it = getAllStats().iterator();
+        while (it.hasNext())
+        {
+            it.next().reset();
+        }
+    }
+
+    /**
+     * Unregisters all of the MBeans, and forgets the statistics.
+     */
+    public void unregister()
+    {
+        final Iterator<OperationStats> it = getAllStats().iterator();
+        stats.clear();
+        if (server == null)
+        {
+            return;
+        }
+        while (it.hasNext())
+        {
+            final OperationStats operation = it.next();
+            try
+            {
+                final ObjectName name = nameFor(operation);
+                if (server.isRegistered(name))
+                {
+                    server.unregisterMBean(name);
+                }
+            }
+            catch (JMException e)
+            {
+                logger.warn("unable to unregister " + operation, e);
+            }
+        }
+    }
+
+    /**
+     * @param operation the statistics
+     *
+     * @return the JMX name of the statistics
+     *
+     * @throws JMException if the name is invalid
+     */
+    public ObjectName nameFor(final OperationStats operation)
+        throws JMException
+    {
+        final StringBuilder name = new StringBuilder(domain);
+        name.append(":type=XMLMetrics,operation=").append(
+            ObjectName.quote(operation.getOperation()));
+        if (operation.getStylesheet() != null)
+        {
+            name.append(",stylesheet=").append(
+                ObjectName.quote(operation.getStylesheet()));
+        }
+        return new ObjectName(name.toString());
+    }
+
+    private OperationStats statsFor(final String operation,
+        final String stylesheet)
+    {
+        ConcurrentMap<String, OperationStats> byStylesheet =
+            stats.get(operation);
+        if (byStylesheet == null)
+        {
+            final ConcurrentMap<String, OperationStats> created =
+                new ConcurrentHashMap<String, OperationStats>();
+            byStylesheet = stats.putIfAbsent(operation, created);
+            if (byStylesheet == null)
+            {
+                byStylesheet = created;
+            }
+        }
+
+        final OperationStats existing = byStylesheet.get(stylesheet);
+        if (existing != null)
+        {
+            return existing;
+        }
+        final OperationStats created = new OperationStats(operation,
+            NO_STYLESHEET.equals(stylesheet) ? null : stylesheet);
+        final OperationStats raced = byStylesheet.putIfAbsent(stylesheet,
+            created);
+        if (raced != null)
+        {
+            return raced;
+        }
+        register(created);
+        return created;
+    }
+
+    private void register(final OperationStats operation)
+    {
+        if (server == null)
+        {
+            return;
+        }
+        try
+        {
+            server.registerMBean(operation, nameFor(operation));
+        }
+        catch (JMException e)
+        {   // most likely another instance in the same domain
+            logger.warn("unable to register " + operation, e);
+        }
+    }
+
+    public String toString()
+    {
+        return "JMXMetrics[domain=" + domain + ", stats=" + getAllStats() +
+            "]";
+    }
+}
@@ -0,0 +1,473 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads XML into the Map/List/String structure that {@link
+ * XMLUtil#mapToXML(String, Object)} writes, in a single streaming pass,
+ * without building a DOM.  The conventions are those of mapToXML, in
+ * reverse
+ * <ul>
+ * <li>an element containing only text becomes a String, and an empty
+ * element becomes an empty String</li>
+ * <li>an element containing other elements becomes a Map, in document
+ * order</li>
+ * <li>sibling elements with the same name become a List, in document
+ * order</li>
+ * </ul>
+ * The root element itself is not part of the result, just as it is not part
+ * of the Map given to mapToXML.  Attributes, comments and processing
+ * instructions are ignored, as is text mixed in with child elements.  Note
+ * that a List of one element written by mapToXML reads back as a single
+ * value, since there is nothing in the XML to say otherwise.
+ * <p/>
+ * DTDs are not processed, so neither are external entities.  The size of
+ * the input and the depth of the elements may be limited, to protect against
+ * hostile documents.  A reader may be shared by any number of threads.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class MapXMLReader
+{
+    /**
+     * Indicates that a limit is not enforced.
+     */
+    public static final int NO_LIMIT = 0;
+
+    private static final XMLInputFactory inputFactory;
+
+    static
+    {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,
+            Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final long maximumSize;
+
+    private final int maximumDepth;
+
+    /**
+     * Creates a reader without any limits.
+     */
+    public MapXMLReader()
+    {
+        this(NO_LIMIT, NO_LIMIT);
+    }
+
+    /**
+     * Creates a reader with limits.
+     *
+     * @param maximumSize  the maximum number of bytes (or characters, when
+     *                     reading from a Reader) that will be read, or
+     *                     {@link #NO_LIMIT}
+     * @param maximumDepth the maximum depth of elements, where the root
+     *                     element is at depth 1, or {@link #NO_LIMIT}
+     */
+    public MapXMLReader(final long maximumSize, final int maximumDepth)
+    {
+        if (maximumSize < 0 || maximumDepth < 0)
+        {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+        this.maximumSize = maximumSize;
+        this.maximumDepth = maximumDepth;
+    }
+
+    /**
+     * Reads the XML document from the stream.  The parser detects the
+     * encoding.  The stream is not closed.
+     *
+     * @param is the stream to read
+     *
+     * @return the children of the root element
+     *
+     * @throws SAXException if the XML is not well formed, or a limit is
+     *                      exceeded
+     * @throws IOException  if an IO error occurs
+     */
+    public Map<String, Object> read(final InputStream is)
+        throws SAXException, IOException
+    {
+        final CountingInputStream counted = new CountingInputStream(is);
+        final XMLStreamReader reader;
+        try
+        {
+            synchronized (inputFactory)
+            {
+                reader = inputFactory.createXMLStreamReader(counted);
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw toSAXException(e, e.getLocation(), counted.limit);
+        }
+        return read(reader, counted.limit);
+    }
+
+    /**
+     * Reads the XML document from the reader.  The reader is not closed.
+     *
+     * @param in the reader to read
+     *
+     * @return the children of the root element
+     *
+     * @throws SAXException if the XML is not well formed, or a limit is
+     *                      exceeded
+     * @throws IOException  if an IO error occurs
+     */
+    public Map<String, Object> read(final Reader in)
+        throws SAXException, IOException
+    {
+        final CountingReader counted = new CountingReader(in);
+        final XMLStreamReader reader;
+        try
+        {
+            synchronized (inputFactory)
+            {
+                reader = inputFactory.createXMLStreamReader(counted);
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw toSAXException(e, e.getLocation(), counted.limit);
+        }
+        return read(reader, counted.limit);
+    }
+
+    private Map<String, Object> read(final XMLStreamReader reader,
+        final SizeLimit limit) throws SAXException, IOException
+    {
+        final List<Frame> stack = new ArrayList<Frame>();
+        Map<String, Object> result = null;
+        try
+        {
+            while (reader.hasNext())
+            {
+                switch (reader.next())
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (maximumDepth != NO_LIMIT &&
+                            stack.size() >= maximumDepth)
+                        {
+                            throw new SAXParseException(
+                                "element nesting exceeds the maximum depth " +
+                                    "of " + maximumDepth, null, null,
+                                reader.getLocation().getLineNumber(),
+                                reader.getLocation().getColumnNumber());
+                        }
+                        stack.add(new Frame(nameOf(reader)));
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (!stack.isEmpty())
+                        {
+                            stack.get(stack.size() - 1).append(reader);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        final Frame frame = stack.remove(stack.size() - 1);
+                        if (stack.isEmpty())
+                        {   // the root element
+                            result = frame.children == null ?
+                                new LinkedHashMap<String, Object>() :
+                                frame.children;
+                        }
+                        else
+                        {
+                            stack.get(stack.size() - 1).add(frame.name,
+                                frame.value());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            reader.close();
+        }
+        catch (XMLStreamException e)
+        {
+            if (!limit.exceeded && e.getNestedException() instanceof IOException)
+            {   // a real IO problem, not a parsing one
+                throw (IOException) e.getNestedException();
+            }
+            throw toSAXException(e, e.getLocation(), limit);
+        }
+        return result;
+    }
+
+    /**
+     * Uses the same prefix:localName form mapToXML would have been given.
+     */
+    private static String nameOf(final XMLStreamReader reader)
+    {
+        final String prefix = reader.getPrefix();
+        if (prefix == null || prefix.length() == 0)
+        {
+            return reader.getLocalName();
+        }
+        return prefix + ':' + reader.getLocalName();
+    }
+
+    private SAXException toSAXException(final Exception e,
+        final Location location, final SizeLimit limit)
+    {
+        final String message;
+        if (limit.exceeded)
+        {
+            message = "document exceeds the maximum size of " + maximumSize;
+        }
+        else
+        {
+            message = e.getMessage();
+        }
+        final SAXParseException exception;
+        if (location == null)
+        {
+            exception = new SAXParseException(message, null, null, -1, -1);
+        }
+        else
+        {
+            exception = new SAXParseException(message, location.getPublicId(),
+                location.getSystemId(), location.getLineNumber(),
+                location.getColumnNumber());
+        }
+        exception.initCause(e);
+        return exception;
+    }
+
+    /**
+     * An element whose end tag we have not yet seen.
+     */
+    private static class Frame
+    {
+        private final String name;
+
+        private Map<String, Object> children;
+
+        private StringBuilder text;
+
+        private Frame(final String name)
+        {
+            this.name = name;
+        }
+
+        private void append(final XMLStreamReader reader)
+        {
+            if (children != null)
+            {   // mixed content, only the elements matter
+                return;
+            }
+            if (text == null)
+            {
+                text = new StringBuilder(reader.getTextLength());
+            }
+            text.append(reader.getTextCharacters(), reader.getTextStart(),
+                reader.getTextLength());
+        }
+
+        private void add(final String name, final Object value)
+        {
+            if (children == null)
+            {
+                children = new LinkedHashMap<String, Object>();
+                text = null;
+            }
+            final Object existing = children.get(name);
+            if (existing == null)
+            {
+                children.put(name, value);
+            }
+            else if (existing instanceof List)
+            {   // only we put Lists in here, for repeated elements
+                @SuppressWarnings("unchecked")
+                final List<Object> repeated = (List<Object>) existing;
+                repeated.add(value);
+            }
+            else
+            {
+                final List<Object> repeated = new ArrayList<Object>();
+                repeated.add(existing);
+                repeated.add(value);
+                children.put(name, repeated);
+            }
+        }
+
+        private Object value()
+        {
+            if (children != null)
+            {
+                return children;
+            }
+            return text == null ? "" : text.toString();
+        }
+    }
+
+    private static class SizeLimit
+    {
+        private boolean exceeded;
+    }
+
+    private class CountingInputStream extends FilterInputStream
+    {
+        private final SizeLimit limit = new SizeLimit();
+
+        private long count;
+
+        private CountingInputStream(final InputStream in)
+        {
+            super(in);
+        }
+
+        public int read() throws IOException
+        {
+            final int read = super.read();
+            if (read != -1)
+            {
+                count(1);
+            }
+            return read;
+        }
+
+        public int read(final byte[] b, final int off, final int len)
+            throws IOException
+        {
+            final int read = super.read(b, off, len);
+            if (read > 0)
+            {
+                count(read);
+            }
+            return read;
+        }
+
+        public long skip(final long n) throws IOException
+        {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        public void close()
+        {   // the caller owns the stream
+        }
+
+        private void count(final long read) throws IOException
+        {
+            count += read;
+            if (maximumSize != NO_LIMIT && count > maximumSize)
+            {
+                limit.exceeded = true;
+                throw new IOException(
+                    "document exceeds the maximum size of " + maximumSize);
+            }
+        }
+    }
+
+    private class CountingReader extends FilterReader
+    {
+        private final SizeLimit limit = new SizeLimit();
+
+        private long count;
+
+        private CountingReader(final Reader in)
+        {
+            super(in);
+        }
+
+        public int read() throws IOException
+        {
+            final int read = super.read();
+            if (read != -1)
+            {
+                count(1);
+            }
+            return read;
+        }
+
+        public int read(final char[] cbuf, final int off, final int len)
+            throws IOException
+        {
+            final int read = super.read(cbuf, off, len);
+            if (read > 0)
+            {
+                count(read);
+            }
+            return read;
+        }
+
+        public long skip(final long n) throws IOException
+        {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        public void close()
+        {   // the caller owns the reader
+        }
+
+        private void count(final long read) throws IOException
+        {
+            count += read;
+            if (maximumSize != NO_LIMIT && count > maximumSize)
+            {
+                limit.exceeded = true;
+                throw new IOException(
+                    "document exceeds the maximum size of " + maximumSize);
+            }
+        }
+    }
+}
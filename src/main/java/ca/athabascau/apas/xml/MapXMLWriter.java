@@ -0,0 +1,315 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.w3c.dom.DOMException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes Map/List/String structures as XML, following exactly the same
+ * rules as {@link XMLUtil#mapToNode(Object, org.w3c.dom.Element,
+ * org.w3c.dom.Document, String)}, but without building a DOM or running it
+ * through an identity Transformer.  Elements are written as the structure is
+ * walked, so the only memory used beyond the input is a small output
+ * buffer.
+ * <p/>
+ * The output is byte for byte the same as {@link XMLUtil#mapToXML(String,
+ * Object)}.  If the structure is invalid, such as a List inside of a List,
+ * an exception is thrown part way through, and whatever was written so far
+ * is left in the output.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class MapXMLWriter
+{
+    private final XMLOutput out;
+
+    /**
+     * Set while a start tag has been written, but not yet closed with '>',
+     * so that empty elements can be written as &lt;name/&gt;
+     */
+    private boolean startTagOpen;
+
+    private MapXMLWriter(final XMLOutput out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Writes the elements as an XML document to the writer.  The writer is
+     * flushed, but not closed.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param elements        the elements, whether a list of elements or a
+     *                        map of key/value pairs
+     * @param writer          where to write the document
+     *
+     * @throws IOException if an IO error occurs
+     * @see XMLUtil#mapToXML(String, Object)
+     */
+    public static void write(final String rootElementName,
+        final Object elements, final Writer writer) throws IOException
+    {
+        new MapXMLWriter(XMLOutput.forWriter(writer)).writeDocument(
+            rootElementName, elements);
+    }
+
+    /**
+     * Writes the elements as a UTF-8 encoded XML document to the stream. The
+     * stream is flushed, but not closed.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param elements        the elements, whether a list of elements or a
+     *                        map of key/value pairs
+     * @param out             where to write the document
+     *
+     * @throws IOException if an IO error occurs
+     * @see XMLUtil#mapToXML(String, Object)
+     */
+    public static void write(final String rootElementName,
+        final Object elements, final OutputStream out) throws IOException
+    {
+        new MapXMLWriter(XMLOutput.forStream(out)).writeDocument(
+            rootElementName, elements);
+    }
+
+    /**
+     * Converts the elements to a UTF-8 encoded XML document.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param elements        the elements, whether a list of elements or a
+     *                        map of key/value pairs
+     *
+     * @return the UTF-8 bytes of the document
+     *
+     * @see XMLUtil#mapToXML(String, Object)
+     */
+    public static byte[] toBytes(final String rootElementName,
+        final Object elements)
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+            XMLUtil.BUFFER_CAPACITY);
+        try
+        {
+            write(rootElementName, elements, out);
+        }
+        catch (IOException e)
+        {   // never happens with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void writeDocument(final String rootElementName,
+        final Object elements) throws IOException
+    {
+        out.write(XMLOutput.XML_DECLARATION);
+        startElement(rootElementName);
+        writeElements(elements, null);
+        endElement(rootElementName);
+        out.flush();
+    }
+
+    /**
+     * Walks the structure the same way mapToNode does.
+     *
+     * @param elements        a Map or a List
+     * @param listElementName the name for every element in a List
+     *
+     * @throws IOException if an IO error occurs
+     */
+    private void writeElements(final Object elements,
+        final String listElementName) throws IOException
+    {
+        Object value;
+        if (elements instanceof Map)
+        {
+            final Map<?, ?> map = (Map<?, ?>) elements;
+            final Iterator<?> it = map.keySet().iterator();
+
+            while (it.hasNext())
+            {
+                final String key = (String) it.next();
+
+                value = map.get(key);
+                if (value instanceof Map)
+                {
+                    startElement(key);
+                    writeElements(value, null);
+                    endElement(key);
+                }
+                else if (value instanceof List)
+                {
+                    writeElements(value, key);
+                }
+                else
+                {
+                    checkName(key);
+                    if (value != null)
+                    {   // null elements don't get in
+                        textElement(key, (String) value);
+                    }
+                }
+            }
+        }
+        else if (elements instanceof List)
+        {
+            if (listElementName == null || "".equals(listElementName.trim()))
+            {
+                throw new IllegalArgumentException(
+                    "listElementName can never be null if a list is passed " +
+                        "in for elements");
+            }
+            final List<?> list = (List<?>) elements;
+            for (int index = 0; index < list.size(); index++)
+            {
+                final Object element = list.get(index);
+                if (element instanceof String)
+                {   // text node
+                    textElement(listElementName, (String) element);
+                }
+                else if (element instanceof Map)
+                {   // sub elements that have key/value pairs, or key/List pairs
+                    startElement(listElementName);
+                    writeElements(element, null);
+                    endElement(listElementName);
+                }
+                else if (element instanceof List)
+                {
+                    throw new IllegalArgumentException("List not supported " +
+                        "inside of List, cannot determine element name");
+                }
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("unsupported class type for " +
+                "mapToXML");
+        }
+    }
+
+    private void textElement(final String name, final String text)
+        throws IOException
+    {
+        startElement(name);
+        if (text.length() > 0)
+        {
+            closeStartTag();
+            out.writeText(text);
+        }
+        endElement(name);
+    }
+
+    private void startElement(final String name) throws IOException
+    {
+        checkName(name);
+        closeStartTag();
+        out.write('<');
+        out.write(name);
+        startTagOpen = true;
+    }
+
+    private void endElement(final String name) throws IOException
+    {
+        if (startTagOpen)
+        {
+            out.write("/>");
+            startTagOpen = false;
+        }
+        else
+        {
+            out.write("</");
+            out.write(name);
+            out.write('>');
+        }
+    }
+
+    private void closeStartTag() throws IOException
+    {
+        if (startTagOpen)
+        {
+            out.write('>');
+            startTagOpen = false;
+        }
+    }
+
+    /**
+     * Rejects names that Document.createElement would reject, with the same
+     * exception.
+     *
+     * @param name the element name
+     */
+    static void checkName(final String name)
+    {
+        if (!isXMLName(name))
+        {
+            throw new DOMException(DOMException.INVALID_CHARACTER_ERR,
+                "An invalid or illegal XML character is specified: " + name);
+        }
+    }
+
+    /**
+     * Checks the name against the XML 1.0 Name production.
+     *
+     * @param name the name to check
+     *
+     * @return true if it is a valid XML name
+     */
+    static boolean isXMLName(final String name)
+    {
+        if (name == null || name.length() == 0 ||
+            !isNameStartChar(name.charAt(0)))
+        {
+            return false;
+        }
+        for (int index = 1; index < name.length(); index++)
+        {
+            final char c = name.charAt(index);
+            if (!isNameStartChar(c) && !(c >= '0' && c <= '9') && c != '-' &&
+                c != '.' && c != 0xB7 && !(c >= 0x300 && c <= 0x36F) &&
+                !(c >= 0x203F && c <= 0x2040))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameStartChar(final char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' ||
+            c == ':' || (c >= 0xC0 && c <= 0xD6) || (c >= 0xD8 && c <= 0xF6) ||
+            (c >= 0xF8 && c <= 0x2FF) || (c >= 0x370 && c <= 0x37D) ||
+            (c >= 0x37F && c <= 0x1FFF) || (c >= 0x200C && c <= 0x200D) ||
+            (c >= 0x2070 && c <= 0x218F) || (c >= 0x2C00 && c <= 0x2FEF) ||
+            (c >= 0x3001 && c <= 0xD7FF) || (c >= 0xF900 && c <= 0xFDCF) ||
+            (c >= 0xFDF0 && c <= 0xFFFD) || Character.isSurrogate(c);
+    }
+}
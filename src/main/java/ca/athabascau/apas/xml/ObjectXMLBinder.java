@@ -0,0 +1,696 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TimeZone;
+
+/**
+ * Writes arbitrary objects as XML, so that callers don't have to copy their
+ * domain objects into HashMaps for {@link XMLUtil#mapToXML(String, Object)}
+ * first.  Maps, Lists and Strings follow exactly the same rules as mapToXML,
+ * and produce the same output, and on top of those;
+ * <ul>
+ * <li>beans become an element with a child element for each of it's
+ * getters, in alphabetical order, and records a child element for each
+ * component, in declaration order</li>
+ * <li>any Collection or array, not just a List, becomes one element per
+ * item, named by the property or key that holds it</li>
+ * <li>Calendars and Dates become xs:dateTimes in their own, or the default,
+ * zone; LocalDates become xs:dates, and the other java.time date/times
+ * become xs:dateTimes</li>
+ * <li>numbers, booleans, characters and enum names are written as text,
+ * byte[]s as base64, and an Optional as it's value</li>
+ * <li>any other class from the JDK is written as it's toString()</li>
+ * </ul>
+ * Null values don't get in, just as with mapToXML.
+ * <p/>
+ * The getters of each class are found once, and kept as MethodHandles, so
+ * there is no reflective lookup per object.  Elements are written as the
+ * graph is walked, so large graphs never exist in memory twice.  A graph
+ * that refers back to itself is rejected, rather than written forever.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public final class ObjectXMLBinder
+{
+    private static final TimeZone UTC = XsDateCodec.zone("UTC");
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final MethodType GETTER_TYPE =
+        MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Class.isRecord() and Class.getRecordComponents(), which are only there
+     * on Java 16 and up.
+     */
+    private static final Method IS_RECORD;
+
+    private static final Method GET_RECORD_COMPONENTS;
+
+    static
+    {
+        Method isRecord = null;
+        Method components = null;
+        try
+        {
+            isRecord = Class.class.getMethod("isRecord");
+            components = Class.class.getMethod("getRecordComponents");
+        }
+        catch (NoSuchMethodException e)
+        {   // older JVM, so there are no records to find
+        }
+        IS_RECORD = isRecord;
+        GET_RECORD_COMPONENTS = components;
+    }
+
+    /**
+     * The properties of each class, found the first time it is written.
+     */
+    private static final ClassValue<Property[]> PROPERTIES =
+        new ClassValue<Property[]>()
+        {
+            protected Property[] computeValue(final Class<?> type)
+            {
+                return isRecord(type) ? recordProperties(type) :
+                    beanProperties(type);
+            }
+        };
+
+    private final XMLOutput out;
+
+    private final char[] dates = new char[XsDateCodec.MAXIMUM_LENGTH];
+
+    /**
+     * The Maps and beans being written, from the root down to the current
+     * one, to catch cycles.
+     */
+    private final Map<Object, Object> path =
+        new IdentityHashMap<Object, Object>();
+
+    /**
+     * Set while a start tag has been written, but not yet closed with '>',
+     * so that empty elements can be written as &lt;name/&gt;
+     */
+    private boolean startTagOpen;
+
+    private ObjectXMLBinder(final XMLOutput out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Writes the object as an XML document to the writer.  The writer is
+     * flushed, but not closed.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param value           the bean, record, or Map to write.  A Collection
+     *                        or array is rejected, as there is nothing to
+     *                        name it's items
+     * @param writer          where to write the document
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public static void write(final String rootElementName, final Object value,
+        final Writer writer) throws IOException
+    {
+        new ObjectXMLBinder(XMLOutput.forWriter(writer)).writeDocument(
+            rootElementName, value);
+    }
+
+    /**
+     * Writes the object as a UTF-8 encoded XML document to the stream.  The
+     * stream is flushed, but not closed.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param value           the bean, record, or Map to write
+     * @param out             where to write the document
+     *
+     * @throws IOException if an IO error occurs
+     * @see #write(String, Object, Writer)
+     */
+    public static void write(final String rootElementName, final Object value,
+        final OutputStream out) throws IOException
+    {
+        new ObjectXMLBinder(XMLOutput.forStream(out)).writeDocument(
+            rootElementName, value);
+    }
+
+    /**
+     * Converts the object to a UTF-8 encoded XML document.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param value           the bean, record, or Map to write
+     *
+     * @return the UTF-8 bytes of the document
+     *
+     * @see #write(String, Object, Writer)
+     */
+    public static byte[] toBytes(final String rootElementName,
+        final Object value)
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+            XMLUtil.BUFFER_CAPACITY);
+        try
+        {
+            write(rootElementName, value, out);
+        }
+        catch (IOException e)
+        {   // never happens with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void writeDocument(final String rootElementName,
+        final Object value) throws IOException
+    {
+        final Object root = unwrap(value);
+        if (isRepeated(root))
+        {
+            throw new IllegalArgumentException("a Collection or array " +
+                "cannot be the root element, cannot determine element name");
+        }
+        out.write(XMLOutput.XML_DECLARATION);
+        startElement(rootElementName);
+        writeContent(rootElementName, root);
+        endElement(rootElementName);
+        out.flush();
+    }
+
+    /**
+     * Writes the value as an element, or as one element per item if it is a
+     * Collection or array.
+     */
+    private void writeElement(final String name, final Object value)
+        throws IOException
+    {
+        MapXMLWriter.checkName(name);
+        final Object element = unwrap(value);
+        if (element == null)
+        {   // null elements don't get in
+            return;
+        }
+        if (isRepeated(element))
+        {
+            writeItems(name, element);
+        }
+        else
+        {
+            startElement(name);
+            writeContent(name, element);
+            endElement(name);
+        }
+    }
+
+    private void writeItems(final String name, final Object items)
+        throws IOException
+    {
+        if (items instanceof Collection)
+        {
+            final Iterator<?> it = ((Collection<?>) items).iterator();
+            while (it.hasNext())
+            {
+                writeItem(name, it.next());
+            }
+        }
+        else if (items instanceof Object[])
+        {
+            final Object[] array = (Object[]) items;
+            for (int index = 0; index < array.length; index++)
+            {
+                writeItem(name, array[index]);
+            }
+        }
+        else
+        {   // primitives, which are boxed one at a time
+            final int length = Array.getLength(items);
+            for (int index = 0; index < length; index++)
+            {
+                writeItem(name, Array.get(items, index));
+            }
+        }
+    }
+
+    private void writeItem(final String name, final Object item)
+        throws IOException
+    {
+        if (isRepeated(unwrap(item)))
+        {
+            throw new IllegalArgumentException("Collection not supported " +
+                "inside of Collection, cannot determine element name");
+        }
+        writeElement(name, item);
+    }
+
+    /**
+     * Writes what goes between the start and end tags of the element.
+     */
+    private void writeContent(final String name, final Object value)
+        throws IOException
+    {
+        if (value == null)
+        {
+            return;
+        }
+        if (isText(value))
+        {
+            writeText(value);
+            return;
+        }
+
+        if (path.put(value, value) != null)
+        {
+            throw new IllegalArgumentException("the object graph refers " +
+                "back to itself at " + name);
+        }
+        if (value instanceof Map)
+        {
+            final Iterator<? extends Map.Entry<?, ?>> it =
+                ((Map<?, ?>) value).entrySet().iterator();
+            while (it.hasNext())
+            {
+                final Map.Entry<?, ?> entry = it.next();
+                writeElement(String.valueOf(entry.getKey()), entry.getValue());
+            }
+        }
+        else
+        {
+            final Property[] properties = properties(value.getClass());
+            for (int index = 0; index < properties.length; index++)
+            {
+                writeElement(properties[index].name,
+                    properties[index].get(value));
+            }
+        }
+        path.remove(value);
+    }
+
+    private void writeText(final Object value) throws IOException
+    {
+        final String text;
+        if (value instanceof String)
+        {
+            text = (String) value;
+        }
+        else if (value instanceof Calendar)
+        {
+            final Calendar calendar = (Calendar) value;
+            text = new String(dates, 0, XsDateCodec.formatDateTime(
+                calendar.getTimeInMillis(), calendar.getTimeZone(), dates, 0));
+        }
+        else if (value instanceof Date)
+        {
+            text = new String(dates, 0, XsDateCodec.formatDateTime(
+                ((Date) value).getTime(), TimeZone.getDefault(), dates, 0));
+        }
+        else if (value instanceof LocalDate)
+        {
+            text = new String(dates, 0, XsDateCodec.formatDate(
+                ((LocalDate) value).toEpochDay() * MILLIS_PER_DAY, UTC,
+                dates, 0));
+        }
+        else if (value instanceof Instant)
+        {
+            text = DateTimeFormatter.ISO_INSTANT.format((Instant) value);
+        }
+        else if (value instanceof LocalDateTime)
+        {
+            text = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(
+                (LocalDateTime) value);
+        }
+        else if (value instanceof OffsetDateTime ||
+            value instanceof ZonedDateTime)
+        {   // xs:dateTime has no room for the region, only the offset
+            text = DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(
+                (TemporalAccessor) value);
+        }
+        else if (value instanceof Double || value instanceof Float)
+        {
+            text = formatDouble(((Number) value).doubleValue(),
+                value.toString());
+        }
+        else if (value instanceof Enum)
+        {
+            text = ((Enum) value).name();
+        }
+        else if (value instanceof byte[])
+        {
+            text = Base64.getEncoder().encodeToString((byte[]) value);
+        }
+        else if (value instanceof char[])
+        {
+            text = new String((char[]) value);
+        }
+        else
+        {
+            text = value.toString();
+        }
+
+        if (text.length() > 0)
+        {
+            closeStartTag();
+            out.writeText(text);
+        }
+    }
+
+    /**
+     * Uses the xs:double spellings of infinity.
+     */
+    private static String formatDouble(final double value,
+        final String text)
+    {
+        if (value == Double.POSITIVE_INFINITY)
+        {
+            return "INF";
+        }
+        else if (value == Double.NEGATIVE_INFINITY)
+        {
+            return "-INF";
+        }
+        return text;
+    }
+
+    private void startElement(final String name) throws IOException
+    {
+        MapXMLWriter.checkName(name);
+        closeStartTag();
+        out.write('<');
+        out.write(name);
+        startTagOpen = true;
+    }
+
+    private void endElement(final String name) throws IOException
+    {
+        if (startTagOpen)
+        {
+            out.write("/>");
+            startTagOpen = false;
+        }
+        else
+        {
+            out.write("</");
+            out.write(name);
+            out.write('>');
+        }
+    }
+
+    private void closeStartTag() throws IOException
+    {
+        if (startTagOpen)
+        {
+            out.write('>');
+            startTagOpen = false;
+        }
+    }
+
+    private static Object unwrap(final Object value)
+    {
+        if (value instanceof Optional)
+        {
+            return ((Optional<?>) value).orElse(null);
+        }
+        return value;
+    }
+
+    private static boolean isRepeated(final Object value)
+    {
+        return value instanceof Collection || (value != null &&
+            value.getClass().isArray() && !(value instanceof byte[]) &&
+            !(value instanceof char[]));
+    }
+
+    /**
+     * @return true if the value is written as text, rather than as child
+     *         elements
+     */
+    private static boolean isText(final Object value)
+    {
+        if (value instanceof CharSequence || value instanceof Number ||
+            value instanceof Boolean || value instanceof Character ||
+            value instanceof Enum || value instanceof byte[] ||
+            value instanceof char[])
+        {
+            return true;
+        }
+        if (value instanceof Map)
+        {
+            return false;
+        }
+        final String className = value.getClass().getName();
+        return className.startsWith("java.") || className.startsWith("javax.");
+    }
+
+    /**
+     * Retrieves the properties of the class, which are found once and then
+     * cached for the life of the class.
+     *
+     * @param type a bean or record class
+     *
+     * @return the properties, in the order they are written
+     */
+    static Property[] properties(final Class<?> type)
+    {
+        return PROPERTIES.get(type);
+    }
+
+    private static boolean isRecord(final Class<?> type)
+    {
+        if (IS_RECORD == null)
+        {
+            return false;
+        }
+        try
+        {
+            return ((Boolean) IS_RECORD.invoke(type)).booleanValue();
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(
+                "unable to inspect " + type.getName(), e);
+        }
+    }
+
+    private static Property[] recordProperties(final Class<?> type)
+    {
+        try
+        {
+            final Object[] components =
+                (Object[]) GET_RECORD_COMPONENTS.invoke(type);
+            final Property[] properties = new Property[components.length];
+            for (int index = 0; index < components.length; index++)
+            {
+                final Class<?> componentType = components[index].getClass();
+                final String name = (String) componentType.getMethod(
+                    "getName").invoke(components[index]);
+                final Method accessor = (Method) componentType.getMethod(
+                    "getAccessor").invoke(components[index]);
+                properties[index] = new Property(name, getter(accessor));
+            }
+            return properties;
+        }
+        catch (IllegalStateException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(
+                "unable to inspect " + type.getName(), e);
+        }
+    }
+
+    private static Property[] beanProperties(final Class<?> type)
+    {
+        final List<Property> properties = new ArrayList<Property>();
+        final Method[] methods = type.getMethods();
+        for (int index = 0; index < methods.length; index++)
+        {
+            final Method method = methods[index];
+            final String name = propertyName(method);
+            if (name != null)
+            {
+                properties.add(new Property(name, getter(method)));
+            }
+        }
+        Collections.sort(properties, new Comparator<Property>()
+        {
+            public int compare(final Property left, final Property right)
+            {
+                return left.name.compareTo(right.name);
+            }
+        });
+        return properties.toArray(new Property[properties.size()]);
+    }
+
+    /**
+     * Works out the bean property read by the method, following the
+     * java.beans naming rules.
+     *
+     * @return the name, or null if the method is not a getter
+     */
+    static String propertyName(final Method method)
+    {
+        if (Modifier.isStatic(method.getModifiers()) || method.isBridge() ||
+            method.getParameterTypes().length != 0 ||
+            method.getReturnType() == void.class ||
+            method.getDeclaringClass() == Object.class)
+        {
+            return null;
+        }
+        final String name = method.getName();
+        final int prefix;
+        if (name.startsWith("get"))
+        {
+            prefix = 3;
+        }
+        else if (name.startsWith("is") &&
+            method.getReturnType() == boolean.class)
+        {
+            prefix = 2;
+        }
+        else
+        {
+            return null;
+        }
+        if (name.length() == prefix ||
+            !Character.isUpperCase(name.charAt(prefix)))
+        {
+            return null;
+        }
+        if (name.length() > prefix + 1 &&
+            Character.isUpperCase(name.charAt(prefix + 1)))
+        {   // an acronym, such as getURL, is left alone
+            return name.substring(prefix);
+        }
+        return Character.toLowerCase(name.charAt(prefix)) +
+            name.substring(prefix + 1);
+    }
+
+    /**
+     * Turns the getter into a MethodHandle taking and returning Object, so
+     * that every property is called the same way.
+     */
+    private static MethodHandle getter(final Method method)
+    {
+        try
+        {
+            if (!Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+            {   // a public method of a private class
+                method.setAccessible(true);
+            }
+            else if (!method.isAccessible())
+            {   // a public class may still be nested in a private one
+                try
+                {
+                    method.setAccessible(true);
+                }
+                catch (RuntimeException e)
+                {   // unreflect will say so, if it matters
+                }
+            }
+            return MethodHandles.lookup().unreflect(method).asType(
+                GETTER_TYPE);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException("unable to access " + method, e);
+        }
+    }
+
+    /**
+     * A readable property of a bean or record.
+     */
+    static final class Property
+    {
+        private final String name;
+
+        private final MethodHandle getter;
+
+        private Property(final String name, final MethodHandle getter)
+        {
+            this.name = name;
+            this.getter = getter;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        Object get(final Object bean)
+        {
+            try
+            {
+                return (Object) getter.invokeExact(bean);
+            }
+            catch (RuntimeException e)
+            {
+                throw e;
+            }
+            catch (Error e)
+            {
+                throw e;
+            }
+            catch (Throwable e)
+            {
+                throw new IllegalStateException("unable to read " + name +
+                    " from " + bean.getClass().getName(), e);
+            }
+        }
+
+        public String toString()
+        {
+            return "Property{name=" + name + '}';
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics for one operation, or one operation on one stylesheet, as
+ * recorded by {@link JMXMetrics}.  Recording is lock free, using striped
+ * counters, so that threads recording the same operation do not contend
+ * with each other.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class OperationStats implements OperationStatsMBean
+{
+    /**
+     * Enough power of two buckets for about 36 minutes, in nanoseconds.
+     */
+    private static final int BUCKETS = 42;
+
+    private final String operation;
+
+    private final String stylesheet;
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder warnings = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos =
+        new LongAccumulator(Math::max, 0);
+
+    private final LongAdder inputTotal = new LongAdder();
+
+    private final LongAdder outputTotal = new LongAdder();
+
+    private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+    /**
+     * @param operation  the operation or phase
+     * @param stylesheet the stylesheet, or null
+     */
+    public OperationStats(final String operation, final String stylesheet)
+    {
+        this.operation = operation;
+        this.stylesheet = stylesheet;
+        for (int index = 0; index < BUCKETS; index++)
+        {
+            histogram[index] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one call.
+     *
+     * @param nanos  how long it took
+     * @param input  the bytes or characters read, or {@link
+     *               XMLMetrics#UNKNOWN}
+     * @param output the bytes or characters written, or {@link
+     *               XMLMetrics#UNKNOWN}
+     * @param failed true if it failed
+     */
+    public void record(final long nanos, final long input, final long output,
+        final boolean failed)
+    {
+        count.increment();
+        if (failed)
+        {
+            failures.increment();
+        }
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        histogram[bucket(nanos)].increment();
+        if (input > 0)
+        {
+            inputTotal.add(input);
+        }
+        if (output > 0)
+        {
+            outputTotal.add(output);
+        }
+    }
+
+    /**
+     * Records a warning.
+     */
+    public void warning()
+    {
+        warnings.increment();
+    }
+
+    private static int bucket(final long nanos)
+    {
+        if (nanos <= 0)
+        {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    public String getStylesheet()
+    {
+        return stylesheet;
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getFailureCount()
+    {
+        return failures.sum();
+    }
+
+    public long getWarningCount()
+    {
+        return warnings.sum();
+    }
+
+    public long getTotalTimeMillis()
+    {
+        return totalNanos.sum() / 1000000;
+    }
+
+    public double getMeanTimeMicros()
+    {
+        final long calls = count.sum();
+        return calls == 0 ? 0 : totalNanos.sum() / 1000.0 / calls;
+    }
+
+    public long getMaxTimeMicros()
+    {
+        return maxNanos.get() / 1000;
+    }
+
+    public long getMedianTimeMicros()
+    {
+        return percentile(0.5);
+    }
+
+    public long get90thPercentileTimeMicros()
+    {
+        return percentile(0.9);
+    }
+
+    public long get99thPercentileTimeMicros()
+    {
+        return percentile(0.99);
+    }
+
+    /**
+     * @param fraction the fraction of calls, from 0 to 1
+     *
+     * @return the upper bound, in microseconds, of the bucket holding that
+     *         fraction of calls
+     */
+    private long percentile(final double fraction)
+    {
+        final long[] counts = getHistogram();
+        long total = 0;
+        for (int index = 0; index < counts.length; index++)
+        {
+            total += counts[index];
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+        final long wanted = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++)
+        {
+            seen += counts[index];
+            if (seen >= wanted)
+            {
+                return (1L << index) / 1000;
+            }
+        }
+        return maxNanos.get() / 1000;
+    }
+
+    public long getInputTotal()
+    {
+        return inputTotal.sum();
+    }
+
+    public long getOutputTotal()
+    {
+        return outputTotal.sum();
+    }
+
+    public long[] getHistogram()
+    {
+        final long[] counts = new long[BUCKETS];
+        for (int index = 0; index < BUCKETS; index++)
+        {
+            counts[index] = histogram[index].sum();
+        }
+        return counts;
+    }
+
+    public void reset()
+    {
+        count.reset();
+        failures.reset();
+        warnings.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        inputTotal.reset();
+        outputTotal.reset();
+        for (int index = 0; index < BUCKETS; index++)
+        {
+            histogram[index].reset();
+        }
+    }
+
+    public String toString()
+    {
+        return operation + (stylesheet == null ? "" : " " + stylesheet) +
+            "[count=" + getCount() + ", failures=" + getFailureCount() +
+            ", warnings=" + getWarningCount() + ", totalMillis=" +
+            getTotalTimeMillis() + ", meanMicros=" + getMeanTimeMicros() +
+            ", maxMicros=" + getMaxTimeMicros() + "]";
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+/**
+ * The JMX view of the {@link OperationStats} for one operation, or one
+ * operation on one stylesheet.  Times are wall clock times.  Percentiles
+ * come from a histogram of power of two buckets, so they are upper bounds
+ * accurate to within a factor of two, which is plenty for telling a 2ms
+ * stylesheet from a 200ms one.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public interface OperationStatsMBean
+{
+    String getOperation();
+
+    /**
+     * @return the stylesheet, or null for the operation as a whole
+     */
+    String getStylesheet();
+
+    long getCount();
+
+    long getFailureCount();
+
+    long getWarningCount();
+
+    long getTotalTimeMillis();
+
+    double getMeanTimeMicros();
+
+    long getMaxTimeMicros();
+
+    long getMedianTimeMicros();
+
+    long get90thPercentileTimeMicros();
+
+    long get99thPercentileTimeMicros();
+
+    /**
+     * @return the total bytes or characters read, by the calls that knew
+     */
+    long getInputTotal();
+
+    /**
+     * @return the total bytes or characters written, by the calls that knew
+     */
+    long getOutputTotal();
+
+    /**
+     * @return the number of calls taking up to 2^i nanoseconds, for each i
+     */
+    long[] getHistogram();
+
+    /**
+     * Starts counting from zero again.
+     */
+    void reset();
+}
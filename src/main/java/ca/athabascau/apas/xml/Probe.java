@@ -0,0 +1,419 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures one call for the installed {@link XMLMetrics}.  When metrics are
+ * disabled, {@link #start(String, String)} hands back a shared probe that
+ * does nothing, and the streams given to it are not wrapped, so the only
+ * cost is checking whether they are enabled.
+ * <pre>
+ * final Probe probe = Probe.start(XMLMetrics.PARSE, null);
+ * try
+ * {
+ *     ...
+ *     probe.succeeded();
+ * }
+ * finally
+ * {
+ *     probe.stop();
+ * }
+ * </pre>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class Probe
+{
+    private static final Probe DISABLED = new Probe(null, null, null);
+
+    private final XMLMetrics metrics;
+
+    private final String operation;
+
+    private final long start;
+
+    private String stylesheet;
+
+    private long input = XMLMetrics.UNKNOWN;
+
+    private long output = XMLMetrics.UNKNOWN;
+
+    private boolean succeeded;
+
+    private Probe(final XMLMetrics metrics, final String operation,
+        final String stylesheet)
+    {
+        this.metrics = metrics;
+        this.operation = operation;
+        this.stylesheet = stylesheet;
+        start = metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Starts measuring, if metrics are enabled.
+     *
+     * @param operation  the operation or phase
+     * @param stylesheet the stylesheet, or null
+     *
+     * @return the probe, which must be stopped
+     */
+    static Probe start(final String operation, final String stylesheet)
+    {
+        final XMLMetrics metrics = XMLUtil.getMetrics();
+        if (!metrics.isEnabled())
+        {
+            return DISABLED;
+        }
+        return new Probe(metrics, operation, stylesheet);
+    }
+
+    /**
+     * @return true if this probe is recording
+     */
+    boolean isEnabled()
+    {
+        return metrics != null;
+    }
+
+    void setStylesheet(final String stylesheet)
+    {
+        if (metrics != null)
+        {
+            this.stylesheet = stylesheet;
+        }
+    }
+
+    /**
+     * @param count the number of bytes or characters read
+     */
+    void input(final long count)
+    {
+        if (metrics != null)
+        {
+            input = count;
+        }
+    }
+
+    /**
+     * @param count the number of bytes or characters written
+     */
+    void output(final long count)
+    {
+        if (metrics != null)
+        {
+            output = count;
+        }
+    }
+
+    /**
+     * Marks the call as having succeeded.  Without it, {@link #stop()}
+     * records a failure.
+     */
+    void succeeded()
+    {
+        succeeded = true;
+    }
+
+    /**
+     * Records the call.
+     */
+    void stop()
+    {
+        if (metrics != null)
+        {
+            metrics.record(operation, stylesheet, System.nanoTime() - start,
+                input, output, !succeeded);
+        }
+    }
+
+    /**
+     * Counts the size of xml given to xslTransformation.  Sizes that are
+     * already known are recorded straight away, and streams are wrapped to
+     * count what is read from them.
+     *
+     * @param xml the xml, as described by {@link XMLUtil#xslTransformation(Object,
+     *            Object, java.util.Map)}
+     *
+     * @return the xml to use in it's place
+     */
+    Object countInput(final Object xml)
+    {
+        if (metrics == null)
+        {
+            return xml;
+        }
+        if (xml instanceof String)
+        {
+            input = ((String) xml).length();
+        }
+        else if (xml instanceof byte[])
+        {
+            input = ((byte[]) xml).length;
+        }
+        else if (xml instanceof File)
+        {
+            input = ((File) xml).length();
+        }
+        else if (xml instanceof ByteBuffer)
+        {
+            input = ((ByteBuffer) xml).remaining();
+        }
+        else if (xml instanceof Path)
+        {
+            try
+            {
+                input = Files.size((Path) xml);
+            }
+            catch (IOException e)
+            {   // the transformation will report it
+                input = 0;
+            }
+        }
+        else if (xml instanceof ReadableByteChannel)
+        {
+            input = 0;
+            return new CountingInputStream(
+                ByteInput.stream((ReadableByteChannel) xml));
+        }
+        else if (xml instanceof InputStream)
+        {
+            input = 0;
+            return new CountingInputStream((InputStream) xml);
+        }
+        else if (xml instanceof Reader)
+        {
+            input = 0;
+            return new CountingReader((Reader) xml);
+        }
+        return xml;
+    }
+
+    /**
+     * Copies the input source, with it's stream or reader wrapped to count
+     * what is read from it.  The caller's input source is left alone.
+     *
+     * @param is the input source
+     *
+     * @return the input source to use in it's place
+     */
+    InputSource countInput(final InputSource is)
+    {
+        if (metrics == null ||
+            (is.getByteStream() == null && is.getCharacterStream() == null))
+        {
+            return is;
+        }
+        final InputSource counted = new InputSource();
+        counted.setPublicId(is.getPublicId());
+        counted.setSystemId(is.getSystemId());
+        counted.setEncoding(is.getEncoding());
+        input = 0;
+        if (is.getCharacterStream() != null)
+        {   // the parser prefers the characters, when given both
+            counted.setCharacterStream(
+                new CountingReader(is.getCharacterStream()));
+        }
+        else
+        {
+            counted.setByteStream(new CountingInputStream(is.getByteStream()));
+        }
+        return counted;
+    }
+
+    /**
+     * Wraps the stream or writer of a StreamResult to count what is written
+     * to it.  Anything else is returned as is.
+     *
+     * @param result the result
+     *
+     * @return the result to use in it's place
+     */
+    Result countOutput(final Result result)
+    {
+        if (metrics == null || !(result instanceof StreamResult))
+        {
+            return result;
+        }
+        final StreamResult stream = (StreamResult) result;
+        final StreamResult counted;
+        if (stream.getOutputStream() != null)
+        {
+            counted = new StreamResult(countOutput(stream.getOutputStream()));
+        }
+        else if (stream.getWriter() != null)
+        {
+            counted = new StreamResult(countOutput(stream.getWriter()));
+        }
+        else
+        {
+            return result;
+        }
+        counted.setSystemId(stream.getSystemId());
+        return counted;
+    }
+
+    OutputStream countOutput(final OutputStream out)
+    {
+        if (metrics == null)
+        {
+            return out;
+        }
+        output = 0;
+        return new CountingOutputStream(out);
+    }
+
+    Writer countOutput(final Writer writer)
+    {
+        if (metrics == null)
+        {
+            return writer;
+        }
+        output = 0;
+        return new CountingWriter(writer);
+    }
+
+    private class CountingInputStream extends FilterInputStream
+    {
+        private CountingInputStream(final InputStream in)
+        {
+            super(in);
+        }
+
+        public int read() throws IOException
+        {
+            final int read = super.read();
+            if (read != -1)
+            {
+                input++;
+            }
+            return read;
+        }
+
+        public int read(final byte[] b, final int off, final int len)
+            throws IOException
+        {
+            final int read = super.read(b, off, len);
+            if (read > 0)
+            {
+                input += read;
+            }
+            return read;
+        }
+    }
+
+    private class CountingReader extends FilterReader
+    {
+        private CountingReader(final Reader in)
+        {
+            super(in);
+        }
+
+        public int read() throws IOException
+        {
+            final int read = super.read();
+            if (read != -1)
+            {
+                input++;
+            }
+            return read;
+        }
+
+        public int read(final char[] cbuf, final int off, final int len)
+            throws IOException
+        {
+            final int read = super.read(cbuf, off, len);
+            if (read > 0)
+            {
+                input += read;
+            }
+            return read;
+        }
+    }
+
+    private class CountingOutputStream extends FilterOutputStream
+    {
+        private CountingOutputStream(final OutputStream out)
+        {
+            super(out);
+        }
+
+        public void write(final int b) throws IOException
+        {
+            out.write(b);
+            output++;
+        }
+
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException
+        {   // FilterOutputStream would write a byte at a time
+            out.write(b, off, len);
+            output += len;
+        }
+    }
+
+    private class CountingWriter extends FilterWriter
+    {
+        private CountingWriter(final Writer out)
+        {
+            super(out);
+        }
+
+        public void write(final int c) throws IOException
+        {
+            out.write(c);
+            output++;
+        }
+
+        public void write(final char[] cbuf, final int off, final int len)
+            throws IOException
+        {
+            out.write(cbuf, off, len);
+            output += len;
+        }
+
+        public void write(final String str, final int off, final int len)
+            throws IOException
+        {
+            out.write(str, off, len);
+            output += len;
+        }
+    }
+}
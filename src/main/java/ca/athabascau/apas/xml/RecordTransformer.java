@@ -0,0 +1,789 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Transforms a huge document one record at a time, so that memory is bounded
+ * by the size of the largest record rather than the size of the document.
+ * The document is read with StAX, and each element matching the record path
+ * is copied into a small DOM of it's own and transformed with the cached
+ * stylesheet.  Everything outside of the records is skipped.
+ * <p/>
+ * The record path is either an element name, such as "Student", which
+ * matches that element at any depth, or a path of element names, such as
+ * "/Export/Students/Student" from the root, or "Students/Student" at any
+ * depth.  Only local names are compared, and a record is never searched for
+ * records nested inside of it.
+ * <p/>
+ * The stylesheet sees each record as the document element of it's own
+ * document, with the namespace declarations of it's ancestors copied onto
+ * it.  The transformed records are written to the sink one after the other,
+ * in document order, so the stylesheet should usually omit the xml
+ * declaration.
+ * <p/>
+ * With an executor, up to maximumInFlight records are transformed in
+ * parallel, and their output is buffered until it is their turn to be
+ * written.  A record transformer may be shared by any number of threads.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class RecordTransformer
+{
+    private static final Logger logger =
+        Logger.getLogger(RecordTransformer.class);
+
+    private static final int FILE_BUFFER_SIZE = 8192;
+
+    private static final XMLInputFactory inputFactory;
+
+    static
+    {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,
+            Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final Templates templates;
+
+    /**
+     * Names the stylesheet in the {@link XMLMetrics}.
+     */
+    private final String stylesheet;
+
+    private final String record;
+
+    private final String[] path;
+
+    private final boolean absolute;
+
+    private final Executor executor;
+
+    private final int maximumInFlight;
+
+    /**
+     * Each thread's own Transformer.  A Transformer that fails part way
+     * through is thrown away rather than trusted with the next record.
+     */
+    private final ThreadLocal<Transformer> transformers =
+        new ThreadLocal<Transformer>();
+
+    /**
+     * Creates a record transformer that transforms the records one after the
+     * other, on the calling thread.
+     *
+     * @param xsl    a String classpath name, or a java.io.File object, see
+     *               {@link XMLUtil#xslTransformation(Object, Object, Map)}
+     * @param record the element name or path of the records
+     *
+     * @throws TransformerException if the stylesheet could not be compiled
+     * @throws IOException          if an IO error occurs reading the
+     *                              stylesheet
+     */
+    public RecordTransformer(final Object xsl, final String record)
+        throws TransformerException, IOException
+    {
+        this(xsl, record, null, 1);
+    }
+
+    /**
+     * Creates a record transformer that transforms records in parallel.
+     *
+     * @param xsl             a String classpath name, or a java.io.File
+     *                        object, see {@link XMLUtil#xslTransformation(Object,
+     *                        Object, Map)}
+     * @param record          the element name or path of the records
+     * @param executor        runs the transformations, or null to run them
+     *                        on the calling thread
+     * @param maximumInFlight the most records that may be read and not yet
+     *                        written, which bounds the memory used
+     *
+     * @throws TransformerException if the stylesheet could not be compiled
+     * @throws IOException          if an IO error occurs reading the
+     *                              stylesheet
+     */
+    public RecordTransformer(final Object xsl, final String record,
+        final Executor executor, final int maximumInFlight)
+        throws TransformerException, IOException
+    {
+        if (record == null || record.length() == 0 || record.equals("/"))
+        {
+            throw new IllegalArgumentException("record must not be empty");
+        }
+        if (maximumInFlight < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumInFlight must be greater than zero: " +
+                    maximumInFlight);
+        }
+        absolute = record.startsWith("/");
+        path = (absolute ? record.substring(1) : record).split("/");
+        for (int index = 0; index < path.length; index++)
+        {
+            if (path[index].length() == 0)
+            {
+                throw new IllegalArgumentException(
+                    "invalid record path \"" + record + "\"");
+            }
+        }
+        this.templates = XMLUtil.getTemplatesCache().getTemplates(xsl);
+        this.stylesheet = TemplatesCache.keyFor(xsl instanceof File ?
+            ((File) xsl).getAbsoluteFile() : xsl);
+        this.record = record;
+        this.executor = executor;
+        this.maximumInFlight = maximumInFlight;
+    }
+
+    /**
+     * Transforms every record, writing the output to the stream.  The stream
+     * is flushed, but not closed.
+     *
+     * @param xml        the document, as a String, byte[], ByteBuffer, Path,
+     *                   File, InputStream, Reader or ReadableByteChannel.
+     *                   Files are opened and closed here, streams are not
+     *                   closed
+     * @param parameters the parameters to pass to the stylesheet for every
+     *                   record, or null
+     * @param out        the stream to write the transformed records to
+     *
+     * @return the number of records transformed
+     *
+     * @throws TransformerException if the document is not well formed, or a
+     *                              record could not be transformed
+     * @throws IOException          if an IO error occurs
+     */
+    public long transform(final Object xml, final Map<String, ?> parameters,
+        final OutputStream out) throws TransformerException, IOException
+    {
+        if (out == null)
+        {
+            throw new IllegalArgumentException("out must not be null");
+        }
+        final long records = transform(xml, parameters, new Sink()
+        {
+            StreamResult direct()
+            {
+                return new StreamResult(out);
+            }
+
+            Object newBuffer()
+            {
+                return new ByteArrayOutputStream();
+            }
+
+            StreamResult buffered(final Object buffer)
+            {
+                return new StreamResult((ByteArrayOutputStream) buffer);
+            }
+
+            void write(final Object buffer) throws IOException
+            {
+                ((ByteArrayOutputStream) buffer).writeTo(out);
+            }
+        });
+        out.flush();
+        return records;
+    }
+
+    /**
+     * Transforms every record, writing the output to the writer.  The writer
+     * is flushed, but not closed.
+     *
+     * @param xml        see {@link #transform(Object, Map, OutputStream)}
+     * @param parameters the parameters to pass to the stylesheet for every
+     *                   record, or null
+     * @param out        the writer to write the transformed records to
+     *
+     * @return the number of records transformed
+     *
+     * @throws TransformerException if the document is not well formed, or a
+     *                              record could not be transformed
+     * @throws IOException          if an IO error occurs
+     */
+    public long transform(final Object xml, final Map<String, ?> parameters,
+        final Writer out) throws TransformerException, IOException
+    {
+        if (out == null)
+        {
+            throw new IllegalArgumentException("out must not be null");
+        }
+        final long records = transform(xml, parameters, new Sink()
+        {
+            StreamResult direct()
+            {
+                return new StreamResult(out);
+            }
+
+            Object newBuffer()
+            {
+                return new StringWriter();
+            }
+
+            StreamResult buffered(final Object buffer)
+            {
+                return new StreamResult((StringWriter) buffer);
+            }
+
+            void write(final Object buffer) throws IOException
+            {
+                out.write(((StringWriter) buffer).toString());
+            }
+        });
+        out.flush();
+        return records;
+    }
+
+    private long transform(final Object xml, final Map<String, ?> parameters,
+        final Sink sink) throws TransformerException, IOException
+    {
+        if (xml == null)
+        {
+            throw new IllegalArgumentException("xml must not be null");
+        }
+        InputStream opened = null;
+        try
+        {
+            final XMLStreamReader reader;
+            if (xml instanceof File || xml instanceof Path)
+            {
+                opened = new BufferedInputStream(xml instanceof File ?
+                    new FileInputStream((File) xml) :
+                    Files.newInputStream((Path) xml), FILE_BUFFER_SIZE);
+                reader = newReader(opened);
+            }
+            else if (xml instanceof String)
+            {
+                reader = newReader(new StringReader((String) xml));
+            }
+            else if (xml instanceof Reader)
+            {
+                reader = newReader((Reader) xml);
+            }
+            else
+            {
+                reader = newReader(toStream(xml));
+            }
+            try
+            {
+                return executor == null ?
+                    transformSequentially(new Records(reader), parameters,
+                        sink) :
+                    transformInParallel(new Records(reader), parameters, sink);
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new TransformerException(e);
+        }
+        finally
+        {
+            if (opened != null)
+            {
+                opened.close();
+            }
+        }
+    }
+
+    /**
+     * XMLInputFactory is not guaranteed to be thread safe, so readers are
+     * created one at a time.
+     */
+    private static XMLStreamReader newReader(final InputStream in)
+        throws XMLStreamException
+    {
+        synchronized (inputFactory)
+        {
+            return inputFactory.createXMLStreamReader(in);
+        }
+    }
+
+    private static XMLStreamReader newReader(final Reader in)
+        throws XMLStreamException
+    {
+        synchronized (inputFactory)
+        {
+            return inputFactory.createXMLStreamReader(in);
+        }
+    }
+
+    private static InputStream toStream(final Object xml)
+    {
+        if (xml instanceof byte[])
+        {
+            return new ByteArrayInputStream((byte[]) xml);
+        }
+        else if (xml instanceof ByteBuffer)
+        {
+            return ByteInput.stream((ByteBuffer) xml);
+        }
+        else if (xml instanceof ReadableByteChannel)
+        {
+            return ByteInput.stream((ReadableByteChannel) xml);
+        }
+        else if (xml instanceof InputStream)
+        {
+            return (InputStream) xml;
+        }
+        throw new IllegalArgumentException(
+            "Only java.lang.String, byte[], java.nio.ByteBuffer, " +
+                "java.nio.file.Path, java.nio.channels.ReadableByteChannel, " +
+                "java.io.InputStream, java.io.Reader and java.io.File xml " +
+                "are supported for the xml parameter");
+    }
+
+    private long transformSequentially(final Records records,
+        final Map<String, ?> parameters, final Sink sink)
+        throws XMLStreamException, TransformerException, IOException
+    {
+        long count = 0;
+        Document document;
+        while ((document = records.next()) != null)
+        {
+            transform(count++, document, parameters, sink.direct());
+        }
+        return count;
+    }
+
+    private long transformInParallel(final Records records,
+        final Map<String, ?> parameters, final Sink sink)
+        throws XMLStreamException, TransformerException, IOException
+    {
+        final ArrayDeque<FutureTask<Object>> pending =
+            new ArrayDeque<FutureTask<Object>>(maximumInFlight);
+        long count = 0;
+        try
+        {
+            Document document;
+            while ((document = records.next()) != null)
+            {
+                if (pending.size() == maximumInFlight)
+                {   // the oldest record has to be written before we read more
+                    write(count - pending.size(), pending.removeFirst(), sink);
+                }
+                final long index = count++;
+                final Document recordDocument = document;
+                final FutureTask<Object> task = new FutureTask<Object>(
+                    new Callable<Object>()
+                    {
+                        public Object call() throws Exception
+                        {
+                            final Object buffer = sink.newBuffer();
+                            transform(index, recordDocument, parameters,
+                                sink.buffered(buffer));
+                            return buffer;
+                        }
+                    });
+                executor.execute(task);
+                pending.addLast(task);
+            }
+            while (!pending.isEmpty())
+            {
+                write(count - pending.size(), pending.removeFirst(), sink);
+            }
+            return count;
+        }
+        finally
+        {   // only left over when something went wrong
+            final Iterator<FutureTask<Object>> it = pending.iterator();
+            while (it.hasNext())
+            {
+                it.next().cancel(false);
+            }
+        }
+    }
+
+    private void write(final long index, final FutureTask<Object> task,
+        final Sink sink) throws TransformerException, IOException
+    {
+        final Object buffer;
+        try
+        {
+            buffer = task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "interrupted waiting for record " + index);
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof TransformerException)
+            {
+                throw (TransformerException) cause;
+            }
+            else if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new TransformerException(cause);
+        }
+        sink.write(buffer);
+    }
+
+    private void transform(final long index, final Document document,
+        final Map<String, ?> parameters, final StreamResult result)
+        throws TransformerException
+    {
+        Transformer transformer = transformers.get();
+        if (transformer == null)
+        {
+            transformer = templates.newTransformer();
+            transformer.setErrorListener(
+                new ExceptionErrorListener(XMLMetrics.TRANSFORM, stylesheet));
+            transformers.set(transformer);
+        }
+        boolean done = false;
+        final Probe probe = Probe.start(XMLMetrics.TRANSFORM, stylesheet);
+        try
+        {
+            if (parameters != null)
+            {
+                final Iterator<String> keyIt =
+                    parameters.keySet().iterator();
+                while (keyIt.hasNext())
+                {
+                    final String key = keyIt.next();
+                    transformer.setParameter(key, parameters.get(key));
+                }
+            }
+            transformer.transform(new DOMSource(document),
+                probe.countOutput(result));
+            done = true;
+            probe.succeeded();
+        }
+        catch (TransformerException e)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("record " + index + " failed", e);
+            }
+            throw new TransformerException("record " + index + " of " +
+                record + " failed: " + e.getMessage(), e);
+        }
+        finally
+        {
+            probe.stop();
+            if (done)
+            {
+                transformer.clearParameters();
+            }
+            else
+            {
+                transformers.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the element name or path of the records
+     */
+    public String getRecord()
+    {
+        return record;
+    }
+
+    /**
+     * @return the most records that may be in flight at once
+     */
+    public int getMaximumInFlight()
+    {
+        return maximumInFlight;
+    }
+
+    /**
+     * Where the transformed records go.  Records transformed in parallel are
+     * written to a buffer of their own, which is copied to the sink once all
+     * of the records before it have been.
+     */
+    private abstract static class Sink
+    {
+        abstract StreamResult direct();
+
+        abstract Object newBuffer();
+
+        abstract StreamResult buffered(Object buffer);
+
+        abstract void write(Object buffer) throws IOException;
+    }
+
+    /**
+     * Pulls the records out of the document, one small DOM at a time.
+     */
+    private class Records
+    {
+        private final XMLStreamReader reader;
+
+        /**
+         * The local names of the open elements outside of any record.
+         */
+        private final List<String> names = new ArrayList<String>();
+
+        /**
+         * The namespaces declared by the open elements, as prefix and URI
+         * pairs, and how many each element declared.
+         */
+        private final List<String[]> namespaces = new ArrayList<String[]>();
+
+        private final List<Integer> declared = new ArrayList<Integer>();
+
+        private Records(final XMLStreamReader reader)
+        {
+            this.reader = reader;
+        }
+
+        /**
+         * @return the next record, or null at the end of the document
+         */
+        private Document next() throws XMLStreamException, TransformerException
+        {
+            while (reader.hasNext())
+            {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    names.add(reader.getLocalName());
+                    if (matches())
+                    {
+                        names.remove(names.size() - 1);
+                        return copyRecord();
+                    }
+                    final int count = reader.getNamespaceCount();
+                    for (int index = 0; index < count; index++)
+                    {
+                        namespaces.add(new String[]{
+                            reader.getNamespacePrefix(index),
+                            reader.getNamespaceURI(index)});
+                    }
+                    declared.add(count);
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    names.remove(names.size() - 1);
+                    final int count = declared.remove(declared.size() - 1);
+                    for (int index = 0; index < count; index++)
+                    {
+                        namespaces.remove(namespaces.size() - 1);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private boolean matches()
+        {
+            final int depth = names.size();
+            if (depth < path.length || (absolute && depth != path.length))
+            {
+                return false;
+            }
+            for (int index = 0; index < path.length; index++)
+            {
+                if (!path[index].equals(
+                    names.get(depth - path.length + index)))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Document copyRecord()
+            throws XMLStreamException, TransformerException
+        {
+            final Document document;
+            try
+            {
+                document = XMLUtil.createDocument();
+            }
+            catch (ParserConfigurationException e)
+            {
+                throw new TransformerException(e);
+            }
+
+            // the ancestors' declarations, with the innermost winning
+            final Map<String, String> inherited =
+                new LinkedHashMap<String, String>();
+            for (int index = 0; index < namespaces.size(); index++)
+            {
+                final String[] namespace = namespaces.get(index);
+                inherited.put(namespace[0] == null ? "" : namespace[0],
+                    namespace[1] == null ? "" : namespace[1]);
+            }
+            final Element root = startElement(document);
+            final Iterator<Map.Entry<String, String>> it =
+                inherited.entrySet().iterator();
+            while (it.hasNext())
+            {
+                final Map.Entry<String, String> namespace = it.next();
+                final String name = namespace.getKey().length() == 0 ?
+                    XMLConstants.XMLNS_ATTRIBUTE :
+                    XMLConstants.XMLNS_ATTRIBUTE + ":" + namespace.getKey();
+                if (!root.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    namespace.getKey().length() == 0 ?
+                        XMLConstants.XMLNS_ATTRIBUTE : namespace.getKey()))
+                {
+                    root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                        name, namespace.getValue());
+                }
+            }
+            document.appendChild(root);
+
+            Node parent = root;
+            while (parent != null)
+            {
+                switch (reader.next())
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        final Element element = startElement(document);
+                        parent.appendChild(element);
+                        parent = element;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        parent = parent == root ? null :
+                            parent.getParentNode();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        parent.appendChild(
+                            document.createTextNode(reader.getText()));
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        parent.appendChild(
+                            document.createCDATASection(reader.getText()));
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        parent.appendChild(
+                            document.createComment(reader.getText()));
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        parent.appendChild(
+                            document.createProcessingInstruction(
+                                reader.getPITarget(), reader.getPIData()));
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return document;
+        }
+
+        private Element startElement(final Document document)
+        {
+            final String prefix = reader.getPrefix();
+            final String uri = reader.getNamespaceURI();
+            final Element element = document.createElementNS(
+                uri == null || uri.length() == 0 ? null : uri,
+                prefix == null || prefix.length() == 0 ?
+                    reader.getLocalName() :
+                    prefix + ":" + reader.getLocalName());
+            final int namespaceCount = reader.getNamespaceCount();
+            for (int index = 0; index < namespaceCount; index++)
+            {
+                final String declaredPrefix = reader.getNamespacePrefix(index);
+                final String declaredURI = reader.getNamespaceURI(index);
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    declaredPrefix == null || declaredPrefix.length() == 0 ?
+                        XMLConstants.XMLNS_ATTRIBUTE :
+                        XMLConstants.XMLNS_ATTRIBUTE + ":" + declaredPrefix,
+                    declaredURI == null ? "" : declaredURI);
+            }
+            final int attributeCount = reader.getAttributeCount();
+            for (int index = 0; index < attributeCount; index++)
+            {
+                final String attributePrefix = reader.getAttributePrefix(index);
+                final String attributeURI = reader.getAttributeNamespace(index);
+                element.setAttributeNS(
+                    attributeURI == null || attributeURI.length() == 0 ?
+                        null : attributeURI,
+                    attributePrefix == null || attributePrefix.length() == 0 ?
+                        reader.getAttributeLocalName(index) :
+                        attributePrefix + ":" +
+                            reader.getAttributeLocalName(index),
+                    reader.getAttributeValue(index));
+            }
+            return element;
+        }
+    }
+}
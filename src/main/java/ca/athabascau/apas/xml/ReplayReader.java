@@ -0,0 +1,174 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Pretends to parse, by replaying a document that is already in memory,
+ * such as a {@link SAXBuffer} or an {@link ImmutableDocument}.  It reports
+ * namespaces as prefix mappings, the way a namespace aware parser does.  A
+ * new one is created for every source, since a transformer configures it's
+ * reader.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+abstract class ReplayReader implements XMLReader
+{
+    private static final String NAMESPACES =
+        "http://xml.org/sax/features/namespaces";
+
+    private static final String NAMESPACE_PREFIXES =
+        "http://xml.org/sax/features/namespace-prefixes";
+
+    private static final String LEXICAL_HANDLER =
+        "http://xml.org/sax/properties/lexical-handler";
+
+    private ContentHandler contentHandler;
+
+    private LexicalHandler lexicalHandler;
+
+    private DTDHandler dtdHandler;
+
+    private EntityResolver entityResolver;
+
+    private ErrorHandler errorHandler;
+
+    /**
+     * Sends the document to the handlers, on this thread.
+     *
+     * @param content the handler for the content
+     * @param lexical the handler for comments, CDATA sections and the DTD,
+     *                or null
+     *
+     * @throws SAXException if a handler fails
+     */
+    abstract void replay(ContentHandler content, LexicalHandler lexical)
+        throws SAXException;
+
+    public boolean getFeature(final String name)
+        throws SAXNotRecognizedException
+    {
+        if (NAMESPACES.equals(name))
+        {
+            return true;
+        }
+        if (NAMESPACE_PREFIXES.equals(name))
+        {
+            return false;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    public void setFeature(final String name, final boolean value)
+        throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        if (getFeature(name) != value)
+        {
+            throw new SAXNotSupportedException(name + " is always " + !value);
+        }
+    }
+
+    public Object getProperty(final String name)
+        throws SAXNotRecognizedException
+    {
+        if (LEXICAL_HANDLER.equals(name))
+        {
+            return lexicalHandler;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    public void setProperty(final String name, final Object value)
+        throws SAXNotRecognizedException
+    {
+        if (!LEXICAL_HANDLER.equals(name))
+        {
+            throw new SAXNotRecognizedException(name);
+        }
+        lexicalHandler = (LexicalHandler) value;
+    }
+
+    public void setEntityResolver(final EntityResolver resolver)
+    {
+        entityResolver = resolver;
+    }
+
+    public EntityResolver getEntityResolver()
+    {
+        return entityResolver;
+    }
+
+    public void setDTDHandler(final DTDHandler handler)
+    {
+        dtdHandler = handler;
+    }
+
+    public DTDHandler getDTDHandler()
+    {
+        return dtdHandler;
+    }
+
+    public void setContentHandler(final ContentHandler handler)
+    {
+        contentHandler = handler;
+    }
+
+    public ContentHandler getContentHandler()
+    {
+        return contentHandler;
+    }
+
+    public void setErrorHandler(final ErrorHandler handler)
+    {
+        errorHandler = handler;
+    }
+
+    public ErrorHandler getErrorHandler()
+    {
+        return errorHandler;
+    }
+
+    public void parse(final InputSource input) throws SAXException
+    {
+        if (contentHandler == null)
+        {
+            throw new SAXException("no content handler");
+        }
+        replay(contentHandler, lexicalHandler);
+    }
+
+    public void parse(final String systemId) throws SAXException
+    {
+        parse(new InputSource(systemId));
+    }
+}
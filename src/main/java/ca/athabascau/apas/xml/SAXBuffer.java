@@ -0,0 +1,371 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.transform.sax.SAXSource;
+import java.util.Arrays;
+
+/**
+ * A parsed document, recorded as the SAX events that describe it.  Once
+ * recorded it never changes, so any number of threads may replay it at the
+ * same time, which makes it a cheap way to hand one parse to several
+ * transformations.  Replaying skips all of the work of parsing, such as
+ * decoding, tokenizing and checking well formedness.
+ * <p/>
+ * The document is recorded with namespace prefix mappings, as a namespace
+ * aware parser reports them, and so xmlns attributes are dropped.  The
+ * document locator is not kept.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class SAXBuffer implements ContentHandler, LexicalHandler
+{
+    private static final byte START_DOCUMENT = 1;
+
+    private static final byte END_DOCUMENT = 2;
+
+    private static final byte START_PREFIX_MAPPING = 3;
+
+    private static final byte END_PREFIX_MAPPING = 4;
+
+    private static final byte START_ELEMENT = 5;
+
+    private static final byte END_ELEMENT = 6;
+
+    private static final byte CHARACTERS = 7;
+
+    private static final byte IGNORABLE_WHITESPACE = 8;
+
+    private static final byte PROCESSING_INSTRUCTION = 9;
+
+    private static final byte SKIPPED_ENTITY = 10;
+
+    private static final byte START_DTD = 11;
+
+    private static final byte END_DTD = 12;
+
+    private static final byte START_ENTITY = 13;
+
+    private static final byte END_ENTITY = 14;
+
+    private static final byte START_CDATA = 15;
+
+    private static final byte END_CDATA = 16;
+
+    private static final byte COMMENT = 17;
+
+    private byte[] events = new byte[256];
+
+    /**
+     * The arguments of each event, which are Strings, String[]s, char[]s and
+     * Attributes, depending on the event.
+     */
+    private Object[] arguments = new Object[256];
+
+    private int size;
+
+    private volatile boolean complete;
+
+    /**
+     * @return the number of events recorded
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Sends the recorded events to the handlers, which are called on this
+     * thread.
+     *
+     * @param content the handler for the content
+     * @param lexical the handler for comments, CDATA sections and the DTD,
+     *                or null
+     *
+     * @throws SAXException if a handler fails
+     */
+    void replay(final ContentHandler content, final LexicalHandler lexical)
+        throws SAXException
+    {
+        if (!complete)
+        {
+            throw new IllegalStateException(
+                "the document has not been completely recorded");
+        }
+        for (int index = 0; index < size; index++)
+        {
+            final Object argument = arguments[index];
+            switch (events[index])
+            {
+                case START_DOCUMENT:
+                    content.startDocument();
+                    break;
+                case END_DOCUMENT:
+                    content.endDocument();
+                    break;
+                case START_PREFIX_MAPPING:
+                    content.startPrefixMapping(((String[]) argument)[0],
+                        ((String[]) argument)[1]);
+                    break;
+                case END_PREFIX_MAPPING:
+                    content.endPrefixMapping((String) argument);
+                    break;
+                case START_ELEMENT:
+                    final Element element = (Element) argument;
+                    content.startElement(element.uri, element.localName,
+                        element.qName, element.attributes);
+                    break;
+                case END_ELEMENT:
+                    final Element end = (Element) argument;
+                    content.endElement(end.uri, end.localName, end.qName);
+                    break;
+                case CHARACTERS:
+                    final char[] characters = (char[]) argument;
+                    content.characters(characters, 0, characters.length);
+                    break;
+                case IGNORABLE_WHITESPACE:
+                    final char[] whitespace = (char[]) argument;
+                    content.ignorableWhitespace(whitespace, 0,
+                        whitespace.length);
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    content.processingInstruction(((String[]) argument)[0],
+                        ((String[]) argument)[1]);
+                    break;
+                case SKIPPED_ENTITY:
+                    content.skippedEntity((String) argument);
+                    break;
+                default:
+                    if (lexical != null)
+                    {
+                        replayLexical(events[index], argument, lexical);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private static void replayLexical(final byte event, final Object argument,
+        final LexicalHandler lexical) throws SAXException
+    {
+        switch (event)
+        {
+            case START_DTD:
+                final String[] dtd = (String[]) argument;
+                lexical.startDTD(dtd[0], dtd[1], dtd[2]);
+                break;
+            case END_DTD:
+                lexical.endDTD();
+                break;
+            case START_ENTITY:
+                lexical.startEntity((String) argument);
+                break;
+            case END_ENTITY:
+                lexical.endEntity((String) argument);
+                break;
+            case START_CDATA:
+                lexical.startCDATA();
+                break;
+            case END_CDATA:
+                lexical.endCDATA();
+                break;
+            case COMMENT:
+                final char[] comment = (char[]) argument;
+                lexical.comment(comment, 0, comment.length);
+                break;
+            default:
+                throw new IllegalStateException("unknown event " + event);
+        }
+    }
+
+    /**
+     * Creates a source that replays the document, for a transformation.
+     *
+     * @param systemId the system id of the document, for resolving relative
+     *                 URIs, or null
+     *
+     * @return a new source
+     */
+    SAXSource newSource(final String systemId)
+    {
+        final InputSource input = new InputSource();
+        input.setSystemId(systemId);
+        return new SAXSource(new ReplayReader()
+        {
+            void replay(final ContentHandler content,
+                final LexicalHandler lexical) throws SAXException
+            {
+                SAXBuffer.this.replay(content, lexical);
+            }
+        }, input);
+    }
+
+    private void add(final byte event, final Object argument)
+    {
+        if (complete)
+        {
+            throw new IllegalStateException("the document is complete");
+        }
+        if (size == events.length)
+        {
+            events = Arrays.copyOf(events, size * 2);
+            arguments = Arrays.copyOf(arguments, size * 2);
+        }
+        events[size] = event;
+        arguments[size++] = argument;
+    }
+
+    public void setDocumentLocator(final Locator locator)
+    {
+    }
+
+    public void startDocument()
+    {
+        add(START_DOCUMENT, null);
+    }
+
+    public void endDocument()
+    {
+        add(END_DOCUMENT, null);
+        events = Arrays.copyOf(events, size);
+        arguments = Arrays.copyOf(arguments, size);
+        complete = true;
+    }
+
+    public void startPrefixMapping(final String prefix, final String uri)
+    {
+        add(START_PREFIX_MAPPING, new String[]{prefix, uri});
+    }
+
+    public void endPrefixMapping(final String prefix)
+    {
+        add(END_PREFIX_MAPPING, prefix);
+    }
+
+    public void startElement(final String uri, final String localName,
+        final String qName, final Attributes atts)
+    {
+        final AttributesImpl attributes = new AttributesImpl(atts);
+        for (int index = attributes.getLength() - 1; index >= 0; index--)
+        {
+            final String name = attributes.getQName(index);
+            if (name.equals("xmlns") || name.startsWith("xmlns:"))
+            {
+                attributes.removeAttribute(index);
+            }
+        }
+        add(START_ELEMENT, new Element(uri, localName, qName, attributes));
+    }
+
+    public void endElement(final String uri, final String localName,
+        final String qName)
+    {
+        add(END_ELEMENT, new Element(uri, localName, qName, null));
+    }
+
+    public void characters(final char[] ch, final int start, final int length)
+    {
+        add(CHARACTERS, Arrays.copyOfRange(ch, start, start + length));
+    }
+
+    public void ignorableWhitespace(final char[] ch, final int start,
+        final int length)
+    {
+        add(IGNORABLE_WHITESPACE, Arrays.copyOfRange(ch, start,
+            start + length));
+    }
+
+    public void processingInstruction(final String target, final String data)
+    {
+        add(PROCESSING_INSTRUCTION, new String[]{target, data});
+    }
+
+    public void skippedEntity(final String name)
+    {
+        add(SKIPPED_ENTITY, name);
+    }
+
+    public void startDTD(final String name, final String publicId,
+        final String systemId)
+    {
+        add(START_DTD, new String[]{name, publicId, systemId});
+    }
+
+    public void endDTD()
+    {
+        add(END_DTD, null);
+    }
+
+    public void startEntity(final String name)
+    {
+        add(START_ENTITY, name);
+    }
+
+    public void endEntity(final String name)
+    {
+        add(END_ENTITY, name);
+    }
+
+    public void startCDATA()
+    {
+        add(START_CDATA, null);
+    }
+
+    public void endCDATA()
+    {
+        add(END_CDATA, null);
+    }
+
+    public void comment(final char[] ch, final int start, final int length)
+    {
+        add(COMMENT, Arrays.copyOfRange(ch, start, start + length));
+    }
+
+    private static final class Element
+    {
+        private final String uri;
+
+        private final String localName;
+
+        private final String qName;
+
+        private final Attributes attributes;
+
+        private Element(final String uri, final String localName,
+            final String qName, final Attributes attributes)
+        {
+            this.uri = uri;
+            this.localName = localName;
+            this.qName = qName;
+            this.attributes = attributes;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe cache of compiled XML schemas.  A {@link Schema} is
+ * thread safe, so each one is compiled once, and shared by every validating
+ * {@link XMLUtil#loadXMLFrom(org.xml.sax.InputSource, Schema)} and {@link
+ * XMLUtil#validate(Object, Schema)}.
+ * <pre>
+ * final Schema schema =
+ *     XMLUtil.getSchemaCache().getSchema("/xsd/transcript.xsd");
+ * final Document transcript =
+ *     XMLUtil.loadXMLFrom(request.getInputStream(), schema);
+ * </pre>
+ * Schemas are keyed, and kept up to date, just as the {@link TemplatesCache}
+ * does for stylesheets.  They are keyed by their classpath name (when given
+ * a String), or their canonical path (when given a File), and the
+ * modification time of the underlying file is part of the key, so an edited
+ * schema is recompiled on the next request.  Only one thread compiles a
+ * given schema at a time, and the least recently used schema is evicted
+ * once the cache is full.  Included and imported schemas are resolved
+ * relative to the schema that refers to them.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class SchemaCache
+{
+    private static final Logger logger = Logger.getLogger(SchemaCache.class);
+
+    /**
+     * The default number of compiled schemas we hold on to.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 32;
+
+    private final Map<String, CachedSchema> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private int maximumSize;
+
+    private final String factoryClassName;
+
+    /**
+     * SchemaFactory is not thread safe, so each compiling thread gets it's
+     * own, without repeating the classpath lookup.
+     */
+    private final ThreadLocal<SchemaFactory> factories =
+        new ThreadLocal<SchemaFactory>()
+        {
+            protected SchemaFactory initialValue()
+            {
+                try
+                {
+                    return SchemaFactory.newInstance(
+                        XMLConstants.W3C_XML_SCHEMA_NS_URI, factoryClassName,
+                        SchemaCache.class.getClassLoader());
+                }
+                catch (IllegalArgumentException e)
+                {   // odd class loader setup, do it the slow way
+                    logger.debug("unable to instantiate " + factoryClassName +
+                        " directly", e);
+                    return SchemaFactory.newInstance(
+                        XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                }
+            }
+        };
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAXIMUM_SIZE} schemas.
+     */
+    public SchemaCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a cache holding at most maximumSize schemas.
+     *
+     * @param maximumSize the maximum number of compiled schemas, must be
+     *                    greater than zero
+     */
+    public SchemaCache(final int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumSize must be greater than zero: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        factoryClassName = SchemaFactory.newInstance(
+            XMLConstants.W3C_XML_SCHEMA_NS_URI).getClass().getName();
+        entries = new LinkedHashMap<String, CachedSchema>(16, 0.75f,
+            true)
+        {
+            protected boolean removeEldestEntry(
+                final Map.Entry<String, CachedSchema> eldest)
+            {
+                final boolean evict = size() > SchemaCache.this.maximumSize;
+                if (evict)
+                {
+                    evictions.incrementAndGet();
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("evicting schema " + eldest.getKey());
+                    }
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * Retrieves the compiled schema, compiling it if it is not already
+     * cached, or if it has been modified since it was compiled.
+     *
+     * @param xsd a String classpath name, or a java.io.File object pointing to
+     *            the file.  Prefix all classpath names with '/', where '/' is
+     *            the root of the classpath.
+     *
+     * @return the compiled schema, which may be used by any number of
+     *         threads
+     *
+     * @throws SAXException if the schema could not be compiled
+     * @throws IOException  if an IO error occurs reading the schema
+     */
+    public Schema getSchema(final Object xsd) throws SAXException, IOException
+    {
+        if (xsd instanceof String)
+        {
+            final URL url = XMLUtil.class.getResource((String) xsd);
+            if (url == null)
+            {
+                throw new IllegalArgumentException(
+                    xsd + " is an invalid XSD file");
+            }
+            final String key = TemplatesCache.keyFor(xsd);
+            return getSchema(key, TemplatesCache.lastModified(url),
+                new Callable<Schema>()
+                {
+                    public Schema call() throws Exception
+                    {
+                        return compile(url, key);
+                    }
+                });
+        }
+        else if (xsd instanceof File)
+        {
+            final File file = ((File) xsd).getCanonicalFile();
+            final String key = TemplatesCache.keyFor(file);
+            return getSchema(key, file.lastModified(), new Callable<Schema>()
+            {
+                public Schema call() throws Exception
+                {
+                    return compile(file.toURI().toURL(), key);
+                }
+            });
+        }
+        else
+        {
+            throw new IllegalArgumentException(
+                "Only java.lang.String xsd filenames, or java.io.File " +
+                    "are supported for the xsd parameter");
+        }
+    }
+
+    private Schema getSchema(final String key, final long version,
+        final Callable<Schema> compiler) throws SAXException, IOException
+    {
+        final CachedSchema entry;
+        final boolean compile;
+        synchronized (entries)
+        {
+            final CachedSchema existing = entries.get(key);
+            if (existing != null && existing.version == version)
+            {
+                entry = existing;
+                compile = false;
+                hits.incrementAndGet();
+            }
+            else
+            {
+                entry = new CachedSchema(version,
+                    new FutureTask<Schema>(compiler));
+                entries.put(key, entry);
+                compile = true;
+                misses.incrementAndGet();
+            }
+        }
+
+        if (compile)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("compiling schema " + key);
+            }
+            entry.schema.run();
+        }
+
+        try
+        {
+            return entry.schema.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SAXException("interrupted waiting for schema " + key, e);
+        }
+        catch (ExecutionException e)
+        {   // don't hold on to failures, the next caller should try again
+            synchronized (entries)
+            {
+                if (entries.get(key) == entry)
+                {
+                    entries.remove(key);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof SAXException)
+            {
+                throw (SAXException) cause;
+            }
+            else if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new SAXException((Exception) cause);
+        }
+    }
+
+    /**
+     * Compiles the schema with this thread's SchemaFactory, reading it from
+     * the URL so that relative includes and imports resolve.
+     */
+    private Schema compile(final URL url, final String key)
+        throws SAXException
+    {
+        final Probe probe = Probe.start(XMLMetrics.COMPILE, key);
+        try
+        {
+            final Schema schema = factories.get().newSchema(url);
+            probe.succeeded();
+            return schema;
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    /**
+     * Removes the given schema from the cache, so that it will be recompiled
+     * on it's next use.
+     *
+     * @param xsd a String classpath name, or a java.io.File object
+     *
+     * @return true if the schema was cached
+     *
+     * @throws IOException if the canonical path of a File cannot be determined
+     */
+    public boolean invalidate(final Object xsd) throws IOException
+    {
+        final String key;
+        if (xsd instanceof File)
+        {
+            key = TemplatesCache.keyFor(((File) xsd).getCanonicalFile());
+        }
+        else
+        {
+            key = TemplatesCache.keyFor(xsd);
+        }
+        synchronized (entries)
+        {
+            return entries.remove(key) != null;
+        }
+    }
+
+    /**
+     * Removes every schema from the cache.
+     */
+    public void invalidateAll()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of schemas currently cached
+     */
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the maximum number of schemas we will cache
+     */
+    public int getMaximumSize()
+    {
+        synchronized (entries)
+        {
+            return maximumSize;
+        }
+    }
+
+    /**
+     * Changes the maximum number of schemas cached, evicting the least
+     * recently used ones if there are now too many.
+     *
+     * @param maximumSize the new maximum, must be greater than zero
+     */
+    public void setMaximumSize(final int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumSize must be greater than zero: " + maximumSize);
+        }
+        synchronized (entries)
+        {
+            this.maximumSize = maximumSize;
+            final Iterator<String> it = entries.keySet().iterator();
+            while (entries.size() > maximumSize && it.hasNext())
+            {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the number of requests that were served from the cache
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests that required compiling a schema
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of schemas evicted because the cache was full
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters to zero.
+     */
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public String toString()
+    {
+        return "SchemaCache[size=" + size() + ", maximumSize=" +
+            getMaximumSize() + ", hits=" + getHitCount() + ", misses=" +
+            getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    private static class CachedSchema
+    {
+        private final long version;
+
+        private final FutureTask<Schema> schema;
+
+        private CachedSchema(final long version,
+            final FutureTask<Schema> schema)
+        {
+            this.version = version;
+            this.schema = schema;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Finds the xml-stylesheet processing instruction of a document.  Only the
+ * prolog is read, with a StAX parser that does not process the DTD, which is
+ * much cheaper than asking the TransformerFactory to build a Source for the
+ * associated stylesheet.
+ * <p/>
+ * As with the TransformerFactory, only instructions with an XSL type are
+ * considered, and alternate stylesheets are skipped.  Media, title and
+ * charset are ignored, and the first matching instruction wins.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+final class StylesheetInstruction
+{
+    private static final String TARGET = "xml-stylesheet";
+
+    private static final XMLInputFactory inputFactory;
+
+    static
+    {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private StylesheetInstruction()
+    {
+    }
+
+    /**
+     * Finds the absolute URI of the stylesheet the document refers to.
+     * Relative hrefs are resolved against the document's own URI, when it
+     * has one.
+     *
+     * @param xml      the xml, as described by {@link
+     *                 XMLUtil#xslTransformation(Object, Object, java.util.Map)},
+     *                 but never a stream or channel
+     * @param resolver resolves the href
+     *
+     * @return the absolute URI, or null if there is no instruction
+     *
+     * @throws IOException          if an IO error occurs
+     * @throws TransformerException if the prolog is not well formed, or the
+     *                              href is not a valid URI
+     */
+    static String find(final Object xml, final StylesheetResolver resolver)
+        throws IOException, TransformerException
+    {
+        final String href;
+        final String base;
+        if (xml instanceof Node)
+        {
+            final Node node = (Node) xml;
+            final Document document = node instanceof Document ?
+                (Document) node : node.getOwnerDocument();
+            href = document == null ? null : find(document);
+            base = document == null ? null : document.getDocumentURI();
+        }
+        else if (xml instanceof ImmutableDocument)
+        {
+            href = find((ImmutableDocument) xml);
+            base = null;
+        }
+        else
+        {
+            final InputStream is;
+            if (xml instanceof File)
+            {
+                is = new FileInputStream((File) xml);
+                base = ((File) xml).getAbsoluteFile().toURI().toString();
+            }
+            else if (xml instanceof Path)
+            {
+                is = ByteInput.stream((Path) xml);
+                base = ((Path) xml).toUri().toString();
+            }
+            else
+            {
+                base = null;
+                if (xml instanceof String)
+                {
+                    is = null;
+                }
+                else if (xml instanceof byte[])
+                {
+                    is = new ByteArrayInputStream((byte[]) xml);
+                }
+                else if (xml instanceof ByteBuffer)
+                {
+                    is = ByteInput.stream((ByteBuffer) xml);
+                }
+                else
+                {   // same message as everywhere else
+                    XMLUtil.toSource(xml);
+                    throw new IllegalArgumentException(
+                        "unsupported xml " + xml.getClass().getName());
+                }
+            }
+            try
+            {
+                href = find(is == null ?
+                    inputFactory.createXMLStreamReader(
+                        new StringReader((String) xml)) :
+                    inputFactory.createXMLStreamReader(is));
+            }
+            catch (XMLStreamException e)
+            {
+                throw new TransformerException(e);
+            }
+            finally
+            {
+                if (is != null)
+                {
+                    is.close();
+                }
+            }
+        }
+        return href == null ? null : resolver.absolute(href, base);
+    }
+
+    private static String find(final Document document)
+    {
+        for (Node child = document.getFirstChild(); child != null &&
+            child.getNodeType() != Node.ELEMENT_NODE;
+             child = child.getNextSibling())
+        {
+            if (child.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE &&
+                TARGET.equals(((ProcessingInstruction) child).getTarget()))
+            {
+                final String href = href(
+                    ((ProcessingInstruction) child).getData());
+                if (href != null)
+                {
+                    return href;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String find(final ImmutableDocument document)
+    {
+        for (int child = document.getFirstChild(0);
+             child != ImmutableDocument.NONE &&
+                 document.getNodeType(child) != Node.ELEMENT_NODE;
+             child = document.getNextSibling(child))
+        {
+            if (document.getNodeType(child) ==
+                Node.PROCESSING_INSTRUCTION_NODE &&
+                TARGET.equals(document.getNodeName(child)))
+            {
+                final String href = href(document.getData(child));
+                if (href != null)
+                {
+                    return href;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String find(final XMLStreamReader reader)
+        throws XMLStreamException
+    {
+        try
+        {
+            while (reader.hasNext())
+            {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    return null;
+                }
+                if (event == XMLStreamConstants.PROCESSING_INSTRUCTION &&
+                    TARGET.equals(reader.getPITarget()))
+                {
+                    final String href = href(reader.getPIData());
+                    if (href != null)
+                    {
+                        return href;
+                    }
+                }
+            }
+            return null;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses the pseudo attributes of an xml-stylesheet instruction.
+     *
+     * @param data the instruction's data
+     *
+     * @return the href, if the instruction refers to an XSL stylesheet which
+     *         is not an alternate
+     */
+    static String href(final String data)
+    {
+        String href = null;
+        String type = null;
+        String alternate = null;
+        int index = 0;
+        final int length = data == null ? 0 : data.length();
+        while (index < length)
+        {
+            while (index < length && Character.isWhitespace(data.charAt(index)))
+            {
+                index++;
+            }
+            final int equals = data.indexOf('=', index);
+            if (equals == -1)
+            {
+                break;
+            }
+            final String name = data.substring(index, equals).trim();
+            int quote = equals + 1;
+            while (quote < length && Character.isWhitespace(data.charAt(quote)))
+            {
+                quote++;
+            }
+            if (quote >= length ||
+                (data.charAt(quote) != '"' && data.charAt(quote) != '\''))
+            {
+                break;
+            }
+            final int end = data.indexOf(data.charAt(quote), quote + 1);
+            if (end == -1)
+            {
+                break;
+            }
+            final String value = unescape(data.substring(quote + 1, end));
+            if ("href".equals(name))
+            {
+                href = value;
+            }
+            else if ("type".equals(name))
+            {
+                type = value;
+            }
+            else if ("alternate".equals(name))
+            {
+                alternate = value;
+            }
+            index = end + 1;
+        }
+        if (href == null || "yes".equals(alternate) || (type != null &&
+            !"text/xsl".equals(type) && !"text/xml".equals(type) &&
+            !"application/xml+xslt".equals(type) &&
+            !"application/xslt+xml".equals(type)))
+        {
+            return null;
+        }
+        return href;
+    }
+
+    /**
+     * The parser leaves references in the data of processing instructions
+     * alone, while pseudo attributes may use the predefined entities.
+     */
+    private static String unescape(final String value)
+    {
+        if (value.indexOf('&') == -1)
+        {
+            return value;
+        }
+        return value.replace("&lt;", "<").replace("&gt;", ">")
+            .replace("&quot;", "\"").replace("&apos;", "'")
+            .replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,650 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves and caches the stylesheets referred to by xml-stylesheet
+ * processing instructions, xsl:include and xsl:import, so that they are
+ * fetched once rather than on every compile.
+ * <p/>
+ * Each href is first made absolute against it's base URI, which is also the
+ * cache key.  The absolute URI is then mapped, catalog style, by the longest
+ * matching prefix; for example
+ * <pre>
+ * http://www.athabascau.ca/apas-xml/ = classpath:/xsl/
+ * http://example.com/shared/ = file:/opt/xsl/shared/
+ * </pre>
+ * fetches http://www.athabascau.ca/apas-xml/transcript.xsl from
+ * /xsl/transcript.xsl on the classpath.  The source handed back keeps the
+ * original URI as it's system id, so relative includes inside it are mapped
+ * the same way.
+ * <p/>
+ * Fetched resources are kept in memory, up to a maximum number, after which
+ * the least recently used one is dropped.  Local files are re-read when they
+ * change, and everything else is kept until it is dropped or {@link
+ * #clear()} is called.
+ * Remote resources may also be kept in a cache directory, so that they are
+ * still available after a restart, or when the remote site is down.
+ * <p/>
+ * The resolver used by {@link XMLUtil} may be configured with the {@link
+ * #CACHE_DIRECTORY_PROPERTY} and {@link #CATALOG_PROPERTY} system properties.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class StylesheetResolver implements URIResolver
+{
+    private static final Logger logger =
+        Logger.getLogger(StylesheetResolver.class);
+
+    /**
+     * System property naming the directory remote stylesheets are cached in.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY =
+        "ca.athabascau.apas.xml.resolver.cache";
+
+    /**
+     * System property naming a properties file of prefix mappings, see
+     * {@link #addMappings(Properties)}.
+     */
+    public static final String CATALOG_PROPERTY =
+        "ca.athabascau.apas.xml.resolver.catalog";
+
+    /**
+     * The prefix of mapping replacements found on the classpath.
+     */
+    public static final String CLASSPATH_PREFIX = "classpath:";
+
+    /**
+     * The default number of stylesheets we keep in memory.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 128;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File cacheDirectory;
+
+    /**
+     * Sorted longest prefix first, and replaced whole when changed.
+     */
+    private volatile List<String[]> mappings = new ArrayList<String[]>();
+
+    private final Map<String, Resource> resources;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private int maximumSize;
+
+    /**
+     * Creates a resolver configured from the {@link #CACHE_DIRECTORY_PROPERTY}
+     * and {@link #CATALOG_PROPERTY} system properties.
+     *
+     * @return the new resolver
+     */
+    public static StylesheetResolver fromSystemProperties()
+    {
+        final String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        final StylesheetResolver resolver = new StylesheetResolver(
+            directory == null ? null : new File(directory));
+        final String catalog = System.getProperty(CATALOG_PROPERTY);
+        if (catalog != null)
+        {
+            try
+            {
+                final Properties properties = new Properties();
+                final InputStream is = new FileInputStream(catalog);
+                try
+                {
+                    properties.load(is);
+                }
+                finally
+                {
+                    is.close();
+                }
+                resolver.addMappings(properties);
+            }
+            catch (IOException e)
+            {
+                logger.warn("unable to read " + CATALOG_PROPERTY + " \"" +
+                    catalog + "\"", e);
+            }
+        }
+        return resolver;
+    }
+
+    /**
+     * Creates a resolver that only caches in memory.
+     */
+    public StylesheetResolver()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates a resolver that also caches remote stylesheets on disk, and
+     * keeps at most {@link #DEFAULT_MAXIMUM_SIZE} of them in memory.
+     *
+     * @param cacheDirectory the directory to cache in, which is created if
+     *                       need be, or null to only cache in memory
+     */
+    public StylesheetResolver(final File cacheDirectory)
+    {
+        this(cacheDirectory, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a resolver that also caches remote stylesheets on disk.
+     *
+     * @param cacheDirectory the directory to cache in, which is created if
+     *                       need be, or null to only cache in memory
+     * @param maximumSize    the maximum number of stylesheets kept in memory,
+     *                       must be greater than zero
+     */
+    public StylesheetResolver(final File cacheDirectory,
+        final int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumSize must be greater than zero: " + maximumSize);
+        }
+        this.cacheDirectory = cacheDirectory;
+        this.maximumSize = maximumSize;
+        resources = new LinkedHashMap<String, Resource>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(
+                final Map.Entry<String, Resource> eldest)
+            {
+                final boolean evict =
+                    size() > StylesheetResolver.this.maximumSize;
+                if (evict)
+                {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * Maps every URI starting with prefix to the same URI, with prefix
+     * swapped for replacement.
+     *
+     * @param prefix      the start of the absolute URIs to map
+     * @param replacement a URL, or {@link #CLASSPATH_PREFIX} followed by a
+     *                    classpath name starting with '/'
+     */
+    public synchronized void addMapping(final String prefix,
+        final String replacement)
+    {
+        if (prefix == null || replacement == null)
+        {
+            throw new IllegalArgumentException(
+                "prefix and replacement must not be null");
+        }
+        final List<String[]> updated = new ArrayList<String[]>(mappings);
+        for (int index = 0; index < updated.size(); index++)
+        {
+            if (updated.get(index)[0].equals(prefix))
+            {
+                updated.remove(index);
+                break;
+            }
+        }
+        int position = 0;
+        while (position < updated.size() &&
+            updated.get(position)[0].length() >= prefix.length())
+        {
+            position++;
+        }
+        updated.add(position, new String[]{prefix, replacement});
+        mappings = updated;
+    }
+
+    /**
+     * Maps a local directory in place of a URI prefix.
+     *
+     * @param prefix    the start of the absolute URIs to map
+     * @param directory the directory holding the same files
+     */
+    public void addMapping(final String prefix, final File directory)
+    {
+        addMapping(prefix, directory.toURI().toString());
+    }
+
+    /**
+     * Adds every property as a mapping, from it's key to it's value.
+     *
+     * @param properties the mappings
+     */
+    public void addMappings(final Properties properties)
+    {
+        final Iterator<Object> it = properties.keySet().iterator();
+        while (it.hasNext())
+        {
+            final String prefix = (String) it.next();
+            addMapping(prefix, properties.getProperty(prefix));
+        }
+    }
+
+    /**
+     * Resolves the href for the XSL processor.
+     *
+     * @param href the href, as written in the document
+     * @param base the base URI to resolve it against, or null
+     *
+     * @return the cached stylesheet, with the absolute URI as it's system id
+     *
+     * @throws TransformerException if it could not be fetched
+     */
+    public Source resolve(final String href, final String base)
+        throws TransformerException
+    {
+        final String uri = absolute(href, base);
+        try
+        {
+            final StreamSource source = new StreamSource(
+                new ByteArrayInputStream(fetch(uri)));
+            source.setSystemId(uri);
+            return source;
+        }
+        catch (IOException e)
+        {
+            throw new TransformerException("unable to fetch " + uri, e);
+        }
+    }
+
+    /**
+     * Makes the href absolute.  Without a base, relative hrefs are relative
+     * to the working directory, as they are for Xalan.
+     *
+     * @param href the href
+     * @param base the base URI, or null
+     *
+     * @return the absolute URI
+     *
+     * @throws TransformerException if either is not a valid URI
+     */
+    public String absolute(final String href, final String base)
+        throws TransformerException
+    {
+        try
+        {
+            final URI baseURI = base == null || base.length() == 0 ?
+                new File(System.getProperty("user.dir")).toURI() :
+                new URI(base);
+            if (baseURI.isOpaque())
+            {   // such as jar:file:/x.jar!/a.xsl, which URI can't resolve
+                return new URL(new URL(base), href).toString();
+            }
+            return baseURI.resolve(new URI(href)).toString();
+        }
+        catch (URISyntaxException e)
+        {
+            throw new TransformerException("invalid href \"" + href +
+                "\" with base \"" + base + "\"", e);
+        }
+        catch (IOException e)
+        {
+            throw new TransformerException("invalid href \"" + href +
+                "\" with base \"" + base + "\"", e);
+        }
+    }
+
+    /**
+     * Applies the longest matching mapping.
+     *
+     * @param uri an absolute URI
+     *
+     * @return the URL to fetch it from
+     *
+     * @throws IOException if it is mapped to a missing classpath resource
+     */
+    URL locate(final String uri) throws IOException
+    {
+        final List<String[]> current = mappings;
+        for (int index = 0; index < current.size(); index++)
+        {
+            final String[] mapping = current.get(index);
+            if (uri.startsWith(mapping[0]))
+            {
+                final String mapped = mapping[1] +
+                    uri.substring(mapping[0].length());
+                if (mapped.startsWith(CLASSPATH_PREFIX))
+                {
+                    final String name = mapped.substring(
+                        CLASSPATH_PREFIX.length());
+                    final URL url = XMLUtil.class.getResource(name);
+                    if (url == null)
+                    {
+                        throw new IOException(uri + " is mapped to " +
+                            mapped + ", which is not on the classpath");
+                    }
+                    return url;
+                }
+                return new URL(mapped);
+            }
+        }
+        return new URL(uri);
+    }
+
+    /**
+     * Fetches the resource, from memory, the cache directory, or wherever it
+     * is mapped to, in that order.
+     *
+     * @param uri the absolute URI
+     *
+     * @return the content
+     *
+     * @throws IOException if it could not be fetched
+     */
+    byte[] fetch(final String uri) throws IOException
+    {
+        final URL url = locate(uri);
+        final File local = localFile(url);
+        final Resource cached;
+        synchronized (resources)
+        {
+            cached = resources.get(uri);
+        }
+        if (cached != null && (local == null ||
+            local.lastModified() == cached.lastModified))
+        {
+            hits.incrementAndGet();
+            return cached.content;
+        }
+        misses.incrementAndGet();
+
+        final byte[] content;
+        final long lastModified;
+        if (local != null)
+        {
+            lastModified = local.lastModified();
+            content = read(url);
+        }
+        else
+        {
+            lastModified = 0;
+            content = fetchRemote(uri, url);
+        }
+        synchronized (resources)
+        {
+            resources.put(uri, new Resource(content, lastModified));
+        }
+        return content;
+    }
+
+    private byte[] fetchRemote(final String uri, final URL url)
+        throws IOException
+    {
+        final File cached = cacheFile(uri);
+        if (cached != null && cached.isFile())
+        {
+            return read(cached.toURI().toURL());
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("fetching " + uri + " from " + url);
+        }
+        final byte[] content = read(url);
+        if (cached != null)
+        {
+            store(cached, content);
+        }
+        return content;
+    }
+
+    /**
+     * Writes to a temporary file first, so that other threads and processes
+     * never see part of a stylesheet.
+     */
+    private void store(final File cached, final byte[] content)
+    {
+        try
+        {
+            if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())
+            {
+                throw new IOException("unable to create " + cacheDirectory);
+            }
+            final File temporary = File.createTempFile("stylesheet", ".tmp",
+                cacheDirectory);
+            final OutputStream out = new FileOutputStream(temporary);
+            try
+            {
+                out.write(content);
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!temporary.renameTo(cached))
+            {
+                temporary.delete();
+            }
+        }
+        catch (IOException e)
+        {   // the memory cache still works
+            logger.warn("unable to cache " + cached, e);
+        }
+    }
+
+    private File cacheFile(final String uri)
+    {
+        if (cacheDirectory == null)
+        {
+            return null;
+        }
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(uri.getBytes("UTF-8"));
+            final StringBuilder name = new StringBuilder(hash.length * 2 + 4);
+            for (int index = 0; index < hash.length; index++)
+            {
+                name.append(Character.forDigit((hash[index] >> 4) & 0xF, 16));
+                name.append(Character.forDigit(hash[index] & 0xF, 16));
+            }
+            return new File(cacheDirectory, name.append(".xsl").toString());
+        }
+        catch (NoSuchAlgorithmException e)
+        {   // every JRE has SHA-1
+            throw new IllegalStateException(e);
+        }
+        catch (IOException e)
+        {   // every JRE has UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static File localFile(final URL url)
+    {
+        if (!"file".equals(url.getProtocol()))
+        {
+            return null;
+        }
+        try
+        {
+            return new File(url.toURI());
+        }
+        catch (URISyntaxException e)
+        {
+            return new File(url.getPath());
+        }
+    }
+
+    private static byte[] read(final URL url) throws IOException
+    {
+        final InputStream is = url.openStream();
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Forgets everything cached in memory.  The cache directory is left
+     * alone.
+     */
+    public void clear()
+    {
+        synchronized (resources)
+        {
+            resources.clear();
+        }
+    }
+
+    /**
+     * @return the number of stylesheets cached in memory
+     */
+    public int size()
+    {
+        synchronized (resources)
+        {
+            return resources.size();
+        }
+    }
+
+    /**
+     * @return the maximum number of stylesheets we keep in memory
+     */
+    public int getMaximumSize()
+    {
+        synchronized (resources)
+        {
+            return maximumSize;
+        }
+    }
+
+    /**
+     * Changes the maximum number of stylesheets kept in memory, dropping the
+     * least recently used ones if there are now too many.
+     *
+     * @param maximumSize the new maximum, must be greater than zero
+     */
+    public void setMaximumSize(final int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumSize must be greater than zero: " + maximumSize);
+        }
+        synchronized (resources)
+        {
+            this.maximumSize = maximumSize;
+            final Iterator<String> it = resources.keySet().iterator();
+            while (resources.size() > maximumSize && it.hasNext())
+            {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of stylesheets dropped from memory because there
+     *         were too many
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public File getCacheDirectory()
+    {
+        return cacheDirectory;
+    }
+
+    public String toString()
+    {
+        return "StylesheetResolver[size=" + size() + ", maximumSize=" +
+            getMaximumSize() + ", hits=" + getHitCount() + ", misses=" +
+            getMissCount() + ", evictions=" + getEvictionCount() +
+            ", mappings=" + mappings.size() + ", cacheDirectory=" +
+            cacheDirectory + "]";
+    }
+
+    private static class Resource
+    {
+        private final byte[] content;
+
+        private final long lastModified;
+
+        private Resource(final byte[] content, final long lastModified)
+        {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+}
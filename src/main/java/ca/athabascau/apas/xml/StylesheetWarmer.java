@@ -0,0 +1,672 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Compiles stylesheets into the {@link XMLUtil#getTemplatesCache() shared
+ * cache} ahead of time, such as while an application starts, so that the
+ * first real requests after a deploy do not pay for parsing and compiling
+ * them.  The stylesheets are compiled in parallel, and each may then be run
+ * against a few sample documents, so that the transformation code is loaded
+ * and JIT compiled before a node starts taking traffic.
+ * <pre>
+ * final StylesheetWarmer warmer = new StylesheetWarmer();
+ * warmer.addSample("/xsl/transcript.xsl", new File("sample-transcript.xml"));
+ * warmer.setTransforms(5);
+ * final StylesheetWarmer.Report report = warmer.warm("/xsl");
+ * if (!report.isSuccessful()) ...
+ * </pre>
+ * Samples must be readable more than once, so they may be a String, byte[],
+ * ByteBuffer, File, Path or Node, but not a stream.  The output of the
+ * sample transformations is thrown away, and they are not counted in the
+ * {@link XMLMetrics}.
+ * <p/>
+ * Samples and the number of transforms should be set up before warming, and
+ * not changed while a warm up is running.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class StylesheetWarmer
+{
+    private static final Logger logger =
+        Logger.getLogger(StylesheetWarmer.class);
+
+    /**
+     * Matches every stylesheet in a directory, and below it.
+     */
+    public static final String DEFAULT_GLOB = "**.{xsl,xslt}";
+
+    private final Executor executor;
+
+    /**
+     * Samples for particular stylesheets, by their cache key.
+     */
+    private final Map<String, List<Object>> samples =
+        new HashMap<String, List<Object>>();
+
+    /**
+     * Samples for every stylesheet that has none of it's own.
+     */
+    private final List<Object> defaultSamples = new ArrayList<Object>();
+
+    private int transforms = 1;
+
+    /**
+     * Creates a warmer that runs on the common ForkJoinPool.
+     */
+    public StylesheetWarmer()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a warmer that runs on the given executor.
+     *
+     * @param executor compiles the stylesheets, one task per stylesheet
+     */
+    public StylesheetWarmer(final Executor executor)
+    {
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a sample document for every stylesheet that has none of it's own.
+     *
+     * @param xml the sample, which must be readable more than once
+     */
+    public void addSample(final Object xml)
+    {
+        defaultSamples.add(checkSample(xml));
+    }
+
+    /**
+     * Adds a sample document for one stylesheet.
+     *
+     * @param xsl a String classpath name, or a java.io.File object
+     * @param xml the sample, which must be readable more than once
+     */
+    public void addSample(final Object xsl, final Object xml)
+    {
+        final String key = key(xsl);
+        List<Object> list = samples.get(key);
+        if (list == null)
+        {
+            list = new ArrayList<Object>();
+            samples.put(key, list);
+        }
+        list.add(checkSample(xml));
+    }
+
+    private static Object checkSample(final Object xml)
+    {
+        if (xml == null)
+        {
+            throw new IllegalArgumentException("xml must not be null");
+        }
+        if (xml instanceof java.io.InputStream || xml instanceof
+            java.io.Reader || xml instanceof java.nio.channels.Channel)
+        {
+            throw new IllegalArgumentException(
+                "samples are transformed more than once, so they cannot be " +
+                    xml.getClass().getName());
+        }
+        return xml;
+    }
+
+    /**
+     * Sets how many times each sample is transformed, 1 by default.
+     *
+     * @param transforms the number of times, or 0 to only compile
+     */
+    public void setTransforms(final int transforms)
+    {
+        if (transforms < 0)
+        {
+            throw new IllegalArgumentException(
+                "transforms must not be negative: " + transforms);
+        }
+        this.transforms = transforms;
+    }
+
+    public int getTransforms()
+    {
+        return transforms;
+    }
+
+    /**
+     * Warms every stylesheet in a classpath directory, and below it.
+     *
+     * @param directory the classpath name of the directory, such as "/xsl"
+     *
+     * @return what happened to each stylesheet
+     *
+     * @throws IOException          if the directory could not be listed
+     * @throws InterruptedException if this thread is interrupted while
+     *                              waiting for the stylesheets
+     */
+    public Report warm(final String directory)
+        throws IOException, InterruptedException
+    {
+        return warm(directory, DEFAULT_GLOB);
+    }
+
+    /**
+     * Warms the stylesheets in a classpath directory that match the glob.
+     * The directory may be a plain directory, or one inside of a jar.
+     *
+     * @param directory the classpath name of the directory, such as "/xsl"
+     * @param glob      matched against the path of each resource relative to
+     *                  the directory, see {@link
+     *                  java.nio.file.FileSystem#getPathMatcher(String)}
+     *
+     * @return what happened to each stylesheet
+     *
+     * @throws IOException          if the directory could not be listed
+     * @throws InterruptedException if this thread is interrupted while
+     *                              waiting for the stylesheets
+     */
+    public Report warm(final String directory, final String glob)
+        throws IOException, InterruptedException
+    {
+        final List<Object> stylesheets = new ArrayList<Object>();
+        for (final String name : list(directory, glob))
+        {
+            stylesheets.add(name);
+        }
+        return warm(stylesheets);
+    }
+
+    /**
+     * Warms the stylesheets in a directory on disk that match the glob.  They
+     * are cached as Files, the same as when passed to {@link
+     * XMLUtil#xslTransformation(Object, Object, Map)} as Files.
+     *
+     * @param directory the directory
+     * @param glob      matched against the path of each file relative to the
+     *                  directory, see {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     *
+     * @return what happened to each stylesheet
+     *
+     * @throws IOException          if the directory could not be listed
+     * @throws InterruptedException if this thread is interrupted while
+     *                              waiting for the stylesheets
+     */
+    public Report warm(final File directory, final String glob)
+        throws IOException, InterruptedException
+    {
+        if (!directory.isDirectory())
+        {
+            throw new IOException(directory + " is not a directory");
+        }
+        final PathMatcher matcher =
+            FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        final List<String> names = new ArrayList<String>();
+        listFiles(directory, "", matcher, names);
+        final List<Object> stylesheets = new ArrayList<Object>();
+        for (final String name : names)
+        {
+            stylesheets.add(new File(directory, name));
+        }
+        return warm(stylesheets);
+    }
+
+    /**
+     * Warms the stylesheets, all at once.  A stylesheet that fails to
+     * compile, or to transform a sample, is recorded in the report, and the
+     * rest carry on.
+     *
+     * @param stylesheets String classpath names, or java.io.File objects
+     *
+     * @return what happened to each stylesheet
+     *
+     * @throws InterruptedException if this thread is interrupted while
+     *                              waiting for the stylesheets
+     */
+    public Report warm(final Collection<?> stylesheets)
+        throws InterruptedException
+    {
+        final long start = System.currentTimeMillis();
+        final List<FutureTask<Warmed>> tasks =
+            new ArrayList<FutureTask<Warmed>>(stylesheets.size());
+        for (final Object xsl : stylesheets)
+        {
+            final String name = key(xsl);
+            final FutureTask<Warmed> task = new FutureTask<Warmed>(
+                new Callable<Warmed>()
+                {
+                    public Warmed call()
+                    {
+                        return warmOne(xsl, name);
+                    }
+                });
+            tasks.add(task);
+            try
+            {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e)
+            {   // still worth doing, just not in parallel
+                logger.debug(name + " rejected", e);
+                task.run();
+            }
+        }
+
+        final List<Warmed> warmed = new ArrayList<Warmed>(tasks.size());
+        for (final FutureTask<Warmed> task : tasks)
+        {
+            try
+            {
+                warmed.add(task.get());
+            }
+            catch (ExecutionException e)
+            {   // warmOne catches everything but Errors
+                if (e.getCause() instanceof Error)
+                {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        final Report report =
+            new Report(warmed, System.currentTimeMillis() - start);
+        if (report.getFailureCount() > 0)
+        {
+            logger.warn(report);
+        }
+        else
+        {
+            logger.info(report);
+        }
+        return report;
+    }
+
+    private Warmed warmOne(final Object xsl, final String name)
+    {
+        final long compileStart = System.nanoTime();
+        final Templates templates;
+        try
+        {
+            templates = XMLUtil.getTemplatesCache().getTemplates(xsl);
+        }
+        catch (Exception e)
+        {
+            logger.debug("unable to compile " + name, e);
+            return new Warmed(name, elapsed(compileStart), 0, 0, e);
+        }
+        final long compileMillis = elapsed(compileStart);
+
+        List<Object> documents = samples.get(name);
+        if (documents == null)
+        {
+            documents = defaultSamples;
+        }
+        final long transformStart = System.nanoTime();
+        int count = 0;
+        try
+        {
+            final OutputStream discard = new OutputStream()
+            {
+                public void write(final int b)
+                {
+                }
+
+                public void write(final byte[] b, final int off,
+                    final int len)
+                {
+                }
+            };
+            final Transformer transformer = templates.newTransformer();
+            transformer.setErrorListener(new ExceptionErrorListener(
+                XMLMetrics.XSL_TRANSFORMATION, name));
+            for (int run = 0; run < transforms; run++)
+            {
+                for (final Object xml : documents)
+                {
+                    transformer.transform(XMLUtil.toSource(xml),
+                        new StreamResult(discard));
+                    transformer.reset();
+                    transformer.setErrorListener(new ExceptionErrorListener(
+                        XMLMetrics.XSL_TRANSFORMATION, name));
+                    count++;
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            logger.debug("unable to transform a sample with " + name, e);
+            return new Warmed(name, compileMillis, count,
+                elapsed(transformStart), e);
+        }
+        return new Warmed(name, compileMillis, count, elapsed(transformStart),
+            null);
+    }
+
+    private static long elapsed(final long start)
+    {
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    private static String key(final Object xsl)
+    {
+        if (xsl instanceof File)
+        {
+            try
+            {
+                return TemplatesCache.keyFor(((File) xsl).getCanonicalFile());
+            }
+            catch (IOException e)
+            {
+                return TemplatesCache.keyFor(((File) xsl).getAbsoluteFile());
+            }
+        }
+        else if (xsl instanceof String)
+        {
+            return TemplatesCache.keyFor(xsl);
+        }
+        throw new IllegalArgumentException(
+            "Only java.lang.String xsl filenames, or java.io.File " +
+                "are supported for the xsl parameter");
+    }
+
+    /**
+     * Lists the resources in a classpath directory, whether it is a plain
+     * directory or inside of a jar.
+     *
+     * @return the classpath names of the matching resources, sorted
+     */
+    static List<String> list(final String directory, final String glob)
+        throws IOException
+    {
+        final String prefix = directory.endsWith("/") ? directory :
+            directory + '/';
+        final URL url = XMLUtil.class.getResource(prefix);
+        if (url == null)
+        {
+            throw new IOException(directory + " is not on the classpath");
+        }
+        final PathMatcher matcher =
+            FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        final List<String> relative = new ArrayList<String>();
+        if ("file".equals(url.getProtocol()))
+        {
+            final File root;
+            try
+            {
+                root = new File(url.toURI());
+            }
+            catch (URISyntaxException e)
+            {
+                throw new IOException(url + " is not a valid file URL", e);
+            }
+            listFiles(root, "", matcher, relative);
+        }
+        else if ("jar".equals(url.getProtocol()))
+        {
+            final JarURLConnection connection =
+                (JarURLConnection) url.openConnection();
+            connection.setUseCaches(false);
+            final String entryPrefix = connection.getEntryName() == null ?
+                "" : connection.getEntryName();
+            final JarFile jar = connection.getJarFile();
+            try
+            {
+                final Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements())
+                {
+                    final JarEntry entry = entries.nextElement();
+                    final String name = entry.getName();
+                    if (!entry.isDirectory() && name.startsWith(entryPrefix) &&
+                        matcher.matches(Paths.get(
+                            name.substring(entryPrefix.length()))))
+                    {
+                        relative.add(name.substring(entryPrefix.length()));
+                    }
+                }
+            }
+            finally
+            {
+                jar.close();
+            }
+        }
+        else
+        {
+            throw new IOException("unable to list " + url);
+        }
+        Collections.sort(relative);
+        final List<String> names = new ArrayList<String>(relative.size());
+        for (final String name : relative)
+        {
+            names.add(prefix + name);
+        }
+        return names;
+    }
+
+    private static void listFiles(final File directory, final String prefix,
+        final PathMatcher matcher, final List<String> names)
+    {
+        final File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        for (final File file : files)
+        {
+            final String name = prefix + file.getName();
+            if (file.isDirectory())
+            {
+                listFiles(file, name + '/', matcher, names);
+            }
+            else
+            {
+                final Path path = Paths.get(name);
+                if (matcher.matches(path))
+                {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+    }
+
+    /**
+     * What happened to one stylesheet.
+     */
+    public static final class Warmed
+    {
+        private final String stylesheet;
+
+        private final long compileMillis;
+
+        private final int transformCount;
+
+        private final long transformMillis;
+
+        private final Exception exception;
+
+        private Warmed(final String stylesheet, final long compileMillis,
+            final int transformCount, final long transformMillis,
+            final Exception exception)
+        {
+            this.stylesheet = stylesheet;
+            this.compileMillis = compileMillis;
+            this.transformCount = transformCount;
+            this.transformMillis = transformMillis;
+            this.exception = exception;
+        }
+
+        /**
+         * @return the key the stylesheet is cached under
+         */
+        public String getStylesheet()
+        {
+            return stylesheet;
+        }
+
+        /**
+         * @return how long it took to compile, or to find in the cache
+         */
+        public long getCompileMillis()
+        {
+            return compileMillis;
+        }
+
+        /**
+         * @return how many sample transformations succeeded
+         */
+        public int getTransformCount()
+        {
+            return transformCount;
+        }
+
+        /**
+         * @return how long the sample transformations took, altogether
+         */
+        public long getTransformMillis()
+        {
+            return transformMillis;
+        }
+
+        /**
+         * @return why it failed, or null if it didn't
+         */
+        public Exception getException()
+        {
+            return exception;
+        }
+
+        public boolean isSuccessful()
+        {
+            return exception == null;
+        }
+
+        public String toString()
+        {
+            return stylesheet + ": compiled in " + compileMillis + "ms, " +
+                transformCount + " transforms in " + transformMillis + "ms" +
+                (exception == null ? "" : ", failed: " + exception);
+        }
+    }
+
+    /**
+     * The outcome of a warm up.
+     */
+    public static final class Report
+    {
+        private final List<Warmed> stylesheets;
+
+        private final long elapsedMillis;
+
+        private final int failureCount;
+
+        private Report(final List<Warmed> stylesheets,
+            final long elapsedMillis)
+        {
+            this.stylesheets = Collections.unmodifiableList(stylesheets);
+            this.elapsedMillis = elapsedMillis;
+            int failures = 0;
+            for (final Warmed warmed : stylesheets)
+            {
+                if (!warmed.isSuccessful())
+                {
+                    failures++;
+                }
+            }
+            this.failureCount = failures;
+        }
+
+        /**
+         * @return what happened to each stylesheet, in the order given
+         */
+        public List<Warmed> getStylesheets()
+        {
+            return stylesheets;
+        }
+
+        public int getFailureCount()
+        {
+            return failureCount;
+        }
+
+        public long getElapsedMillis()
+        {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return true if every stylesheet compiled, and transformed every
+         *         sample
+         */
+        public boolean isSuccessful()
+        {
+            return failureCount == 0;
+        }
+
+        public String toString()
+        {
+            final StringBuilder builder = new StringBuilder();
+            builder.append("warmed ").append(stylesheets.size())
+                .append(" stylesheets in ").append(elapsedMillis).append("ms, ")
+                .append(failureCount).append(" failed");
+            for (final Warmed warmed : stylesheets)
+            {
+                builder.append("\n  ").append(warmed);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,702 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe cache of compiled stylesheets.  Compiling an XSL is
+ * by far the most expensive part of a transformation, so we compile each
+ * stylesheet once, and hand out cheap {@link Transformer} objects from the
+ * shared {@link Templates}.
+ * <p/>
+ * Stylesheets are keyed by their classpath name (when given a String), or
+ * their canonical path (when given a File).  The modification time of the
+ * underlying file is part of the key, so an edited stylesheet is recompiled.
+ * A File is checked on every request.  A classpath name is only looked up
+ * once, and it's file is checked at most once every {@link
+ * #getCheckInterval() check interval}, a second by default, so that cache
+ * hits cost next to nothing.  Classpath resources that live inside of a jar
+ * are never considered stale.
+ * <p/>
+ * When several threads ask for the same stylesheet at the same time, only
+ * one of them compiles it, and the rest wait for and share the result.  The
+ * least recently used stylesheet is evicted once the cache is full.
+ * <p/>
+ * Stylesheets named by an xml-stylesheet processing instruction are cached
+ * by their URI, see {@link #getAssociatedTemplates(String)}.
+ * <p/>
+ * A classpath stylesheet that has been precompiled by the {@link
+ * TransletCompiler} is loaded as a translet instead of being compiled.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class TemplatesCache
+{
+    private static final Logger logger = Logger.getLogger(TemplatesCache.class);
+
+    /**
+     * The default number of compiled stylesheets we hold on to.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 64;
+
+    /**
+     * The default number of milliseconds between checks of whether a
+     * classpath stylesheet has changed.
+     */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    private final Map<String, CachedTemplates> entries;
+
+    /**
+     * Where each classpath name was found, so that it is only looked up
+     * once.
+     */
+    private final ConcurrentMap<String, ClasspathStylesheet> classpath =
+        new ConcurrentHashMap<String, ClasspathStylesheet>();
+
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    private final AtomicLong hits;
+
+    private final AtomicLong misses;
+
+    private final AtomicLong evictions;
+
+    private int maximumSize;
+
+    /**
+     * TransformerFactory is not thread safe, so each compiling thread gets
+     * it's own, without repeating the classpath lookup.
+     */
+    private final ThreadLocal<TransformerFactory> factories =
+        new ThreadLocal<TransformerFactory>()
+        {
+            protected TransformerFactory initialValue()
+            {
+                return XMLUtil.getXMLPool().newTransformerFactory();
+            }
+        };
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAXIMUM_SIZE}
+     * stylesheets.
+     */
+    public TemplatesCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a cache holding at most maximumSize stylesheets.
+     *
+     * @param maximumSize the maximum number of compiled stylesheets, must be
+     *                    greater than zero
+     */
+    public TemplatesCache(final int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumSize must be greater than zero: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+        entries = new LinkedHashMap<String, CachedTemplates>(16, 0.75f,
+            true)
+        {
+            protected boolean removeEldestEntry(
+                final Map.Entry<String, CachedTemplates> eldest)
+            {
+                final boolean evict = size() > TemplatesCache.this.maximumSize;
+                if (evict)
+                {
+                    evictions.incrementAndGet();
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("evicting stylesheet " + eldest.getKey());
+                    }
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * Retrieves the compiled stylesheet, compiling it if it is not already
+     * cached, or if it has been modified since it was compiled.
+     *
+     * @param xsl a String classpath name, or a java.io.File object pointing to
+     *            the file.  Prefix all classpath names with '/', where '/' is
+     *            the root of the classpath.
+     *
+     * @return the compiled stylesheet
+     *
+     * @throws TransformerException if the stylesheet could not be compiled
+     * @throws IOException          if an IO error occurs reading the
+     *                              stylesheet
+     */
+    public Templates getTemplates(final Object xsl)
+        throws TransformerException, IOException
+    {
+        if (xsl instanceof String)
+        {
+            final String name = (String) xsl;
+            final ClasspathStylesheet stylesheet = locate(name);
+            final URL url = stylesheet.url;
+            final String key = keyFor(xsl);
+            return getTemplates(key, stylesheet.version(checkInterval),
+                new Callable<Templates>()
+                {
+                    public Templates call() throws Exception
+                    {
+                        final Templates translet =
+                            TransletCompiler.load(name, url);
+                        if (translet != null)
+                        {
+                            return translet;
+                        }
+                        final InputStream xsltResource = url.openStream();
+                        try
+                        {
+                            return compile(new StreamSource(xsltResource,
+                                url.toExternalForm()), key);
+                        }
+                        finally
+                        {
+                            xsltResource.close();
+                        }
+                    }
+                });
+        }
+        else if (xsl instanceof File)
+        {
+            final File file = ((File) xsl).getCanonicalFile();
+            final String key = keyFor(file);
+            return getTemplates(key, file.lastModified(),
+                new Callable<Templates>()
+                {
+                    public Templates call() throws Exception
+                    {
+                        return compile(new StreamSource(file), key);
+                    }
+                });
+        }
+        else
+        {
+            throw new IllegalArgumentException(
+                "Only java.lang.String xsl filenames, or java.io.File " +
+                    "are supported for the xsl parameter");
+        }
+    }
+
+    /**
+     * Finds the classpath stylesheet, looking it up only the first time.
+     */
+    private ClasspathStylesheet locate(final String name)
+    {
+        ClasspathStylesheet stylesheet = classpath.get(name);
+        if (stylesheet == null)
+        {
+            final URL url = XMLUtil.class.getResource(name);
+            if (url == null)
+            {
+                throw new IllegalArgumentException(
+                    name + " is an invalid XSL file");
+            }
+            stylesheet = new ClasspathStylesheet(url);
+            final ClasspathStylesheet existing =
+                classpath.putIfAbsent(name, stylesheet);
+            if (existing != null)
+            {
+                stylesheet = existing;
+            }
+        }
+        return stylesheet;
+    }
+
+    /**
+     * Retrieves the compiled stylesheet an xml-stylesheet processing
+     * instruction refers to, fetching it with {@link
+     * XMLUtil#getStylesheetResolver()}.  It is cached under "pi:" followed by
+     * the URI, and recompiled when the file it is fetched from has changed,
+     * whether the URI names that file or the resolver maps it there.
+     *
+     * @param uri the absolute URI of the stylesheet
+     *
+     * @return the compiled stylesheet
+     *
+     * @throws TransformerException if the stylesheet could not be fetched or
+     *                              compiled
+     * @throws IOException          if the URI is not a valid URL
+     */
+    public Templates getAssociatedTemplates(final String uri)
+        throws TransformerException, IOException
+    {
+        final String key = "pi:" + uri;
+        return getTemplates(key,
+            lastModified(XMLUtil.getStylesheetResolver().locate(uri)),
+            new Callable<Templates>()
+            {
+                public Templates call() throws Exception
+                {
+                    return compile(
+                        XMLUtil.getStylesheetResolver().resolve(uri, null),
+                        key);
+                }
+            });
+    }
+
+    /**
+     * Retrieves a new Transformer for the given stylesheet, by way of
+     * {@link #getTemplates(Object)}.
+     *
+     * @param xsl a String classpath name, or a java.io.File object
+     *
+     * @return a new Transformer, which must only be used by one thread at a
+     *         time
+     *
+     * @throws TransformerException if the stylesheet could not be compiled
+     * @throws IOException          if an IO error occurs reading the
+     *                              stylesheet
+     */
+    public Transformer newTransformer(final Object xsl)
+        throws TransformerException, IOException
+    {
+        return getTemplates(xsl).newTransformer();
+    }
+
+    /**
+     * Retrieves the compiled stylesheet stored under key, calling compiler if
+     * it is missing, or if it was cached with a different version.  Only one
+     * thread will run the compiler for a given key, while any others wait for
+     * it's result.
+     *
+     * @param key      the unique key of the stylesheet
+     * @param version  the version of the stylesheet, usually it's
+     *                 modification time
+     * @param compiler compiles the stylesheet
+     *
+     * @return the compiled stylesheet
+     *
+     * @throws TransformerException if the stylesheet could not be compiled
+     * @throws IOException          if an IO error occurs reading the
+     *                              stylesheet
+     */
+    Templates getTemplates(final String key, final long version,
+        final Callable<Templates> compiler)
+        throws TransformerException, IOException
+    {
+        final CachedTemplates entry;
+        final boolean compile;
+        synchronized (entries)
+        {
+            final CachedTemplates existing = entries.get(key);
+            if (existing != null && existing.version == version)
+            {
+                entry = existing;
+                compile = false;
+                hits.incrementAndGet();
+            }
+            else
+            {
+                entry = new CachedTemplates(version,
+                    new FutureTask<Templates>(compiler));
+                entries.put(key, entry);
+                compile = true;
+                misses.incrementAndGet();
+            }
+        }
+
+        if (compile)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("compiling stylesheet " + key);
+            }
+            entry.templates.run();
+        }
+
+        try
+        {
+            return entry.templates.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new TransformerException(
+                "interrupted waiting for stylesheet " + key, e);
+        }
+        catch (ExecutionException e)
+        {   // don't hold on to failures, the next caller should try again
+            synchronized (entries)
+            {
+                if (entries.get(key) == entry)
+                {
+                    entries.remove(key);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof TransformerException)
+            {
+                throw (TransformerException) cause;
+            }
+            else if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new TransformerException(cause);
+        }
+    }
+
+    /**
+     * Compiles the stylesheet with this thread's TransformerFactory.  Any
+     * xsl:include or xsl:import goes through {@link
+     * XMLUtil#getStylesheetResolver()}.
+     *
+     * @param source the stylesheet source
+     * @param key    the unique key of the stylesheet, for the metrics
+     *
+     * @return the compiled stylesheet
+     *
+     * @throws TransformerConfigurationException if the stylesheet could not
+     *                                           be compiled
+     */
+    Templates compile(final Source source, final String key)
+        throws TransformerConfigurationException
+    {
+        final TransformerFactory transFact = factories.get();
+        transFact.setURIResolver(XMLUtil.getStylesheetResolver());
+        transFact.setErrorListener(
+            new ExceptionErrorListener(XMLMetrics.COMPILE, key));
+        final Probe probe = Probe.start(XMLMetrics.COMPILE, key);
+        try
+        {
+            final Templates templates = transFact.newTemplates(source);
+            probe.succeeded();
+            return templates;
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    /**
+     * Removes the given stylesheet from the cache, so that it will be
+     * recompiled on it's next use.
+     *
+     * @param xsl a String classpath name, or a java.io.File object
+     *
+     * @return true if the stylesheet was cached
+     *
+     * @throws IOException if the canonical path of a File cannot be determined
+     */
+    public boolean invalidate(final Object xsl) throws IOException
+    {
+        final String key;
+        if (xsl instanceof File)
+        {
+            key = keyFor(((File) xsl).getCanonicalFile());
+        }
+        else
+        {
+            key = keyFor(xsl);
+            classpath.remove(xsl);
+        }
+        synchronized (entries)
+        {
+            return entries.remove(key) != null;
+        }
+    }
+
+    /**
+     * Removes every stylesheet from the cache.
+     */
+    public void invalidateAll()
+    {
+        classpath.clear();
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of stylesheets currently cached
+     */
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the maximum number of stylesheets we will cache
+     */
+    public int getMaximumSize()
+    {
+        synchronized (entries)
+        {
+            return maximumSize;
+        }
+    }
+
+    /**
+     * Changes the maximum number of stylesheets cached, evicting the least
+     * recently used ones if there are now too many.
+     *
+     * @param maximumSize the new maximum, must be greater than zero
+     */
+    public void setMaximumSize(final int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumSize must be greater than zero: " + maximumSize);
+        }
+        synchronized (entries)
+        {
+            this.maximumSize = maximumSize;
+            final Iterator<String> it = entries.keySet().iterator();
+            while (entries.size() > maximumSize && it.hasNext())
+            {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the milliseconds between checks of whether a classpath
+     *         stylesheet has changed
+     */
+    public long getCheckInterval()
+    {
+        return checkInterval;
+    }
+
+    /**
+     * Changes how often classpath stylesheets are checked for changes.  Each
+     * check reads the modification time of the file, so 0 checks on every
+     * request.
+     *
+     * @param checkInterval the milliseconds between checks, must not be
+     *                      negative
+     */
+    public void setCheckInterval(final long checkInterval)
+    {
+        if (checkInterval < 0)
+        {
+            throw new IllegalArgumentException(
+                "checkInterval must not be negative: " + checkInterval);
+        }
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * @return the number of requests that were served from the cache
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests that required compiling a stylesheet
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of stylesheets evicted because the cache was full
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters to zero.
+     */
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public String toString()
+    {
+        return "TemplatesCache[size=" + size() + ", maximumSize=" +
+            getMaximumSize() + ", hits=" + getHitCount() + ", misses=" +
+            getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * @param xsl a String classpath name, or a java.io.File object
+     *
+     * @return the key the stylesheet is cached under, which also names it in
+     *         the {@link XMLMetrics}
+     */
+    static String keyFor(final Object xsl)
+    {
+        if (xsl instanceof File)
+        {
+            return "file:" + ((File) xsl).getPath();
+        }
+        return "classpath:" + xsl;
+    }
+
+    /**
+     * Determines the modification time of a classpath resource.  Only
+     * resources that are plain files can change underneath us, so everything
+     * else is version 0.
+     *
+     * @param url the resource
+     *
+     * @return the modification time, or 0 if it is unknown
+     */
+    static long lastModified(final URL url)
+    {
+        final File file = toFile(url);
+        return file == null ? 0 : file.lastModified();
+    }
+
+    /**
+     * @param url a resource
+     *
+     * @return the file the resource is, or null if it is not a plain file
+     */
+    private static File toFile(final URL url)
+    {
+        if ("file".equals(url.getProtocol()))
+        {
+            try
+            {
+                return new File(url.toURI());
+            }
+            catch (URISyntaxException e)
+            {
+                return new File(url.getPath());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Where a classpath stylesheet was found, and the modification time of
+     * it's file when it was last checked.
+     */
+    private static class ClasspathStylesheet
+    {
+        private final URL url;
+
+        /**
+         * Null when the stylesheet is not a plain file, and cannot change.
+         */
+        private final File file;
+
+        private volatile long version;
+
+        private volatile long checked;
+
+        private ClasspathStylesheet(final URL url)
+        {
+            this.url = url;
+            file = toFile(url);
+        }
+
+        /**
+         * @param interval the milliseconds between checks
+         *
+         * @return the modification time, checked if it has not been for at
+         *         least interval milliseconds
+         */
+        private long version(final long interval)
+        {
+            if (file == null)
+            {
+                return 0;
+            }
+            final long now = System.currentTimeMillis();
+            if (now - checked >= interval)
+            {   // threads racing to check both see the same file
+                version = file.lastModified();
+                checked = now;
+            }
+            return version;
+        }
+    }
+
+    private static class CachedTemplates
+    {
+        private final long version;
+
+        private final FutureTask<Templates> templates;
+
+        private CachedTemplates(final long version,
+            final FutureTask<Templates> templates)
+        {
+            this.version = version;
+            this.templates = templates;
+        }
+    }
+}
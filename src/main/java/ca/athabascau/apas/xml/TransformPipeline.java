@@ -0,0 +1,355 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a document through several stylesheets, one after the other, such as
+ * normalize, then enrich, then render to HTML.  SAX events flow straight
+ * from each stage into the next through {@link TransformerHandler}s, so the
+ * input is parsed once at the start, the output is serialized once at the
+ * end, and no stage's output is ever held as a String or a DOM.
+ * <p/>
+ * Each stylesheet is compiled once, through the {@link
+ * XMLUtil#getTemplatesCache() shared cache}, when the pipeline is created.
+ * A pipeline may be shared by any number of threads.
+ * <pre>
+ * final TransformPipeline pipeline = new TransformPipeline(
+ *     new TransformPipeline.Stage("/normalize.xsl", null),
+ *     new TransformPipeline.Stage("/enrich.xsl", enrichParameters),
+ *     new TransformPipeline.Stage("/render.xsl", renderParameters));
+ * final String html = pipeline.transform(transcript);
+ * </pre>
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class TransformPipeline
+{
+    private final Stage[] stages;
+
+    private final Templates[] templates;
+
+    /**
+     * Names the pipeline in the {@link XMLMetrics}, by joining the names of
+     * it's stylesheets.
+     */
+    private final String stylesheet;
+
+    /**
+     * SAXTransformerFactory is not thread safe, but only hands out
+     * TransformerHandlers here, so each thread keeps one.
+     */
+    private final ThreadLocal<SAXTransformerFactory> factories =
+        new ThreadLocal<SAXTransformerFactory>()
+        {
+            protected SAXTransformerFactory initialValue()
+            {
+                return (SAXTransformerFactory)
+                    XMLUtil.getXMLPool().newTransformerFactory();
+            }
+        };
+
+    /**
+     * Only XSLTC can make TransformerHandlers from precompiled translets.
+     */
+    private final ThreadLocal<SAXTransformerFactory> transletFactories =
+        new ThreadLocal<SAXTransformerFactory>()
+        {
+            protected SAXTransformerFactory initialValue()
+            {
+                return TransletCompiler.newFactory();
+            }
+        };
+
+    /**
+     * Creates a pipeline of the stages, in the order given.
+     *
+     * @param stages the stylesheets to run, at least one
+     *
+     * @throws TransformerException if a stylesheet could not be compiled, or
+     *                              the TransformerFactory does not support
+     *                              SAX
+     * @throws IOException          if an IO error occurs reading a
+     *                              stylesheet
+     */
+    public TransformPipeline(final Stage... stages)
+        throws TransformerException, IOException
+    {
+        if (stages == null || stages.length == 0)
+        {
+            throw new IllegalArgumentException(
+                "a pipeline needs at least one stage");
+        }
+        final TransformerFactory factory =
+            XMLUtil.getXMLPool().newTransformerFactory();
+        if (!factory.getFeature(SAXTransformerFactory.FEATURE))
+        {
+            throw new TransformerConfigurationException(
+                factory.getClass().getName() + " does not support SAX");
+        }
+        this.stages = stages.clone();
+        this.templates = new Templates[stages.length];
+        final StringBuilder name = new StringBuilder();
+        for (int index = 0; index < stages.length; index++)
+        {
+            if (stages[index] == null)
+            {
+                throw new IllegalArgumentException(
+                    "stage " + index + " is null");
+            }
+            final Object xsl = stages[index].getXSL();
+            templates[index] = XMLUtil.getTemplatesCache().getTemplates(xsl);
+            if (index > 0)
+            {
+                name.append(" | ");
+            }
+            name.append(TemplatesCache.keyFor(xsl instanceof File ?
+                ((File) xsl).getAbsoluteFile() : xsl));
+        }
+        stylesheet = name.toString();
+    }
+
+    /**
+     * Runs the xml through every stage.
+     *
+     * @param xml the xml, as described by {@link XMLUtil#xslTransformation(Object,
+     *            Object, Map)}
+     *
+     * @return the output of the last stage
+     *
+     * @throws TransformerException if a transformation error occurs
+     * @throws IOException          if an IO error occurs
+     */
+    public String transform(final Object xml)
+        throws TransformerException, IOException
+    {
+        final StringWriter writer = new StringWriter(XMLUtil.BUFFER_CAPACITY);
+        transform(xml, null, new StreamResult(writer));
+        return writer.toString();
+    }
+
+    /**
+     * Runs the xml through every stage, writing the output of the last one to
+     * the stream, encoded according to it's xsl:output.  The stream is
+     * flushed, but not closed.
+     *
+     * @param xml the xml, as described by {@link XMLUtil#xslTransformation(Object,
+     *            Object, Map)}
+     * @param out the stream to write to
+     *
+     * @throws TransformerException if a transformation error occurs
+     * @throws IOException          if an IO error occurs
+     */
+    public void transform(final Object xml, final OutputStream out)
+        throws TransformerException, IOException
+    {
+        transform(xml, null, new StreamResult(out));
+        out.flush();
+    }
+
+    /**
+     * Runs the xml through every stage, writing the output of the last one to
+     * the writer.  The writer is flushed, but not closed.
+     *
+     * @param xml    the xml, as described by {@link XMLUtil#xslTransformation(Object,
+     *               Object, Map)}
+     * @param writer the writer to write to
+     *
+     * @throws TransformerException if a transformation error occurs
+     * @throws IOException          if an IO error occurs
+     */
+    public void transform(final Object xml, final Writer writer)
+        throws TransformerException, IOException
+    {
+        transform(xml, null, new StreamResult(writer));
+        writer.flush();
+    }
+
+    /**
+     * Runs the xml through every stage, sending the output of the last one
+     * to the result.  All of the other transform methods end up here.
+     *
+     * @param xml        the xml, as described by {@link XMLUtil#xslTransformation(Object,
+     *                   Object, Map)}
+     * @param parameters parameters for this document only, one map per
+     *                   stage, which are passed after, and so override, the
+     *                   stage's own.  The list, or any map in it, may be
+     *                   null
+     * @param result     where the output of the last stage goes
+     *
+     * @throws TransformerException if a transformation error occurs
+     * @throws IOException          if an IO error occurs
+     */
+    public void transform(final Object xml,
+        final List<Map<String, ?>> parameters, final Result result)
+        throws TransformerException, IOException
+    {
+        if (result == null)
+        {
+            throw new IllegalArgumentException("result must not be null");
+        }
+        if (parameters != null && parameters.size() > stages.length)
+        {
+            throw new IllegalArgumentException("there are " + stages.length +
+                " stages, but " + parameters.size() + " parameter maps");
+        }
+        final List<Map<String, ?>> documentParameters = parameters == null ?
+            Collections.<Map<String, ?>>emptyList() : parameters;
+        final Probe probe = Probe.start(XMLMetrics.XSL_TRANSFORMATION,
+            stylesheet);
+        try
+        {
+            final Object input = probe.countInput(xml);
+
+            // build the chain backwards, from the result to the first stage
+            Result next = probe.countOutput(result);
+            for (int index = stages.length - 1; index > 0; index--)
+            {
+                final SAXTransformerFactory factory =
+                    TransletCompiler.isTranslet(templates[index]) ?
+                        transletFactories.get() : factories.get();
+                final TransformerHandler handler =
+                    factory.newTransformerHandler(templates[index]);
+                configure(index, handler.getTransformer(),
+                    documentParameters);
+                handler.setResult(next);
+                final SAXResult saxResult = new SAXResult(handler);
+                saxResult.setLexicalHandler(handler);
+                next = saxResult;
+            }
+
+            // the first stage parses the input, and starts the events
+            final Transformer first = templates[0].newTransformer();
+            configure(0, first, documentParameters);
+            first.transform(XMLUtil.toSource(input), next);
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    private void configure(final int index, final Transformer transformer,
+        final List<Map<String, ?>> parameters)
+    {
+        transformer.setErrorListener(new ExceptionErrorListener(
+            XMLMetrics.XSL_TRANSFORMATION, stylesheet));
+        setParameters(transformer, stages[index].getParameters());
+        if (index < parameters.size())
+        {
+            setParameters(transformer, parameters.get(index));
+        }
+    }
+
+    private static void setParameters(final Transformer transformer,
+        final Map<String, ?> parameters)
+    {
+        if (parameters != null)
+        {
+            final Iterator<String> keyIt = parameters.keySet().iterator();
+            while (keyIt.hasNext())
+            {
+                final String key = keyIt.next();
+                transformer.setParameter(key, parameters.get(key));
+            }
+        }
+    }
+
+    /**
+     * @return the number of stages
+     */
+    public int size()
+    {
+        return stages.length;
+    }
+
+    public String toString()
+    {
+        return "TransformPipeline[" + stylesheet + "]";
+    }
+
+    /**
+     * One stylesheet in a pipeline, with the parameters passed to it for
+     * every document.
+     */
+    public static final class Stage
+    {
+        private final Object xsl;
+
+        private final Map<String, ?> parameters;
+
+        /**
+         * Creates a stage.
+         *
+         * @param xsl        a String classpath name, or a java.io.File
+         *                   object, see {@link XMLUtil#xslTransformation(Object,
+         *                   Object, Map)}
+         * @param parameters the parameters to pass to the stylesheet, or
+         *                   null.  The map must not be changed afterwards
+         */
+        public Stage(final Object xsl, final Map<String, ?> parameters)
+        {
+            if (xsl == null)
+            {
+                throw new IllegalArgumentException("xsl must not be null");
+            }
+            this.xsl = xsl;
+            this.parameters = parameters;
+        }
+
+        public Object getXSL()
+        {
+            return xsl;
+        }
+
+        public Map<String, ?> getParameters()
+        {
+            return parameters;
+        }
+
+        public String toString()
+        {
+            return "Stage{xsl=" + xsl + ", parameters=" + parameters + '}';
+        }
+    }
+}
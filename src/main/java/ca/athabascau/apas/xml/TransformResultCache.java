@@ -0,0 +1,882 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Node;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe cache of transformation output, so that rendering
+ * the same document with the same stylesheet and parameters a second time
+ * costs a digest of the input, rather than a parse and a transform.
+ * <p/>
+ * Results are keyed by a SHA-256 digest of the input's content, the
+ * stylesheet's {@link TemplatesCache cache key} and modification time, and
+ * the parameters, sorted by name.  Only input that can be read twice is
+ * cached, that is a String, byte[], ByteBuffer, File, Path or DOM Node, with
+ * a String classpath name or a File for the stylesheet, and parameters that
+ * are Strings, Numbers, Booleans or Characters.  The output must go to a
+ * StreamResult with an OutputStream or a Writer.  Anything else is simply
+ * transformed as though there were no cache.
+ * <p/>
+ * The output is held as it's encoded bytes, and the least recently used
+ * results are evicted once they add up to more than the maximum number of
+ * bytes.  Results also expire once they are older than the time to live, as
+ * the stylesheet may depend on more than it's input, such as the date, or
+ * an xsl:include that has been edited.
+ * <p/>
+ * Given a directory, every result is also written there, so that results
+ * evicted from memory, or cached before a restart, are read back from disk
+ * rather than transformed again.  Expired files are deleted as they are
+ * found, or by {@link #purgeExpired()}.
+ * <p/>
+ * The cache is off by default.  Install one with {@link
+ * XMLUtil#setResultCache(TransformResultCache)}, or with the {@link
+ * #MAXIMUM_BYTES_PROPERTY}, {@link #TIME_TO_LIVE_PROPERTY} and {@link
+ * #DIRECTORY_PROPERTY} system properties.  A call that must not be cached
+ * passes the {@link #BYPASS_PARAMETER} parameter.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class TransformResultCache
+{
+    private static final Logger logger =
+        Logger.getLogger(TransformResultCache.class);
+
+    /**
+     * System property holding the maximum number of bytes of output held in
+     * memory.  The cache used by {@link XMLUtil} is only installed when this,
+     * or the {@link #DIRECTORY_PROPERTY}, is set.
+     */
+    public static final String MAXIMUM_BYTES_PROPERTY =
+        "ca.athabascau.apas.xml.results.maximumBytes";
+
+    /**
+     * System property holding the time to live of a result, in milliseconds.
+     */
+    public static final String TIME_TO_LIVE_PROPERTY =
+        "ca.athabascau.apas.xml.results.timeToLive";
+
+    /**
+     * System property naming the directory results are also kept in.
+     */
+    public static final String DIRECTORY_PROPERTY =
+        "ca.athabascau.apas.xml.results.directory";
+
+    /**
+     * A parameter that, when present with any value other than
+     * Boolean.FALSE or "false", transforms without the cache.  It is not
+     * passed to the stylesheet.
+     */
+    public static final String BYPASS_PARAMETER =
+        "ca.athabascau.apas.xml.results.bypass";
+
+    /**
+     * The default number of bytes of output we hold on to, 32 megabytes.
+     */
+    public static final long DEFAULT_MAXIMUM_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * The default time to live, ten minutes.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 10L * 60 * 1000;
+
+    /**
+     * Roughly what an entry costs, besides it's output.
+     */
+    private static final int ENTRY_OVERHEAD = 200;
+
+    private static final String SUFFIX = ".result";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Map<String, CachedResult> entries =
+        new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+
+    private final long timeToLive;
+
+    private final File directory;
+
+    private long maximumBytes;
+
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong bypasses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Creates a cache configured from the {@link #MAXIMUM_BYTES_PROPERTY},
+     * {@link #TIME_TO_LIVE_PROPERTY} and {@link #DIRECTORY_PROPERTY} system
+     * properties.
+     *
+     * @return the new cache, or null if neither the maximum bytes or the
+     *         directory are set
+     */
+    public static TransformResultCache fromSystemProperties()
+    {
+        final Long maximum = Long.getLong(MAXIMUM_BYTES_PROPERTY);
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (maximum == null && directory == null)
+        {
+            return null;
+        }
+        return new TransformResultCache(
+            maximum == null ? DEFAULT_MAXIMUM_BYTES : maximum.longValue(),
+            Long.getLong(TIME_TO_LIVE_PROPERTY, DEFAULT_TIME_TO_LIVE),
+            directory == null ? null : new File(directory));
+    }
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAXIMUM_BYTES} of
+     * output in memory, for {@link #DEFAULT_TIME_TO_LIVE}.
+     */
+    public TransformResultCache()
+    {
+        this(DEFAULT_MAXIMUM_BYTES, DEFAULT_TIME_TO_LIVE, null);
+    }
+
+    /**
+     * Creates a cache that only holds results in memory.
+     *
+     * @param maximumBytes the maximum number of bytes of output, must be
+     *                     greater than zero
+     * @param timeToLive   how long a result is kept, in milliseconds, must
+     *                     be greater than zero
+     */
+    public TransformResultCache(final long maximumBytes, final long timeToLive)
+    {
+        this(maximumBytes, timeToLive, null);
+    }
+
+    /**
+     * Creates a cache that also keeps results on disk.
+     *
+     * @param maximumBytes the maximum number of bytes of output held in
+     *                     memory, must be greater than zero
+     * @param timeToLive   how long a result is kept, in milliseconds, must
+     *                     be greater than zero
+     * @param directory    the directory to keep results in, which is created
+     *                     if need be, or null to only keep them in memory
+     */
+    public TransformResultCache(final long maximumBytes, final long timeToLive,
+        final File directory)
+    {
+        if (maximumBytes < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumBytes must be greater than zero: " + maximumBytes);
+        }
+        if (timeToLive < 1)
+        {
+            throw new IllegalArgumentException(
+                "timeToLive must be greater than zero: " + timeToLive);
+        }
+        this.maximumBytes = maximumBytes;
+        this.timeToLive = timeToLive;
+        this.directory = directory;
+    }
+
+    /**
+     * @param parameters the parameters of a transformation, or null
+     *
+     * @return true if the parameters ask for the cache to be skipped
+     */
+    static boolean isBypassed(final Map<String, ?> parameters)
+    {
+        if (parameters == null || !parameters.containsKey(BYPASS_PARAMETER))
+        {
+            return false;
+        }
+        final Object value = parameters.get(BYPASS_PARAMETER);
+        return !Boolean.FALSE.equals(value) && !"false".equals(value);
+    }
+
+    /**
+     * Works out the key of a transformation.
+     *
+     * @param xml        the xml, as described by {@link
+     *                   XMLUtil#xslTransformation(Object, Object, Map)}
+     * @param xsl        a String classpath name, or a java.io.File object
+     * @param parameters the parameters, or null
+     * @param result     where the output is going
+     *
+     * @return the key, or null if the transformation can't be cached
+     *
+     * @throws IOException if a File or Path could not be read
+     */
+    String keyFor(final Object xml, final Object xsl,
+        final Map<String, ?> parameters, final Result result)
+        throws IOException
+    {
+        if (!isCacheable(xml, xsl, parameters, result))
+        {
+            bypasses.incrementAndGet();
+            return null;
+        }
+
+        final MessageDigest digest = newDigest();
+        if (xsl instanceof File)
+        {
+            final File file = ((File) xsl).getCanonicalFile();
+            update(digest, TemplatesCache.keyFor(file));
+            update(digest, Long.toString(file.lastModified()));
+        }
+        else
+        {
+            final URL url = XMLUtil.class.getResource((String) xsl);
+            if (url == null)
+            {   // let the transformation report it
+                bypasses.incrementAndGet();
+                return null;
+            }
+            update(digest, TemplatesCache.keyFor(xsl));
+            update(digest, Long.toString(TemplatesCache.lastModified(url)));
+        }
+
+        if (parameters != null)
+        {   // sorted, so that the order of the map doesn't matter
+            final Map<String, Object> sorted =
+                new TreeMap<String, Object>(parameters);
+            sorted.remove(BYPASS_PARAMETER);
+            final Iterator<Map.Entry<String, Object>> it =
+                sorted.entrySet().iterator();
+            while (it.hasNext())
+            {
+                final Map.Entry<String, Object> parameter = it.next();
+                final Object value = parameter.getValue();
+                update(digest, parameter.getKey());
+                update(digest, value == null ? "null" :
+                    value.getClass().getName() + ':' + value);
+            }
+        }
+
+        // text and bytes are parsed differently, so they are never the same
+        if (xml instanceof String)
+        {
+            update(digest, "text");
+            update(digest, (String) xml);
+        }
+        else if (xml instanceof Node)
+        {
+            update(digest, "node");
+            digest.update(DOMSerializer.DEFAULT.toBytes((Node) xml));
+        }
+        else
+        {
+            update(digest, "bytes");
+        }
+        if (xml instanceof byte[])
+        {
+            digest.update((byte[]) xml);
+        }
+        else if (xml instanceof ByteBuffer)
+        {
+            digest.update(((ByteBuffer) xml).duplicate());
+        }
+        else if (xml instanceof File)
+        {
+            update(digest, new FileInputStream((File) xml));
+        }
+        else if (xml instanceof Path)
+        {
+            update(digest, Files.newInputStream((Path) xml));
+        }
+        return hex(digest.digest());
+    }
+
+    private static boolean isCacheable(final Object xml, final Object xsl,
+        final Map<String, ?> parameters, final Result result)
+    {
+        if (!(xml instanceof String || xml instanceof byte[] ||
+            xml instanceof ByteBuffer || xml instanceof File ||
+            xml instanceof Path || xml instanceof Node))
+        {
+            return false;
+        }
+        if (!(xsl instanceof String || xsl instanceof File))
+        {
+            return false;
+        }
+        if (!(result instanceof StreamResult) ||
+            (((StreamResult) result).getOutputStream() == null &&
+                ((StreamResult) result).getWriter() == null))
+        {
+            return false;
+        }
+        if (parameters != null)
+        {
+            if (isBypassed(parameters))
+            {
+                return false;
+            }
+            final Iterator<? extends Map.Entry<String, ?>> it =
+                parameters.entrySet().iterator();
+            while (it.hasNext())
+            {
+                final Map.Entry<String, ?> parameter = it.next();
+                final Object value = parameter.getValue();
+                // a raw Map may still have smuggled in another kind of key
+                if (!((Object) parameter.getKey() instanceof String) ||
+                    !(value == null || value instanceof String ||
+                        value instanceof Number || value instanceof Boolean ||
+                        value instanceof Character))
+                {   // a node set, or something without a stable toString()
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the cached output of a transformation to the result.
+     *
+     * @param key    the key, from {@link #keyFor(Object, Object, Map,
+     *               Result)}
+     * @param result a StreamResult with an OutputStream or a Writer
+     *
+     * @return true if it was cached, false if it needs to be transformed
+     *
+     * @throws IOException if it could not be written
+     */
+    boolean write(final String key, final Result result) throws IOException
+    {
+        CachedResult entry;
+        synchronized (entries)
+        {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(timeToLive))
+            {
+                remove(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null && directory != null)
+        {
+            entry = read(key);
+            if (entry != null)
+            {
+                diskHits.incrementAndGet();
+                store(key, entry);
+            }
+        }
+        if (entry == null)
+        {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        write(entry.content, entry.encoding, result);
+        return true;
+    }
+
+    /**
+     * Caches the output of a transformation.
+     *
+     * @param key      the key, from {@link #keyFor(Object, Object, Map,
+     *                 Result)}
+     * @param content  the output, encoded
+     * @param encoding the encoding of the output
+     */
+    void put(final String key, final byte[] content, final String encoding)
+    {
+        final CachedResult entry = new CachedResult(content, encoding,
+            System.currentTimeMillis());
+        store(key, entry);
+        if (directory != null)
+        {
+            save(key, entry);
+        }
+    }
+
+    private void store(final String key, final CachedResult entry)
+    {
+        synchronized (entries)
+        {
+            remove(key);
+            if (entry.size() > maximumBytes)
+            {   // it would only push everything else out
+                return;
+            }
+            entries.put(key, entry);
+            bytes += entry.size();
+            evict();
+        }
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void remove(final String key)
+    {
+        final CachedResult removed = entries.remove(key);
+        if (removed != null)
+        {
+            bytes -= removed.size();
+        }
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void evict()
+    {
+        final Iterator<Map.Entry<String, CachedResult>> it =
+            entries.entrySet().iterator();
+        while (bytes > maximumBytes && it.hasNext())
+        {
+            final Map.Entry<String, CachedResult> eldest = it.next();
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("evicting result " + eldest.getKey());
+            }
+            bytes -= eldest.getValue().size();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends the output to the result, decoding it for a Writer.
+     */
+    static void write(final byte[] content, final String encoding,
+        final Result result) throws IOException
+    {
+        final StreamResult stream = (StreamResult) result;
+        if (stream.getOutputStream() != null)
+        {
+            stream.getOutputStream().write(content);
+        }
+        else
+        {
+            stream.getWriter().write(new String(content, encoding));
+        }
+    }
+
+    /**
+     * Reads a result from the directory.
+     *
+     * @return the result, or null if there isn't one, it has expired, or it
+     *         could not be read
+     */
+    private CachedResult read(final String key)
+    {
+        final File file = new File(directory, key + SUFFIX);
+        try
+        {
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            final CachedResult entry;
+            try
+            {
+                final long created = in.readLong();
+                final String encoding = in.readUTF();
+                final byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                entry = new CachedResult(content, encoding, created);
+            }
+            finally
+            {
+                in.close();
+            }
+            if (entry.isExpired(timeToLive))
+            {
+                expirations.incrementAndGet();
+                file.delete();
+                return null;
+            }
+            return entry;
+        }
+        catch (FileNotFoundException e)
+        {
+            return null;
+        }
+        catch (IOException e)
+        {   // such as a file left behind by an older version
+            logger.warn("unable to read " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so that other threads and processes
+     * never see part of a result.
+     */
+    private void save(final String key, final CachedResult entry)
+    {
+        final File file = new File(directory, key + SUFFIX);
+        try
+        {
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                throw new IOException("unable to create " + directory);
+            }
+            final File temporary = File.createTempFile("result", ".tmp",
+                directory);
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)));
+            try
+            {
+                out.writeLong(entry.created);
+                out.writeUTF(entry.encoding);
+                out.writeInt(entry.content.length);
+                out.write(entry.content);
+            }
+            finally
+            {
+                out.close();
+            }
+            file.delete();
+            if (!temporary.renameTo(file))
+            {
+                temporary.delete();
+            }
+        }
+        catch (IOException e)
+        {   // the memory cache still works
+            logger.warn("unable to save " + file, e);
+        }
+    }
+
+    /**
+     * Removes the expired results, from memory and from the directory.
+     *
+     * @return the number of results removed
+     */
+    public int purgeExpired()
+    {
+        int purged = 0;
+        synchronized (entries)
+        {
+            final Iterator<Map.Entry<String, CachedResult>> it =
+                entries.entrySet().iterator();
+            while (it.hasNext())
+            {
+                final Map.Entry<String, CachedResult> entry = it.next();
+                if (entry.getValue().isExpired(timeToLive))
+                {
+                    bytes -= entry.getValue().size();
+                    it.remove();
+                    purged++;
+                }
+            }
+        }
+        expirations.addAndGet(purged);
+        final File[] files = directory == null ? null : directory.listFiles();
+        if (files != null)
+        {
+            for (final File file : files)
+            {
+                final String name = file.getName();
+                if (name.endsWith(SUFFIX) && read(name.substring(0,
+                    name.length() - SUFFIX.length())) == null)
+                {
+                    purged++;
+                }
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Removes every result, from memory and from the directory.
+     */
+    public void invalidateAll()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+            bytes = 0;
+        }
+        final File[] files = directory == null ? null : directory.listFiles();
+        if (files != null)
+        {
+            for (final File file : files)
+            {
+                if (file.getName().endsWith(SUFFIX))
+                {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of results held in memory
+     */
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return roughly how many bytes the results held in memory take
+     */
+    public long getBytes()
+    {
+        synchronized (entries)
+        {
+            return bytes;
+        }
+    }
+
+    /**
+     * @return the maximum number of bytes we will hold in memory
+     */
+    public long getMaximumBytes()
+    {
+        synchronized (entries)
+        {
+            return maximumBytes;
+        }
+    }
+
+    /**
+     * Changes the maximum number of bytes held in memory, evicting the least
+     * recently used results if there are now too many.
+     *
+     * @param maximumBytes the new maximum, must be greater than zero
+     */
+    public void setMaximumBytes(final long maximumBytes)
+    {
+        if (maximumBytes < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumBytes must be greater than zero: " + maximumBytes);
+        }
+        synchronized (entries)
+        {
+            this.maximumBytes = maximumBytes;
+            evict();
+        }
+    }
+
+    /**
+     * @return how long a result is kept, in milliseconds
+     */
+    public long getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+    /**
+     * @return the directory results are also kept in, or null
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @return the number of transformations served from the cache, from
+     *         memory or from disk
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of those hits that were read from disk
+     */
+    public long getDiskHitCount()
+    {
+        return diskHits.get();
+    }
+
+    /**
+     * @return the number of cacheable transformations that were not cached
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of transformations that could not be cached, or
+     *         asked not to be
+     */
+    public long getBypassCount()
+    {
+        return bypasses.get();
+    }
+
+    /**
+     * @return the number of results evicted because the cache was full
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of results removed because they were too old
+     */
+    public long getExpiredCount()
+    {
+        return expirations.get();
+    }
+
+    /**
+     * Resets every counter to zero.
+     */
+    public void resetStatistics()
+    {
+        hits.set(0);
+        diskHits.set(0);
+        misses.set(0);
+        bypasses.set(0);
+        evictions.set(0);
+        expirations.set(0);
+    }
+
+    public String toString()
+    {
+        return "TransformResultCache[size=" + size() + ", bytes=" +
+            getBytes() + ", maximumBytes=" + getMaximumBytes() + ", hits=" +
+            getHitCount() + ", diskHits=" + getDiskHitCount() + ", misses=" +
+            getMissCount() + ", bypasses=" + getBypassCount() +
+            ", evictions=" + getEvictionCount() + ", expired=" +
+            getExpiredCount() + "]";
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {   // every JRE has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds the string, preceded by it's length so that neighbouring strings
+     * can't run together.
+     */
+    private static void update(final MessageDigest digest, final String value)
+    {
+        final byte[] encoded = value.getBytes(Charset.forName("UTF-8"));
+        final int length = encoded.length;
+        digest.update(new byte[]{(byte) (length >>> 24),
+            (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(encoded);
+    }
+
+    private static void update(final MessageDigest digest,
+        final InputStream is) throws IOException
+    {
+        try
+        {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static String hex(final byte[] hash)
+    {
+        final StringBuilder name = new StringBuilder(hash.length * 2);
+        for (int index = 0; index < hash.length; index++)
+        {
+            name.append(Character.forDigit((hash[index] >> 4) & 0xF, 16));
+            name.append(Character.forDigit(hash[index] & 0xF, 16));
+        }
+        return name.toString();
+    }
+
+    private static class CachedResult
+    {
+        private final byte[] content;
+
+        private final String encoding;
+
+        private final long created;
+
+        private CachedResult(final byte[] content, final String encoding,
+            final long created)
+        {
+            this.content = content;
+            this.encoding = encoding;
+            this.created = created;
+        }
+
+        private long size()
+        {
+            return content.length + ENTRY_OVERHEAD;
+        }
+
+        private boolean isExpired(final long timeToLive)
+        {
+            return System.currentTimeMillis() - created >= timeToLive;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+import org.apache.xalan.xsltc.trax.TemplatesImpl;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles classpath stylesheets into XSLTC translets at build time, so that
+ * the first transformation after a deploy only has to load a class, rather
+ * than parse and compile the stylesheet.  The translets are written next to
+ * the compiled classes, and packaged in the jar with them.
+ * <p/>
+ * When {@link TemplatesCache} is asked for a classpath stylesheet, it looks
+ * for a translet of the same name first, and only compiles the stylesheet
+ * if there isn't one, if it is older than the stylesheet, or if it will not
+ * load.  Stylesheets given as a File, or named by an xml-stylesheet
+ * instruction, are always compiled at runtime, as they can change.
+ * <p/>
+ * Run it after the classes and resources are in place, such as in the
+ * process-classes phase with the "translets" profile of this project, or
+ * the same antrun execution in any project that depends on it:
+ * <pre>
+ * java ca.athabascau.apas.xml.TransletCompiler target/classes
+ * java ca.athabascau.apas.xml.TransletCompiler target/classes /transcript.xsl
+ * </pre>
+ * With only the directory, every .xsl and .xslt file under it is compiled.
+ * Translets are put in the {@link #DEFAULT_PACKAGE} package, unless the
+ * {@link #PACKAGE_PROPERTY} system property names another, both when
+ * compiling and at runtime.
+ * <p/>
+ * Translets are run by XSLTC rather than the Xalan interpreter, which
+ * supports the same XSLT, but not Xalan's interpreter only extensions.  A
+ * stylesheet that XSLTC cannot compile fails the build.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class TransletCompiler
+{
+    private static final Logger logger =
+        Logger.getLogger(TransletCompiler.class);
+
+    /**
+     * The system property naming the package translets are in.
+     */
+    public static final String PACKAGE_PROPERTY =
+        "ca.athabascau.apas.xml.translet.package";
+
+    /**
+     * The package translets are in, by default.
+     */
+    public static final String DEFAULT_PACKAGE =
+        "ca.athabascau.apas.xml.translets";
+
+    private TransletCompiler()
+    {
+    }
+
+    /**
+     * Compiles stylesheets in a classes directory into translets.
+     *
+     * @param args the classes directory, followed by the classpath names of
+     *             the stylesheets to compile, or by nothing to compile every
+     *             stylesheet in it
+     */
+    public static void main(final String[] args)
+    {
+        if (args.length == 0)
+        {
+            System.err.println("usage: TransletCompiler <classes directory> " +
+                "[/classpath/name.xsl ...]");
+            System.exit(2);
+        }
+        final File classes = new File(args[0]);
+        final List<String> names = new ArrayList<String>();
+        for (int index = 1; index < args.length; index++)
+        {
+            names.add(args[index].startsWith("/") ? args[index] :
+                "/" + args[index]);
+        }
+        if (names.isEmpty())
+        {
+            findStylesheets(classes, "/", names);
+        }
+        for (final String name : names)
+        {
+            try
+            {
+                final File translet = compile(classes, name);
+                System.out.println(name + " -> " + translet);
+            }
+            catch (Exception e)
+            {
+                System.err.println("unable to compile " + name + ": " +
+                    e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void findStylesheets(final File directory,
+        final String prefix, final List<String> names)
+    {
+        final File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        for (final File file : files)
+        {
+            if (file.isDirectory())
+            {
+                findStylesheets(file, prefix + file.getName() + '/', names);
+            }
+            else if (file.getName().endsWith(".xsl") ||
+                file.getName().endsWith(".xslt"))
+            {
+                names.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Compiles one stylesheet into a translet.  Any xsl:include or xsl:import
+     * goes through {@link XMLUtil#getStylesheetResolver()}.
+     *
+     * @param classes the classes directory the stylesheet is in, where the
+     *                translet is written
+     * @param name    the classpath name of the stylesheet, starting with '/'
+     *
+     * @return the translet's main class file
+     *
+     * @throws TransformerException if the stylesheet could not be compiled
+     * @throws IOException          if the stylesheet does not exist
+     */
+    public static File compile(final File classes, final String name)
+        throws TransformerException, IOException
+    {
+        final File stylesheet = new File(classes, name.substring(1));
+        if (!stylesheet.isFile())
+        {
+            throw new IOException(stylesheet + " does not exist");
+        }
+        final org.apache.xalan.xsltc.trax.TransformerFactoryImpl factory =
+            new org.apache.xalan.xsltc.trax.TransformerFactoryImpl();
+        factory.setURIResolver(XMLUtil.getStylesheetResolver());
+        factory.setErrorListener(new ExceptionErrorListener(
+            XMLMetrics.COMPILE, TemplatesCache.keyFor(name)));
+        factory.setAttribute("generate-translet", Boolean.TRUE);
+        factory.setAttribute("destination-directory", classes.getPath());
+        factory.setAttribute("package-name", getPackage());
+        factory.setAttribute("translet-name", transletName(name));
+        factory.newTemplates(new StreamSource(stylesheet));
+        return new File(classes, className(name).replace('.', '/') +
+            ".class");
+    }
+
+    /**
+     * Loads the translet for a classpath stylesheet, as {@link
+     * TemplatesCache} does before compiling it.
+     *
+     * @param name       the classpath name of the stylesheet
+     * @param stylesheet where the stylesheet itself is
+     *
+     * @return the translet, or null if there isn't a current one
+     */
+    static Templates load(final String name, final URL stylesheet)
+    {
+        final String className = className(name);
+        final ClassLoader loader = classLoader();
+        final URL translet =
+            loader.getResource(className.replace('.', '/') + ".class");
+        if (translet == null)
+        {
+            return null;
+        }
+        if (TemplatesCache.lastModified(stylesheet) >
+            TemplatesCache.lastModified(translet))
+        {
+            logger.info("translet " + className + " is older than " + name +
+                ", which will be compiled instead");
+            return null;
+        }
+
+        final TransformerFactory factory = newFactory();
+        factory.setErrorListener(new ExceptionErrorListener(
+            XMLMetrics.COMPILE, TemplatesCache.keyFor(name)));
+        factory.setAttribute("use-classpath", Boolean.TRUE);
+        factory.setAttribute("package-name", getPackage());
+        factory.setAttribute("translet-name", transletName(name));
+        try
+        {
+            final Templates templates = factory.newTemplates(
+                new StreamSource(stylesheet.toExternalForm()));
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("loaded translet " + className + " for " + name);
+            }
+            return templates;
+        }
+        catch (TransformerConfigurationException e)
+        {
+            logger.warn("unable to load translet " + className + ", " + name +
+                " will be compiled instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param templates compiled stylesheet
+     *
+     * @return true if it is a translet, which only XSLTC can run
+     */
+    static boolean isTranslet(final Templates templates)
+    {
+        return templates instanceof TemplatesImpl;
+    }
+
+    /**
+     * @return a new XSLTC TransformerFactory, which is needed to make
+     *         TransformerHandlers from translets
+     */
+    static SAXTransformerFactory newFactory()
+    {
+        return new org.apache.xalan.xsltc.trax.TransformerFactoryImpl();
+    }
+
+    /**
+     * @return the package translets are in
+     */
+    public static String getPackage()
+    {
+        return System.getProperty(PACKAGE_PROPERTY, DEFAULT_PACKAGE);
+    }
+
+    /**
+     * Names the translet of a classpath stylesheet.  The name is the path,
+     * made into a Java identifier, followed by the hash of the path so that
+     * "/a-b.xsl" and "/a_b.xsl" cannot collide.
+     *
+     * @param name the classpath name of the stylesheet
+     *
+     * @return the simple name of the translet's class
+     */
+    static String transletName(final String name)
+    {
+        final StringBuilder builder = new StringBuilder(name.length() + 10);
+        for (int index = 0; index < name.length(); index++)
+        {
+            final char c = name.charAt(index);
+            if (builder.length() == 0 && c == '/')
+            {
+                continue;
+            }
+            if (builder.length() == 0 ? Character.isJavaIdentifierStart(c) :
+                Character.isJavaIdentifierPart(c) && c != '$')
+            {
+                builder.append(c);
+            }
+            else
+            {
+                builder.append('_');
+            }
+        }
+        builder.append('_').append(Integer.toHexString(name.hashCode()));
+        return builder.toString();
+    }
+
+    private static String className(final String name)
+    {
+        final String packageName = getPackage();
+        return packageName.length() == 0 ? transletName(name) :
+            packageName + '.' + transletName(name);
+    }
+
+    /**
+     * The class loader XSLTC loads translets with.
+     */
+    private static ClassLoader classLoader()
+    {
+        final ClassLoader loader =
+            Thread.currentThread().getContextClassLoader();
+        return loader == null ? TransletCompiler.class.getClassLoader() :
+            loader;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+/**
+ * Receives timings, sizes and error counts from {@link XMLUtil}, so that
+ * they may be published somewhere, such as {@link JMXMetrics JMX}.  Install
+ * an implementation with {@link XMLUtil#setMetrics(XMLMetrics)}.
+ * <p/>
+ * Every call is recorded under an operation, which is either a public
+ * XMLUtil method, such as {@link #XSL_TRANSFORMATION}, or one of the phases
+ * they are made of, {@link #PARSE}, {@link #COMPILE} and {@link #TRANSFORM}.
+ * Stylesheet related calls also give the stylesheet, so that the expensive
+ * ones can be picked out.
+ * <p/>
+ * Implementations are called from many threads at once, on the hot path of
+ * every operation, so they should be quick and must be thread safe.  When
+ * {@link #isEnabled()} is false nothing is measured at all, which is how
+ * {@link #NONE} costs next to nothing.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public interface XMLMetrics
+{
+    /**
+     * {@link XMLUtil#loadXMLFrom(java.io.InputStream)}, {@link
+     * XMLUtil#loadXMLFrom(org.xml.sax.InputSource)} and {@link
+     * XMLUtil#stringToDocument(String)}
+     */
+    String LOAD_XML_FROM = "loadXMLFrom";
+
+    /**
+     * Every xslTransformation method, from start to finish.
+     */
+    String XSL_TRANSFORMATION = "xslTransformation";
+
+    /**
+     * {@link XMLUtil#documentToString(org.w3c.dom.Node)}
+     */
+    String DOCUMENT_TO_STRING = "documentToString";
+
+    /**
+     * Every mapToXML method.
+     */
+    String MAP_TO_XML = "mapToXML";
+
+    /**
+     * Every objectToXML method.
+     */
+    String OBJECT_TO_XML = "objectToXML";
+
+    /**
+     * Parsing xml into a DOM.
+     */
+    String PARSE = "parse";
+
+    /**
+     * Compiling a stylesheet.  Cached stylesheets are only compiled once.
+     */
+    String COMPILE = "compile";
+
+    /**
+     * Running a compiled stylesheet over a document.
+     */
+    String TRANSFORM = "transform";
+
+    /**
+     * Validating a document against a schema, without building a tree.
+     */
+    String VALIDATE = "validate";
+
+    /**
+     * The size given when the number of bytes or characters is not known.
+     */
+    long UNKNOWN = -1;
+
+    /**
+     * Records nothing.  This is the default.
+     */
+    XMLMetrics NONE = new XMLMetrics()
+    {
+        public boolean isEnabled()
+        {
+            return false;
+        }
+
+        public void record(final String operation, final String stylesheet,
+            final long nanos, final long input, final long output,
+            final boolean failed)
+        {
+        }
+
+        public void warning(final String operation, final String stylesheet)
+        {
+        }
+
+        public String toString()
+        {
+            return "XMLMetrics.NONE";
+        }
+    };
+
+    /**
+     * @return false if nothing should be measured
+     */
+    boolean isEnabled();
+
+    /**
+     * Records one call.
+     *
+     * @param operation  the operation or phase
+     * @param stylesheet the stylesheet, or null if there is none
+     * @param nanos      how long it took, in nanoseconds
+     * @param input      the number of bytes or characters read, whichever
+     *                   the caller provided, or {@link #UNKNOWN}
+     * @param output     the number of bytes or characters written, whichever
+     *                   the caller asked for, or {@link #UNKNOWN}
+     * @param failed     true if it threw an exception
+     */
+    void record(String operation, String stylesheet, long nanos, long input,
+        long output, boolean failed);
+
+    /**
+     * Records a warning from the XSL processor, which does not fail the
+     * operation.
+     *
+     * @param operation  the operation or phase
+     * @param stylesheet the stylesheet, or null if it is not known
+     */
+    void warning(String operation, String stylesheet);
+}
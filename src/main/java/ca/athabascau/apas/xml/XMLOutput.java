@@ -0,0 +1,614 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A buffered, hand escaping XML character sink.  The escaping rules are the
+ * same ones the Xalan identity transformer applies when writing UTF-8, so
+ * anything written through here is byte for byte what {@link
+ * XMLUtil#documentToString(org.w3c.dom.Node)} used to produce.
+ * <p/>
+ * In any encoding other than UTF-8, characters the encoding cannot represent
+ * are written as character references, as Xalan does.
+ * <p/>
+ * Instances are not thread safe, and must be {@link #flush() flushed} when
+ * done.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+abstract class XMLOutput
+{
+    static final String XML_DECLARATION =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    static final int BUFFER_SIZE = 8192;
+
+    private static final String CDATA_START = "<![CDATA[";
+
+    private static final String CDATA_END = "]]>";
+
+    /**
+     * Replacement text for the characters below {@link #TABLE_SIZE} in text
+     * content, or null if the character is written as is.
+     */
+    private static final String[] TEXT_ESCAPES;
+
+    /**
+     * Replacement text for the characters below {@link #TABLE_SIZE} in
+     * attribute values, or null if the character is written as is.
+     */
+    private static final String[] ATTRIBUTE_ESCAPES;
+
+    private static final int TABLE_SIZE = 0xA0;
+
+    static
+    {
+        TEXT_ESCAPES = new String[TABLE_SIZE];
+        for (int c = 0; c < 0x20; c++)
+        {
+            TEXT_ESCAPES[c] = "&#" + c + ';';
+        }
+        for (int c = 0x7F; c < TABLE_SIZE; c++)
+        {
+            TEXT_ESCAPES[c] = "&#" + c + ';';
+        }
+        TEXT_ESCAPES['\t'] = null;
+        TEXT_ESCAPES['\n'] = null;
+        TEXT_ESCAPES['&'] = "&amp;";
+        TEXT_ESCAPES['<'] = "&lt;";
+        TEXT_ESCAPES['>'] = "&gt;";
+
+        ATTRIBUTE_ESCAPES = TEXT_ESCAPES.clone();
+        ATTRIBUTE_ESCAPES['"'] = "&quot;";
+        ATTRIBUTE_ESCAPES['\t'] = "&#9;";
+        ATTRIBUTE_ESCAPES['\n'] = "&#10;";
+    }
+
+    /**
+     * Creates an output that encodes UTF-8 itself, straight into the stream.
+     *
+     * @param out the stream to write to
+     *
+     * @return the new output
+     */
+    static XMLOutput forStream(final OutputStream out)
+    {
+        return new Utf8Output(out);
+    }
+
+    /**
+     * Creates an output that writes to the stream in the given encoding.
+     *
+     * @param out     the stream to write to
+     * @param charset the encoding
+     *
+     * @return the new output
+     */
+    static XMLOutput forStream(final OutputStream out, final Charset charset)
+    {
+        if (StandardCharsets.UTF_8.equals(charset))
+        {
+            return new Utf8Output(out);
+        }
+        return new EncodedOutput(new OutputStreamWriter(out, charset),
+            charset);
+    }
+
+    /**
+     * Creates an output that writes characters to the writer.
+     *
+     * @param writer the writer to write to
+     *
+     * @return the new output
+     */
+    static XMLOutput forWriter(final Writer writer)
+    {
+        return new CharOutput(writer);
+    }
+
+    /**
+     * Creates an output that writes characters to the writer, escaping those
+     * that the encoding the writer's characters end up in cannot represent.
+     *
+     * @param writer  the writer to write to
+     * @param charset the encoding the characters end up in
+     *
+     * @return the new output
+     */
+    static XMLOutput forWriter(final Writer writer, final Charset charset)
+    {
+        if (StandardCharsets.UTF_8.equals(charset))
+        {
+            return new CharOutput(writer);
+        }
+        return new EncodedOutput(writer, charset);
+    }
+
+    /**
+     * Creates an output that appends characters to the builder, without any
+     * buffering of it's own.
+     *
+     * @param builder the builder to append to
+     *
+     * @return the new output
+     */
+    static XMLOutput forBuilder(final StringBuilder builder)
+    {
+        return new BuilderOutput(builder);
+    }
+
+    /**
+     * @param encoding the name of the encoding
+     *
+     * @return the XML declaration naming the encoding
+     */
+    static String declaration(final String encoding)
+    {
+        return "UTF-8".equals(encoding) ? XML_DECLARATION :
+            "<?xml version=\"1.0\" encoding=\"" + encoding + "\"?>";
+    }
+
+    /**
+     * Writes a character that needs no escaping.
+     *
+     * @param c the character
+     *
+     * @throws IOException if an IO error occurs
+     */
+    abstract void write(char c) throws IOException;
+
+    /**
+     * Writes markup that needs no escaping, such as element names.
+     *
+     * @param s the markup
+     *
+     * @throws IOException if an IO error occurs
+     */
+    void write(final String s) throws IOException
+    {
+        final int length = s.length();
+        for (int index = 0; index < length; index++)
+        {
+            write(s.charAt(index));
+        }
+    }
+
+    /**
+     * Writes text content, escaping it as required.
+     *
+     * @param text the text
+     *
+     * @throws IOException if an IO error occurs
+     */
+    void writeText(final String text) throws IOException
+    {
+        writeEscaped(text, TEXT_ESCAPES);
+    }
+
+    /**
+     * Writes an attribute value, escaping it as required.  The quotes are not
+     * written.
+     *
+     * @param value the attribute value
+     *
+     * @throws IOException if an IO error occurs
+     */
+    void writeAttribute(final String value) throws IOException
+    {
+        writeEscaped(value, ATTRIBUTE_ESCAPES);
+    }
+
+    private void writeEscaped(final String text, final String[] escapes)
+        throws IOException
+    {
+        final int length = text.length();
+        for (int index = 0; index < length; index++)
+        {
+            final char c = text.charAt(index);
+            if (c < TABLE_SIZE)
+            {
+                final String escape = escapes[c];
+                if (escape == null)
+                {
+                    write(c);
+                }
+                else
+                {
+                    write(escape);
+                }
+            }
+            else if (c == '\u2028' || Character.isSurrogate(c) ||
+                !encodable(c))
+            {   // xalan writes each half of a pair as it's own reference
+                writeReference(c);
+            }
+            else
+            {
+                write(c);
+            }
+        }
+    }
+
+    /**
+     * Writes the contents of a CDATA section, splitting it around anything
+     * that cannot appear in one, exactly as Xalan does.  Control characters
+     * and characters the encoding cannot represent are written as
+     * references, and surrogate pairs as they are, between sections.  New
+     * lines that follow them are also written between sections.
+     * "]]&gt;" is always written as "]]]]&gt;&lt;![CDATA[&gt;", even when
+     * no section is open, which Xalan gets wrong, and empty data writes
+     * nothing at all.
+     *
+     * @param data the contents of the section
+     *
+     * @throws IOException if an IO error occurs
+     */
+    void writeCDATA(final String data) throws IOException
+    {
+        final int length = data.length();
+        boolean open = length > 0 && allowedInCDATA(data.charAt(0));
+        if (open)
+        {
+            write(CDATA_START);
+        }
+        for (int index = 0; index < length; index++)
+        {
+            final char c = data.charAt(index);
+            if (!allowedInCDATA(c))
+            {
+                if (open)
+                {
+                    write(CDATA_END);
+                    open = false;
+                }
+                if (Character.isHighSurrogate(c) && index + 1 < length &&
+                    Character.isLowSurrogate(data.charAt(index + 1)))
+                {
+                    write(c);
+                    write(data.charAt(++index));
+                }
+                else
+                {
+                    writeReference(c);
+                }
+            }
+            else if (c == ']' && data.startsWith(CDATA_END, index))
+            {
+                write("]]]]><![CDATA[>");
+                index += 2;
+            }
+            else
+            {
+                if (!open && c != '\n')
+                {   // xalan writes a new line between sections as it is
+                    write(CDATA_START);
+                    open = true;
+                }
+                write(c);
+            }
+        }
+        if (open)
+        {
+            write(CDATA_END);
+        }
+    }
+
+    private boolean allowedInCDATA(final char c)
+    {
+        if (c < 0x7F)
+        {
+            return c >= 0x20 || c == '\t' || c == '\n' || c == '\r';
+        }
+        return !Character.isSurrogate(c) && encodable(c);
+    }
+
+    /**
+     * Writes a comment, breaking up "--", and any dash at the end, with a
+     * space as Xalan does.
+     *
+     * @param data the text of the comment
+     *
+     * @throws IOException if an IO error occurs
+     */
+    void writeComment(final String data) throws IOException
+    {
+        write("<!--");
+        final int length = data.length();
+        boolean dash = false;
+        for (int index = 0; index < length; index++)
+        {
+            final char c = data.charAt(index);
+            if (dash && c == '-')
+            {
+                write(' ');
+            }
+            write(c);
+            dash = c == '-';
+        }
+        if (dash)
+        {
+            write(' ');
+        }
+        write("-->");
+    }
+
+    /**
+     * Writes a processing instruction.  Like Xalan, only the first "?&gt;" in
+     * the data is broken up.
+     *
+     * @param target the target
+     * @param data   the data, which may be empty
+     *
+     * @throws IOException if an IO error occurs
+     */
+    void writeProcessingInstruction(final String target, final String data)
+        throws IOException
+    {
+        write("<?");
+        write(target);
+        if (data.length() > 0)
+        {
+            if (!Character.isSpaceChar(data.charAt(0)))
+            {
+                write(' ');
+            }
+            final int end = data.indexOf("?>");
+            if (end == -1)
+            {
+                write(data);
+            }
+            else
+            {
+                write(data.substring(0, end));
+                write("? >");
+                write(data.substring(end + 2));
+            }
+        }
+        write("?>");
+    }
+
+    private void writeReference(final char c) throws IOException
+    {
+        write("&#");
+        write(Integer.toString(c));
+        write(';');
+    }
+
+    /**
+     * @param c a character at or above 0x7F
+     *
+     * @return true if the encoding can represent the character
+     */
+    boolean encodable(final char c)
+    {
+        return true;
+    }
+
+    /**
+     * Writes anything buffered to the underlying stream or writer, and
+     * flushes it.
+     *
+     * @throws IOException if an IO error occurs
+     */
+    abstract void flush() throws IOException;
+
+    /**
+     * Writes UTF-8 directly into a byte buffer.  Surrogate pairs, which only
+     * reach here from comments, processing instructions and CDATA sections,
+     * are joined into four byte sequences, and a surrogate without it's other
+     * half, which UTF-8 cannot represent, is written as '?'.
+     */
+    private static class Utf8Output extends XMLOutput
+    {
+        private final OutputStream out;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private int position;
+
+        /**
+         * The first half of a surrogate pair, waiting for the second.
+         */
+        private char highSurrogate;
+
+        private Utf8Output(final OutputStream out)
+        {
+            this.out = out;
+        }
+
+        void write(final char c) throws IOException
+        {
+            if (position > BUFFER_SIZE - 4)
+            {
+                drain();
+            }
+            if (highSurrogate != 0)
+            {
+                final char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c))
+                {
+                    final int codePoint = Character.toCodePoint(high, c);
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] =
+                        (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] =
+                        (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                    return;
+                }
+                buffer[position++] = '?';
+            }
+            if (c < 0x80)
+            {
+                buffer[position++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c))
+            {
+                highSurrogate = c;
+            }
+            else if (Character.isLowSurrogate(c))
+            {
+                buffer[position++] = '?';
+            }
+            else
+            {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        void flush() throws IOException
+        {
+            if (highSurrogate != 0)
+            {
+                highSurrogate = 0;
+                buffer[position++] = '?';
+            }
+            drain();
+            out.flush();
+        }
+
+        private void drain() throws IOException
+        {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Buffers characters for a Writer, saving a synchronized call per
+     * character on most writers.
+     */
+    private static class CharOutput extends XMLOutput
+    {
+        private final Writer writer;
+
+        private final char[] buffer = new char[BUFFER_SIZE];
+
+        private int position;
+
+        private CharOutput(final Writer writer)
+        {
+            this.writer = writer;
+        }
+
+        void write(final char c) throws IOException
+        {
+            if (position == BUFFER_SIZE)
+            {
+                drain();
+            }
+            buffer[position++] = c;
+        }
+
+        void write(final String s) throws IOException
+        {
+            final int length = s.length();
+            if (position + length > BUFFER_SIZE)
+            {
+                drain();
+                if (length > BUFFER_SIZE)
+                {
+                    writer.write(s);
+                    return;
+                }
+            }
+            s.getChars(0, length, buffer, position);
+            position += length;
+        }
+
+        void flush() throws IOException
+        {
+            drain();
+            writer.flush();
+        }
+
+        private void drain() throws IOException
+        {
+            writer.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Writes characters to a writer that encodes them in something other
+     * than UTF-8, checking each character above 0x9F against the encoding.
+     */
+    private static class EncodedOutput extends CharOutput
+    {
+        private final CharsetEncoder encoder;
+
+        private EncodedOutput(final Writer writer, final Charset charset)
+        {
+            super(writer);
+            this.encoder = charset.newEncoder();
+        }
+
+        boolean encodable(final char c)
+        {
+            return encoder.canEncode(c);
+        }
+    }
+
+    /**
+     * Appends straight to a StringBuilder, which is already a buffer.
+     */
+    private static class BuilderOutput extends XMLOutput
+    {
+        private final StringBuilder builder;
+
+        private BuilderOutput(final StringBuilder builder)
+        {
+            this.builder = builder;
+        }
+
+        void write(final char c)
+        {
+            builder.append(c);
+        }
+
+        void write(final String s)
+        {
+            builder.append(s);
+        }
+
+        void flush()
+        {
+        }
+    }
+}
@@ -0,0 +1,863 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pools the DocumentBuilder and identity Transformer objects used for
+ * parsing and serializing XML.  The JAXP factories are looked up once, when
+ * the pool is created, rather than scanning the classpath on every call.
+ * <p/>
+ * Three modes are supported
+ * <ul>
+ * <li>{@link Mode#THREAD_LOCAL} keeps one builder and one transformer per
+ * thread, which is the cheapest option for a fixed size thread pool.</li>
+ * <li>{@link Mode#BOUNDED} shares at most {@link #getMaximumIdle()} idle
+ * instances between all threads.  Use this when threads come and go.</li>
+ * <li>{@link Mode#NONE} creates a new instance for every call, just as we
+ * used to, but without the factory lookup.</li>
+ * </ul>
+ * Validating builders and Validators are pooled the same way, for each of
+ * the last {@link #MAXIMUM_SCHEMAS} schemas used.
+ * <p/>
+ * The default pool used by {@link XMLUtil} may be configured with the
+ * {@link #MODE_PROPERTY} and {@link #SIZE_PROPERTY} system properties.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class XMLPool
+{
+    private static final Logger logger = Logger.getLogger(XMLPool.class);
+
+    /**
+     * System property naming the {@link Mode} of the default pool.
+     */
+    public static final String MODE_PROPERTY =
+        "ca.athabascau.apas.xml.pool.mode";
+
+    /**
+     * System property giving the maximum idle instances of the default pool,
+     * when it is {@link Mode#BOUNDED}.
+     */
+    public static final String SIZE_PROPERTY =
+        "ca.athabascau.apas.xml.pool.size";
+
+    /**
+     * The default maximum number of idle instances for a bounded pool.
+     */
+    public static final int DEFAULT_MAXIMUM_IDLE = 16;
+
+    /**
+     * The number of schemas we keep validating builders and Validators for.
+     */
+    public static final int MAXIMUM_SCHEMAS = 16;
+
+    /**
+     * Fails on the first validation error, rather than printing it and
+     * carrying on, which is what a DocumentBuilder does by default.
+     */
+    private static final ErrorHandler STRICT = new ErrorHandler()
+    {
+        public void warning(final SAXParseException exception)
+        {
+            logger.warn("validation warning", exception);
+        }
+
+        public void error(final SAXParseException exception)
+            throws SAXException
+        {
+            throw exception;
+        }
+
+        public void fatalError(final SAXParseException exception)
+            throws SAXException
+        {
+            throw exception;
+        }
+    };
+
+    /**
+     * How instances are shared between callers.
+     */
+    public enum Mode
+    {
+        THREAD_LOCAL, BOUNDED, NONE
+    }
+
+    private final Mode mode;
+
+    private final int maximumIdle;
+
+    private final DocumentBuilderFactory builderFactory;
+
+    private final TransformerFactory transformerFactory;
+
+    private final String transformerFactoryClassName;
+
+    private final Pool<DocumentBuilder> builders;
+
+    private final Pool<Transformer> transformers;
+
+    private final Map<Schema, SchemaPools> schemaPools =
+        new LinkedHashMap<Schema, SchemaPools>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(
+                final Map.Entry<Schema, SchemaPools> eldest)
+            {
+                return size() > MAXIMUM_SCHEMAS;
+            }
+        };
+
+    /**
+     * Creates a pool configured from the {@link #MODE_PROPERTY} and {@link
+     * #SIZE_PROPERTY} system properties, defaulting to {@link
+     * Mode#THREAD_LOCAL}.
+     *
+     * @return the new pool
+     */
+    public static XMLPool fromSystemProperties()
+    {
+        Mode mode = Mode.THREAD_LOCAL;
+        int size = DEFAULT_MAXIMUM_IDLE;
+        final String modeName = System.getProperty(MODE_PROPERTY);
+        if (modeName != null)
+        {
+            try
+            {
+                mode = Mode.valueOf(modeName.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                logger.warn("invalid " + MODE_PROPERTY + " \"" + modeName +
+                    "\", using " + mode);
+            }
+        }
+        final String sizeName = System.getProperty(SIZE_PROPERTY);
+        if (sizeName != null)
+        {
+            try
+            {
+                size = Integer.parseInt(sizeName.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                logger.warn("invalid " + SIZE_PROPERTY + " \"" + sizeName +
+                    "\", using " + size);
+            }
+        }
+        return new XMLPool(mode, size);
+    }
+
+    /**
+     * Creates a {@link Mode#THREAD_LOCAL} pool.
+     */
+    public XMLPool()
+    {
+        this(Mode.THREAD_LOCAL, DEFAULT_MAXIMUM_IDLE);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param mode        how instances are shared
+     * @param maximumIdle the maximum number of idle instances of each kind we
+     *                    hold on to, when the mode is {@link Mode#BOUNDED}
+     */
+    public XMLPool(final Mode mode, final int maximumIdle)
+    {
+        if (mode == null)
+        {
+            throw new IllegalArgumentException("mode must not be null");
+        }
+        if (maximumIdle < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumIdle must be greater than zero: " + maximumIdle);
+        }
+        this.mode = mode;
+        this.maximumIdle = maximumIdle;
+        builderFactory = DocumentBuilderFactory.newInstance();
+        builderFactory.setNamespaceAware(true);
+        transformerFactory = TransformerFactory.newInstance();
+        transformerFactoryClassName = transformerFactory.getClass().getName();
+        builders = createPool(new Factory<DocumentBuilder>()
+        {
+            public DocumentBuilder create() throws Exception
+            {
+                synchronized (builderFactory)
+                {
+                    return builderFactory.newDocumentBuilder();
+                }
+            }
+
+            public boolean reset(final DocumentBuilder builder)
+            {
+                builder.reset();
+                return true;
+            }
+        });
+        transformers = createPool(new Factory<Transformer>()
+        {
+            public Transformer create() throws Exception
+            {
+                synchronized (transformerFactory)
+                {
+                    return transformerFactory.newTransformer();
+                }
+            }
+
+            public boolean reset(final Transformer transformer)
+            {
+                try
+                {
+                    transformer.reset();
+                    return true;
+                }
+                catch (UnsupportedOperationException e)
+                {   // can't be reused safely
+                    return false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a new TransformerFactory of the same implementation as the one
+     * looked up when this pool was created, without searching the classpath
+     * again.  TransformerFactory is not thread safe, so compiling stylesheets
+     * from several threads requires one of these per thread.
+     *
+     * @return the new TransformerFactory
+     */
+    public TransformerFactory newTransformerFactory()
+    {
+        try
+        {
+            return TransformerFactory.newInstance(transformerFactoryClassName,
+                XMLPool.class.getClassLoader());
+        }
+        catch (RuntimeException e)
+        {   // odd class loader setup, do it the slow way
+            logger.debug("unable to instantiate " +
+                transformerFactoryClassName + " directly", e);
+            return TransformerFactory.newInstance();
+        }
+    }
+
+    /**
+     * Borrows a namespace aware DocumentBuilder.  It must be given back with
+     * {@link #returnDocumentBuilder(DocumentBuilder)} once the caller is done
+     * with it, and must not be used afterwards.
+     *
+     * @return the builder
+     *
+     * @throws ParserConfigurationException if a JAXP configuration error
+     *                                      occurs
+     */
+    public DocumentBuilder borrowDocumentBuilder()
+        throws ParserConfigurationException
+    {
+        try
+        {
+            return builders.borrow();
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw (ParserConfigurationException)
+                new ParserConfigurationException(e.getMessage()).initCause(e);
+        }
+    }
+
+    /**
+     * Gives back a builder from {@link #borrowDocumentBuilder()}.
+     *
+     * @param builder the builder, may be null
+     */
+    public void returnDocumentBuilder(final DocumentBuilder builder)
+    {
+        if (builder != null)
+        {
+            builders.giveBack(builder);
+        }
+    }
+
+    /**
+     * Borrows an identity Transformer.  It must be given back with {@link
+     * #returnTransformer(Transformer)} once the caller is done with it, and
+     * must not be used afterwards.
+     *
+     * @return the transformer
+     *
+     * @throws TransformerConfigurationException if a JAXP configuration error
+     *                                           occurs
+     */
+    public Transformer borrowTransformer()
+        throws TransformerConfigurationException
+    {
+        try
+        {
+            return transformers.borrow();
+        }
+        catch (TransformerConfigurationException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new TransformerConfigurationException(e);
+        }
+    }
+
+    /**
+     * Gives back a transformer from {@link #borrowTransformer()}.
+     *
+     * @param transformer the transformer, may be null
+     */
+    public void returnTransformer(final Transformer transformer)
+    {
+        if (transformer != null)
+        {
+            transformers.giveBack(transformer);
+        }
+    }
+
+    /**
+     * Parses the input with a pooled DocumentBuilder.
+     *
+     * @param is the input to parse
+     *
+     * @return the new Document
+     *
+     * @throws SAXException                 if a SAX parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration error
+     *                                      occurs
+     */
+    public Document parse(final InputSource is)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        final DocumentBuilder builder = borrowDocumentBuilder();
+        final Probe probe = Probe.start(XMLMetrics.PARSE, null);
+        try
+        {
+            final Document document = builder.parse(is);
+            probe.succeeded();
+            return document;
+        }
+        finally
+        {
+            probe.stop();
+            returnDocumentBuilder(builder);
+        }
+    }
+
+    /**
+     * Parses and validates the input in one pass, with a pooled
+     * DocumentBuilder for the schema.
+     *
+     * @param is     the input to parse
+     * @param schema the schema to validate against, or null to only parse
+     *
+     * @return the new Document
+     *
+     * @throws SAXException                 if a SAX parsing error occurs, or
+     *                                      the document is not valid
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration error
+     *                                      occurs
+     */
+    public Document parse(final InputSource is, final Schema schema)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        if (schema == null)
+        {
+            return parse(is);
+        }
+        final Pool<DocumentBuilder> pool = schemaPools(schema).builders;
+        final DocumentBuilder builder;
+        try
+        {
+            builder = pool.borrow();
+        }
+        catch (Exception e)
+        {
+            throw (ParserConfigurationException)
+                new ParserConfigurationException(e.getMessage()).initCause(e);
+        }
+        final Probe probe = Probe.start(XMLMetrics.PARSE, null);
+        try
+        {
+            builder.setErrorHandler(STRICT);
+            final Document document = builder.parse(is);
+            probe.succeeded();
+            return document;
+        }
+        finally
+        {
+            probe.stop();
+            pool.giveBack(builder);
+        }
+    }
+
+    /**
+     * Validates the source with a pooled Validator for the schema.  Stream
+     * and SAX sources are validated as they are read, without building a
+     * tree.
+     *
+     * @param source the document to validate
+     * @param schema the schema to validate against
+     *
+     * @throws SAXException if the document is not valid, or not well formed
+     * @throws IOException  if an IO error occurs
+     */
+    public void validate(final Source source, final Schema schema)
+        throws SAXException, IOException
+    {
+        final Pool<Validator> pool = schemaPools(schema).validators;
+        final Validator validator;
+        try
+        {
+            validator = pool.borrow();
+        }
+        catch (Exception e)
+        {
+            throw new SAXException(e);
+        }
+        try
+        {
+            validator.setErrorHandler(STRICT);
+            validator.validate(source);
+        }
+        finally
+        {
+            pool.giveBack(validator);
+        }
+    }
+
+    /**
+     * Creates a new DocumentBuilderFactory of the same implementation as the
+     * one looked up when this pool was created, for a schema to be set on.
+     */
+    private DocumentBuilderFactory newBuilderFactory()
+    {
+        final String className = builderFactory.getClass().getName();
+        try
+        {
+            return DocumentBuilderFactory.newInstance(className,
+                XMLPool.class.getClassLoader());
+        }
+        catch (RuntimeException e)
+        {   // odd class loader setup, do it the slow way
+            logger.debug("unable to instantiate " + className + " directly",
+                e);
+            return DocumentBuilderFactory.newInstance();
+        }
+    }
+
+    private SchemaPools schemaPools(final Schema schema)
+    {
+        if (schema == null)
+        {
+            throw new IllegalArgumentException("schema must not be null");
+        }
+        synchronized (schemaPools)
+        {
+            SchemaPools pools = schemaPools.get(schema);
+            if (pools == null)
+            {
+                pools = new SchemaPools(schema);
+                schemaPools.put(schema, pools);
+            }
+            return pools;
+        }
+    }
+
+    /**
+     * Creates an empty Document with a pooled DocumentBuilder.
+     *
+     * @return the new Document
+     *
+     * @throws ParserConfigurationException if a JAXP configuration error
+     *                                      occurs
+     */
+    public Document newDocument() throws ParserConfigurationException
+    {
+        final DocumentBuilder builder = borrowDocumentBuilder();
+        try
+        {
+            return builder.newDocument();
+        }
+        finally
+        {
+            returnDocumentBuilder(builder);
+        }
+    }
+
+    /**
+     * Serializes the node to the result with a pooled identity Transformer.
+     *
+     * @param node   the node to serialize
+     * @param result where to write it
+     *
+     * @throws TransformerException if a transformation error occurs
+     */
+    public void serialize(final Node node, final Result result)
+        throws TransformerException
+    {
+        final Transformer transformer = borrowTransformer();
+        try
+        {
+            transformer.transform(new DOMSource(node), result);
+        }
+        finally
+        {
+            returnTransformer(transformer);
+        }
+    }
+
+    /**
+     * @return how instances are shared
+     */
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * @return the maximum number of idle instances of each kind, when the
+     *         mode is {@link Mode#BOUNDED}
+     */
+    public int getMaximumIdle()
+    {
+        return maximumIdle;
+    }
+
+    /**
+     * @return the number of DocumentBuilders created
+     */
+    public long getDocumentBuilderCreatedCount()
+    {
+        return builders.created.get();
+    }
+
+    /**
+     * @return the number of times a DocumentBuilder was reused
+     */
+    public long getDocumentBuilderReusedCount()
+    {
+        return builders.reused.get();
+    }
+
+    /**
+     * @return the number of identity Transformers created
+     */
+    public long getTransformerCreatedCount()
+    {
+        return transformers.created.get();
+    }
+
+    /**
+     * @return the number of times an identity Transformer was reused
+     */
+    public long getTransformerReusedCount()
+    {
+        return transformers.reused.get();
+    }
+
+    /**
+     * @return the number of idle DocumentBuilders currently held in a
+     *         bounded pool, or 0 for the other modes
+     */
+    public int getIdleDocumentBuilderCount()
+    {
+        return builders.idle();
+    }
+
+    /**
+     * @return the number of idle identity Transformers currently held in a
+     *         bounded pool, or 0 for the other modes
+     */
+    public int getIdleTransformerCount()
+    {
+        return transformers.idle();
+    }
+
+    public String toString()
+    {
+        return "XMLPool[mode=" + mode + ", maximumIdle=" + maximumIdle +
+            ", builders created=" + getDocumentBuilderCreatedCount() +
+            ", builders reused=" + getDocumentBuilderReusedCount() +
+            ", transformers created=" + getTransformerCreatedCount() +
+            ", transformers reused=" + getTransformerReusedCount() + "]";
+    }
+
+    private <T> Pool<T> createPool(final Factory<T> factory)
+    {
+        switch (mode)
+        {
+            case THREAD_LOCAL:
+                return new ThreadLocalPool<T>(factory);
+            case BOUNDED:
+                return new BoundedPool<T>(factory, maximumIdle);
+            default:
+                return new Pool<T>(factory);
+        }
+    }
+
+    /**
+     * The validating builders and Validators for one schema.
+     */
+    private final class SchemaPools
+    {
+        private final Pool<DocumentBuilder> builders;
+
+        private final Pool<Validator> validators;
+
+        private SchemaPools(final Schema schema)
+        {
+            final DocumentBuilderFactory factory = newBuilderFactory();
+            factory.setNamespaceAware(true);
+            factory.setSchema(schema);
+            builders = createPool(new Factory<DocumentBuilder>()
+            {
+                public DocumentBuilder create() throws Exception
+                {
+                    synchronized (factory)
+                    {
+                        return factory.newDocumentBuilder();
+                    }
+                }
+
+                public boolean reset(final DocumentBuilder builder)
+                {
+                    builder.reset();
+                    return true;
+                }
+            });
+            validators = createPool(new Factory<Validator>()
+            {
+                public Validator create()
+                {
+                    return schema.newValidator();
+                }
+
+                public boolean reset(final Validator validator)
+                {
+                    validator.reset();
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates and resets pooled instances.
+     */
+    private interface Factory<T>
+    {
+        T create() throws Exception;
+
+        /**
+         * @return false if the instance cannot be reused
+         */
+        boolean reset(T instance);
+    }
+
+    /**
+     * The {@link Mode#NONE} pool, which never reuses anything.
+     */
+    private static class Pool<T>
+    {
+        final Factory<T> factory;
+
+        final AtomicLong created = new AtomicLong();
+
+        final AtomicLong reused = new AtomicLong();
+
+        Pool(final Factory<T> factory)
+        {
+            this.factory = factory;
+        }
+
+        T borrow() throws Exception
+        {
+            created.incrementAndGet();
+            return factory.create();
+        }
+
+        void giveBack(final T instance)
+        {
+        }
+
+        int idle()
+        {
+            return 0;
+        }
+
+        /**
+         * Resets the instance, logging any failure.
+         *
+         * @return true if it may be reused
+         */
+        boolean reset(final T instance)
+        {
+            try
+            {
+                return factory.reset(instance);
+            }
+            catch (RuntimeException e)
+            {
+                logger.debug("unable to reset " + instance, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Keeps one instance per thread.  If a thread borrows a second instance
+     * before giving back the first, it gets a new one that is thrown away.
+     */
+    private static class ThreadLocalPool<T> extends Pool<T>
+    {
+        private final ThreadLocal<Slot<T>> slots =
+            new ThreadLocal<Slot<T>>()
+            {
+                protected Slot<T> initialValue()
+                {
+                    return new Slot<T>();
+                }
+            };
+
+        ThreadLocalPool(final Factory<T> factory)
+        {
+            super(factory);
+        }
+
+        T borrow() throws Exception
+        {
+            final Slot<T> slot = slots.get();
+            if (slot.inUse)
+            {
+                return super.borrow();
+            }
+            if (slot.instance == null)
+            {
+                slot.instance = super.borrow();
+            }
+            else
+            {
+                reused.incrementAndGet();
+            }
+            slot.inUse = true;
+            return slot.instance;
+        }
+
+        void giveBack(final T instance)
+        {
+            final Slot<T> slot = slots.get();
+            if (slot.instance == instance)
+            {
+                if (!reset(instance))
+                {
+                    slot.instance = null;
+                }
+                slot.inUse = false;
+            }
+        }
+    }
+
+    private static class Slot<T>
+    {
+        private T instance;
+
+        private boolean inUse;
+    }
+
+    /**
+     * Shares up to maximumIdle instances between all threads.
+     */
+    private static class BoundedPool<T> extends Pool<T>
+    {
+        private final BlockingQueue<T> idle;
+
+        BoundedPool(final Factory<T> factory, final int maximumIdle)
+        {
+            super(factory);
+            idle = new ArrayBlockingQueue<T>(maximumIdle);
+        }
+
+        T borrow() throws Exception
+        {
+            final T instance = idle.poll();
+            if (instance == null)
+            {
+                return super.borrow();
+            }
+            reused.incrementAndGet();
+            return instance;
+        }
+
+        void giveBack(final T instance)
+        {
+            if (reset(instance))
+            {
+                idle.offer(instance);
+            }
+        }
+
+        int idle()
+        {
+            return idle.size();
+        }
+    }
+}
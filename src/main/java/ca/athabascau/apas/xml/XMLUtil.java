@@ -27,14 +27,18 @@ import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -54,8 +58,52 @@ public class XMLUtil
 {
     private static final Logger logger = Logger.getLogger(XMLUtil.class);
 
+    /**
+     * System property holding the size, in bytes, from which {@link
+     * java.nio.file.Path} input is memory mapped rather than read.
+     */
+    public static final String MAPPING_THRESHOLD_PROPERTY =
+        "ca.athabascau.apas.xml.mmap.threshold";
+
+    /**
+     * Files of a megabyte or more are memory mapped by default.
+     */
+    public static final long DEFAULT_MAPPING_THRESHOLD = 1024 * 1024;
+
     static final int BUFFER_CAPACITY = 50000;
 
+    private static final TimeZone MOUNTAIN =
+        XsDateCodec.zone("Canada/Mountain");
+
+    /**
+     * A day after the default Julian to Gregorian change, so that it is passed
+     * in every timezone.  {@link XsDateCodec} uses the proleptic Gregorian
+     * calendar, so dates before this are handled on the Julian calendar, as
+     * SimpleDateFormat and GregorianCalendar always have.
+     */
+    private static final long JULIAN_LIMIT =
+        new GregorianCalendar().getGregorianChange().getTime() +
+            24L * 60 * 60 * 1000;
+
+    private static volatile XMLPool xmlPool = XMLPool.fromSystemProperties();
+
+    private static volatile TemplatesCache templatesCache =
+        new TemplatesCache();
+
+    private static volatile XPathCache xpathCache = new XPathCache();
+
+    private static volatile SchemaCache schemaCache = new SchemaCache();
+
+    private static volatile TransformResultCache resultCache =
+        TransformResultCache.fromSystemProperties();
+
+    private static volatile StylesheetResolver stylesheetResolver =
+        StylesheetResolver.fromSystemProperties();
+
+    private static volatile XMLMetrics metrics =
+        Boolean.getBoolean(JMXMetrics.ENABLED_PROPERTY) ? new JMXMetrics() :
+            XMLMetrics.NONE;
+
     public static void main(final String[] args)
         throws TransformerException, ParserConfigurationException
     {
@@ -111,43 +159,316 @@ public class XMLUtil
     public static Document loadXMLFrom(final InputStream is)
         throws SAXException, IOException, ParserConfigurationException
     {
-        final DocumentBuilderFactory factory =
-            DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        DocumentBuilder builder = null;
-        builder = factory.newDocumentBuilder();
-        assert builder != null;
-        final Document doc = builder.parse(is);
+        final Document doc = loadXMLFrom(new InputSource(is));
         is.close();
         return doc;
     }
 
+    /**
+     * Loads an XML document from raw bytes, such as an HTTP body or a message
+     * payload.  The parser detects the encoding.
+     *
+     * @param xml the encoded document
+     *
+     * @return the new Document
+     *
+     * @throws SAXException                 if a SAX parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     */
+    public static Document loadXMLFrom(final byte[] xml)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        return loadXMLFrom(new InputSource(new ByteArrayInputStream(xml)));
+    }
+
+    /**
+     * Loads an XML document from the remaining bytes of a heap or direct
+     * buffer.  The parser detects the encoding.  The buffer's position is not
+     * changed.
+     *
+     * @param xml the encoded document
+     *
+     * @return the new Document
+     *
+     * @throws SAXException                 if a SAX parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     */
+    public static Document loadXMLFrom(final ByteBuffer xml)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        return loadXMLFrom(new InputSource(ByteInput.stream(xml)));
+    }
+
+    /**
+     * Loads an XML document from a file.  Files of at least {@link
+     * #MAPPING_THRESHOLD_PROPERTY} bytes are memory mapped, rather than
+     * copied onto the heap.  Relative references in the document are
+     * resolved against the file.
+     *
+     * @param xml the file
+     *
+     * @return the new Document
+     *
+     * @throws SAXException                 if a SAX parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     */
+    public static Document loadXMLFrom(final Path xml)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        final InputSource is = new InputSource(ByteInput.stream(xml));
+        is.setSystemId(xml.toUri().toString());
+        return loadXMLFrom(is);
+    }
+
+    /**
+     * Loads an XML document from a blocking channel, which is read to it's
+     * end but not closed.  The parser detects the encoding.
+     *
+     * @param xml the channel
+     *
+     * @return the new Document
+     *
+     * @throws SAXException                 if a SAX parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     */
+    public static Document loadXMLFrom(final ReadableByteChannel xml)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        return loadXMLFrom(new InputSource(ByteInput.stream(xml)));
+    }
+
+    /**
+     * Loads an XML document from the input source into a DOM Document.
+     *
+     * @param is the input source to load from
+     *
+     * @return the new Document
+     *
+     * @throws SAXException                 if a SAX parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     */
     public static Document loadXMLFrom(final InputSource is)
         throws ParserConfigurationException, IOException, SAXException
     {
-        final DocumentBuilderFactory factory =
-            DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        DocumentBuilder builder = null;
-        builder = factory.newDocumentBuilder();
-        assert builder != null;
-        final Document doc = builder.parse(is);
-        return doc;
+        final Probe probe = Probe.start(XMLMetrics.LOAD_XML_FROM, null);
+        try
+        {
+            final Document doc = xmlPool.parse(probe.countInput(is));
+            probe.succeeded();
+            return doc;
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    /**
+     * Parses the xml, validating it against the schema as it goes, so the
+     * document is only read once.
+     *
+     * @param xml    the string representation of the XML
+     * @param schema the schema, usually from the {@link #getSchemaCache()
+     *               schema cache}, or null to skip validation
+     *
+     * @return the valid Document
+     *
+     * @throws SAXException                 if the xml is invalid, or a SAX
+     *                                      parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration error
+     *                                      occurs
+     * @see #loadXMLFrom(InputSource, Schema)
+     */
+    public static Document stringToDocument(final String xml,
+        final Schema schema)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        return loadXMLFrom(new InputSource(new StringReader(xml)), schema);
+    }
+
+    /**
+     * Loads and validates an XML document from the input stream, which is
+     * closed afterwards.
+     *
+     * @param is     the input stream to load from
+     * @param schema the schema, or null to skip validation
+     *
+     * @return the valid Document
+     *
+     * @throws SAXException                 if the xml is invalid, or a SAX
+     *                                      parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     * @see #loadXMLFrom(InputSource, Schema)
+     */
+    public static Document loadXMLFrom(final InputStream is,
+        final Schema schema)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        try
+        {
+            return loadXMLFrom(new InputSource(is), schema);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Loads and validates an XML document from raw bytes.  The parser
+     * detects the encoding.
+     *
+     * @param xml    the encoded document
+     * @param schema the schema, or null to skip validation
+     *
+     * @return the valid Document
+     *
+     * @throws SAXException                 if the xml is invalid, or a SAX
+     *                                      parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     * @see #loadXMLFrom(InputSource, Schema)
+     */
+    public static Document loadXMLFrom(final byte[] xml, final Schema schema)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        return loadXMLFrom(new InputSource(new ByteArrayInputStream(xml)),
+            schema);
+    }
+
+    /**
+     * Loads and validates an XML document from a file, which is memory
+     * mapped just as {@link #loadXMLFrom(Path)} does.
+     *
+     * @param xml    the file
+     * @param schema the schema, or null to skip validation
+     *
+     * @return the valid Document
+     *
+     * @throws SAXException                 if the xml is invalid, or a SAX
+     *                                      parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     * @see #loadXMLFrom(InputSource, Schema)
+     */
+    public static Document loadXMLFrom(final Path xml, final Schema schema)
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        final InputSource is = new InputSource(ByteInput.stream(xml));
+        is.setSystemId(xml.toUri().toString());
+        return loadXMLFrom(is, schema);
+    }
+
+    /**
+     * Loads an XML document from the input source, validating it against the
+     * schema during the same parse.  The first error, rather than only a
+     * fatal one, stops the parse, so an invalid document never gets built.
+     * Validating builders are pooled per schema by the {@link #getXMLPool()
+     * pool}.
+     *
+     * @param is     the input source to load from
+     * @param schema the schema, usually from the {@link #getSchemaCache()
+     *               schema cache}, or null to skip validation
+     *
+     * @return the valid Document
+     *
+     * @throws SAXException                 if the xml is invalid, or a SAX
+     *                                      parsing error occurs
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     */
+    public static Document loadXMLFrom(final InputSource is,
+        final Schema schema)
+        throws ParserConfigurationException, IOException, SAXException
+    {
+        final Probe probe = Probe.start(XMLMetrics.LOAD_XML_FROM, null);
+        try
+        {
+            final Document doc = xmlPool.parse(probe.countInput(is), schema);
+            probe.succeeded();
+            return doc;
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    /**
+     * Validates the xml against the schema as it streams past, without ever
+     * building a tree, so memory use does not grow with the size of the
+     * document.  Streams, readers and channels are not closed.
+     *
+     * @param xml    the xml, in any of the forms described by {@link
+     *               #xslTransformation(Object, Object, Map)}
+     * @param schema the schema, usually from the {@link #getSchemaCache()
+     *               schema cache}
+     *
+     * @throws SAXException if the xml is invalid, or a SAX parsing error
+     *                      occurs
+     * @throws IOException  if an IO error occurs
+     */
+    public static void validate(final Object xml, final Schema schema)
+        throws SAXException, IOException
+    {
+        if (xml == null)
+        {
+            throw new IllegalArgumentException("xml must not be null");
+        }
+        if (schema == null)
+        {
+            throw new IllegalArgumentException("schema must not be null");
+        }
+        final Probe probe = Probe.start(XMLMetrics.VALIDATE, null);
+        try
+        {
+            xmlPool.validate(toSource(probe.countInput(xml)), schema);
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
     }
 
     /**
      * Runs a xalan transformation of the xml, with the specified xsl.
      *
      * @param xml        a String xml document, or a java.io.File object
-     *                   pointing to the file
+     *                   pointing to the file.  The xml may also be given as
+     *                   a byte[], ByteBuffer, Path, ReadableByteChannel,
+     *                   InputStream or Reader, which are handed straight to
+     *                   the transformer's parser, or as a DOM Node or an
+     *                   {@link ImmutableDocument}.  Streams and channels are
+     *                   not closed.
      * @param xsl        a String filename, or a java.io.File object pointing to
      *                   the file.  A null value indicates you want to resolve
      *                   the XML's "xml-stylesheet" processing instruction as
      *                   the XSL to use.  If it does not exist, it may fail.  If
      *                   using a filename, it will be looked up in the class
      *                   path.  Prefix all filenames with '/', where '/' is the
-     *                   root of the classpath.
-     * @param parameters a map of parameters to pass to the XSL
+     *                   root of the classpath.  A stylesheet named by an
+     *                   instruction is fetched by {@link
+     *                   #getStylesheetResolver()}, and compiled once.
+     * @param parameters a map of parameters to pass to the XSL.  If there is
+     *                   a {@link #getResultCache() result cache}, the {@link
+     *                   TransformResultCache#BYPASS_PARAMETER} skips it
      *
      * @return the String of the transformed xml
      *
@@ -157,102 +478,347 @@ public class XMLUtil
      * @throws TransformerException         if a transformation error occurs
      * @throws SAXException                 if a SAX parsing error occurs
      */
+    @SuppressWarnings("unchecked")
     public static String xslTransformation(final Object xml, final Object xsl,
         final Map parameters)
         throws TransformerException, ParserConfigurationException, IOException,
         SAXException
-    {   // BEGIN xslTransformation()
-        // create an instance of TransformerFactory
+    {
         final StringWriter stringWriter;
-        final Result result;
-        final TransformerFactory transFact;
-        final Transformer trans;
-        final Set keys;
-        final Iterator keyIt;
-        final ExceptionErrorListener errorListener;
 
-        errorListener = new ExceptionErrorListener();
         stringWriter = new StringWriter(BUFFER_CAPACITY);
-        result = new StreamResult(stringWriter);
-        transFact = TransformerFactory.newInstance();
-        transFact.setErrorListener(errorListener);
+        // still a raw Map, for existing callers, but the names have always
+        // had to be Strings
+        xslTransformation(xml, xsl, parameters, new StreamResult(stringWriter));
+        return stringWriter.toString();
+    }
+
+    /**
+     * Runs a xalan transformation of the xml, with the specified xsl, writing
+     * the output directly to the given stream as it is produced.  The output
+     * is encoded to bytes according to the stylesheet's xsl:output encoding,
+     * so the transformed document is never held in memory.  The stream is
+     * flushed, but not closed.
+     *
+     * @param xml        see {@link #xslTransformation(Object, Object, Map)}
+     * @param xsl        see {@link #xslTransformation(Object, Object, Map)}
+     * @param parameters a map of parameters to pass to the XSL
+     * @param out        the stream to write the transformed xml to
+     *
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     * @throws TransformerException         if a transformation error occurs
+     * @throws SAXException                 if a SAX parsing error occurs
+     */
+    public static void xslTransformation(final Object xml, final Object xsl,
+        final Map<String, ?> parameters, final OutputStream out)
+        throws TransformerException, ParserConfigurationException, IOException,
+        SAXException
+    {
+        xslTransformation(xml, xsl, parameters, new StreamResult(out));
+        out.flush();
+    }
+
+    /**
+     * Runs a xalan transformation of the xml, with the specified xsl, writing
+     * the output directly to the given writer as it is produced.  The writer
+     * is flushed, but not closed.
+     *
+     * @param xml        see {@link #xslTransformation(Object, Object, Map)}
+     * @param xsl        see {@link #xslTransformation(Object, Object, Map)}
+     * @param parameters a map of parameters to pass to the XSL
+     * @param writer     the writer to write the transformed xml to
+     *
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     * @throws TransformerException         if a transformation error occurs
+     * @throws SAXException                 if a SAX parsing error occurs
+     */
+    public static void xslTransformation(final Object xml, final Object xsl,
+        final Map<String, ?> parameters, final Writer writer)
+        throws TransformerException, ParserConfigurationException, IOException,
+        SAXException
+    {
+        xslTransformation(xml, xsl, parameters, new StreamResult(writer));
+        writer.flush();
+    }
+
+    /**
+     * Runs a xalan transformation of the xml, with the specified xsl, writing
+     * the encoded output directly to the given channel as it is produced.
+     * The channel is not closed.
+     *
+     * @param xml        see {@link #xslTransformation(Object, Object, Map)}
+     * @param xsl        see {@link #xslTransformation(Object, Object, Map)}
+     * @param parameters a map of parameters to pass to the XSL
+     * @param channel    the channel to write the transformed xml to
+     *
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     * @throws TransformerException         if a transformation error occurs
+     * @throws SAXException                 if a SAX parsing error occurs
+     */
+    public static void xslTransformation(final Object xml, final Object xsl,
+        final Map<String, ?> parameters, final WritableByteChannel channel)
+        throws TransformerException, ParserConfigurationException, IOException,
+        SAXException
+    {
+        xslTransformation(xml, xsl, parameters,
+            Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Runs a xalan transformation of the xml, with the specified xsl, sending
+     * the output to the given result.  All of the other xslTransformation
+     * methods end up here.
+     *
+     * @param xml        see {@link #xslTransformation(Object, Object, Map)}
+     * @param xsl        see {@link #xslTransformation(Object, Object, Map)}
+     * @param parameters a map of parameters to pass to the XSL
+     * @param result     where the transformed xml goes
+     *
+     * @throws IOException                  if an IO error occurs
+     * @throws ParserConfigurationException if a JAXP configuration parsing
+     *                                      error occurs
+     * @throws TransformerException         if a transformation error occurs
+     * @throws SAXException                 if a SAX parsing error occurs
+     */
+    public static void xslTransformation(final Object xml, final Object xsl,
+        final Map<String, ?> parameters, final Result result)
+        throws TransformerException, ParserConfigurationException, IOException,
+        SAXException
+    {   // BEGIN xslTransformation()
+        final Transformer trans;
+        final Set<String> keys;
+        final Iterator<String> keyIt;
+        final String stylesheet;
+
+        if (result == null)
+        {
+            throw new IllegalArgumentException("result must not be null");
+        }
+        final Probe probe = Probe.start(XMLMetrics.XSL_TRANSFORMATION, null);
+        try
+        {
+            final Object input;
+            if (xsl == null &&
+                (xml instanceof InputStream || xml instanceof Reader ||
+                    xml instanceof ReadableByteChannel))
+            {   // finding the processing instruction consumes the stream, and
+                // we need to read it a second time for the transformation
+                input = probe.countInput(readFully(xml));
+            }
+            else
+            {
+                input = probe.countInput(xml);
+            }
+            if (logger.isDebugEnabled() && input instanceof String)
+            {
+                logger.debug("incoming XML: " + input);
+            }
+
+            final TransformResultCache cache = resultCache;
+            final String cacheKey = cache == null || xsl == null ? null :
+                cache.keyFor(input, xsl, parameters, result);
+            if (cacheKey != null &&
+                cache.write(cacheKey, probe.countOutput(result)))
+            {   // rendered before, with the same stylesheet and parameters
+                probe.setStylesheet(probe.isEnabled() ? TemplatesCache.keyFor(
+                    xsl instanceof File ? ((File) xsl).getAbsoluteFile() :
+                        xsl) : null);
+                probe.succeeded();
+                return;
+            }
+
+            if (xsl == null)
+            {   // grab the XSL defined by the XML's xml-stylesheet instruction
+                final String uri = StylesheetInstruction.find(input,
+                    stylesheetResolver);
+                if (uri == null)
+                {
+                    throw new IllegalArgumentException("the XML document " +
+                        "does not contain an \"xml-stylesheet\" processing " +
+                        "instruction,\nwe are unable transform this document " +
+                        "unless you explicitly specify an XSL\ndocument to use");
+                }
+                stylesheet = "pi:" + uri;
+                trans = templatesCache.getAssociatedTemplates(uri)
+                    .newTransformer();
+            }
+            else
+            {   // compiled once, and shared by everyone
+                stylesheet = probe.isEnabled() ? TemplatesCache.keyFor(
+                    xsl instanceof File ? ((File) xsl).getAbsoluteFile() :
+                        xsl) : null;
+                trans = templatesCache.newTransformer(xsl);
+            }
+            probe.setStylesheet(stylesheet);
+            trans.setErrorListener(new ExceptionErrorListener(
+                XMLMetrics.XSL_TRANSFORMATION, stylesheet));
+            if (parameters != null)
+            {
+                keys = parameters.keySet();
+                keyIt = keys.iterator();
+                while (keyIt.hasNext())
+                {
+                    final String key;
+                    key = keyIt.next();
+                    if (!TransformResultCache.BYPASS_PARAMETER.equals(key))
+                    {
+                        trans.setParameter(key, parameters.get(key));
+                    }
+                }
+            }
+            final Probe transform = Probe.start(XMLMetrics.TRANSFORM,
+                stylesheet);
+            try
+            {
+                if (cacheKey == null)
+                {
+                    trans.transform(toSource(input),
+                        probe.countOutput(result));
+                }
+                else
+                {   // keep a copy of the output for next time
+                    final ByteArrayOutputStream out =
+                        new ByteArrayOutputStream(BUFFER_CAPACITY);
+                    trans.transform(toSource(input), new StreamResult(out));
+                    final byte[] content = out.toByteArray();
+                    final String declared =
+                        trans.getOutputProperty(OutputKeys.ENCODING);
+                    final String encoding =
+                        declared == null ? "UTF-8" : declared;
+                    cache.put(cacheKey, content, encoding);
+                    TransformResultCache.write(content, encoding,
+                        probe.countOutput(result));
+                }
+                transform.succeeded();
+            }
+            finally
+            {
+                transform.stop();
+            }
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }   // END xslTransformation()
+
+    /**
+     * Wraps the xml in a Source the transformer can read from directly.  Only
+     * an xml Node is handed over as a DOM, everything else is streamed to the
+     * transformer's own parser, so we never build a tree just to throw it
+     * away.
+     *
+     * @param xml the xml, as described by {@link #xslTransformation(Object,
+     *            Object, Map)}
+     *
+     * @return a new Source for the xml
+     *
+     * @throws IOException if a Path could not be opened
+     */
+    static Source toSource(final Object xml) throws IOException
+    {
         final Source xmlSource;
-        if (xml instanceof Document)
+        if (xml instanceof Node)
+        {
+            xmlSource = new DOMSource((Node) xml);
+        }
+        else if (xml instanceof ImmutableDocument)
+        {   // already parsed
+            xmlSource = ((ImmutableDocument) xml).newSource();
+        }
+        else if (xml instanceof String)
+        {
+            xmlSource = new StreamSource(new StringReader((String) xml));
+        }
+        else if (xml instanceof byte[])
+        {   // let the parser detect the encoding
+            xmlSource = new StreamSource(
+                new ByteArrayInputStream((byte[]) xml));
+        }
+        else if (xml instanceof InputStream)
         {
-            xmlSource = new DOMSource((Node) xml);
+            xmlSource = new StreamSource((InputStream) xml);
         }
-        else if (xml instanceof String)
+        else if (xml instanceof Reader)
         {
-            final Document doc = stringToDocument((String) xml);
-            logger.debug(documentToString(doc));
-            xmlSource = new DOMSource(doc);
-/*            logger.debug("incoming XML: " + xml);
-            xmlSource = new StreamSource(new StringReader((String) xml));*/
+            xmlSource = new StreamSource((Reader) xml);
         }
         else if (xml instanceof File)
         {
             xmlSource = new StreamSource((File) xml);
         }
-        else
+        else if (xml instanceof ByteBuffer)
         {
-            throw new IllegalArgumentException(
-                "Only java.lang.String and java.io.File xml are supported " +
-                    "for the xml parameter");
-        }
-
-        final Source xsltSource;
-
-        if (xsl == null)
-        {   // grab the XSL defined by the XML's xml-stylesheet instruction
-            xsltSource =
-                transFact.getAssociatedStylesheet(xmlSource, null, null, null);
-            if (xsltSource == null)
-            {
-                throw new IllegalArgumentException("the XML document does " +
-                    "not contain an \"xml-stylesheet\" processing instruction" +
-                    ",\nwe are unable transform this document unless you " +
-                    "explicitly specify an XSL\ndocument to use");
-            }
+            xmlSource = new StreamSource(ByteInput.stream((ByteBuffer) xml));
         }
-        else if (xsl instanceof String)
+        else if (xml instanceof Path)
         {
-            final InputStream xsltResource = XMLUtil.class.getResourceAsStream(
-                (String) xsl);
-            if (xsltResource == null)
-            {
-                throw new IllegalArgumentException(
-                    xsl + " is an invalid XSL file");
-            }
-            xsltSource = new StreamSource(xsltResource);
+            xmlSource = new StreamSource(ByteInput.stream((Path) xml),
+                ((Path) xml).toUri().toString());
         }
-        else if (xsl instanceof File)
+        else if (xml instanceof ReadableByteChannel)
         {
-            xsltSource = new StreamSource((File) xsl);
+            xmlSource = new StreamSource(
+                ByteInput.stream((ReadableByteChannel) xml));
         }
         else
         {
             throw new IllegalArgumentException(
-                "Only java.lang.String xsl filenames, or java.io.File " +
-                    "are supported for the xsl parameter");
+                "Only org.w3c.dom.Node, ImmutableDocument, " +
+                    "java.lang.String, byte[], " +
+                    "java.nio.ByteBuffer, java.nio.file.Path, " +
+                    "java.nio.channels.ReadableByteChannel, " +
+                    "java.io.InputStream, java.io.Reader and java.io.File " +
+                    "xml are supported for the xml parameter");
         }
+        return xmlSource;
+    }
 
-
-        trans = transFact.newTransformer(xsltSource);
-        trans.setErrorListener(errorListener);
-        if (parameters != null)
+    /**
+     * Reads a stream into memory, so that it may be read more than once.
+     *
+     * @param xml an InputStream, ReadableByteChannel or Reader
+     *
+     * @return a byte[] for an InputStream or ReadableByteChannel, or a String
+     *         for a Reader
+     *
+     * @throws IOException if an IO error occurs
+     */
+    private static Object readFully(final Object xml) throws IOException
+    {
+        final char[] chars;
+        final byte[] bytes;
+        int read;
+        if (xml instanceof InputStream || xml instanceof ReadableByteChannel)
         {
-            keys = parameters.keySet();
-            keyIt = keys.iterator();
-            while (keyIt.hasNext())
+            final InputStream is = xml instanceof InputStream ?
+                (InputStream) xml :
+                ByteInput.stream((ReadableByteChannel) xml);
+            final ByteArrayOutputStream out =
+                new ByteArrayOutputStream(BUFFER_CAPACITY);
+            bytes = new byte[8192];
+            while ((read = is.read(bytes)) != -1)
             {
-                final String key;
-                key = (String) keyIt.next();    // assume string key
-                trans.setParameter(key, parameters.get(key));
+                out.write(bytes, 0, read);
             }
+            return out.toByteArray();
         }
-        trans.transform(xmlSource, result);
-        return stringWriter.toString();
-    }   // END xslTransformation()
+        final Reader reader = (Reader) xml;
+        final StringBuilder out = new StringBuilder(BUFFER_CAPACITY);
+        chars = new char[8192];
+        while ((read = reader.read(chars)) != -1)
+        {
+            out.append(chars, 0, read);
+        }
+        return out.toString();
+    }
 
     /**
      * Calls {@link #xslTransformation(Object, Object, Map)} with the first
@@ -278,6 +844,188 @@ public class XMLUtil
         return xslTransformation(xml, null, null);
     }
 
+    /**
+     * Retrieves the pool of parsers and serializers used by {@link
+     * #loadXMLFrom(InputSource)}, {@link #createDocument()}, {@link
+     * #documentToString(Node)} and friends.
+     *
+     * @return the shared pool
+     */
+    public static XMLPool getXMLPool()
+    {
+        return xmlPool;
+    }
+
+    /**
+     * Replaces the pool of parsers and serializers, for example to switch to
+     * a {@link XMLPool.Mode#BOUNDED} pool, or turn pooling off with {@link
+     * XMLPool.Mode#NONE}.
+     *
+     * @param pool the new pool, must not be null
+     */
+    public static void setXMLPool(final XMLPool pool)
+    {
+        if (pool == null)
+        {
+            throw new IllegalArgumentException("pool must not be null");
+        }
+        xmlPool = pool;
+    }
+
+    /**
+     * Retrieves the cache of compiled stylesheets used by {@link
+     * #xslTransformation(Object, Object, Map)}.  Use it to check the hit rate,
+     * resize it, or invalidate stylesheets that have been replaced.
+     *
+     * @return the shared stylesheet cache
+     */
+    public static TemplatesCache getTemplatesCache()
+    {
+        return templatesCache;
+    }
+
+    /**
+     * Replaces the cache of compiled stylesheets used by {@link
+     * #xslTransformation(Object, Object, Map)}.
+     *
+     * @param cache the new cache, must not be null
+     */
+    public static void setTemplatesCache(final TemplatesCache cache)
+    {
+        if (cache == null)
+        {
+            throw new IllegalArgumentException("cache must not be null");
+        }
+        templatesCache = cache;
+    }
+
+    /**
+     * Retrieves the cache of compiled XPath expressions, for querying the
+     * documents returned by {@link #stringToDocument(String)} and {@link
+     * #loadXMLFrom(InputStream)}.
+     *
+     * @return the shared XPath cache
+     */
+    public static XPathCache getXPathCache()
+    {
+        return xpathCache;
+    }
+
+    /**
+     * Replaces the cache of compiled XPath expressions, for example to change
+     * it's size.
+     *
+     * @param cache the new cache, must not be null
+     */
+    public static void setXPathCache(final XPathCache cache)
+    {
+        if (cache == null)
+        {
+            throw new IllegalArgumentException("cache must not be null");
+        }
+        xpathCache = cache;
+    }
+
+    /**
+     * Retrieves the cache of compiled schemas, for the validating {@link
+     * #loadXMLFrom(InputSource, Schema)} and {@link #validate(Object,
+     * Schema)}.
+     *
+     * @return the shared schema cache
+     */
+    public static SchemaCache getSchemaCache()
+    {
+        return schemaCache;
+    }
+
+    /**
+     * Replaces the cache of compiled schemas, for example to change it's
+     * size.
+     *
+     * @param cache the new cache, must not be null
+     */
+    public static void setSchemaCache(final SchemaCache cache)
+    {
+        if (cache == null)
+        {
+            throw new IllegalArgumentException("cache must not be null");
+        }
+        schemaCache = cache;
+    }
+
+    /**
+     * Retrieves the cache of transformation output used by {@link
+     * #xslTransformation(Object, Object, Map)}, which is off unless it has
+     * been installed, or configured with system properties.
+     *
+     * @return the shared result cache, or null if there isn't one
+     */
+    public static TransformResultCache getResultCache()
+    {
+        return resultCache;
+    }
+
+    /**
+     * Installs a cache of transformation output for {@link
+     * #xslTransformation(Object, Object, Map)}.
+     *
+     * @param cache the new cache, or null to transform every time
+     */
+    public static void setResultCache(final TransformResultCache cache)
+    {
+        resultCache = cache;
+    }
+
+    /**
+     * Retrieves the resolver that fetches the stylesheets named by
+     * xml-stylesheet processing instructions, xsl:include and xsl:import.
+     *
+     * @return the shared resolver
+     */
+    public static StylesheetResolver getStylesheetResolver()
+    {
+        return stylesheetResolver;
+    }
+
+    /**
+     * Replaces the resolver that fetches the stylesheets named by
+     * xml-stylesheet processing instructions, xsl:include and xsl:import, for
+     * example to add mappings or a cache directory.  Stylesheets that were
+     * already compiled stay in the {@link #getTemplatesCache()}.
+     *
+     * @param resolver the new resolver, must not be null
+     */
+    public static void setStylesheetResolver(final StylesheetResolver resolver)
+    {
+        if (resolver == null)
+        {
+            throw new IllegalArgumentException("resolver must not be null");
+        }
+        stylesheetResolver = resolver;
+    }
+
+    /**
+     * Retrieves the metrics that every operation reports to, which by
+     * default record nothing.
+     *
+     * @return the installed metrics
+     */
+    public static XMLMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Installs the metrics that every operation reports to, such as a {@link
+     * JMXMetrics}.
+     *
+     * @param newMetrics the metrics, or null to record nothing
+     */
+    public static void setMetrics(final XMLMetrics newMetrics)
+    {
+        metrics = newMetrics == null ? XMLMetrics.NONE : newMetrics;
+    }
+
     /**
      * Converts the calendar into a string formated according to the xs:date
      * format.
@@ -288,11 +1036,15 @@ public class XMLUtil
      */
     public static String xsDateFormat(final Calendar calendar)
     {
-        final SimpleDateFormat dateFormat;
-
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
-        return dateFormat.format(calendar.getTime());
+        final long millis = calendar.getTimeInMillis();
+        if (millis < JULIAN_LIMIT)
+        {
+            return julianFormat(millis, TimeZone.getDefault(), "yyyy-MM-dd");
+        }
+        final char[] buffer = new char[XsDateCodec.MAXIMUM_LENGTH];
+        final int length = XsDateCodec.formatDate(millis,
+            TimeZone.getDefault(), buffer, 0);
+        return new String(buffer, 0, length);
     }
 
     /**
@@ -308,7 +1060,8 @@ public class XMLUtil
 
     /**
      * Converts an XML xs:date string to a Calendar object.  We do not mess
-     * around with formatting issues.  It either works, or it doesn't.
+     * around with formatting issues.  It either works, or it doesn't.  A date
+     * without a timezone is the start of that day in the default timezone.
      *
      * @param xsDate the xs:date formatted string
      *
@@ -322,11 +1075,8 @@ public class XMLUtil
         Calendar newCal = null;
         if (xsDate != null)
         {
-            final SimpleDateFormat dateFormat = new SimpleDateFormat(
-                "yyyy-MM-dd");
-            final Date date = dateFormat.parse(xsDate);
-            newCal = Calendar.getInstance();
-            newCal.setTime(date);
+            final TimeZone zone = TimeZone.getDefault();
+            newCal = toCalendar(XsDateCodec.parseDate(xsDate, zone), zone);
         }
         return newCal;
     }
@@ -334,6 +1084,8 @@ public class XMLUtil
     /**
      * Converts an XML xs:datetime string to a Calendar object.  We do not mess
      * around with formatting issues.  It either works, or it doesn't.
+     * Fractional seconds and any timezone are supported, and a time without
+     * a timezone is taken to be in the default timezone.
      *
      * @param xsDateTime the xs:datetime formatted string
      *
@@ -347,21 +1099,17 @@ public class XMLUtil
         Calendar newCal = null;
         if (xsDateTime != null)
         {
-            // -06:00 goes to -0600
-            final String fixedTime = xsDateTime.replaceAll(
-                "([-+]??\\d{2}):??(\\d{2})$", "$1$2");
-            final SimpleDateFormat dateFormat = new SimpleDateFormat(
-                "yyyy-MM-dd'T'HH:mm:ssZ");
-            final Date date = dateFormat.parse(fixedTime);
-            newCal = GregorianCalendar.getInstance();
-            newCal.setTime(date);
+            final TimeZone zone = TimeZone.getDefault();
+            newCal = toCalendar(XsDateCodec.parseDateTime(xsDateTime, zone),
+                zone);
         }
         return newCal;
     }
 
     /**
      * Formats a date in the xml xs:dateTime format, for mountain time.  This
-     * method does not support any other timezone.
+     * method does not support any other timezone; see {@link XsDateCodec} for
+     * that.
      *
      * @param calendar the calendar to format
      *
@@ -369,22 +1117,70 @@ public class XMLUtil
      */
     public static String xsDateTimeFormatMountain(final Calendar calendar)
     {
-        final SimpleDateFormat dateFormat;
-        final SimpleDateFormat timeFormat;
-        final TimeZone currentTimeZone;
+        final char[] buffer = new char[XsDateCodec.MAXIMUM_LENGTH];
+        final long millis = calendar.getTimeInMillis();
+        if (millis < JULIAN_LIMIT)
+        {
+            return julianFormat(millis, MOUNTAIN, "yyyy-MM-dd'T'HH:mm:ssXXX");
+        }
+        final int length;
+        // whole seconds only, as we have always done
+        length = XsDateCodec.formatDateTime(
+            millis - Math.floorMod(millis, 1000L), MOUNTAIN, buffer, 0);
+        return new String(buffer, 0, length);
+    }
 
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        timeFormat = new SimpleDateFormat("HH:mm:ss");
-        currentTimeZone = TimeZone.getTimeZone("Canada/Mountain");
-        final long offset;
-        final long hours;
-        final String tzID;
-        offset = currentTimeZone.getOffset(calendar.getTimeInMillis());
-        hours = -offset / (1000 * 60 * 60);
-        tzID = "-0" + hours + ":00"; // assume single digit hour, we always are
+    /**
+     * Formats an instant from before {@link #JULIAN_LIMIT} the way
+     * SimpleDateFormat always has, on the Julian calendar.
+     *
+     * @param millis  the instant
+     * @param zone    the timezone to format it in
+     * @param pattern the SimpleDateFormat pattern
+     *
+     * @return the formatted date
+     */
+    private static String julianFormat(final long millis, final TimeZone zone,
+        final String pattern)
+    {
+        final SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(zone);
+        return format.format(new Date(millis));
+    }
 
-        return dateFormat.format(calendar.getTime()) + 'T' +
-            timeFormat.format(calendar.getTime()) + tzID;
+    /**
+     * Creates a calendar for an instant parsed by {@link XsDateCodec}.  Before
+     * {@link #JULIAN_LIMIT} the codec's proleptic Gregorian fields are carried
+     * over as they are, so that "1500-03-01" still reads March 1st on the
+     * Julian calendar, rather than the same instant, which is February 20th.
+     *
+     * @param millis the parsed instant
+     * @param zone   the timezone of the calendar
+     *
+     * @return the new calendar
+     */
+    private static Calendar toCalendar(final long millis, final TimeZone zone)
+    {
+        final Calendar calendar = Calendar.getInstance(zone);
+        if (millis >= JULIAN_LIMIT || !(calendar instanceof GregorianCalendar))
+        {
+            calendar.setTimeInMillis(millis);
+            return calendar;
+        }
+        final GregorianCalendar proleptic = new GregorianCalendar(zone);
+        proleptic.setGregorianChange(new Date(Long.MIN_VALUE));
+        proleptic.setTimeInMillis(millis);
+        calendar.clear();
+        calendar.set(Calendar.ERA, proleptic.get(Calendar.ERA));
+        calendar.set(proleptic.get(Calendar.YEAR),
+            proleptic.get(Calendar.MONTH),
+            proleptic.get(Calendar.DAY_OF_MONTH),
+            proleptic.get(Calendar.HOUR_OF_DAY),
+            proleptic.get(Calendar.MINUTE),
+            proleptic.get(Calendar.SECOND));
+        calendar.set(Calendar.MILLISECOND,
+            proleptic.get(Calendar.MILLISECOND));
+        return calendar;
     }
 
     /**
@@ -408,18 +1204,12 @@ public class XMLUtil
      */
     public static Document createDocument() throws ParserConfigurationException
     {
-        final DocumentBuilderFactory factory;
-        final DocumentBuilder builder;
-        final Document document;
-        factory = DocumentBuilderFactory.newInstance();
-        builder = factory.newDocumentBuilder();
-        document = builder.newDocument();
-        return document;
+        return xmlPool.newDocument();
     }
 
     /**
-     * Converts the given document to string format by passing it through a
-     * transformer.
+     * Converts the given document to string format, exactly as an identity
+     * transformer would, with a {@link DOMSerializer}.
      *
      * @param node the node to convert to a java string.
      *
@@ -430,20 +1220,45 @@ public class XMLUtil
     public static String documentToString(final Node node)
         throws TransformerException
     {
-        final TransformerFactory transformerFactory;
-        final Transformer transformer;
-        final DOMSource source;
-        final StreamResult result;
-        final StringWriter writer;
+        final String xml;
+        final Probe probe = Probe.start(XMLMetrics.DOCUMENT_TO_STRING, null);
+        try
+        {
+            xml = DOMSerializer.DEFAULT.serialize(node);
+            probe.output(xml.length());
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
 
-        writer = new StringWriter(BUFFER_CAPACITY);
-        transformerFactory = TransformerFactory.newInstance();
-        transformer = transformerFactory.newTransformer();
-        source = new DOMSource(node);
-        result = new StreamResult(writer);
-        transformer.transform(source, result);
+        return xml;
+    }
 
-        return writer.toString();
+    /**
+     * Writes the given node directly to the stream as UTF-8, the same as
+     * {@link #documentToString(Node)} would return it.  The stream is
+     * flushed, but not closed.
+     *
+     * @param node the node to write
+     * @param out  the stream to write to
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public static void documentToStream(final Node node,
+        final OutputStream out) throws IOException
+    {
+        final Probe probe = Probe.start(XMLMetrics.DOCUMENT_TO_STRING, null);
+        try
+        {
+            DOMSerializer.DEFAULT.serialize(node, probe.countOutput(out));
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
     }
 
     /**
@@ -603,14 +1418,222 @@ public class XMLUtil
         final Object elements)
         throws TransformerException, ParserConfigurationException
     {
-        final Document mapDoc;
-        final Element parent;
+        final StringWriter writer;
+
+        writer = new StringWriter(BUFFER_CAPACITY);
+        final Probe probe = Probe.start(XMLMetrics.MAP_TO_XML, null);
+        try
+        {   // same output as building the DOM with mapToNode, without the DOM
+            MapXMLWriter.write(rootElementName, elements, writer);
+            probe.output(writer.getBuffer().length());
+            probe.succeeded();
+        }
+        catch (IOException e)
+        {   // never happens with a StringWriter
+            throw new TransformerException(e);
+        }
+        finally
+        {
+            probe.stop();
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the map as an XML document directly to the stream, in UTF-8,
+     * without building a DOM.  See {@link #mapToXML(String, Object)} for the
+     * rules.  The stream is flushed, but not closed.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param elements        the elements, whether a list of elements or a map
+     *                        of key/value pairs
+     * @param out             the stream to write to
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public static void mapToXML(final String rootElementName,
+        final Object elements, final OutputStream out) throws IOException
+    {
+        final Probe probe = Probe.start(XMLMetrics.MAP_TO_XML, null);
+        try
+        {
+            MapXMLWriter.write(rootElementName, elements,
+                probe.countOutput(out));
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    /**
+     * Writes the map as an XML document directly to the writer, without
+     * building a DOM.  See {@link #mapToXML(String, Object)} for the rules.
+     * The writer is flushed, but not closed.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param elements        the elements, whether a list of elements or a map
+     *                        of key/value pairs
+     * @param writer          the writer to write to
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public static void mapToXML(final String rootElementName,
+        final Object elements, final Writer writer) throws IOException
+    {
+        final Probe probe = Probe.start(XMLMetrics.MAP_TO_XML, null);
+        try
+        {
+            MapXMLWriter.write(rootElementName, elements,
+                probe.countOutput(writer));
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    /**
+     * Converts beans, records, Collections and Maps to an XML document, the
+     * same way {@link #mapToXML(String, Object)} converts Maps, but without
+     * copying the objects into Maps first.  See {@link ObjectXMLBinder} for
+     * the rules.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param value           the bean, record, or Map to convert
+     *
+     * @return the string representation of the XML document
+     */
+    public static String objectToXML(final String rootElementName,
+        final Object value)
+    {
+        final StringWriter writer = new StringWriter(BUFFER_CAPACITY);
+        final Probe probe = Probe.start(XMLMetrics.OBJECT_TO_XML, null);
+        try
+        {
+            ObjectXMLBinder.write(rootElementName, value, writer);
+            probe.output(writer.getBuffer().length());
+            probe.succeeded();
+        }
+        catch (IOException e)
+        {   // never happens with a StringWriter
+            throw new IllegalStateException(e);
+        }
+        finally
+        {
+            probe.stop();
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the object as an XML document directly to the stream, in UTF-8,
+     * as it is walked.  See {@link ObjectXMLBinder} for the rules.  The
+     * stream is flushed, but not closed.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param value           the bean, record, or Map to convert
+     * @param out             the stream to write to
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public static void objectToXML(final String rootElementName,
+        final Object value, final OutputStream out) throws IOException
+    {
+        final Probe probe = Probe.start(XMLMetrics.OBJECT_TO_XML, null);
+        try
+        {
+            ObjectXMLBinder.write(rootElementName, value,
+                probe.countOutput(out));
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    /**
+     * Writes the object as an XML document directly to the writer, as it is
+     * walked.  See {@link ObjectXMLBinder} for the rules.  The writer is
+     * flushed, but not closed.
+     *
+     * @param rootElementName the name that you want the root element to have
+     * @param value           the bean, record, or Map to convert
+     * @param writer          the writer to write to
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public static void objectToXML(final String rootElementName,
+        final Object value, final Writer writer) throws IOException
+    {
+        final Probe probe = Probe.start(XMLMetrics.OBJECT_TO_XML, null);
+        try
+        {
+            ObjectXMLBinder.write(rootElementName, value,
+                probe.countOutput(writer));
+            probe.succeeded();
+        }
+        finally
+        {
+            probe.stop();
+        }
+    }
+
+    /**
+     * Reads an XML document back into the Map/List/String structure that
+     * {@link #mapToXML(String, Object)} writes, without building a DOM.  See
+     * {@link MapXMLReader} for the conventions, and for limiting the size and
+     * depth of the document.  The stream is not closed.
+     *
+     * @param is the XML to read
+     *
+     * @return the children of the root element
+     *
+     * @throws SAXException if the XML is not well formed
+     * @throws IOException  if an IO error occurs
+     */
+    public static Map<String, Object> xmlToMap(final InputStream is)
+        throws SAXException, IOException
+    {
+        return new MapXMLReader().read(is);
+    }
 
-        mapDoc = createDocument();
-        parent = mapDoc.createElement(rootElementName);
-        mapDoc.appendChild(parent);
+    /**
+     * Reads an XML document back into the Map/List/String structure that
+     * {@link #mapToXML(String, Object)} writes.  See {@link
+     * #xmlToMap(InputStream)}.
+     *
+     * @param reader the XML to read
+     *
+     * @return the children of the root element
+     *
+     * @throws SAXException if the XML is not well formed
+     * @throws IOException  if an IO error occurs
+     */
+    public static Map<String, Object> xmlToMap(final Reader reader)
+        throws SAXException, IOException
+    {
+        return new MapXMLReader().read(reader);
+    }
 
-        mapToNode(elements, parent, mapDoc, null);
-        return documentToString(mapDoc);
+    /**
+     * Reads an XML document back into the Map/List/String structure that
+     * {@link #mapToXML(String, Object)} writes.  See {@link
+     * #xmlToMap(InputStream)}.
+     *
+     * @param xml the XML to read
+     *
+     * @return the children of the root element
+     *
+     * @throws SAXException if the XML is not well formed
+     * @throws IOException  if an IO error occurs
+     */
+    public static Map<String, Object> xmlToMap(final String xml)
+        throws SAXException, IOException
+    {
+        return xmlToMap(new StringReader(xml));
     }
 }
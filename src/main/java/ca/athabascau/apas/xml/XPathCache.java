@@ -0,0 +1,565 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathFactoryConfigurationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiles XPath expressions once, and evaluates them against the documents
+ * returned by {@link XMLUtil#stringToDocument(String)}, {@link
+ * XMLUtil#loadXMLFrom(java.io.InputStream)} and friends.  The XPathFactory
+ * is looked up once, when the cache is created.
+ * <p/>
+ * Neither XPath nor XPathExpression are thread safe, so each thread keeps
+ * it's own compiled expressions, keyed by the expression and it's namespace
+ * context, and evicts the least recently used once it has {@link
+ * #getMaximumSize()} of them.  Use {@link Namespaces} for the context, since
+ * it compares by it's mappings, so that a context created for every request
+ * still finds the expressions compiled for the last one.
+ * <pre>
+ * final XPathCache xpath = XMLUtil.getXPathCache();
+ * final XPathCache.Namespaces ns = new XPathCache.Namespaces(
+ *     "AU", "urn:ca:au:messages:AUExtensions:v1.0.0");
+ * final String gpa = xpath.evaluateString(transcript,
+ *     "//AU:CourseGradePointValue", ns);
+ * final NodeList courses = xpath.evaluateNodeList(transcript, "//Course");
+ * </pre>
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class XPathCache
+{
+    private static final Logger logger = Logger.getLogger(XPathCache.class);
+
+    /**
+     * The default number of compiled expressions each thread holds on to.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    private final String factoryClassName;
+
+    private final int maximumSize;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final ThreadLocal<Compiler> compilers =
+        new ThreadLocal<Compiler>()
+        {
+            protected Compiler initialValue()
+            {
+                return new Compiler(newFactory().newXPath());
+            }
+        };
+
+    /**
+     * Creates a cache of {@link #DEFAULT_MAXIMUM_SIZE} expressions per
+     * thread.
+     */
+    public XPathCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maximumSize the maximum number of compiled expressions each
+     *                    thread holds on to, must be greater than zero
+     */
+    public XPathCache(final int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException(
+                "maximumSize must be greater than zero: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        factoryClassName = XPathFactory.newInstance().getClass().getName();
+    }
+
+    /**
+     * XPathFactory is not thread safe either, so each thread makes it's own,
+     * without searching the classpath again.
+     */
+    private XPathFactory newFactory()
+    {
+        try
+        {
+            return XPathFactory.newInstance(
+                XPathFactory.DEFAULT_OBJECT_MODEL_URI, factoryClassName,
+                XPathCache.class.getClassLoader());
+        }
+        catch (XPathFactoryConfigurationException e)
+        {   // odd class loader setup, do it the slow way
+            logger.debug("unable to instantiate " + factoryClassName +
+                " directly", e);
+            return XPathFactory.newInstance();
+        }
+    }
+
+    /**
+     * Retrieves this thread's compiled expression, compiling it if need be.
+     * It must only be used by this thread.
+     *
+     * @param expression the XPath expression
+     * @param namespaces resolves the prefixes in the expression, or null if
+     *                   it has none
+     *
+     * @return the compiled expression
+     *
+     * @throws XPathExpressionException if the expression is invalid
+     */
+    public XPathExpression compile(final String expression,
+        final NamespaceContext namespaces) throws XPathExpressionException
+    {
+        if (expression == null)
+        {
+            throw new IllegalArgumentException(
+                "expression must not be null");
+        }
+        return compilers.get().compile(expression, namespaces);
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param item       the node to evaluate against, usually a Document
+     * @param expression the XPath expression
+     * @param namespaces resolves the prefixes in the expression, or null
+     * @param returnType one of the {@link XPathConstants}
+     *
+     * @return the result, of the return type
+     *
+     * @throws XPathExpressionException if the expression is invalid, or
+     *                                  could not be evaluated
+     */
+    public Object evaluate(final Object item, final String expression,
+        final NamespaceContext namespaces, final QName returnType)
+        throws XPathExpressionException
+    {
+        return compile(expression, namespaces).evaluate(item, returnType);
+    }
+
+    /**
+     * Evaluates several expressions against the same node, in one call.
+     *
+     * @param item        the node to evaluate against, usually a Document
+     * @param expressions the XPath expressions, by name
+     * @param namespaces  resolves the prefixes in the expressions, or null
+     * @param returnType  one of the {@link XPathConstants}
+     *
+     * @return the result of each expression, by name, in the order of the
+     *         expressions map
+     *
+     * @throws XPathExpressionException if an expression is invalid, or could
+     *                                  not be evaluated
+     */
+    public Map<String, Object> evaluate(final Object item,
+        final Map<String, String> expressions,
+        final NamespaceContext namespaces, final QName returnType)
+        throws XPathExpressionException
+    {
+        final Compiler compiler = compilers.get();
+        final Map<String, Object> results = new LinkedHashMap<String, Object>();
+        final Iterator<Map.Entry<String, String>> it =
+            expressions.entrySet().iterator();
+        while (it.hasNext())
+        {
+            final Map.Entry<String, String> entry = it.next();
+            final String expression = entry.getValue();
+            try
+            {
+                results.put(entry.getKey(), compiler.compile(expression,
+                    namespaces).evaluate(item, returnType));
+            }
+            catch (XPathExpressionException e)
+            {
+                final XPathExpressionException named =
+                    new XPathExpressionException(entry.getKey() + ": " +
+                        expression);
+                named.initCause(e);
+                throw named;
+            }
+        }
+        return results;
+    }
+
+    public String evaluateString(final Object item, final String expression)
+        throws XPathExpressionException
+    {
+        return evaluateString(item, expression, null);
+    }
+
+    public String evaluateString(final Object item, final String expression,
+        final NamespaceContext namespaces) throws XPathExpressionException
+    {
+        return (String) evaluate(item, expression, namespaces,
+            XPathConstants.STRING);
+    }
+
+    /**
+     * @return the number, or NaN if the result is not a number
+     */
+    public double evaluateNumber(final Object item, final String expression)
+        throws XPathExpressionException
+    {
+        return evaluateNumber(item, expression, null);
+    }
+
+    /**
+     * @return the number, or NaN if the result is not a number
+     */
+    public double evaluateNumber(final Object item, final String expression,
+        final NamespaceContext namespaces) throws XPathExpressionException
+    {
+        return ((Number) evaluate(item, expression, namespaces,
+            XPathConstants.NUMBER)).doubleValue();
+    }
+
+    public boolean evaluateBoolean(final Object item, final String expression)
+        throws XPathExpressionException
+    {
+        return evaluateBoolean(item, expression, null);
+    }
+
+    public boolean evaluateBoolean(final Object item, final String expression,
+        final NamespaceContext namespaces) throws XPathExpressionException
+    {
+        return ((Boolean) evaluate(item, expression, namespaces,
+            XPathConstants.BOOLEAN)).booleanValue();
+    }
+
+    public NodeList evaluateNodeList(final Object item,
+        final String expression) throws XPathExpressionException
+    {
+        return evaluateNodeList(item, expression, null);
+    }
+
+    public NodeList evaluateNodeList(final Object item,
+        final String expression, final NamespaceContext namespaces)
+        throws XPathExpressionException
+    {
+        return (NodeList) evaluate(item, expression, namespaces,
+            XPathConstants.NODESET);
+    }
+
+    /**
+     * @return the first node selected, or null if there isn't one
+     */
+    public Node evaluateNode(final Object item, final String expression)
+        throws XPathExpressionException
+    {
+        return evaluateNode(item, expression, null);
+    }
+
+    /**
+     * @return the first node selected, or null if there isn't one
+     */
+    public Node evaluateNode(final Object item, final String expression,
+        final NamespaceContext namespaces) throws XPathExpressionException
+    {
+        return (Node) evaluate(item, expression, namespaces,
+            XPathConstants.NODE);
+    }
+
+    /**
+     * @return the maximum number of compiled expressions each thread holds
+     *         on to
+     */
+    public int getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * @return the number of expressions this thread has compiled, and still
+     *         holds on to
+     */
+    public int size()
+    {
+        return compilers.get().expressions.size();
+    }
+
+    /**
+     * @return the number of expressions found already compiled, by every
+     *         thread
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of expressions compiled, by every thread
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of expressions evicted, by every thread
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters to zero.
+     */
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public String toString()
+    {
+        return "XPathCache[maximumSize=" + maximumSize + ", hits=" +
+            getHitCount() + ", misses=" + getMissCount() + ", evictions=" +
+            getEvictionCount() + "]";
+    }
+
+    /**
+     * One thread's XPath, and the expressions it has compiled.
+     */
+    private final class Compiler
+    {
+        private final XPath xpath;
+
+        private final Map<Key, XPathExpression> expressions =
+            new LinkedHashMap<Key, XPathExpression>(16, 0.75f, true)
+            {
+                protected boolean removeEldestEntry(
+                    final Map.Entry<Key, XPathExpression> eldest)
+                {
+                    final boolean evict = size() > maximumSize;
+                    if (evict)
+                    {
+                        evictions.incrementAndGet();
+                    }
+                    return evict;
+                }
+            };
+
+        private Compiler(final XPath xpath)
+        {
+            this.xpath = xpath;
+        }
+
+        private XPathExpression compile(final String expression,
+            final NamespaceContext namespaces) throws XPathExpressionException
+        {
+            final Key key = new Key(expression, namespaces);
+            XPathExpression compiled = expressions.get(key);
+            if (compiled != null)
+            {
+                hits.incrementAndGet();
+                return compiled;
+            }
+            misses.incrementAndGet();
+            if (namespaces == null)
+            {
+                compiled = xpath.compile(expression);
+            }
+            else
+            {   // the expression keeps the context it was compiled with
+                xpath.setNamespaceContext(namespaces);
+                try
+                {
+                    compiled = xpath.compile(expression);
+                }
+                finally
+                {
+                    xpath.reset();
+                }
+            }
+            expressions.put(key, compiled);
+            return compiled;
+        }
+    }
+
+    private static final class Key
+    {
+        private final String expression;
+
+        private final NamespaceContext namespaces;
+
+        private Key(final String expression, final NamespaceContext namespaces)
+        {
+            this.expression = expression;
+            this.namespaces = namespaces;
+        }
+
+        public boolean equals(final Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key key = (Key) o;
+            return expression.equals(key.expression) &&
+                (namespaces == null ? key.namespaces == null :
+                    namespaces.equals(key.namespaces));
+        }
+
+        public int hashCode()
+        {
+            return expression.hashCode() * 31 +
+                (namespaces == null ? 0 : namespaces.hashCode());
+        }
+    }
+
+    /**
+     * A fixed set of prefix mappings, which is equal to any other with the
+     * same mappings.
+     */
+    public static final class Namespaces implements NamespaceContext
+    {
+        private final Map<String, String> uris;
+
+        /**
+         * Creates the mappings.
+         *
+         * @param prefixesAndURIs each prefix, followed by it's namespace URI
+         */
+        public Namespaces(final String... prefixesAndURIs)
+        {
+            if (prefixesAndURIs.length % 2 != 0)
+            {
+                throw new IllegalArgumentException(
+                    "every prefix needs a namespace URI");
+            }
+            final Map<String, String> map = new TreeMap<String, String>();
+            for (int index = 0; index < prefixesAndURIs.length; index += 2)
+            {
+                map.put(prefixesAndURIs[index], prefixesAndURIs[index + 1]);
+            }
+            uris = Collections.unmodifiableMap(map);
+        }
+
+        /**
+         * Creates the mappings.
+         *
+         * @param prefixes the namespace URI of each prefix
+         */
+        public Namespaces(final Map<String, String> prefixes)
+        {
+            uris = Collections.unmodifiableMap(
+                new TreeMap<String, String>(prefixes));
+        }
+
+        public String getNamespaceURI(final String prefix)
+        {
+            if (prefix == null)
+            {
+                throw new IllegalArgumentException("prefix must not be null");
+            }
+            if (XMLConstants.XML_NS_PREFIX.equals(prefix))
+            {
+                return XMLConstants.XML_NS_URI;
+            }
+            if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix))
+            {
+                return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+            }
+            final String uri = uris.get(prefix);
+            return uri == null ? XMLConstants.NULL_NS_URI : uri;
+        }
+
+        public String getPrefix(final String namespaceURI)
+        {
+            final Iterator<String> prefixes = getPrefixes(namespaceURI);
+            return prefixes.hasNext() ? prefixes.next() : null;
+        }
+
+        public Iterator<String> getPrefixes(final String namespaceURI)
+        {
+            if (namespaceURI == null)
+            {
+                throw new IllegalArgumentException(
+                    "namespaceURI must not be null");
+            }
+            if (XMLConstants.XML_NS_URI.equals(namespaceURI))
+            {
+                return Collections.singleton(XMLConstants.XML_NS_PREFIX)
+                    .iterator();
+            }
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI))
+            {
+                return Collections.singleton(XMLConstants.XMLNS_ATTRIBUTE)
+                    .iterator();
+            }
+            final List<String> prefixes = new ArrayList<String>();
+            for (final Map.Entry<String, String> entry : uris.entrySet())
+            {
+                if (entry.getValue().equals(namespaceURI))
+                {
+                    prefixes.add(entry.getKey());
+                }
+            }
+            return prefixes.iterator();
+        }
+
+        public boolean equals(final Object o)
+        {
+            return o instanceof Namespaces && uris.equals(((Namespaces) o).uris);
+        }
+
+        public int hashCode()
+        {
+            return uris.hashCode();
+        }
+
+        public String toString()
+        {
+            return "Namespaces" + uris;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import java.text.ParseException;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parses and formats the xs:date and xs:dateTime lexical forms, without
+ * SimpleDateFormat, regular expressions, or any allocation beyond the
+ * result.  Everything here is thread safe.
+ * <p/>
+ * Parsing accepts the full lexical space; optional '-' sign and years of
+ * more than four digits, fractional seconds of any length (truncated to
+ * milliseconds), 24:00:00 as the end of the day, and a timezone of 'Z',
+ * +hh:mm or -hh:mm.  For compatibility with what we have always accepted,
+ * an offset without the colon, such as -0600, is accepted too.  A value
+ * without a timezone is taken to be local time in the given default zone.
+ * <p/>
+ * Formatting writes into a caller supplied char[] or StringBuilder.  Dates
+ * are computed with the proleptic Gregorian calendar.  Zones are looked up
+ * once by {@link #zone(String)} and then reused.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public final class XsDateCodec
+{
+    /**
+     * The maximum number of characters written by {@link
+     * #formatDateTime(long, TimeZone, char[], int)}, for years of up to nine
+     * digits.
+     */
+    public static final int MAXIMUM_LENGTH = 40;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private static final int[] DAYS_IN_MONTH =
+        {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private static final ConcurrentMap<String, TimeZone> zones =
+        new ConcurrentHashMap<String, TimeZone>();
+
+    private XsDateCodec()
+    {
+    }
+
+    /**
+     * Looks up a zone by id, once.  TimeZone.getTimeZone copies the zone
+     * rules every time it is called.  The returned zone is shared, and must
+     * not be modified.
+     *
+     * @param id the zone id, such as "Canada/Mountain"
+     *
+     * @return the zone
+     */
+    public static TimeZone zone(final String id)
+    {
+        TimeZone zone = zones.get(id);
+        if (zone == null)
+        {
+            zone = TimeZone.getTimeZone(id);
+            final TimeZone existing = zones.putIfAbsent(id, zone);
+            if (existing != null)
+            {
+                zone = existing;
+            }
+        }
+        return zone;
+    }
+
+    /**
+     * Parses an xs:date.
+     *
+     * @param text        the xs:date, such as 2009-12-12 or 2009-12-12-07:00
+     * @param defaultZone the zone to use when the text does not have one
+     *
+     * @return the start of the day, in milliseconds since the epoch
+     *
+     * @throws ParseException if the text is not an xs:date
+     */
+    public static long parseDate(final CharSequence text,
+        final TimeZone defaultZone) throws ParseException
+    {
+        final Parser parser = new Parser(text);
+        final long days = parser.date();
+        final long local = days * MILLIS_PER_DAY;
+        return parser.zone(local, defaultZone);
+    }
+
+    /**
+     * Parses an xs:dateTime.
+     *
+     * @param text        the xs:dateTime, such as 2010-10-05T18:14:14-06:00
+     * @param defaultZone the zone to use when the text does not have one
+     *
+     * @return milliseconds since the epoch
+     *
+     * @throws ParseException if the text is not an xs:dateTime
+     */
+    public static long parseDateTime(final CharSequence text,
+        final TimeZone defaultZone) throws ParseException
+    {
+        final Parser parser = new Parser(text);
+        final long days = parser.date();
+        parser.expect('T');
+        final long local = days * MILLIS_PER_DAY + parser.time();
+        return parser.zone(local, defaultZone);
+    }
+
+    /**
+     * Formats the day containing the instant as an xs:date, without a
+     * timezone.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone   the zone in which to determine the day
+     * @param buffer where to write, needs room for {@link #MAXIMUM_LENGTH}
+     *               characters
+     * @param offset where in the buffer to start writing
+     *
+     * @return the number of characters written
+     */
+    public static int formatDate(final long millis, final TimeZone zone,
+        final char[] buffer, final int offset)
+    {
+        final long local = millis + zone.getOffset(millis);
+        final long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        return writeDate(days, buffer, offset) - offset;
+    }
+
+    /**
+     * Formats the day containing the instant as an xs:date, without a
+     * timezone.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone   the zone in which to determine the day
+     * @param out    where to append the date
+     *
+     * @return out
+     */
+    public static StringBuilder formatDate(final long millis,
+        final TimeZone zone, final StringBuilder out)
+    {
+        final char[] buffer = new char[MAXIMUM_LENGTH];
+        return out.append(buffer, 0, formatDate(millis, zone, buffer, 0));
+    }
+
+    /**
+     * Formats the instant as an xs:dateTime in the given zone, with the
+     * zone's offset at that instant.  Milliseconds are only written when
+     * they are not zero, and a zero offset is written as 'Z'.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone   the zone in which to express the time
+     * @param buffer where to write, needs room for {@link #MAXIMUM_LENGTH}
+     *               characters
+     * @param offset where in the buffer to start writing
+     *
+     * @return the number of characters written
+     */
+    public static int formatDateTime(final long millis, final TimeZone zone,
+        final char[] buffer, final int offset)
+    {
+        final int zoneOffset = zone.getOffset(millis);
+        final long local = millis + zoneOffset;
+        final long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        int time = (int) (local - days * MILLIS_PER_DAY);
+        int position = writeDate(days, buffer, offset);
+
+        buffer[position++] = 'T';
+        position = write2(time / (int) MILLIS_PER_HOUR, buffer, position);
+        time %= (int) MILLIS_PER_HOUR;
+        buffer[position++] = ':';
+        position = write2(time / (int) MILLIS_PER_MINUTE, buffer, position);
+        time %= (int) MILLIS_PER_MINUTE;
+        buffer[position++] = ':';
+        position = write2(time / (int) MILLIS_PER_SECOND, buffer, position);
+        time %= (int) MILLIS_PER_SECOND;
+        if (time != 0)
+        {
+            buffer[position++] = '.';
+            buffer[position++] = (char) ('0' + time / 100);
+            buffer[position++] = (char) ('0' + time / 10 % 10);
+            buffer[position++] = (char) ('0' + time % 10);
+        }
+        return writeOffset(zoneOffset, buffer, position) - offset;
+    }
+
+    /**
+     * Formats the instant as an xs:dateTime.  See {@link
+     * #formatDateTime(long, TimeZone, char[], int)}.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone   the zone in which to express the time
+     * @param out    where to append the date and time
+     *
+     * @return out
+     */
+    public static StringBuilder formatDateTime(final long millis,
+        final TimeZone zone, final StringBuilder out)
+    {
+        final char[] buffer = new char[MAXIMUM_LENGTH];
+        return out.append(buffer, 0, formatDateTime(millis, zone, buffer, 0));
+    }
+
+    /**
+     * Writes the timezone offset, as 'Z' or +hh:mm / -hh:mm
+     */
+    private static int writeOffset(final int zoneOffset, final char[] buffer,
+        int position)
+    {
+        if (zoneOffset == 0)
+        {
+            buffer[position++] = 'Z';
+            return position;
+        }
+        int minutes = zoneOffset / (int) MILLIS_PER_MINUTE;
+        if (minutes < 0)
+        {
+            buffer[position++] = '-';
+            minutes = -minutes;
+        }
+        else
+        {
+            buffer[position++] = '+';
+        }
+        position = write2(minutes / 60, buffer, position);
+        buffer[position++] = ':';
+        return write2(minutes % 60, buffer, position);
+    }
+
+    /**
+     * Writes the yyyy-MM-dd for the number of days since the epoch.
+     */
+    private static int writeDate(final long epochDays, final char[] buffer,
+        int position)
+    {   // see http://howardhinnant.github.io/date_algorithms.html
+        final long z = epochDays + 719468;
+        final long era = Math.floorDiv(z, 146097);
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final long mp = (5 * doy + 2) / 153;
+        final int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0)
+        {
+            buffer[position++] = '-';
+            year = -year;
+        }
+        if (year < 10000)
+        {
+            final int y = (int) year;
+            position = write2(y / 100, buffer, position);
+            position = write2(y % 100, buffer, position);
+        }
+        else
+        {
+            final String digits = Long.toString(year);
+            digits.getChars(0, digits.length(), buffer, position);
+            position += digits.length();
+        }
+        buffer[position++] = '-';
+        position = write2(month, buffer, position);
+        buffer[position++] = '-';
+        return write2(day, buffer, position);
+    }
+
+    private static int write2(final int value, final char[] buffer,
+        int position)
+    {
+        buffer[position++] = (char) ('0' + value / 10);
+        buffer[position++] = (char) ('0' + value % 10);
+        return position;
+    }
+
+    /**
+     * Converts a proleptic Gregorian date to days since the epoch.
+     */
+    static long epochDays(long year, final int month, final int day)
+    {
+        year -= month <= 2 ? 1 : 0;
+        final long era = Math.floorDiv(year, 400);
+        final long yoe = year - era * 400;
+        final long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 +
+            day - 1;
+        final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static boolean isLeapYear(final long year)
+    {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * Walks through the text, one field at a time.
+     */
+    private static class Parser
+    {
+        private final CharSequence text;
+
+        private int position;
+
+        private Parser(final CharSequence text) throws ParseException
+        {
+            if (text == null)
+            {
+                throw new ParseException("null date", 0);
+            }
+            this.text = text;
+        }
+
+        /**
+         * Parses [-]yyyy-MM-dd
+         *
+         * @return days since the epoch
+         */
+        private long date() throws ParseException
+        {
+            final boolean negative = peek() == '-';
+            if (negative)
+            {
+                position++;
+            }
+            final int start = position;
+            long year = 0;
+            while (position < text.length() && isDigit(text.charAt(position)))
+            {
+                year = year * 10 + (text.charAt(position++) - '0');
+                if (year > 999999999L)
+                {
+                    throw error("year is too large");
+                }
+            }
+            final int digits = position - start;
+            if (digits < 4 || (digits > 4 && text.charAt(start) == '0'))
+            {
+                throw error("year must have at least four digits, with no " +
+                    "leading zeros beyond that");
+            }
+            if (negative)
+            {
+                year = -year;
+            }
+            expect('-');
+            final int month = digits2();
+            if (month < 1 || month > 12)
+            {
+                throw error("invalid month " + month);
+            }
+            expect('-');
+            final int day = digits2();
+            final int daysInMonth = month == 2 && isLeapYear(year) ? 29 :
+                DAYS_IN_MONTH[month - 1];
+            if (day < 1 || day > daysInMonth)
+            {
+                throw error("invalid day " + day);
+            }
+            return epochDays(year, month, day);
+        }
+
+        /**
+         * Parses HH:mm:ss[.SSS...]
+         *
+         * @return milliseconds since the start of the day
+         */
+        private long time() throws ParseException
+        {
+            final int hour = digits2();
+            expect(':');
+            final int minute = digits2();
+            expect(':');
+            final int second = digits2();
+            int millis = 0;
+            if (peek() == '.')
+            {
+                position++;
+                final int start = position;
+                int scale = 100;
+                while (position < text.length() &&
+                    isDigit(text.charAt(position)))
+                {
+                    millis += (text.charAt(position++) - '0') * scale;
+                    scale /= 10;
+                }
+                if (position == start)
+                {
+                    throw error("missing fractional seconds");
+                }
+            }
+            if (hour == 24 && minute == 0 && second == 0 && millis == 0)
+            {   // the end of the day is the start of the next one
+                return MILLIS_PER_DAY;
+            }
+            if (hour > 23 || minute > 59 || second > 59)
+            {
+                throw error("invalid time");
+            }
+            return hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE +
+                second * MILLIS_PER_SECOND + millis;
+        }
+
+        /**
+         * Parses the optional timezone, which must be the last thing in the
+         * text.
+         *
+         * @param local       the local date and time, as milliseconds
+         * @param defaultZone the zone to use if there isn't one
+         *
+         * @return milliseconds since the epoch
+         */
+        private long zone(final long local, final TimeZone defaultZone)
+            throws ParseException
+        {
+            final long millis;
+            final char c = peek();
+            if (c == 0)
+            {   // local time, resolved the same way GregorianCalendar does
+                final long standard = local - defaultZone.getRawOffset();
+                millis = local - defaultZone.getOffset(standard);
+            }
+            else if (c == 'Z')
+            {
+                position++;
+                millis = local;
+            }
+            else if (c == '+' || c == '-')
+            {
+                position++;
+                final int hours = digits2();
+                if (peek() == ':')
+                {
+                    position++;
+                }
+                final int minutes = digits2();
+                if (hours > 14 || minutes > 59 ||
+                    (hours == 14 && minutes != 0))
+                {
+                    throw error("invalid timezone offset");
+                }
+                final long offset = hours * MILLIS_PER_HOUR +
+                    minutes * MILLIS_PER_MINUTE;
+                millis = c == '-' ? local + offset : local - offset;
+            }
+            else
+            {
+                throw error("unexpected character '" + c + "'");
+            }
+            if (position != text.length())
+            {
+                throw error("unexpected trailing characters");
+            }
+            return millis;
+        }
+
+        private void expect(final char expected) throws ParseException
+        {
+            if (peek() != expected)
+            {
+                throw error("expected '" + expected + "'");
+            }
+            position++;
+        }
+
+        private int digits2() throws ParseException
+        {
+            if (position + 2 > text.length() ||
+                !isDigit(text.charAt(position)) ||
+                !isDigit(text.charAt(position + 1)))
+            {
+                throw error("expected two digits");
+            }
+            final int value = (text.charAt(position) - '0') * 10 +
+                text.charAt(position + 1) - '0';
+            position += 2;
+            return value;
+        }
+
+        /**
+         * @return the current character, or 0 at the end of the text
+         */
+        private char peek()
+        {
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+
+        private ParseException error(final String message)
+        {
+            return new ParseException("\"" + text + "\": " + message +
+                " at position " + position, position);
+        }
+
+        private static boolean isDigit(final char c)
+        {
+            return c >= '0' && c <= '9';
+        }
+    }
+}
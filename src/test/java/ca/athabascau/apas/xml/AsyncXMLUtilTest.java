@@ -0,0 +1,159 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the asynchronous facade, and it's admission control.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class AsyncXMLUtilTest extends TestCase
+{
+    private AsyncXMLUtil async;
+
+    protected void setUp() throws Exception
+    {
+        async = new AsyncXMLUtil(2, 3);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        async.shutdown();
+    }
+
+    public void testMatchesSynchronous() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final Map parameters = new HashMap();
+        parameters.put("title", "Async Transcript");
+        final CompletableFuture<String> transformed = async.xslTransformation(
+            xml, TemplatesCacheTest.TRANSCRIPT_XSL, parameters);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CompletableFuture<Void> streamed = async.xslTransformation(xml,
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters, out);
+        final CompletableFuture<Document> parsed = async.loadXMLFrom(
+            new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+        final String expected = XMLUtil.xslTransformation(xml,
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters);
+        assertEquals("transformed", expected,
+            transformed.get(30, TimeUnit.SECONDS));
+        streamed.get(30, TimeUnit.SECONDS);
+        assertEquals("streamed", XMLUtil.xslTransformation(xml,
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters).length(),
+            out.toString("UTF-8").length());
+        assertEquals("parsed", XMLUtil.documentToString(
+            XMLUtil.stringToDocument(xml)),
+            async.documentToString(parsed.get(30, TimeUnit.SECONDS)).get(30,
+                TimeUnit.SECONDS));
+    }
+
+    public void testFailureCompletesExceptionally() throws Exception
+    {
+        try
+        {
+            async.stringToDocument("<broken>").get(30, TimeUnit.SECONDS);
+            fail("malformed xml should fail");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue("cause " + e.getCause(),
+                e.getCause() instanceof org.xml.sax.SAXException);
+        }
+    }
+
+    public void testAdmissionControl() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger highest = new AtomicInteger();
+        final Callable<Integer> blocker = new Callable<Integer>()
+        {
+            public Integer call() throws Exception
+            {
+                final int now = concurrent.incrementAndGet();
+                synchronized (highest)
+                {
+                    highest.set(Math.max(highest.get(), now));
+                }
+                release.await();
+                concurrent.decrementAndGet();
+                return now;
+            }
+        };
+
+        final List<CompletableFuture<Integer>> futures =
+            new ArrayList<CompletableFuture<Integer>>();
+        for (int index = 0; index < 5; index++)
+        {
+            futures.add(async.submit(blocker));
+        }
+        final CompletableFuture<Integer> overflow = async.submit(blocker);
+        assertTrue("overflow should be rejected at once",
+            overflow.isCompletedExceptionally());
+        try
+        {
+            overflow.get();
+            fail("overflow should be rejected");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue("cause " + e.getCause(),
+                e.getCause() instanceof RejectedExecutionException);
+        }
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (concurrent.get() < 2 &&
+            System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals("running", 2, async.getRunningCount());
+        assertEquals("queued", 3, async.getQueuedCount());
+
+        release.countDown();
+        for (int index = 0; index < futures.size(); index++)
+        {
+            futures.get(index).get(30, TimeUnit.SECONDS);
+        }
+        assertEquals("never more than two at once", 2, highest.get());
+        assertEquals("queue drained", 0, async.getQueuedCount());
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Tests the parallel batch transformation.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class BatchTransformerTest extends TestCase
+{
+    public void testMatchesSingleTransformation() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final BatchTransformer batch = new BatchTransformer(
+            TemplatesCacheTest.TRANSCRIPT_XSL);
+        final List<BatchTransformer.Item> items =
+            new ArrayList<BatchTransformer.Item>();
+        final StringWriter[] outputs = new StringWriter[40];
+        for (int index = 0; index < outputs.length; index++)
+        {
+            outputs[index] = new StringWriter();
+            items.add(new BatchTransformer.Item(xml, title(index),
+                new StreamResult(outputs[index])));
+        }
+
+        final BatchTransformer.Report report = batch.transform(items);
+        assertTrue(report.toString(), report.isSuccessful());
+        assertEquals("items", outputs.length, report.getItemCount());
+        for (int index = 0; index < outputs.length; index++)
+        {
+            assertEquals("item " + index, XMLUtil.xslTransformation(xml,
+                TemplatesCacheTest.TRANSCRIPT_XSL, title(index)),
+                outputs[index].toString());
+        }
+    }
+
+    public void testFailuresDoNotAbortBatch() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            final BatchTransformer batch = new BatchTransformer(
+                TemplatesCacheTest.TRANSCRIPT_XSL, executor, 8);
+            final ByteArrayOutputStream[] outputs =
+                new ByteArrayOutputStream[30];
+            final List<BatchTransformer.Item> items =
+                new ArrayList<BatchTransformer.Item>();
+            for (int index = 0; index < outputs.length; index++)
+            {
+                outputs[index] = new ByteArrayOutputStream();
+                items.add(new BatchTransformer.Item(
+                    index % 10 == 3 ? "<broken>" : xml, null,
+                    new StreamResult(outputs[index])));
+            }
+
+            final BatchTransformer.Report report = batch.transform(items);
+            assertFalse("should have failures", report.isSuccessful());
+            assertEquals("successes", 27, report.getSuccessCount());
+            assertEquals("failures", 3, report.getFailureCount());
+            for (int index = 0; index < 3; index++)
+            {
+                assertEquals("failures are in order", index * 10 + 3,
+                    report.getFailures().get(index).getIndex());
+            }
+            // the workers that failed must not pass on a broken transformer
+            assertEquals("after failure", XMLUtil.xslTransformation(xml,
+                TemplatesCacheTest.TRANSCRIPT_XSL, null),
+                outputs[29].toString("UTF-8"));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public void testInFlightIsBounded() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final BlockingQueue<Runnable> submitted =
+            new LinkedBlockingQueue<Runnable>();
+        final AtomicInteger pulled = new AtomicInteger();
+        final BatchTransformer batch = new BatchTransformer(
+            TemplatesCacheTest.TRANSCRIPT_XSL, new Executor()
+        {
+            public void execute(final Runnable command)
+            {   // run later, by the test
+                submitted.add(command);
+            }
+        }, 3);
+        final BatchTransformer.Report[] report = new BatchTransformer.Report[1];
+        final Thread submitter = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    report[0] = batch.transform(IntStream.range(0, 50)
+                        .peek(index -> pulled.incrementAndGet())
+                        .mapToObj(index -> new BatchTransformer.Item(xml, null,
+                            new StreamResult(new StringWriter()))));
+                }
+                catch (InterruptedException ignored)
+                {
+                }
+            }
+        };
+        submitter.start();
+        Thread.sleep(200);
+        assertEquals("submitted before any finished", 3, submitted.size());
+        assertTrue("items read ahead: " + pulled.get(), pulled.get() <= 4);
+
+        int highest = 0;
+        while (submitter.isAlive() || !submitted.isEmpty())
+        {
+            highest = Math.max(highest, submitted.size());
+            final Runnable command = submitted.poll(100,
+                TimeUnit.MILLISECONDS);
+            if (command != null)
+            {
+                command.run();
+            }
+        }
+        submitter.join();
+        assertTrue("too many in flight: " + highest, highest <= 3);
+        assertTrue(String.valueOf(report[0]), report[0].isSuccessful());
+        assertEquals("items", 50, report[0].getItemCount());
+    }
+
+    public void testFileOutput() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final BatchTransformer batch = new BatchTransformer(
+            TemplatesCacheTest.TRANSCRIPT_XSL);
+        final File[] files = new File[5];
+        final List<BatchTransformer.Item> items =
+            new ArrayList<BatchTransformer.Item>();
+        try
+        {
+            for (int index = 0; index < files.length; index++)
+            {
+                files[index] = File.createTempFile("batch", ".html");
+                items.add(new BatchTransformer.Item(xml.getBytes("UTF-8"),
+                    title(index), files[index]));
+            }
+            final BatchTransformer.Report report = batch.transform(items);
+            assertTrue(report.toString(), report.isSuccessful());
+            for (int index = 0; index < files.length; index++)
+            {
+                assertTrue("file " + index, read(files[index]).indexOf(
+                    "<title>Transcript " + index + "</title>") != -1);
+            }
+        }
+        finally
+        {
+            for (int index = 0; index < files.length; index++)
+            {
+                if (files[index] != null)
+                {
+                    files[index].delete();
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> title(final int index)
+    {
+        final Map<String, String> parameters =
+            new HashMap<String, String>();
+        parameters.put("title", "Transcript " + index);
+        return parameters;
+    }
+
+    private static String read(final File file) throws IOException
+    {
+        final InputStream is = new FileInputStream(file);
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+}
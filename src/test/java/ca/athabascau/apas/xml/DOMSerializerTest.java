@@ -0,0 +1,316 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Tests the DOM serializer, mostly against the identity transformer it
+ * replaces.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class DOMSerializerTest extends TestCase
+{
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+    private static final String XMLNS_NS = "http://www.w3.org/2000/xmlns/";
+
+    /**
+     * Parsed documents, with namespaces, redundant declarations, entities and
+     * a DOCTYPE, must come out the same.
+     *
+     * @throws Exception on failure
+     */
+    public void testParsedDocuments() throws Exception
+    {
+        assertSame(XMLUtil.loadXMLFrom(Paths.get(
+            "src/test/resources/transcript-test.xml")));
+        assertSame(XMLUtil.loadXMLFrom(Paths.get(
+            "src/test/resources/transcript-test.xsl")));
+        assertSame(XMLUtil.stringToDocument(
+            "<?xml version=\"1.0\"?><!DOCTYPE r [<!ENTITY ent \"ent\">]>" +
+                "<!-- c1 --><?pi data?>" +
+                "<r xmlns=\"urn:d\" xmlns:z=\"urn:z\" b=\"1\" a=\"2\">" +
+                "<z:x z:y=\"3\">&ent;</z:x><n xmlns=\"\" c=\"\"/>" +
+                "<m xmlns=\"urn:d\" xmlns:z=\"urn:z\"><![CDATA[<&]]></m>" +
+                "<e></e>text<w xml:lang=\"en\">  </w></r><!-- c2 -->"));
+        assertSame(XMLUtil.stringToDocument("<r/>"));
+        assertSame(XMLUtil.stringToDocument("<r b=\"1\" xmlns=\"\"/>"));
+    }
+
+    /**
+     * DOMs built with createElementNS are fixed up the way Xalan does it,
+     * including the cases where Xalan gets it wrong.
+     *
+     * @throws Exception on failure
+     */
+    public void testNamespaceFixup() throws Exception
+    {
+        Document document = XMLUtil.createDocument();
+        final Element root = document.createElementNS("urn:a", "p:a");
+        document.appendChild(root);
+        final Element child = document.createElementNS("urn:y", "child");
+        root.appendChild(child);
+        child.setAttribute("plain", "2");
+        child.setAttributeNS("urn:q", "q:att", "1");
+        child.appendChild(document.createElement("nons"));
+        final Element redeclared = document.createElementNS("urn:b", "p:b");
+        root.appendChild(redeclared);
+        redeclared.setAttributeNS("urn:c", "p:x", "1");
+        redeclared.setAttributeNS("urn:d", "y", "2");
+        final Element conflict = document.createElementNS("urn:a", "p:c");
+        redeclared.appendChild(conflict);
+        conflict.setAttributeNS("urn:k", "k:at", "1");
+        conflict.setAttributeNS(XMLNS_NS, "xmlns:k", "urn:k");
+        conflict.setAttribute("zz", "1");
+        assertSame(document);
+        assertSame(child);
+
+        document = XMLUtil.createDocument();
+        final Element other = document.createElementNS("urn:a", "a");
+        document.appendChild(other);
+        other.setAttributeNS(XMLNS_NS, "xmlns", "urn:other");
+        other.appendChild(document.createElementNS("urn:other", "o"));
+        other.appendChild(document.createElementNS("urn:b", "b"));
+        other.appendChild(document.createElementNS("urn:a", "a"));
+        other.appendChild(document.createElement("plain"));
+        assertSame(document);
+
+        document = XMLUtil.createDocument();
+        final Element xml = document.createElementNS("urn:a", "xmlfoo:r");
+        document.appendChild(xml);
+        xml.setAttributeNS("urn:b", "xmlbar:a", "1");
+        xml.setAttributeNS("urn:c", "c:a", "1");
+        xml.setAttributeNS("urn:c", "c:b", "1");
+        xml.setAttributeNS("urn:e", "e:b", "1");
+        xml.setAttributeNS(XMLNS_NS, "xmlns:e", "urn:other");
+        xml.setAttribute("xml:lang", "en");
+        xml.setAttributeNS(XML_NS, "xml:space", "preserve");
+        xml.appendChild(document.createElementNS("urn:e", "e:k"));
+        xml.appendChild(document.createElementNS("urn:other", "e:k"));
+        final Element level1 = document.createElement("l:one");
+        level1.setAttribute("xmlns:l", "urn:l");
+        level1.setAttribute("xmlns", "urn:l1");
+        xml.appendChild(level1);
+        level1.appendChild(document.createElementNS("urn:l1", "x"));
+        assertSame(document);
+    }
+
+    /**
+     * Every character below 0x100, and the odd ones above it, in text,
+     * attributes, CDATA sections, comments and processing instructions.
+     *
+     * @throws Exception on failure
+     */
+    public void testEscaping() throws Exception
+    {
+        final StringBuilder all = new StringBuilder();
+        for (char c = 1; c < 0x100; c++)
+        {
+            all.append(c);
+        }
+        all.append("\u2028\u2029\ufffd\ud83d\ude00]]>]]]>x]]");
+        final String text = all.toString();
+
+        final Document document = XMLUtil.createDocument();
+        final Element root = document.createElement("r");
+        document.appendChild(root);
+        root.setAttribute("a", text);
+        root.appendChild(document.createTextNode(text));
+        root.appendChild(document.createTextNode(""));
+        root.appendChild(document.createCDATASection(text));
+        root.appendChild(document.createCDATASection(""));
+        root.appendChild(document.createCDATASection("\u0001a"));
+        root.appendChild(document.createCDATASection("a\u0001"));
+        root.appendChild(document.createCDATASection("\ud83d\ude00b"));
+        root.appendChild(document.createCDATASection("x\udc00y"));
+        root.appendChild(document.createCDATASection("\ud83d\ude00\nb"));
+        root.appendChild(document.createCDATASection("\u0001\n\nb\n"));
+        root.appendChild(document.createCDATASection("a\u0001\n"));
+        root.appendChild(document.createCDATASection("\n\u0001\r\n"));
+        root.appendChild(document.createComment(text));
+        root.appendChild(document.createComment("a--b"));
+        root.appendChild(document.createComment("---"));
+        root.appendChild(document.createComment(""));
+        root.appendChild(document.createProcessingInstruction("t", ""));
+        root.appendChild(document.createProcessingInstruction("t", "\tx"));
+        root.appendChild(document.createProcessingInstruction("t", " x"));
+        root.appendChild(document.createProcessingInstruction("t",
+            "\u00a0x"));
+        root.appendChild(document.createProcessingInstruction("t",
+            "a?>b?>"));
+        final Element empty = document.createElement("empty");
+        empty.appendChild(document.createTextNode(""));
+        root.appendChild(empty);
+        assertSame(document);
+        assertTrue(Arrays.equals(DOMSerializer.DEFAULT.serialize(document)
+            .getBytes(StandardCharsets.UTF_8),
+            new DOMSerializer().toBytes(document)));
+
+        root.appendChild(document.createTextNode("a\ud83d"));
+        root.appendChild(document.createTextNode("\ude00b"));
+        root.appendChild(document.createComment("\ud83d"));
+        assertSame(document);
+        final String xml = new String(new DOMSerializer().toBytes(document),
+            StandardCharsets.UTF_8);
+        assertTrue(xml.endsWith("a&#55357;&#56832;b<!--?--></r>"));
+    }
+
+    /**
+     * The disable-output-escaping instructions, and nodes other than
+     * documents.
+     *
+     * @throws Exception on failure
+     */
+    public void testOtherNodes() throws Exception
+    {
+        final Document document = XMLUtil.createDocument();
+        final Element root = document.createElement("r");
+        document.appendChild(root);
+        final Element e = document.createElement("e");
+        root.appendChild(e);
+        e.appendChild(document.createProcessingInstruction(
+            Result.PI_DISABLE_OUTPUT_ESCAPING, ""));
+        final Element f = document.createElement("f");
+        root.appendChild(f);
+        f.appendChild(document.createCDATASection("a<\u0001]]>b"));
+        f.appendChild(document.createTextNode("<&\u0085"));
+        f.setAttribute("x", "<&\"");
+        f.appendChild(document.createProcessingInstruction(
+            Result.PI_ENABLE_OUTPUT_ESCAPING, ""));
+        f.appendChild(document.createTextNode("<"));
+        root.appendChild(document.createEntityReference("amp"));
+        assertSame(document);
+
+        final Attr attr = document.createAttribute("q");
+        attr.setValue("a\"\n<");
+        assertSame(attr);
+        assertSame(document.createTextNode("<"));
+        assertSame(document.createComment("x"));
+        assertSame(document.createCDATASection("x<"));
+        assertSame(document.createProcessingInstruction("p", "d"));
+        final DocumentFragment fragment = document.createDocumentFragment();
+        fragment.appendChild(document.createElement("a"));
+        fragment.appendChild(document.createTextNode("t"));
+        fragment.appendChild(document.createElement("b"));
+        assertSame(fragment);
+        assertSame(XMLUtil.createDocument());
+    }
+
+    /**
+     * A document far deeper than the stack could recurse.
+     *
+     * @throws Exception on failure
+     */
+    public void testDeepDocument() throws Exception
+    {
+        final Document document = XMLUtil.createDocument();
+        // built from the bottom up, as appending checks every ancestor
+        Element element = document.createElement("d");
+        element.appendChild(document.createTextNode("bottom"));
+        for (int depth = 1; depth < 100000; depth++)
+        {
+            final Element parent = document.createElement("d");
+            parent.appendChild(element);
+            element = parent;
+        }
+        document.appendChild(element);
+        final String xml = XMLUtil.documentToString(document);
+        assertTrue(xml.indexOf("<d>bottom</d></d>") > 0);
+        assertEquals(XMLOutput.XML_DECLARATION.length() +
+            100000 * "<d></d>".length() + "bottom".length(), xml.length());
+    }
+
+    /**
+     * The options.
+     *
+     * @throws Exception on failure
+     */
+    public void testOptions() throws Exception
+    {
+        final Document document = XMLUtil.stringToDocument(
+            "<r><a>text</a><b><c/><!--c--></b>x<d/></r>");
+
+        assertEquals("<r><a>text</a><b><c/><!--c--></b>x<d/></r>",
+            new DOMSerializer(false, 0, "UTF-8").serialize(document));
+        assertEquals(XMLOutput.XML_DECLARATION + "\n<r>\n  <a>text</a>\n" +
+            "  <b>\n    <c/>\n    <!--c-->\n  </b>x<d/>\n</r>",
+            new DOMSerializer(true, 2, "UTF-8").serialize(document));
+
+        final Element root = document.getDocumentElement();
+        root.setAttribute("e", "\u00e9\u20ac");
+        root.appendChild(document.createTextNode("\u00e9\u20ac"));
+        root.appendChild(document.createCDATASection("a\u20acb"));
+        final DOMSerializer latin1 =
+            new DOMSerializer(true, 0, "ISO-8859-1");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        latin1.serialize(document, out);
+        assertEquals("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
+            "<r e=\"\u00e9&#8364;\"><a>text</a><b><c/><!--c--></b>x<d/>" +
+            "\u00e9&#8364;<![CDATA[a]]>&#8364;<![CDATA[b]]></r>",
+            new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+        final StringWriter writer = new StringWriter();
+        latin1.serialize(document, writer);
+        assertEquals(new String(out.toByteArray(),
+            StandardCharsets.ISO_8859_1), writer.toString());
+
+        final ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+        XMLUtil.documentToStream(document, utf8);
+        assertEquals(XMLUtil.documentToString(document),
+            new String(utf8.toByteArray(), StandardCharsets.UTF_8));
+        try
+        {
+            new DOMSerializer(true, -1, "UTF-8");
+            fail("a negative indent should be refused");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Asserts that the serializer and the identity transformer agree.
+     */
+    private static void assertSame(final Node node) throws Exception
+    {
+        final StringWriter writer = new StringWriter();
+        XMLUtil.getXMLPool().serialize(node, new StreamResult(writer));
+        assertEquals(writer.toString(), DOMSerializer.DEFAULT.serialize(node));
+        assertEquals(writer.toString(), XMLUtil.documentToString(node));
+    }
+}
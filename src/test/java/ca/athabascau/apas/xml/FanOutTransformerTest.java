@@ -0,0 +1,178 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests transforming one document with several stylesheets at once.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class FanOutTransformerTest extends TestCase
+{
+    private File identity;
+
+    private File summary;
+
+    private ExecutorService executor;
+
+    protected void setUp() throws Exception
+    {
+        identity = TemplatesCacheTest.writeTemplates(
+            "<xsl:template match=\"@*|node()\"><xsl:copy>" +
+            "<xsl:apply-templates select=\"@*|node()\"/>" +
+            "</xsl:copy></xsl:template>");
+        summary = TemplatesCacheTest.writeTemplates(
+            "<xsl:output method=\"text\"/>" +
+            "<xsl:param name=\"label\"/>" +
+            "<xsl:template match=\"/\">" +
+            "<xsl:if test=\"$label = 'fail'\">" +
+            "<xsl:message terminate=\"yes\">failed</xsl:message></xsl:if>" +
+            "<xsl:value-of select=\"concat($label, count(//*))\"/>" +
+            "</xsl:template>");
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    protected void tearDown()
+    {
+        executor.shutdown();
+        identity.delete();
+        summary.delete();
+    }
+
+    public void testSameAsSeparateTransformations() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final Map<String, String> html = new HashMap<String, String>();
+        html.put("title", "Fan Out");
+        final Map<String, String> label = new HashMap<String, String>();
+        label.put("label", "elements: ");
+
+        final ByteArrayOutputStream htmlOut = new ByteArrayOutputStream();
+        final StringWriter copyOut = new StringWriter();
+        final StringWriter summaryOut = new StringWriter();
+        new FanOutTransformer(executor).transform(xml,
+            new FanOutTransformer.Target(TemplatesCacheTest.TRANSCRIPT_XSL,
+                html, htmlOut),
+            new FanOutTransformer.Target(identity, null, copyOut),
+            new FanOutTransformer.Target(summary, label, summaryOut));
+
+        assertEquals("html", XMLUtil.xslTransformation(xml,
+            TemplatesCacheTest.TRANSCRIPT_XSL, html),
+            htmlOut.toString("UTF-8"));
+        assertEquals("identity", XMLUtil.xslTransformation(xml, identity,
+            null), copyOut.toString());
+        assertEquals("summary", XMLUtil.xslTransformation(xml, summary,
+            label), summaryOut.toString());
+    }
+
+    public void testLexicalContentAndNamespaces() throws Exception
+    {
+        final String xml = "<?xml version=\"1.0\"?><!-- top --><a:root " +
+            "xmlns:a=\"urn:a\" xmlns=\"urn:default\"><?pi data?>" +
+            "<child a:attribute=\"1\"><![CDATA[<text>]]></child>" +
+            "<b:other xmlns:b=\"urn:b\"/></a:root>";
+        final StringWriter out = new StringWriter();
+        new FanOutTransformer().transform(xml,
+            new FanOutTransformer.Target(identity, null, out));
+        assertEquals(XMLUtil.xslTransformation(xml, identity, null),
+            out.toString());
+    }
+
+    public void testFailedTarget() throws Exception
+    {
+        final Map<String, String> label = new HashMap<String, String>();
+        label.put("label", "fail");
+        final StringWriter copyOut = new StringWriter();
+        try
+        {
+            new FanOutTransformer(executor).transform("<a><b/></a>",
+                new FanOutTransformer.Target(summary, label,
+                    new StringWriter()),
+                new FanOutTransformer.Target(identity, null, copyOut));
+            fail("the summary should have failed");
+        }
+        catch (TransformerException e)
+        {
+            // expected
+        }
+        assertTrue("the other target should still run",
+            copyOut.toString().endsWith("<a><b/></a>"));
+    }
+
+    /**
+     * The calling thread runs the last target, and must wait for the others
+     * even when it fails with an unchecked exception.
+     *
+     * @throws Exception on failure
+     */
+    public void testLastTargetThrowsRuntimeException() throws Exception
+    {
+        final StringWriter copyOut = new StringWriter();
+        final Executor slow = new Executor()
+        {
+            public void execute(final Runnable command)
+            {
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            Thread.sleep(200);
+                        }
+                        catch (InterruptedException ignored)
+                        {
+                        }
+                        command.run();
+                    }
+                });
+            }
+        };
+        try
+        {
+            new FanOutTransformer(slow).transform("<a><b/></a>",
+                new FanOutTransformer.Target(identity, null, copyOut),
+                new FanOutTransformer.Target("/does-not-exist.xsl", null,
+                    new StringWriter()));
+            fail("the missing stylesheet should have failed");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        assertTrue("the other target should be done: " + copyOut,
+            copyOut.toString().endsWith("<a><b/></a>"));
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the read only, shareable document.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class ImmutableDocumentTest extends TestCase
+{
+    private static final String CATALOG = "<?xml version=\"1.0\"?>" +
+        "<!-- reference data --><?keep this?>" +
+        "<catalog xmlns=\"urn:catalog\" xmlns:x=\"urn:extra\" " +
+        "updated=\"2026-10-19\">" +
+        "<course code=\"COMP200\" x:level=\"2\"><title>Java</title>" +
+        "<![CDATA[ & <more> ]]>text</course>" +
+        "<course code=\"COMP272\" x:level=\"2\"><title>Data " +
+        "Structures</title><x:note/></course></catalog>";
+
+    public void testNavigation() throws Exception
+    {
+        final ImmutableDocument catalog = ImmutableDocument.load(CATALOG);
+        assertEquals(Node.DOCUMENT_NODE, catalog.getNodeType(0));
+        assertEquals(ImmutableDocument.NONE, catalog.getParent(0));
+
+        final int comment = catalog.getFirstChild(0);
+        assertEquals(Node.COMMENT_NODE, catalog.getNodeType(comment));
+        assertEquals(" reference data ", catalog.getData(comment));
+        final int instruction = catalog.getNextSibling(comment);
+        assertEquals("keep", catalog.getNodeName(instruction));
+        assertEquals("this", catalog.getData(instruction));
+
+        final int root = catalog.getDocumentElement();
+        assertEquals(catalog.getNextSibling(instruction), root);
+        assertEquals("catalog", catalog.getLocalName(root));
+        assertEquals("urn:catalog", catalog.getNamespaceURI(root));
+        assertEquals("2026-10-19", catalog.getAttribute(root, "updated"));
+        assertEquals("urn:extra", catalog.getAttribute(root, "xmlns:x"));
+        assertEquals("", catalog.getAttribute(root, "missing"));
+
+        final int[] courses = catalog.getElementsByTagName(0, "course");
+        assertEquals("courses", 2, courses.length);
+        assertEquals("COMP272", catalog.getAttribute(courses[1], "code"));
+        assertEquals("2", catalog.getAttributeNS(courses[0], "urn:extra",
+            "level"));
+        assertEquals(" & <more> text",
+            catalog.getTextContent(courses[0]).substring(4));
+        assertEquals("Data Structures", catalog.getTextContent(
+            catalog.getChildElement(courses[1], "title")));
+        final int note = catalog.getChildElement(courses[1], "note");
+        assertEquals("urn:extra", catalog.getNamespaceURI(note));
+        assertEquals(ImmutableDocument.NONE, catalog.getFirstChild(note));
+        assertEquals(ImmutableDocument.NONE, catalog.getNextSibling(note));
+        assertEquals(courses[1], catalog.getParent(note));
+        assertEquals(courses[1], catalog.getNextSiblingElement(courses[0]));
+        assertEquals("elements", 6,
+            catalog.getElementsByTagName(0, "*").length);
+        assertEquals("titles below the first course", 1,
+            catalog.getElementsByTagName(courses[0], "title").length);
+
+        // names are shared, and may be compared with ==
+        assertSame(catalog.getLocalName(courses[0]),
+            catalog.getLocalName(courses[1]));
+        assertSame("code", catalog.getAttributeName(courses[1], 0));
+    }
+
+    public void testSameAsDOM() throws Exception
+    {
+        final String transcript = TemplatesCacheTest.readTranscript();
+        final Document document = XMLUtil.stringToDocument(transcript);
+        final String expected = XMLUtil.documentToString(document);
+        final ImmutableDocument parsed = ImmutableDocument.load(transcript);
+        assertEquals(expected, XMLUtil.documentToString(parsed.toDocument()));
+        final ImmutableDocument copied = ImmutableDocument.load(document);
+        assertEquals(expected, XMLUtil.documentToString(copied.toDocument()));
+        assertEquals(parsed.size(), copied.size());
+
+        final String namespaced = XMLUtil.documentToString(
+            XMLUtil.stringToDocument(CATALOG.replace(
+                "<![CDATA[ & <more> ]]>", " &amp; &lt;more&gt; ")));
+        assertEquals(namespaced, XMLUtil.documentToString(
+            ImmutableDocument.load(CATALOG).toDocument()));
+        assertEquals(namespaced, XMLUtil.documentToString(
+            ImmutableDocument.load(XMLUtil.stringToDocument(CATALOG))
+                .toDocument()));
+    }
+
+    public void testTransformationSource() throws Exception
+    {
+        final Map parameters = new HashMap();
+        parameters.put("title", "Immutable");
+        final String transcript = TemplatesCacheTest.readTranscript();
+        final String expected = XMLUtil.xslTransformation(transcript,
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters);
+        final ImmutableDocument document = ImmutableDocument.load(transcript);
+        assertEquals(expected, XMLUtil.xslTransformation(document,
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters));
+        assertEquals(expected, new TransformPipeline(
+            new TransformPipeline.Stage(TemplatesCacheTest.TRANSCRIPT_XSL,
+                parameters)).transform(document));
+    }
+
+    public void testSharedByThreads() throws Exception
+    {
+        final String transcript = TemplatesCacheTest.readTranscript();
+        final String expected = XMLUtil.xslTransformation(transcript,
+            TemplatesCacheTest.TRANSCRIPT_XSL, null);
+        final ImmutableDocument document = ImmutableDocument.load(transcript);
+        final int elements = document.getElementsByTagName(0, "*").length;
+        final List<Throwable> failures =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[8];
+        for (int index = 0; index < threads.length; index++)
+        {
+            threads[index] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int run = 0; run < 20; run++)
+                        {
+                            assertEquals(expected, XMLUtil.xslTransformation(
+                                document, TemplatesCacheTest.TRANSCRIPT_XSL,
+                                null));
+                            assertEquals(elements, document
+                                .getElementsByTagName(0, "*").length);
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[index].start();
+        }
+        for (final Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(failures.toString(), 0, failures.size());
+    }
+}
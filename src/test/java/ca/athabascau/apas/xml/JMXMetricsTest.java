@@ -0,0 +1,184 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests that XMLUtil reports to the installed metrics, and that they are
+ * published through JMX.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class JMXMetricsTest extends TestCase
+{
+    private static final String STYLESHEET =
+        "classpath:" + TemplatesCacheTest.TRANSCRIPT_XSL;
+
+    private MBeanServer server;
+
+    private JMXMetrics metrics;
+
+    private TemplatesCache cache;
+
+    protected void setUp() throws Exception
+    {
+        server = MBeanServerFactory.newMBeanServer();
+        metrics = new JMXMetrics(server, "test.metrics");
+        cache = XMLUtil.getTemplatesCache();
+        XMLUtil.setTemplatesCache(new TemplatesCache());
+        XMLUtil.setMetrics(metrics);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        XMLUtil.setMetrics(null);
+        XMLUtil.setTemplatesCache(cache);
+        metrics.unregister();
+    }
+
+    public void testDisabledByDefault()
+    {
+        XMLUtil.setMetrics(null);
+        assertSame("default", XMLMetrics.NONE, XMLUtil.getMetrics());
+        assertFalse("enabled", XMLUtil.getMetrics().isEnabled());
+    }
+
+    public void testTransformation() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final Map parameters = new HashMap();
+        parameters.put("title", "Measured");
+        final String first = XMLUtil.xslTransformation(xml,
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLUtil.xslTransformation(xml.getBytes("UTF-8"),
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters, out);
+
+        final OperationStats transformation = metrics.getStats(
+            XMLMetrics.XSL_TRANSFORMATION, STYLESHEET);
+        assertEquals("count", 2, transformation.getCount());
+        assertEquals("failures", 0, transformation.getFailureCount());
+        assertEquals("input", xml.length() + xml.getBytes("UTF-8").length,
+            transformation.getInputTotal());
+        assertEquals("output", first.length() + out.size(),
+            transformation.getOutputTotal());
+        assertEquals("operation total", 2, metrics.getStats(
+            XMLMetrics.XSL_TRANSFORMATION, null).getCount());
+        assertEquals("transform phase", 2, metrics.getStats(
+            XMLMetrics.TRANSFORM, STYLESHEET).getCount());
+        assertEquals("compiled once", 1, metrics.getStats(
+            XMLMetrics.COMPILE, STYLESHEET).getCount());
+        assertTrue("time", transformation.getMaxTimeMicros() > 0);
+        assertTrue("median within max", transformation.getMedianTimeMicros()
+            <= transformation.getMaxTimeMicros() * 2);
+
+        assertEquals("published", Long.valueOf(2), server.getAttribute(
+            metrics.nameFor(transformation), "Count"));
+    }
+
+    public void testParseAndSerialize() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final String serialized = XMLUtil.documentToString(
+            XMLUtil.stringToDocument(xml));
+        final String mapped = XMLUtil.mapToXML("root",
+            XMLUtil.xmlToMap(xml));
+
+        assertEquals("load input", xml.length(), metrics.getStats(
+            XMLMetrics.LOAD_XML_FROM, null).getInputTotal());
+        assertEquals("parse", 1, metrics.getStats(XMLMetrics.PARSE, null)
+            .getCount());
+        assertEquals("serialize output", serialized.length(),
+            metrics.getStats(XMLMetrics.DOCUMENT_TO_STRING, null)
+                .getOutputTotal());
+        assertEquals("map output", mapped.length(), metrics.getStats(
+            XMLMetrics.MAP_TO_XML, null).getOutputTotal());
+    }
+
+    public void testLoadFromStream() throws Exception
+    {
+        final byte[] xml = TemplatesCacheTest.readTranscript().getBytes(
+            "UTF-8");
+        XMLUtil.loadXMLFrom(new ByteArrayInputStream(xml));
+
+        final OperationStats load = metrics.getStats(
+            XMLMetrics.LOAD_XML_FROM, null);
+        assertEquals("count", 1, load.getCount());
+        assertEquals("input", xml.length, load.getInputTotal());
+    }
+
+    public void testFailuresAndWarnings() throws Exception
+    {
+        try
+        {
+            XMLUtil.stringToDocument("<broken>");
+            fail("malformed xml should fail");
+        }
+        catch (org.xml.sax.SAXException ignored)
+        {
+        }
+        assertEquals("parse failure", 1, metrics.getStats(
+            XMLMetrics.LOAD_XML_FROM, null).getFailureCount());
+
+        final File xsl = TemplatesCacheTest.writeStylesheet(
+            "<xsl:message>careful</xsl:message>done");
+        try
+        {
+            XMLUtil.xslTransformation("<root/>", xsl, null);
+            final String stylesheet = "file:" + xsl.getAbsolutePath();
+            assertEquals("warning", 1, metrics.getStats(
+                XMLMetrics.XSL_TRANSFORMATION, stylesheet).getWarningCount());
+        }
+        finally
+        {
+            xsl.delete();
+        }
+    }
+
+    public void testPercentiles()
+    {
+        final OperationStats stats = new OperationStats("test", null);
+        for (int index = 0; index < 99; index++)
+        {
+            stats.record(1000, XMLMetrics.UNKNOWN, XMLMetrics.UNKNOWN, false);
+        }
+        stats.record(5000000, XMLMetrics.UNKNOWN, XMLMetrics.UNKNOWN, true);
+        assertEquals("median", 1, stats.getMedianTimeMicros());
+        assertEquals("99th", 1, stats.get99thPercentileTimeMicros());
+        assertEquals("max", 5000, stats.getMaxTimeMicros());
+        assertEquals("failures", 1, stats.getFailureCount());
+        assertEquals("unknown sizes are not counted", 0,
+            stats.getInputTotal());
+        stats.reset();
+        assertEquals("reset", 0, stats.getCount());
+    }
+}
@@ -21,16 +21,24 @@
 package ca.athabascau.apas.xml;
 
 import junit.framework.TestCase;
+import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -204,4 +212,147 @@ public class MapTest extends TestCase
         {
         }
     }
+
+    /**
+     * Makes sure the streaming writer produces exactly what building a DOM
+     * with {@link XMLUtil#mapToNode(Object, Element, Document, String)} and
+     * serializing it does, including the escaping of odd characters.
+     *
+     * @throws Exception on failure
+     */
+    public void testStreamingMatchesDOM() throws Exception
+    {
+        final Map parameters = new LinkedHashMap();
+        final Map empty = new HashMap();
+        final List list = new ArrayList();
+        final Map listMap = new TreeMap();
+        parameters.put("escaped", "x & < > \" ' \r\n\t ]]> \u0001 end");
+        parameters.put("unicode", "\u00e9 \u0085 \u2028 \u00a0 \u007f " +
+            "\ud83d\ude00 \u4e2d");
+        parameters.put("emptyText", "");
+        parameters.put("emptyMap", empty);
+        parameters.put("nothing", null);
+        parameters.put("repeated", list);
+        list.add("one");
+        list.add("");
+        list.add(null);
+        list.add(listMap);
+        listMap.put("inner", "value");
+        listMap.put("innerList", Arrays.asList(new String[]{"a", "b"}));
+
+        final String expected = mapToXMLWithDOM("root", parameters);
+        assertEquals("String output differs", expected,
+            XMLUtil.mapToXML("root", parameters));
+        assertTrue("byte output differs", Arrays.equals(
+            expected.getBytes("UTF-8"),
+            MapXMLWriter.toBytes("root", parameters)));
+        final StringWriter writer = new StringWriter();
+        XMLUtil.mapToXML("root", parameters, writer);
+        assertEquals("Writer output differs", expected, writer.toString());
+
+        assertEquals("empty root", mapToXMLWithDOM("root", empty),
+            XMLUtil.mapToXML("root", empty));
+    }
+
+    public void testStreamingInvalidName() throws Exception
+    {
+        final Map parameters = new HashMap();
+        parameters.put("not valid", "value");
+        try
+        {
+            mapToXMLWithDOM("root", parameters);
+            fail("DOM should reject the name");
+        }
+        catch (DOMException ignored)
+        {
+        }
+        try
+        {
+            XMLUtil.mapToXML("root", parameters);
+            fail("streaming writer should reject the name");
+        }
+        catch (DOMException ignored)
+        {
+        }
+    }
+
+    private static String mapToXMLWithDOM(final String rootElementName,
+        final Object elements)
+        throws TransformerException, ParserConfigurationException
+    {
+        final Document mapDoc = XMLUtil.createDocument();
+        final Element parent = mapDoc.createElement(rootElementName);
+        mapDoc.appendChild(parent);
+        XMLUtil.mapToNode(elements, parent, mapDoc, null);
+        return XMLUtil.documentToString(mapDoc);
+    }
+
+    /**
+     * Makes sure xmlToMap reverses mapToXML.
+     *
+     * @throws Exception on failure
+     */
+    public void testXMLToMapRoundTrip() throws Exception
+    {
+        final Map parameters = new LinkedHashMap();
+        final Map inner = new LinkedHashMap();
+        final List list = new ArrayList();
+        final Map listMap = new LinkedHashMap();
+        parameters.put("text", "value & <escaped> \u00e9");
+        parameters.put("empty", "");
+        parameters.put("inner", inner);
+        parameters.put("repeated", list);
+        inner.put("a", "1");
+        inner.put("b", "2");
+        list.add("one");
+        list.add(listMap);
+        list.add("three");
+        listMap.put("sub", "value");
+
+        final String xml = XMLUtil.mapToXML("root", parameters);
+        assertEquals("from String", parameters, XMLUtil.xmlToMap(xml));
+        assertEquals("from InputStream", parameters, XMLUtil.xmlToMap(
+            new ByteArrayInputStream(MapXMLWriter.toBytes("root",
+                parameters))));
+    }
+
+    public void testXMLToMapLimits() throws Exception
+    {
+        final String xml = "<root><a><b><c>deep</c></b></a></root>";
+        assertEquals("depth 4 allowed", "deep", ((Map) ((Map)
+            new MapXMLReader(MapXMLReader.NO_LIMIT, 4).read(
+                new StringReader(xml)).get("a")).get("b")).get("c"));
+        try
+        {
+            new MapXMLReader(MapXMLReader.NO_LIMIT, 3).read(
+                new StringReader(xml));
+            fail("depth limit should have been enforced");
+        }
+        catch (SAXException ignored)
+        {
+        }
+        try
+        {
+            new MapXMLReader(10, MapXMLReader.NO_LIMIT).read(
+                new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            fail("size limit should have been enforced");
+        }
+        catch (SAXException e)
+        {
+            assertTrue(e.getMessage(),
+                e.getMessage().indexOf("maximum size") != -1);
+        }
+    }
+
+    public void testXMLToMapMalformed() throws Exception
+    {
+        try
+        {
+            XMLUtil.xmlToMap("<root><a></root>");
+            fail("malformed XML should be rejected");
+        }
+        catch (SAXException ignored)
+        {
+        }
+    }
 }
@@ -0,0 +1,280 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Tests writing beans, collections and Maps as XML.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class ObjectXMLBinderTest extends TestCase
+{
+    private static final String DECLARATION =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    public void testBean() throws Exception
+    {
+        final Student student = new Student();
+        student.setName("Bob & Larry");
+        student.setId(42);
+        student.setStatus(Status.ACTIVE);
+        student.setEnrolled(true);
+        student.setBorn(LocalDate.of(1998, 3, 7));
+        student.setCourses(Arrays.asList(new Course("MATH", 3.5),
+            new Course("ENGL", Double.POSITIVE_INFINITY)));
+        student.setNicknames(new String[]{"Bobby", null, ""});
+
+        assertEquals(DECLARATION + "<student><born>1998-03-07</born>" +
+            "<courses><code>MATH</code><credits>3.5</credits></courses>" +
+            "<courses><code>ENGL</code><credits>INF</credits></courses>" +
+            "<enrolled>true</enrolled><id>42</id>" +
+            "<name>Bob &amp; Larry</name>" +
+            "<nicknames>Bobby</nicknames><nicknames/>" +
+            "<status>ACTIVE</status></student>",
+            XMLUtil.objectToXML("student", student));
+
+        // the stream is the same, in UTF-8
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLUtil.objectToXML("student", student, out);
+        assertEquals(XMLUtil.objectToXML("student", student),
+            out.toString("UTF-8"));
+
+        // the getters are only looked up once
+        assertSame("cached", ObjectXMLBinder.properties(Student.class),
+            ObjectXMLBinder.properties(Student.class));
+    }
+
+    public void testSameAsMapToXML() throws Exception
+    {
+        final Map root = new LinkedHashMap();
+        final Map inner = new LinkedHashMap();
+        final List items = new ArrayList();
+        root.put("element1", "value<1>");
+        root.put("empty", "");
+        root.put("missing", null);
+        root.put("inner", inner);
+        inner.put("innerelement1", "innervalue1");
+        root.put("item", items);
+        items.add("first");
+        items.add(inner);
+        assertEquals(XMLUtil.mapToXML("root", root),
+            XMLUtil.objectToXML("root", root));
+    }
+
+    public void testDates() throws Exception
+    {
+        final Calendar calendar = Calendar.getInstance(
+            TimeZone.getTimeZone("America/Edmonton"));
+        calendar.clear();
+        calendar.set(2026, Calendar.OCTOBER, 20, 8, 30, 15);
+        final Map dates = new LinkedHashMap();
+        dates.put("calendar", calendar);
+        dates.put("local", LocalDateTime.of(2026, 10, 20, 8, 30));
+        dates.put("offset", OffsetDateTime.of(2026, 10, 20, 8, 30, 15, 0,
+            ZoneOffset.ofHours(-6)));
+        assertEquals(DECLARATION + "<dates>" +
+            "<calendar>2026-10-20T08:30:15-06:00</calendar>" +
+            "<local>2026-10-20T08:30:00</local>" +
+            "<offset>2026-10-20T08:30:15-06:00</offset></dates>",
+            XMLUtil.objectToXML("dates", dates));
+    }
+
+    public void testRejected() throws Exception
+    {
+        try
+        {
+            XMLUtil.objectToXML("root", Arrays.asList("a", "b"));
+            fail("a Collection has nothing to name it's items");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        final Map nested = new LinkedHashMap();
+        nested.put("lists", Arrays.asList(Arrays.asList("a")));
+        try
+        {
+            XMLUtil.objectToXML("root", nested);
+            fail("a Collection inside of a Collection should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        final Map cycle = new LinkedHashMap();
+        cycle.put("self", cycle);
+        try
+        {
+            XMLUtil.objectToXML("root", cycle);
+            fail("a cycle should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    public enum Status
+    {
+        ACTIVE, WITHDRAWN
+    }
+
+    private static class Course
+    {
+        private final String code;
+
+        private final double credits;
+
+        private Course(final String code, final double credits)
+        {
+            this.code = code;
+            this.credits = credits;
+        }
+
+        public String getCode()
+        {
+            return code;
+        }
+
+        public double getCredits()
+        {
+            return credits;
+        }
+    }
+
+    public static class Student
+    {
+        private String name;
+
+        private int id;
+
+        private Status status;
+
+        private boolean enrolled;
+
+        private LocalDate born;
+
+        private List<Course> courses;
+
+        private String[] nicknames;
+
+        private String notes;
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public void setName(final String name)
+        {
+            this.name = name;
+        }
+
+        public int getId()
+        {
+            return id;
+        }
+
+        public void setId(final int id)
+        {
+            this.id = id;
+        }
+
+        public Status getStatus()
+        {
+            return status;
+        }
+
+        public void setStatus(final Status status)
+        {
+            this.status = status;
+        }
+
+        public boolean isEnrolled()
+        {
+            return enrolled;
+        }
+
+        public void setEnrolled(final boolean enrolled)
+        {
+            this.enrolled = enrolled;
+        }
+
+        public LocalDate getBorn()
+        {
+            return born;
+        }
+
+        public void setBorn(final LocalDate born)
+        {
+            this.born = born;
+        }
+
+        public List<Course> getCourses()
+        {
+            return courses;
+        }
+
+        public void setCourses(final List<Course> courses)
+        {
+            this.courses = courses;
+        }
+
+        public String[] getNicknames()
+        {
+            return nicknames;
+        }
+
+        public void setNicknames(final String[] nicknames)
+        {
+            this.nicknames = nicknames;
+        }
+
+        public String getNotes()
+        {
+            return notes;
+        }
+
+        public void setNotes(final String notes)
+        {
+            this.notes = notes;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests transforming a document one record at a time.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class RecordTransformerTest extends TestCase
+{
+    private static final int RECORDS = 500;
+
+    private File xsl;
+
+    private String xml;
+
+    private String expected;
+
+    protected void setUp() throws Exception
+    {
+        xsl = TemplatesCacheTest.writeTemplates(
+            "<xsl:output method=\"text\"/>" +
+            "<xsl:param name=\"separator\" select=\"':'\"/>" +
+            "<xsl:template match=\"/Student\" xmlns:p=\"urn:person\">" +
+            "<xsl:if test=\"@id = 'fail'\">" +
+            "<xsl:message terminate=\"yes\">failed</xsl:message>" +
+            "</xsl:if>" +
+            "<xsl:value-of select=\"concat(@id, $separator, p:Name, " +
+            "'&#10;')\"/>" +
+            "</xsl:template>");
+
+        final StringBuilder document = new StringBuilder(
+            "<?xml version=\"1.0\"?><Export xmlns:p=\"urn:person\">" +
+                "<Header><Student id=\"not a record\"/></Header><Students>");
+        final StringBuilder output = new StringBuilder();
+        for (int index = 0; index < RECORDS; index++)
+        {
+            document.append("<Student id=\"").append(index)
+                .append("\"><!-- comment --><p:Name><![CDATA[Bob & ")
+                .append(index).append("]]></p:Name></Student>");
+            output.append(index).append(":Bob & ").append(index).append('\n');
+        }
+        xml = document.append("</Students></Export>").toString();
+        expected = output.toString();
+    }
+
+    protected void tearDown()
+    {
+        xsl.delete();
+    }
+
+    public void testSequential() throws Exception
+    {
+        final RecordTransformer transformer = new RecordTransformer(xsl,
+            "/Export/Students/Student");
+        final StringWriter out = new StringWriter();
+        assertEquals("records", RECORDS, transformer.transform(xml, null, out));
+        assertEquals(expected, out.toString());
+    }
+
+    public void testParallelKeepsOrder() throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            final RecordTransformer transformer = new RecordTransformer(xsl,
+                "Students/Student", executor, 8);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals("records", RECORDS, transformer.transform(
+                xml.getBytes("UTF-8"), null, out));
+            assertEquals(expected, out.toString("UTF-8"));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public void testParametersAndFiles() throws Exception
+    {
+        final File file = File.createTempFile("records", ".xml");
+        try
+        {
+            final Writer writer = new FileWriter(file);
+            try
+            {
+                writer.write(xml);
+            }
+            finally
+            {
+                writer.close();
+            }
+            final Map<String, String> parameters =
+                new HashMap<String, String>();
+            parameters.put("separator", "=");
+            final StringWriter out = new StringWriter();
+            new RecordTransformer(xsl, "/Export/Students/Student").transform(
+                file, parameters, out);
+            assertEquals(expected.replace(':', '='), out.toString());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testAnyDepth() throws Exception
+    {
+        // the header's Student is a record too, when matching by name alone
+        final StringWriter out = new StringWriter();
+        assertEquals("records", RECORDS + 1, new RecordTransformer(xsl,
+            "Student").transform(xml, null, out));
+        assertTrue(out.toString().startsWith("not a record:\n0:Bob & 0\n"));
+
+        assertEquals("no records", 0, new RecordTransformer(xsl,
+            "/Students/Student").transform(xml, null, new StringWriter()));
+    }
+
+    public void testFailedRecord() throws Exception
+    {
+        final String failing = xml.replace("id=\"250\"", "id=\"fail\"");
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            new RecordTransformer(xsl, "Students/Student", executor, 4)
+                .transform(failing, null, new StringWriter());
+            fail("record 250 should have failed");
+        }
+        catch (TransformerException e)
+        {
+            assertTrue(e.getMessage(),
+                e.getMessage().indexOf("record 250") != -1);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public void testInvalidRecord() throws IOException, TransformerException
+    {
+        try
+        {
+            new RecordTransformer(xsl, "Students//Student");
+            fail("empty path step should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+}
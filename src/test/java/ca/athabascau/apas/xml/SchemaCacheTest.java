@@ -0,0 +1,196 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.validation.Schema;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Tests caching schemas, and validating documents with them.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class SchemaCacheTest extends TestCase
+{
+    private static final String PEOPLE_XSD =
+        "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">" +
+            "<xs:element name=\"people\"><xs:complexType><xs:sequence>" +
+            "<xs:element name=\"name\" type=\"xs:string\" " +
+            "maxOccurs=\"unbounded\"/>" +
+            "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    private static final String VALID =
+        "<people><name>Bob</name><name>Larry</name></people>";
+
+    private static final String INVALID =
+        "<people><name>Bob</name><age>7</age></people>";
+
+    private File xsd;
+
+    protected void setUp() throws Exception
+    {
+        xsd = File.createTempFile("schema", ".xsd");
+        write(xsd, PEOPLE_XSD);
+    }
+
+    protected void tearDown()
+    {
+        xsd.delete();
+    }
+
+    public void testCaching() throws Exception
+    {
+        final SchemaCache cache = new SchemaCache();
+        final Schema schema = cache.getSchema(xsd);
+        assertSame("cached", schema, cache.getSchema(xsd));
+        assertEquals("hits", 1, cache.getHitCount());
+        assertEquals("misses", 1, cache.getMissCount());
+        assertEquals("size", 1, cache.size());
+
+        assertTrue("invalidated", cache.invalidate(xsd));
+        assertEquals("size", 0, cache.size());
+        final Schema recompiled = cache.getSchema(xsd);
+        assertNotSame("recompiled", schema, recompiled);
+
+        // editing the schema recompiles it, and changes what is valid
+        write(xsd, PEOPLE_XSD.replace("\"name\"", "\"age\""));
+        xsd.setLastModified(xsd.lastModified() + 2000);
+        final Schema edited = cache.getSchema(xsd);
+        assertNotSame("edited", recompiled, edited);
+        XMLUtil.validate("<people><age>7</age></people>", edited);
+
+        cache.setMaximumSize(1);
+        final File other = File.createTempFile("schema", ".xsd");
+        try
+        {
+            write(other, PEOPLE_XSD);
+            cache.getSchema(other);
+            assertEquals("size", 1, cache.size());
+            assertEquals("evictions", 1, cache.getEvictionCount());
+        }
+        finally
+        {
+            other.delete();
+        }
+    }
+
+    public void testValidatingLoad() throws Exception
+    {
+        final Schema schema = XMLUtil.getSchemaCache().getSchema(xsd);
+        final Document doc = XMLUtil.stringToDocument(VALID, schema);
+        assertEquals("names", 2,
+            doc.getElementsByTagName("name").getLength());
+        assertNotNull("bytes", XMLUtil.loadXMLFrom(VALID.getBytes("UTF-8"),
+            schema));
+        assertNotNull("stream", XMLUtil.loadXMLFrom(
+            new ByteArrayInputStream(VALID.getBytes("UTF-8")), schema));
+        assertNotNull("no schema", XMLUtil.stringToDocument(INVALID, null));
+
+        try
+        {
+            XMLUtil.stringToDocument(INVALID, schema);
+            fail("an invalid document should be rejected");
+        }
+        catch (SAXException e)
+        {
+            // expected
+        }
+
+        // the pooled builder is still good after a failure
+        assertNotNull("reused", XMLUtil.stringToDocument(VALID, schema));
+    }
+
+    public void testValidateOnly() throws Exception
+    {
+        final Schema schema = XMLUtil.getSchemaCache().getSchema(xsd);
+        XMLUtil.validate(VALID, schema);
+        XMLUtil.validate(VALID.getBytes("UTF-8"), schema);
+        XMLUtil.validate(XMLUtil.stringToDocument(VALID), schema);
+        XMLUtil.validate(ImmutableDocument.load(VALID), schema);
+        try
+        {
+            XMLUtil.validate(INVALID, schema);
+            fail("an invalid document should be rejected");
+        }
+        catch (SAXException e)
+        {
+            // expected
+        }
+        XMLUtil.validate(VALID, schema);
+    }
+
+    public void testMissingSchema() throws Exception
+    {
+        try
+        {
+            XMLUtil.getSchemaCache().getSchema("/no/such/schema.xsd");
+            fail("a missing schema should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        final File broken = File.createTempFile("broken", ".xsd");
+        try
+        {
+            write(broken, "<xs:schema xmlns:xs=");
+            final SchemaCache cache = new SchemaCache();
+            try
+            {
+                cache.getSchema(broken);
+                fail("a broken schema should be rejected");
+            }
+            catch (SAXException e)
+            {
+                // expected
+            }
+            assertEquals("failures are not cached", 0, cache.size());
+        }
+        finally
+        {
+            broken.delete();
+        }
+    }
+
+    private static void write(final File file, final String content)
+        throws IOException
+    {
+        final Writer writer = new FileWriter(file);
+        try
+        {
+            writer.write(content);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests the resolution and caching of stylesheets named by xml-stylesheet
+ * processing instructions and xsl:include.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class StylesheetResolverTest extends TestCase
+{
+    private static final String REMOTE_XSL =
+        "http://www.athabascau.ca/apas-xml/transcript.xsl";
+
+    private static final String INCLUDED =
+        "<xsl:stylesheet version=\"1.0\" " +
+            "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:template name=\"greeting\">included</xsl:template>" +
+            "</xsl:stylesheet>";
+
+    private StylesheetResolver originalResolver;
+
+    private TemplatesCache originalCache;
+
+    private File directory;
+
+    protected void setUp() throws Exception
+    {
+        originalResolver = XMLUtil.getStylesheetResolver();
+        originalCache = XMLUtil.getTemplatesCache();
+        XMLUtil.setTemplatesCache(new TemplatesCache());
+        directory = File.createTempFile("resolver", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        XMLUtil.setStylesheetResolver(originalResolver);
+        XMLUtil.setTemplatesCache(originalCache);
+        delete(directory);
+    }
+
+    public void testInstructionCompiledOnce() throws Exception
+    {
+        final StylesheetResolver resolver = new StylesheetResolver();
+        resolver.addMapping(REMOTE_XSL, "classpath:" +
+            TemplatesCacheTest.TRANSCRIPT_XSL);
+        XMLUtil.setStylesheetResolver(resolver);
+
+        final String xml = TemplatesCacheTest.readTranscript();
+        final String first = XMLUtil.xslTransformation(xml);
+        final String second = XMLUtil.xslTransformation(
+            XMLUtil.stringToDocument(xml));
+        assertTrue("Not an HTML document",
+            first.toUpperCase().indexOf("<HTML") != -1);
+        assertEquals("same stylesheet", first, second);
+
+        final TemplatesCache cache = XMLUtil.getTemplatesCache();
+        assertEquals("compiled once", 1, cache.getMissCount());
+        assertEquals("hits", 1, cache.getHitCount());
+        assertEquals("fetched once", 1, resolver.getMissCount());
+    }
+
+    public void testIncludeMappedToDirectory() throws Exception
+    {
+        write(new File(directory, "common.xsl"), INCLUDED);
+        final File main = new File(directory, "main.xsl");
+        write(main, "<xsl:stylesheet version=\"1.0\" " +
+            "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+            "<xsl:include href=\"http://example.invalid/xsl/common.xsl\"/>" +
+            "<xsl:output method=\"text\"/>" +
+            "<xsl:template match=\"/\">" +
+            "<xsl:call-template name=\"greeting\"/></xsl:template>" +
+            "</xsl:stylesheet>");
+        final StylesheetResolver resolver = new StylesheetResolver();
+        resolver.addMapping("http://example.invalid/xsl/", directory);
+        XMLUtil.setStylesheetResolver(resolver);
+
+        assertEquals("included", XMLUtil.xslTransformation("<a/>", main,
+            null));
+    }
+
+    public void testRelativeInstruction() throws Exception
+    {
+        final File xsl = new File(directory, "relative.xsl");
+        write(xsl, INCLUDED.replace("name=\"greeting\"", "match=\"/\""));
+        final File xml = new File(directory, "relative.xml");
+        write(xml, "<?xml-stylesheet type=\"text/xsl\" " +
+            "href=\"relative.xsl\"?><a/>");
+        XMLUtil.setStylesheetResolver(new StylesheetResolver());
+
+        assertTrue(XMLUtil.xslTransformation(xml).endsWith("included"));
+        assertEquals("cached by URI", 1, XMLUtil.getTemplatesCache().size());
+    }
+
+    public void testMappedInstructionRecompiled() throws Exception
+    {
+        final File xsl = new File(directory, "mapped.xsl");
+        final String template = INCLUDED.replace("name=\"greeting\"",
+            "match=\"/\"");
+        write(xsl, template);
+        final StylesheetResolver resolver = new StylesheetResolver();
+        resolver.addMapping("http://example.invalid/xsl/", directory);
+        XMLUtil.setStylesheetResolver(resolver);
+        final String xml = "<?xml-stylesheet type=\"text/xsl\" " +
+            "href=\"http://example.invalid/xsl/mapped.xsl\"?><a/>";
+
+        assertTrue(XMLUtil.xslTransformation(xml).endsWith("included"));
+        write(xsl, template.replace("included", "edited"));
+        assertTrue("could not change modification time",
+            xsl.setLastModified(xsl.lastModified() - 10000));
+        assertTrue(XMLUtil.xslTransformation(xml).endsWith("edited"));
+        assertEquals("recompiled", 2,
+            XMLUtil.getTemplatesCache().getMissCount());
+    }
+
+    public void testLeastRecentlyUsedDropped() throws Exception
+    {
+        final StylesheetResolver resolver = new StylesheetResolver(null, 2);
+        resolver.addMapping("http://example.invalid/", directory);
+        for (final String name : new String[]{"a", "b", "c"})
+        {
+            write(new File(directory, name + ".xsl"), INCLUDED);
+        }
+        resolver.fetch("http://example.invalid/a.xsl");
+        resolver.fetch("http://example.invalid/b.xsl");
+        resolver.fetch("http://example.invalid/a.xsl");
+        resolver.fetch("http://example.invalid/c.xsl");
+        assertEquals("size", 2, resolver.size());
+        assertEquals("evictions", 1, resolver.getEvictionCount());
+
+        // b was the least recently used
+        resolver.fetch("http://example.invalid/a.xsl");
+        assertEquals("hits", 2, resolver.getHitCount());
+        resolver.fetch("http://example.invalid/b.xsl");
+        assertEquals("misses", 4, resolver.getMissCount());
+
+        resolver.setMaximumSize(1);
+        assertEquals("size", 1, resolver.size());
+        assertEquals("evictions", 3, resolver.getEvictionCount());
+    }
+
+    public void testCacheDirectoryServesOffline() throws Exception
+    {
+        final File jar = new File(directory, "stylesheets.jar");
+        final JarOutputStream out = new JarOutputStream(
+            new FileOutputStream(jar));
+        try
+        {
+            out.putNextEntry(new ZipEntry("common.xsl"));
+            out.write(INCLUDED.getBytes("UTF-8"));
+            out.closeEntry();
+        }
+        finally
+        {
+            out.close();
+        }
+        final File cache = new File(directory, "cache");
+        final String uri = "http://example.invalid/common.xsl";
+        final StylesheetResolver online = new StylesheetResolver(cache);
+        online.addMapping("http://example.invalid/",
+            "jar:" + jar.toURI() + "!/");
+        assertEquals(INCLUDED, new String(online.fetch(uri), "UTF-8"));
+        assertEquals("cached on disk", 1, cache.list().length);
+        assertEquals(INCLUDED, new String(online.fetch(uri), "UTF-8"));
+        assertEquals("cached in memory", 1, online.getHitCount());
+
+        // the jar's contents are now only in the cache directory
+        assertTrue(jar.delete());
+        final StylesheetResolver offline = new StylesheetResolver(cache);
+        offline.addMapping("http://example.invalid/",
+            "jar:" + jar.toURI() + "!/");
+        assertEquals(INCLUDED, new String(offline.fetch(uri), "UTF-8"));
+    }
+
+    public void testLongestMappingWins() throws Exception
+    {
+        final StylesheetResolver resolver = new StylesheetResolver();
+        resolver.addMapping("http://example.invalid/", "file:/short/");
+        resolver.addMapping("http://example.invalid/long/", "file:/long/");
+        assertEquals("file:/long/a.xsl",
+            resolver.locate("http://example.invalid/long/a.xsl").toString());
+        assertEquals("file:/short/b.xsl",
+            resolver.locate("http://example.invalid/b.xsl").toString());
+        assertEquals("http://example.com/c.xsl",
+            resolver.locate("http://example.com/c.xsl").toString());
+    }
+
+    public void testPseudoAttributes()
+    {
+        assertEquals("a.xsl", StylesheetInstruction.href(
+            "type=\"text/xsl\" href=\"a.xsl\""));
+        assertEquals("a&b.xsl", StylesheetInstruction.href(
+            "href = 'a&amp;b.xsl'"));
+        assertNull("css", StylesheetInstruction.href(
+            "type=\"text/css\" href=\"a.css\""));
+        assertNull("alternate", StylesheetInstruction.href(
+            "alternate=\"yes\" type=\"text/xsl\" href=\"a.xsl\""));
+        assertNull("no href", StylesheetInstruction.href("type=\"text/xsl\""));
+    }
+
+    private static void write(final File file, final String content)
+        throws IOException
+    {
+        final Writer writer = new FileWriter(file);
+        try
+        {
+            writer.write(content);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private static void delete(final File file)
+    {
+        final File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (int index = 0; index < children.length; index++)
+            {
+                delete(children[index]);
+            }
+        }
+        file.delete();
+    }
+}
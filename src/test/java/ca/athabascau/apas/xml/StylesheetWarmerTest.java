@@ -0,0 +1,166 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests compiling and exercising stylesheets ahead of time.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class StylesheetWarmerTest extends TestCase
+{
+    private static final String STYLESHEET = "<xsl:stylesheet " +
+        "version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+        "<xsl:template match=\"/\"><out/></xsl:template></xsl:stylesheet>";
+
+    /**
+     * A directory of stylesheets on the test classpath.
+     */
+    private File directory;
+
+    protected void setUp() throws Exception
+    {
+        final File classes = new File(
+            XMLUtil.class.getResource(TemplatesCacheTest.TRANSCRIPT_XSL)
+                .toURI()).getParentFile();
+        directory = new File(classes, "warmer-test");
+        write(new File(directory, "a.xsl"), STYLESHEET);
+        write(new File(directory, "b.xslt"), STYLESHEET);
+        write(new File(directory, "nested/c.xsl"), STYLESHEET);
+        write(new File(directory, "notes.txt"), "not a stylesheet");
+    }
+
+    protected void tearDown()
+    {
+        new File(directory, "nested/c.xsl").delete();
+        new File(directory, "nested").delete();
+        new File(directory, "a.xsl").delete();
+        new File(directory, "b.xslt").delete();
+        new File(directory, "notes.txt").delete();
+        new File(directory, "broken.xsl").delete();
+        directory.delete();
+    }
+
+    public void testClasspathDirectory() throws Exception
+    {
+        assertEquals(Arrays.asList("/warmer-test/a.xsl",
+            "/warmer-test/b.xslt", "/warmer-test/nested/c.xsl"),
+            StylesheetWarmer.list("/warmer-test", StylesheetWarmer.DEFAULT_GLOB));
+        assertEquals(Arrays.asList("/warmer-test/a.xsl"),
+            StylesheetWarmer.list("/warmer-test/", "*.xsl"));
+
+        final StylesheetWarmer warmer = new StylesheetWarmer();
+        warmer.addSample("<in/>");
+        warmer.setTransforms(3);
+        final StylesheetWarmer.Report report = warmer.warm("/warmer-test");
+        assertTrue(report.toString(), report.isSuccessful());
+        final List<StylesheetWarmer.Warmed> warmed = report.getStylesheets();
+        assertEquals("stylesheets", 3, warmed.size());
+        assertEquals("classpath:/warmer-test/a.xsl",
+            warmed.get(0).getStylesheet());
+        for (final StylesheetWarmer.Warmed stylesheet : warmed)
+        {
+            assertEquals(stylesheet.toString(), 3,
+                stylesheet.getTransformCount());
+        }
+
+        // they are now in the shared cache, so a second warm up finds them
+        final long hits = XMLUtil.getTemplatesCache().getHitCount();
+        assertTrue(warmer.warm("/warmer-test").isSuccessful());
+        assertEquals("hits", hits + 3,
+            XMLUtil.getTemplatesCache().getHitCount());
+    }
+
+    public void testSamplesPerStylesheet() throws Exception
+    {
+        final StylesheetWarmer warmer = new StylesheetWarmer();
+        warmer.addSample("<in/>");
+        warmer.addSample(TemplatesCacheTest.TRANSCRIPT_XSL,
+            TemplatesCacheTest.readTranscript());
+        warmer.addSample(TemplatesCacheTest.TRANSCRIPT_XSL,
+            XMLUtil.stringToDocument(TemplatesCacheTest.readTranscript()));
+        warmer.setTransforms(2);
+        final StylesheetWarmer.Report report = warmer.warm(Arrays.asList(
+            TemplatesCacheTest.TRANSCRIPT_XSL,
+            new File(directory, "a.xsl")));
+        assertTrue(report.toString(), report.isSuccessful());
+        assertEquals("transcript transforms", 4,
+            report.getStylesheets().get(0).getTransformCount());
+        assertEquals("default transforms", 2,
+            report.getStylesheets().get(1).getTransformCount());
+
+        try
+        {
+            warmer.addSample(new java.io.StringReader("<in/>"));
+            fail("a reader can only be read once");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    public void testFailuresAreReported() throws Exception
+    {
+        write(new File(directory, "broken.xsl"), "<xsl:stylesheet");
+        final StylesheetWarmer warmer = new StylesheetWarmer();
+        warmer.addSample(new File(directory, "b.xslt"), "<in>");
+        final StylesheetWarmer.Report report =
+            warmer.warm(directory, "*.{xsl,xslt}");
+        assertEquals("stylesheets", 3, report.getStylesheets().size());
+        assertEquals(report.toString(), 2, report.getFailureCount());
+        assertFalse(report.isSuccessful());
+
+        final StylesheetWarmer.Warmed a = report.getStylesheets().get(0);
+        assertTrue(a.toString(), a.isSuccessful());
+        assertTrue(a.getStylesheet(), a.getStylesheet().endsWith("a.xsl"));
+        assertNotNull("broken", report.getStylesheets().get(2).getException());
+        final StylesheetWarmer.Warmed b = report.getStylesheets().get(1);
+        assertNotNull("unparseable sample", b.getException());
+        assertEquals("transforms", 0, b.getTransformCount());
+    }
+
+    private static void write(final File file, final String content)
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        final Writer writer = new FileWriter(file);
+        try
+        {
+            writer.write(content);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import javax.xml.transform.Templates;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the compiled stylesheet cache.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class TemplatesCacheTest extends TestCase
+{
+    static final String TRANSCRIPT_XSL = "/transcript-test.xsl";
+
+    static final String TRANSCRIPT_XML = "/transcript-test.xml";
+
+    /**
+     * Reads the test transcript from the classpath.
+     *
+     * @return the transcript XML
+     *
+     * @throws IOException if an io error occurs
+     */
+    static String readTranscript() throws IOException
+    {
+        final InputStream is = XMLUtil.class.getResourceAsStream(
+            TRANSCRIPT_XML);
+        try
+        {
+            final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                xml.write(buffer, 0, read);
+            }
+            return xml.toString("UTF-8");
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    public void testSameTemplatesReturned() throws Exception
+    {
+        final TemplatesCache cache = new TemplatesCache();
+        final Templates first = cache.getTemplates(TRANSCRIPT_XSL);
+        final Templates second = cache.getTemplates(TRANSCRIPT_XSL);
+        assertSame("stylesheet should only be compiled once", first, second);
+        assertEquals("misses", 1, cache.getMissCount());
+        assertEquals("hits", 1, cache.getHitCount());
+        assertEquals("size", 1, cache.size());
+
+        assertTrue("should have been cached",
+            cache.invalidate(TRANSCRIPT_XSL));
+        assertNotSame("stylesheet should have been recompiled", first,
+            cache.getTemplates(TRANSCRIPT_XSL));
+        assertEquals("misses", 2, cache.getMissCount());
+    }
+
+    public void testTransformationUsesCache() throws Exception
+    {
+        final Map parameters = new HashMap();
+        parameters.put("title", "Cached Transcript");
+        final String xml = readTranscript();
+        final long misses = XMLUtil.getTemplatesCache().getMissCount();
+        final String first = XMLUtil.xslTransformation(xml, TRANSCRIPT_XSL,
+            parameters);
+        final String second = XMLUtil.xslTransformation(xml, TRANSCRIPT_XSL,
+            parameters);
+        assertEquals("cached transformation should be identical", first,
+            second);
+        assertTrue("parameter not passed", first.indexOf(
+            "<title>Cached Transcript</title>") != -1);
+        assertTrue("Bob Tomato missing", first.indexOf("Bob Tomato") != -1);
+        assertTrue("only one compilation should have occurred",
+            XMLUtil.getTemplatesCache().getMissCount() - misses <= 1);
+    }
+
+    public void testLeastRecentlyUsedEviction() throws Exception
+    {
+        final TemplatesCache cache = new TemplatesCache(1);
+        final File xsl = writeStylesheet("evict");
+        try
+        {
+            cache.getTemplates(TRANSCRIPT_XSL);
+            cache.getTemplates(xsl);
+            assertEquals("size", 1, cache.size());
+            assertEquals("evictions", 1, cache.getEvictionCount());
+            cache.getTemplates(xsl);
+            assertEquals("hits", 1, cache.getHitCount());
+        }
+        finally
+        {
+            xsl.delete();
+        }
+    }
+
+    public void testModifiedFileRecompiled() throws Exception
+    {
+        final TemplatesCache cache = new TemplatesCache();
+        final File xsl = writeStylesheet("first");
+        try
+        {
+            final Templates first = cache.getTemplates(xsl);
+            assertTrue("could not change modification time",
+                xsl.setLastModified(xsl.lastModified() - 10000));
+            final Templates second = cache.getTemplates(xsl);
+            assertNotSame("modified stylesheet should be recompiled", first,
+                second);
+            assertEquals("misses", 2, cache.getMissCount());
+            assertEquals("replaced, not added", 1, cache.size());
+        }
+        finally
+        {
+            xsl.delete();
+        }
+    }
+
+    public void testConcurrentCallersShareTemplates() throws Exception
+    {
+        final TemplatesCache cache = new TemplatesCache();
+        final List results = Collections.synchronizedList(new ArrayList());
+        final Thread[] threads = new Thread[8];
+        for (int index = 0; index < threads.length; index++)
+        {
+            threads[index] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        results.add(cache.getTemplates(TRANSCRIPT_XSL));
+                    }
+                    catch (Exception e)
+                    {
+                        results.add(e);
+                    }
+                }
+            };
+            threads[index].start();
+        }
+        for (int index = 0; index < threads.length; index++)
+        {
+            threads[index].join();
+        }
+        assertEquals("results", threads.length, results.size());
+        for (int index = 0; index < results.size(); index++)
+        {
+            assertSame("every thread should share the same stylesheet",
+                results.get(0), results.get(index));
+        }
+        assertEquals("misses", 1, cache.getMissCount());
+    }
+
+    /**
+     * A classpath stylesheet is only checked for changes once per interval.
+     *
+     * @throws Exception on failure
+     */
+    public void testClasspathCheckInterval() throws Exception
+    {
+        final File classes = new File(
+            XMLUtil.class.getResource(TRANSCRIPT_XSL).toURI()).getParentFile();
+        final File xsl = new File(classes, "check-interval-test.xsl");
+        writeTemplates(xsl, "<xsl:template match=\"/\">first</xsl:template>");
+        try
+        {
+            final TemplatesCache cache = new TemplatesCache();
+            cache.setCheckInterval(60000);
+            final Templates first = cache.getTemplates("/" + xsl.getName());
+            assertTrue("could not change modification time",
+                xsl.setLastModified(xsl.lastModified() - 10000));
+            assertSame("not checked yet", first,
+                cache.getTemplates("/" + xsl.getName()));
+
+            cache.setCheckInterval(0);
+            assertNotSame("modified stylesheet should be recompiled", first,
+                cache.getTemplates("/" + xsl.getName()));
+            assertEquals("misses", 2, cache.getMissCount());
+            try
+            {
+                cache.setCheckInterval(-1);
+                fail("a negative interval should be rejected");
+            }
+            catch (IllegalArgumentException ignored)
+            {
+            }
+        }
+        finally
+        {
+            xsl.delete();
+        }
+    }
+
+    public void testInvalidStylesheet() throws Exception
+    {
+        final TemplatesCache cache = new TemplatesCache();
+        try
+        {
+            cache.getTemplates("/does-not-exist.xsl");
+            fail("missing stylesheet should be rejected");
+        }
+        catch (IllegalArgumentException ignored)
+        {
+        }
+        assertEquals("nothing should be cached", 0, cache.size());
+    }
+
+    /**
+     * Writes a stylesheet whose only template, for the root, produces the
+     * text.
+     *
+     * @param text the content of the template
+     *
+     * @return the new temporary file, which the caller deletes
+     *
+     * @throws IOException if the file could not be written
+     */
+    static File writeStylesheet(final String text) throws IOException
+    {
+        return writeTemplates("<xsl:template match=\"/\">" + text +
+            "</xsl:template>");
+    }
+
+    /**
+     * Writes a stylesheet with the top level elements given.
+     *
+     * @param templates the templates, parameters and such
+     *
+     * @return the new temporary file, which the caller deletes
+     *
+     * @throws IOException if the file could not be written
+     */
+    static File writeTemplates(final String templates) throws IOException
+    {
+        final File xsl = File.createTempFile("stylesheet", ".xsl");
+        writeTemplates(xsl, templates);
+        return xsl;
+    }
+
+    /**
+     * Writes, or rewrites, a stylesheet with the top level elements given.
+     *
+     * @param xsl       the file to write
+     * @param templates the templates, parameters and such
+     *
+     * @throws IOException if the file could not be written
+     */
+    static void writeTemplates(final File xsl, final String templates)
+        throws IOException
+    {
+        final Writer writer = new FileWriter(xsl);
+        try
+        {
+            writer.write("<xsl:stylesheet version=\"1.0\" " +
+                "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                templates + "</xsl:stylesheet>");
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests running documents through several stylesheets.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class TransformPipelineTest extends TestCase
+{
+    private static final String IDENTITY =
+        "<xsl:template match=\"@*|node()\"><xsl:copy>" +
+            "<xsl:apply-templates select=\"@*|node()\"/>" +
+            "</xsl:copy></xsl:template>";
+
+    private File normalize;
+
+    private File enrich;
+
+    private File render;
+
+    protected void setUp() throws Exception
+    {
+        normalize = TemplatesCacheTest.writeTemplates(IDENTITY +
+            "<xsl:template match=\"name\"><Name>" +
+            "<xsl:value-of select=\"normalize-space()\"/></Name>" +
+            "</xsl:template>");
+        enrich = TemplatesCacheTest.writeTemplates(
+            "<xsl:param name=\"greeting\" select=\"'Hello'\"/>" + IDENTITY +
+            "<xsl:template match=\"Name\"><xsl:copy>" +
+            "<xsl:attribute name=\"greeting\"><xsl:value-of " +
+            "select=\"$greeting\"/></xsl:attribute>" +
+            "<xsl:apply-templates/></xsl:copy></xsl:template>");
+        render = TemplatesCacheTest.writeTemplates(
+            "<xsl:output method=\"text\"/>" +
+            "<xsl:template match=\"/\"><xsl:for-each select=\"//Name\">" +
+            "<xsl:value-of select=\"concat(@greeting, ' ', ., ';')\"/>" +
+            "</xsl:for-each></xsl:template>");
+    }
+
+    protected void tearDown()
+    {
+        normalize.delete();
+        enrich.delete();
+        render.delete();
+    }
+
+    public void testStages() throws Exception
+    {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("greeting", "Hi");
+        final TransformPipeline pipeline = new TransformPipeline(
+            new TransformPipeline.Stage(normalize, null),
+            new TransformPipeline.Stage(enrich, parameters),
+            new TransformPipeline.Stage(render, null));
+        assertEquals("stages", 3, pipeline.size());
+        final String xml = "<people><name>  Bob\n Tomato </name>" +
+            "<!-- skipped --><name>Larry</name></people>";
+        assertEquals("Hi Bob Tomato;Hi Larry;", pipeline.transform(xml));
+
+        final Map<String, String> override = new HashMap<String, String>();
+        override.put("greeting", "Bye");
+        final StringWriter writer = new StringWriter();
+        pipeline.transform(xml, Arrays.<Map<String, ?>>asList(null, override),
+            new StreamResult(writer));
+        assertEquals("Bye Bob Tomato;Bye Larry;", writer.toString());
+
+        // and the stage's own parameters are left alone
+        assertEquals("Hi Bob Tomato;Hi Larry;",
+            pipeline.transform(XMLUtil.stringToDocument(xml)));
+    }
+
+    public void testSameAsChainedTransformations() throws Exception
+    {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("title", "Pipeline");
+        final String xml = TemplatesCacheTest.readTranscript();
+        final String chained = XMLUtil.xslTransformation(
+            XMLUtil.xslTransformation(xml, normalize, null),
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters);
+        final TransformPipeline pipeline = new TransformPipeline(
+            new TransformPipeline.Stage(normalize, null),
+            new TransformPipeline.Stage(TemplatesCacheTest.TRANSCRIPT_XSL,
+                parameters));
+        assertEquals(chained, pipeline.transform(xml));
+        assertTrue("Bob Tomato missing",
+            pipeline.transform(xml).indexOf("Bob Tomato") != -1);
+    }
+
+    public void testNoStages() throws Exception
+    {
+        try
+        {
+            new TransformPipeline();
+            fail("a pipeline without stages should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests caching the output of transformations.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class TransformResultCacheTest extends TestCase
+{
+    private File xsl;
+
+    private File directory;
+
+    protected void setUp() throws Exception
+    {
+        xsl = File.createTempFile("results", ".xsl");
+        writeStylesheet("Hello");
+        directory = new File(xsl.getParentFile(), xsl.getName() + ".results");
+    }
+
+    protected void tearDown()
+    {
+        XMLUtil.setResultCache(null);
+        xsl.delete();
+        final File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (final File file : files)
+            {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testRepeatedRenders() throws Exception
+    {
+        final TransformResultCache cache = new TransformResultCache();
+        XMLUtil.setResultCache(cache);
+        final Map<String, Object> parameters =
+            new LinkedHashMap<String, Object>();
+        parameters.put("greeting", "Hi");
+        parameters.put("count", Integer.valueOf(2));
+
+        final String first = XMLUtil.xslTransformation("<in>Bob</in>", xsl,
+            parameters);
+        assertEquals("misses", 1, cache.getMissCount());
+        assertEquals("size", 1, cache.size());
+        assertEquals(first, XMLUtil.xslTransformation("<in>Bob</in>", xsl,
+            parameters));
+        assertTrue(first, first.endsWith("<out>Hi Bob 2</out>"));
+        assertEquals("hits", 1, cache.getHitCount());
+
+        // the order of the parameters doesn't matter, but their values do
+        final Map<String, Object> reordered =
+            new LinkedHashMap<String, Object>();
+        reordered.put("count", Integer.valueOf(2));
+        reordered.put("greeting", "Hi");
+        assertEquals(first, XMLUtil.xslTransformation("<in>Bob</in>", xsl,
+            reordered));
+        assertEquals("hits", 2, cache.getHitCount());
+        reordered.put("count", "2");
+        XMLUtil.xslTransformation("<in>Bob</in>", xsl, reordered);
+        assertEquals("a String is not an Integer", 2, cache.getMissCount());
+        XMLUtil.xslTransformation("<in>Larry</in>", xsl, parameters);
+        assertEquals("different input", 3, cache.getMissCount());
+
+        // bytes may declare an encoding, so they are kept apart from text
+        final byte[] bytes = "<in>Bob</in>".getBytes("UTF-8");
+        assertEquals(first, XMLUtil.xslTransformation(bytes, xsl, parameters));
+        assertEquals("misses", 4, cache.getMissCount());
+        assertEquals(first, XMLUtil.xslTransformation(
+            java.nio.ByteBuffer.wrap(bytes), xsl, parameters));
+        assertEquals("hits", 3, cache.getHitCount());
+
+        // a DOM is digested by it's serialization
+        XMLUtil.xslTransformation(XMLUtil.stringToDocument("<in>Bob</in>"),
+            xsl, parameters);
+        assertEquals(first, XMLUtil.xslTransformation(
+            XMLUtil.stringToDocument("<in>Bob</in>"), xsl, parameters));
+        assertEquals("hits", 4, cache.getHitCount());
+    }
+
+    public void testSameOutput() throws Exception
+    {
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("title", "Cached");
+        final String transcript = TemplatesCacheTest.readTranscript();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        XMLUtil.xslTransformation(transcript, TemplatesCacheTest.TRANSCRIPT_XSL,
+            parameters, expected);
+
+        final TransformResultCache cache = new TransformResultCache();
+        XMLUtil.setResultCache(cache);
+        for (int run = 0; run < 2; run++)
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XMLUtil.xslTransformation(transcript,
+                TemplatesCacheTest.TRANSCRIPT_XSL, parameters, out);
+            assertTrue("run " + run,
+                java.util.Arrays.equals(expected.toByteArray(),
+                    out.toByteArray()));
+            final StringWriter writer = new StringWriter();
+            XMLUtil.xslTransformation(transcript,
+                TemplatesCacheTest.TRANSCRIPT_XSL, parameters, writer);
+            assertEquals("run " + run, expected.toString("UTF-8"),
+                writer.toString());
+        }
+        assertEquals("misses", 1, cache.getMissCount());
+        assertEquals("hits", 3, cache.getHitCount());
+    }
+
+    public void testBypass() throws Exception
+    {
+        final TransformResultCache cache = new TransformResultCache();
+        XMLUtil.setResultCache(cache);
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("greeting", "Hi");
+        parameters.put(TransformResultCache.BYPASS_PARAMETER, Boolean.TRUE);
+        final String bypassed = XMLUtil.xslTransformation("<in>Bob</in>", xsl,
+            parameters);
+        assertTrue(bypassed, bypassed.endsWith("<out>Hi Bob </out>"));
+        assertEquals("bypasses", 1, cache.getBypassCount());
+        assertEquals("size", 0, cache.size());
+
+        parameters.put(TransformResultCache.BYPASS_PARAMETER, "false");
+        assertEquals(bypassed, XMLUtil.xslTransformation("<in>Bob</in>", xsl,
+            parameters));
+        assertEquals("size", 1, cache.size());
+
+        // streams can only be read once, and nodes have no stable key
+        XMLUtil.xslTransformation(new ByteArrayInputStream(
+            "<in>Bob</in>".getBytes("UTF-8")), xsl, null);
+        parameters.remove(TransformResultCache.BYPASS_PARAMETER);
+        parameters.put("greeting", XMLUtil.stringToDocument("<x/>"));
+        XMLUtil.xslTransformation("<in>Bob</in>", xsl, parameters);
+        assertEquals("bypasses", 3, cache.getBypassCount());
+        assertEquals("size", 1, cache.size());
+    }
+
+    public void testEviction() throws Exception
+    {
+        final String one = XMLUtil.xslTransformation("<in>1</in>", xsl, null);
+        final int size = one.getBytes("UTF-8").length;
+        final TransformResultCache cache =
+            new TransformResultCache((size + 200) * 2, 60000);
+        XMLUtil.setResultCache(cache);
+        XMLUtil.xslTransformation("<in>1</in>", xsl, null);
+        XMLUtil.xslTransformation("<in>2</in>", xsl, null);
+        assertEquals("size", 2, cache.size());
+        assertEquals("bytes", (size + 200) * 2, cache.getBytes());
+        XMLUtil.xslTransformation("<in>1</in>", xsl, null);
+        XMLUtil.xslTransformation("<in>3</in>", xsl, null);
+        assertEquals("evictions", 1, cache.getEvictionCount());
+
+        // 2 was the least recently used
+        XMLUtil.xslTransformation("<in>1</in>", xsl, null);
+        assertEquals("hits", 2, cache.getHitCount());
+        XMLUtil.xslTransformation("<in>2</in>", xsl, null);
+        assertEquals("misses", 4, cache.getMissCount());
+
+        cache.setMaximumBytes(size + 200);
+        assertEquals("size", 1, cache.size());
+    }
+
+    public void testTimeToLive() throws Exception
+    {
+        final TransformResultCache cache =
+            new TransformResultCache(1024 * 1024, 50);
+        XMLUtil.setResultCache(cache);
+        XMLUtil.xslTransformation("<in>Bob</in>", xsl, null);
+        XMLUtil.xslTransformation("<in>Larry</in>", xsl, null);
+        Thread.sleep(100);
+        XMLUtil.xslTransformation("<in>Bob</in>", xsl, null);
+        assertEquals("expired", 1, cache.getExpiredCount());
+        assertEquals("misses", 3, cache.getMissCount());
+        assertEquals("purged", 1, cache.purgeExpired());
+        assertEquals("size", 1, cache.size());
+    }
+
+    public void testStylesheetChanges() throws Exception
+    {
+        final TransformResultCache cache = new TransformResultCache();
+        XMLUtil.setResultCache(cache);
+        XMLUtil.xslTransformation("<in>Bob</in>", xsl, null);
+        writeStylesheet("Bye");
+        xsl.setLastModified(xsl.lastModified() + 2000);
+        final String changed =
+            XMLUtil.xslTransformation("<in>Bob</in>", xsl, null);
+        assertTrue(changed, changed.endsWith("<out>Bye Bob </out>"));
+        assertEquals("misses", 2, cache.getMissCount());
+    }
+
+    public void testDirectory() throws Exception
+    {
+        final TransformResultCache cache =
+            new TransformResultCache(1024 * 1024, 60000, directory);
+        XMLUtil.setResultCache(cache);
+        final String bob = XMLUtil.xslTransformation("<in>Bob</in>", xsl,
+            null);
+        assertEquals("files", 1, directory.listFiles().length);
+
+        // as though after a restart
+        final TransformResultCache restarted =
+            new TransformResultCache(1024 * 1024, 60000, directory);
+        XMLUtil.setResultCache(restarted);
+        assertEquals(bob, XMLUtil.xslTransformation("<in>Bob</in>", xsl,
+            null));
+        assertEquals("disk hits", 1, restarted.getDiskHitCount());
+        assertEquals("size", 1, restarted.size());
+        assertEquals(bob, XMLUtil.xslTransformation("<in>Bob</in>", xsl,
+            null));
+        assertEquals("disk hits", 1, restarted.getDiskHitCount());
+        assertEquals("hits", 2, restarted.getHitCount());
+
+        restarted.invalidateAll();
+        assertEquals("files", 0, directory.listFiles().length);
+        XMLUtil.xslTransformation("<in>Bob</in>", xsl, null);
+        assertEquals("misses", 1, restarted.getMissCount());
+    }
+
+    private void writeStylesheet(final String greeting) throws IOException
+    {
+        TemplatesCacheTest.writeTemplates(xsl,
+            "<xsl:param name=\"greeting\" select=\"'" + greeting + "'\"/>" +
+            "<xsl:param name=\"count\"/>" +
+            "<xsl:template match=\"/\"><out><xsl:value-of " +
+            "select=\"concat($greeting, ' ', in, ' ', $count)\"/></out>" +
+            "</xsl:template>");
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import javax.xml.transform.Templates;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests precompiling stylesheets into translets, and loading them.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class TransletCompilerTest extends TestCase
+{
+    private File classes;
+
+    private TemplatesCache previous;
+
+    protected void setUp() throws Exception
+    {
+        classes = new File(XMLUtil.class.getResource(
+            TemplatesCacheTest.TRANSCRIPT_XSL).toURI()).getParentFile();
+        previous = XMLUtil.getTemplatesCache();
+        XMLUtil.setTemplatesCache(new TemplatesCache());
+    }
+
+    protected void tearDown()
+    {
+        XMLUtil.setTemplatesCache(previous);
+        final File[] translets = new File(classes,
+            TransletCompiler.getPackage().replace('.', '/')).listFiles();
+        if (translets != null)
+        {
+            for (final File translet : translets)
+            {
+                translet.delete();
+            }
+        }
+    }
+
+    public void testTransletName()
+    {
+        final String name = TransletCompiler.transletName("/a/b-c.xsl");
+        assertTrue(name, name.startsWith("a_b_c_xsl_"));
+        assertFalse("no collisions", name.equals(
+            TransletCompiler.transletName("/a/b_c.xsl")));
+        assertTrue(Character.isJavaIdentifierStart(
+            TransletCompiler.transletName("/1.xsl").charAt(0)));
+    }
+
+    /**
+     * A precompiled stylesheet is loaded rather than compiled, and gives the
+     * same output.
+     *
+     * @throws Exception on failure
+     */
+    public void testPrecompiledStylesheet() throws Exception
+    {
+        final Map parameters = new HashMap();
+        parameters.put("title", "Translet");
+        final String xml = TemplatesCacheTest.readTranscript();
+        final String expected = XMLUtil.xslTransformation(xml,
+            new File(classes, TemplatesCacheTest.TRANSCRIPT_XSL.substring(1)),
+            parameters);
+
+        final File translet = TransletCompiler.compile(classes,
+            TemplatesCacheTest.TRANSCRIPT_XSL);
+        assertTrue(translet + " exists", translet.isFile());
+        final Templates templates = XMLUtil.getTemplatesCache().getTemplates(
+            TemplatesCacheTest.TRANSCRIPT_XSL);
+        assertTrue("loaded the translet",
+            TransletCompiler.isTranslet(templates));
+        assertEquals(expected, XMLUtil.xslTransformation(xml,
+            TemplatesCacheTest.TRANSCRIPT_XSL, parameters));
+
+        // translets can be chained too
+        final TransformPipeline pipeline = new TransformPipeline(
+            new TransformPipeline.Stage(TemplatesCacheTest.TRANSCRIPT_XSL,
+                parameters));
+        assertEquals(expected, pipeline.transform(xml));
+    }
+
+    /**
+     * A stylesheet changed after it was precompiled is compiled at runtime.
+     *
+     * @throws Exception on failure
+     */
+    public void testStaleTranslet() throws Exception
+    {
+        final File stylesheet = new File(classes,
+            TemplatesCacheTest.TRANSCRIPT_XSL.substring(1));
+        final long modified = stylesheet.lastModified();
+        final File translet = TransletCompiler.compile(classes,
+            TemplatesCacheTest.TRANSCRIPT_XSL);
+        try
+        {
+            assertTrue(stylesheet.setLastModified(
+                translet.lastModified() + 10000));
+            assertNull("stale", TransletCompiler.load(
+                TemplatesCacheTest.TRANSCRIPT_XSL, stylesheet.toURI().toURL()));
+            assertFalse(TransletCompiler.isTranslet(XMLUtil.getTemplatesCache()
+                .getTemplates(TemplatesCacheTest.TRANSCRIPT_XSL)));
+        }
+        finally
+        {
+            stylesheet.setLastModified(modified);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.Transformer;
+
+/**
+ * Tests the parser and serializer pool in each of it's modes.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class XMLPoolTest extends TestCase
+{
+    private XMLPool original;
+
+    protected void setUp() throws Exception
+    {
+        original = XMLUtil.getXMLPool();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        XMLUtil.setXMLPool(original);
+    }
+
+    public void testThreadLocalReuse() throws Exception
+    {
+        final XMLPool pool = new XMLPool(XMLPool.Mode.THREAD_LOCAL, 1);
+        final DocumentBuilder first = pool.borrowDocumentBuilder();
+        final DocumentBuilder nested = pool.borrowDocumentBuilder();
+        assertNotSame("a builder in use must not be handed out twice", first,
+            nested);
+        pool.returnDocumentBuilder(nested);
+        pool.returnDocumentBuilder(first);
+        assertSame("builder should be reused", first,
+            pool.borrowDocumentBuilder());
+        assertEquals("created", 2, pool.getDocumentBuilderCreatedCount());
+        assertEquals("reused", 1, pool.getDocumentBuilderReusedCount());
+    }
+
+    public void testBoundedReuse() throws Exception
+    {
+        final XMLPool pool = new XMLPool(XMLPool.Mode.BOUNDED, 1);
+        final Transformer first = pool.borrowTransformer();
+        final Transformer second = pool.borrowTransformer();
+        pool.returnTransformer(first);
+        pool.returnTransformer(second);
+        assertEquals("only one should be kept", 1,
+            pool.getIdleTransformerCount());
+        assertSame("transformer should be reused", first,
+            pool.borrowTransformer());
+        assertEquals("created", 2, pool.getTransformerCreatedCount());
+        assertEquals("reused", 1, pool.getTransformerReusedCount());
+    }
+
+    public void testNoPooling() throws Exception
+    {
+        final XMLPool pool = new XMLPool(XMLPool.Mode.NONE, 1);
+        final DocumentBuilder first = pool.borrowDocumentBuilder();
+        pool.returnDocumentBuilder(first);
+        assertNotSame("nothing should be reused", first,
+            pool.borrowDocumentBuilder());
+        assertEquals("reused", 0, pool.getDocumentBuilderReusedCount());
+    }
+
+    /**
+     * Makes sure every mode produces the same documents, and that a failed
+     * parse does not poison the pooled builder.
+     *
+     * @throws Exception on failure
+     */
+    public void testModesEquivalent() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        String expected = null;
+        final XMLPool.Mode[] modes = XMLPool.Mode.values();
+        for (int index = 0; index < modes.length; index++)
+        {
+            XMLUtil.setXMLPool(new XMLPool(modes[index], 2));
+            try
+            {
+                XMLUtil.stringToDocument("<broken>");
+                fail("broken XML should not parse");
+            }
+            catch (SAXException ignored)
+            {
+            }
+            final Document doc = XMLUtil.stringToDocument(xml);
+            final String result = XMLUtil.documentToString(doc);
+            if (expected == null)
+            {
+                expected = result;
+            }
+            assertEquals(modes[index] + " output differs", expected, result);
+            assertEquals(modes[index] + " root", "ColTrn:CollegeTranscript",
+                doc.getDocumentElement().getNodeName());
+            assertNotNull(modes[index] + " namespace awareness",
+                doc.getDocumentElement().getNamespaceURI());
+        }
+    }
+}
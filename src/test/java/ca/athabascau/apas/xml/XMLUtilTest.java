@@ -23,8 +23,21 @@ package ca.athabascau.apas.xml;
 import junit.framework.TestCase;
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
@@ -150,4 +163,227 @@ public class XMLUtilTest extends TestCase
         assertEquals("timezone offset", -7, TimeZone.getDefault().getOffset(
             xsDateTime.getTime().getTime()) / (1000 * 60 * 60));
     }
+
+    /**
+     * Dates before the Gregorian change must stay on the Julian calendar, as
+     * they were with SimpleDateFormat.
+     *
+     * @throws ParseException if an error occurs parsing the date format.
+     */
+    public void testJulianDates() throws ParseException
+    {
+        assertEquals("1500-01-01",
+            XMLUtil.xsDateFormat(new GregorianCalendar(1500, 0, 1)));
+        assertEquals("1582-10-04",
+            XMLUtil.xsDateFormat(new GregorianCalendar(1582, 9, 4)));
+        assertEquals("1582-10-15",
+            XMLUtil.xsDateFormat(new GregorianCalendar(1582, 9, 15)));
+
+        final Calendar christmas = new GregorianCalendar(5, 11, 30);
+        christmas.set(Calendar.ERA, GregorianCalendar.BC);
+        assertEquals("0005-12-30", XMLUtil.xsDateFormat(christmas));
+
+        Calendar calendar = XMLUtil.xsDateToCalendar("1500-03-01");
+        assertEquals("year", 1500, calendar.get(Calendar.YEAR));
+        assertEquals("month", Calendar.MARCH, calendar.get(Calendar.MONTH));
+        assertEquals("day", 1, calendar.get(Calendar.DAY_OF_MONTH));
+        assertEquals("1500-03-01", XMLUtil.xsDateFormat(calendar));
+
+        calendar = XMLUtil.xsDateToCalendar("1582-10-04");
+        assertEquals("day", 4, calendar.get(Calendar.DAY_OF_MONTH));
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        assertEquals("next day", "1582-10-15", XMLUtil.xsDateFormat(calendar));
+
+        calendar = XMLUtil.xsDateTimeToCalendar("1500-03-01T12:30:15");
+        assertEquals("month", Calendar.MARCH, calendar.get(Calendar.MONTH));
+        assertEquals("day", 1, calendar.get(Calendar.DAY_OF_MONTH));
+        assertEquals("hour", 12, calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals("minute", 30, calendar.get(Calendar.MINUTE));
+        assertEquals("second", 15, calendar.get(Calendar.SECOND));
+    }
+
+    /**
+     * Makes sure the streaming transformations produce exactly what the
+     * String version does.
+     *
+     * @throws Exception on failure
+     */
+    public void testStreamingTransformation() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final String xsl = TemplatesCacheTest.TRANSCRIPT_XSL;
+        final String expected = XMLUtil.xslTransformation(xml, xsl, null);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLUtil.xslTransformation(xml, xsl, null, out);
+        assertEquals("OutputStream output differs", expected,
+            out.toString("UTF-8"));
+
+        final StringWriter writer = new StringWriter();
+        XMLUtil.xslTransformation(xml, xsl, null, writer);
+        assertEquals("Writer output differs", expected, writer.toString());
+
+        final ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+        XMLUtil.xslTransformation(xml, xsl, null,
+            Channels.newChannel(channelOut));
+        assertEquals("channel output differs", expected,
+            channelOut.toString("UTF-8"));
+    }
+
+    /**
+     * Makes sure every kind of xml input transforms the same way.
+     *
+     * @throws Exception on failure
+     */
+    public void testStreamedInputs() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final String xsl = TemplatesCacheTest.TRANSCRIPT_XSL;
+        final String expected = XMLUtil.xslTransformation(
+            XMLUtil.stringToDocument(xml), xsl, null);
+        final byte[] bytes = xml.getBytes("UTF-8");
+
+        assertEquals("String", expected,
+            XMLUtil.xslTransformation(xml, xsl, null));
+        assertEquals("byte[]", expected,
+            XMLUtil.xslTransformation(bytes, xsl, null));
+        assertEquals("InputStream", expected, XMLUtil.xslTransformation(
+            new ByteArrayInputStream(bytes), xsl, null));
+        assertEquals("Reader", expected, XMLUtil.xslTransformation(
+            new StringReader(xml), xsl, null));
+    }
+
+    /**
+     * Makes sure a stream can still be used with an xml-stylesheet
+     * processing instruction, which requires reading it twice.
+     *
+     * @throws Exception on failure
+     */
+    public void testStreamedInputWithStylesheetInstruction() throws Exception
+    {
+        final String xsl = XMLUtil.class.getResource(
+            TemplatesCacheTest.TRANSCRIPT_XSL).toExternalForm();
+        final String xml = TemplatesCacheTest.readTranscript().replaceFirst(
+            "http://www.athabascau.ca/apas-xml/transcript.xsl", xsl);
+        final String html = XMLUtil.xslTransformation(
+            new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        assertTrue("Bob Tomato missing", html.indexOf("Bob Tomato") != -1);
+    }
+
+    /**
+     * Makes sure the NIO inputs parse and transform the same as a String,
+     * and that the parser detects the encoding of raw bytes.
+     *
+     * @throws Exception on failure
+     */
+    public void testNioInputs() throws Exception
+    {
+        final String xml = TemplatesCacheTest.readTranscript();
+        final String xsl = TemplatesCacheTest.TRANSCRIPT_XSL;
+        final String expected = XMLUtil.xslTransformation(xml, xsl, null);
+        final byte[] bytes = xml.getBytes("UTF-8");
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        assertEquals("ByteBuffer", expected,
+            XMLUtil.xslTransformation(direct, xsl, null));
+        assertEquals("position should not move", 0, direct.position());
+        assertEquals("ReadableByteChannel", expected, XMLUtil.xslTransformation(
+            Channels.newChannel(new ByteArrayInputStream(bytes)), xsl, null));
+
+        final Path small = Files.createTempFile("transcript", ".xml");
+        final Path large = Files.createTempFile("transcript", ".xml");
+        try
+        {
+            Files.write(small, bytes);
+            assertEquals("Path", expected,
+                XMLUtil.xslTransformation(small, xsl, null));
+
+            // big enough to be memory mapped
+            final char[] padding = new char[(int)
+                XMLUtil.DEFAULT_MAPPING_THRESHOLD];
+            Arrays.fill(padding, ' ');
+            Files.write(large, (xml + new String(padding)).getBytes("UTF-8"));
+            assertEquals("mapped Path", expected,
+                XMLUtil.xslTransformation(large, xsl, null));
+            assertEquals("Bob", XMLUtil.loadXMLFrom(large)
+                .getElementsByTagName("FirstName").item(0).getTextContent());
+        }
+        finally
+        {
+            Files.delete(small);
+            Files.delete(large);
+        }
+
+        final byte[] latin = ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
+            "<name>Andr\u00e9</name>").getBytes("ISO-8859-1");
+        assertEquals("byte[]", "Andr\u00e9", XMLUtil.loadXMLFrom(latin)
+            .getDocumentElement().getTextContent());
+        assertEquals("ByteBuffer", "Andr\u00e9", XMLUtil.loadXMLFrom(
+            ByteBuffer.wrap(latin)).getDocumentElement().getTextContent());
+        assertEquals("channel", "Andr\u00e9", XMLUtil.loadXMLFrom(
+            Channels.newChannel(new ByteArrayInputStream(latin)))
+            .getDocumentElement().getTextContent());
+    }
+
+    /**
+     * Makes sure files too big for one mapping are read correctly, by
+     * mapping a small one in tiny chunks.
+     *
+     * @throws Exception on failure
+     */
+    public void testMappedInChunks() throws Exception
+    {
+        final byte[] bytes = TemplatesCacheTest.readTranscript()
+            .getBytes("UTF-8");
+        final Path file = Files.createTempFile("transcript", ".xml");
+        try
+        {
+            Files.write(file, bytes);
+            final FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ);
+            final InputStream chunked;
+            final InputStream skipped;
+            try
+            {
+                chunked = ByteInput.map(channel, bytes.length, 1000);
+                skipped = ByteInput.map(channel, bytes.length, 1000);
+            }
+            finally
+            {
+                channel.close();
+            }
+            assertEquals("Bob", XMLUtil.loadXMLFrom(new InputSource(chunked))
+                .getElementsByTagName("FirstName").item(0).getTextContent());
+
+            assertEquals("skip", 2000, skipped.skip(1500) +
+                skipped.skip(500));
+            assertEquals("after skip", bytes[2000], (byte) skipped.read());
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Makes sure the xml-stylesheet instruction is found in NIO inputs.
+     *
+     * @throws Exception on failure
+     */
+    public void testNioInputsWithStylesheetInstruction() throws Exception
+    {
+        final String xsl = XMLUtil.class.getResource(
+            TemplatesCacheTest.TRANSCRIPT_XSL).toExternalForm();
+        final byte[] xml = TemplatesCacheTest.readTranscript().replaceFirst(
+            "http://www.athabascau.ca/apas-xml/transcript.xsl", xsl)
+            .getBytes("UTF-8");
+        final ByteBuffer buffer = ByteBuffer.wrap(xml);
+        assertTrue("ByteBuffer", XMLUtil.xslTransformation(buffer)
+            .indexOf("Bob Tomato") != -1);
+        assertTrue("reused ByteBuffer", XMLUtil.xslTransformation(buffer)
+            .indexOf("Bob Tomato") != -1);
+        assertTrue("channel", XMLUtil.xslTransformation(Channels.newChannel(
+            new ByteArrayInputStream(xml))).indexOf("Bob Tomato") != -1);
+    }
 }
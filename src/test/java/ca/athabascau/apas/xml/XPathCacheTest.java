@@ -0,0 +1,147 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests querying documents with cached XPath expressions.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class XPathCacheTest extends TestCase
+{
+    private static final XPathCache.Namespaces NAMESPACES =
+        new XPathCache.Namespaces(
+            "t", "urn:ca:applyalberta:message:CollegeTranscript:v1.0.0a",
+            "AU", "urn:ca:au:messages:AUExtensions:v1.0.0");
+
+    private Document transcript;
+
+    protected void setUp() throws Exception
+    {
+        transcript = XMLUtil.stringToDocument(
+            TemplatesCacheTest.readTranscript());
+    }
+
+    public void testTypedResults() throws Exception
+    {
+        final XPathCache xpath = new XPathCache();
+        assertEquals("4.00", xpath.evaluateString(transcript,
+            "//AU:CourseGradePointValue", NAMESPACES));
+        assertEquals(11.0, xpath.evaluateNumber(transcript, "count(//Course)"),
+            0.0);
+        assertTrue(xpath.evaluateBoolean(transcript,
+            "/t:CollegeTranscript/TransmissionData", NAMESPACES));
+        assertFalse(xpath.evaluateBoolean(transcript, "/CollegeTranscript"));
+        final NodeList courses = xpath.evaluateNodeList(transcript,
+            "//Course[CourseSubjectAbbreviation = 'COMP']");
+        assertTrue("courses", courses.getLength() > 0);
+        final Node course = xpath.evaluateNode(transcript, "//Course");
+        assertEquals("200", xpath.evaluateString(course, "CourseNumber"));
+        assertNull(xpath.evaluateNode(transcript, "//Missing"));
+        assertTrue(Double.isNaN(xpath.evaluateNumber(transcript, "//Missing")));
+    }
+
+    public void testCompiledOnce() throws Exception
+    {
+        final XPathCache xpath = new XPathCache(2);
+        xpath.evaluateString(transcript, "//AU:CourseGradePointValue",
+            NAMESPACES);
+        xpath.evaluateString(transcript, "//AU:CourseGradePointValue",
+            new XPathCache.Namespaces(
+                "AU", "urn:ca:au:messages:AUExtensions:v1.0.0",
+                "t", "urn:ca:applyalberta:message:CollegeTranscript:v1.0.0a"));
+        assertEquals("equal namespaces hit", 1, xpath.getHitCount());
+        final XPathExpression compiled = xpath.compile("//Course", null);
+        assertSame(compiled, xpath.compile("//Course", null));
+        assertEquals("misses", 2, xpath.getMissCount());
+        assertEquals("size", 2, xpath.size());
+
+        xpath.compile("//CourseTitle", null);
+        assertEquals("evictions", 1, xpath.getEvictionCount());
+        assertEquals("size", 2, xpath.size());
+
+        // each thread compiles it's own
+        final List<XPathExpression> other = Collections.synchronizedList(
+            new ArrayList<XPathExpression>());
+        final Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    other.add(xpath.compile("//Course", null));
+                }
+                catch (XPathExpressionException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotSame(compiled, other.get(0));
+    }
+
+    public void testBatch() throws Exception
+    {
+        final Map<String, String> expressions =
+            new LinkedHashMap<String, String>();
+        expressions.put("document", "//DocumentID");
+        expressions.put("first", "(//AU:CourseGradePointValue)[1]");
+        expressions.put("courses", "count(//Course)");
+        final Map<String, Object> results = XMLUtil.getXPathCache().evaluate(
+            transcript, expressions, NAMESPACES, XPathConstants.STRING);
+        assertEquals("[document, first, courses]",
+            results.keySet().toString());
+        assertEquals("216330-8685970-20090814164026", results.get("document"));
+        assertEquals("4.00", results.get("first"));
+        assertEquals("11", results.get("courses"));
+
+        expressions.put("broken", "//[");
+        try
+        {
+            XMLUtil.getXPathCache().evaluate(transcript, expressions, null,
+                XPathConstants.STRING);
+            fail("an invalid expression should fail");
+        }
+        catch (XPathExpressionException e)
+        {
+            assertTrue(e.getMessage(),
+                e.getMessage().indexOf("broken") != -1);
+        }
+    }
+}
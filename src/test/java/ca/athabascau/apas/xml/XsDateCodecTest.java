@@ -0,0 +1,171 @@
+/**
+ * This file is part of the au-xml-util package
+ *
+ * Copyright Trenton D. Adams <trenton daught d daught adams at gmail daught ca>
+ *
+ * au-xml-util is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * au-xml-util is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with au-xml-util.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the COPYING file for more information.
+ */
+package ca.athabascau.apas.xml;
+
+import junit.framework.TestCase;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Tests the xs:date and xs:dateTime codec against SimpleDateFormat.
+ * <p/>
+ * Modified : $Date$
+ * <p/>
+ * Revision : $Revision$
+ */
+public class XsDateCodecTest extends TestCase
+{
+    private static final TimeZone UTC = XsDateCodec.zone("UTC");
+
+    private static final TimeZone MOUNTAIN =
+        XsDateCodec.zone("Canada/Mountain");
+
+    private static final TimeZone KOLKATA = XsDateCodec.zone("Asia/Kolkata");
+
+    /**
+     * Formats a spread of instants, across daylight savings changes and leap
+     * years, and compares with SimpleDateFormat.
+     *
+     * @throws ParseException on failure
+     */
+    public void testFormatMatchesSimpleDateFormat() throws ParseException
+    {
+        final TimeZone[] zones = {UTC, MOUNTAIN, KOLKATA};
+        final long start = new GregorianCalendar(1899, 0, 1).getTimeInMillis();
+        final long step = 7 * 3600 * 1000L + 13 * 60 * 1000L + 17 * 1000L;
+        for (int z = 0; z < zones.length; z++)
+        {
+            final SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd");
+            final SimpleDateFormat dateTime = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ssXXX");
+            date.setTimeZone(zones[z]);
+            dateTime.setTimeZone(zones[z]);
+            for (long millis = start; millis < start + 150L * 365 * 86400000L;
+                 millis += step * 97)
+            {
+                assertEquals("date " + millis, date.format(millis),
+                    XsDateCodec.formatDate(millis, zones[z],
+                        new StringBuilder()).toString());
+                final String expected = dateTime.format(millis);
+                final String actual = XsDateCodec.formatDateTime(millis,
+                    zones[z], new StringBuilder()).toString();
+                assertEquals("dateTime " + millis, expected, actual);
+                if (zones[z].getOffset(millis) % 60000 == 0)
+                {   // local mean time offsets have seconds, which are lost
+                    assertEquals("round trip " + actual, millis,
+                        XsDateCodec.parseDateTime(actual, MOUNTAIN));
+                }
+            }
+        }
+    }
+
+    public void testParseDateTime() throws ParseException
+    {
+        final long expected = Date.utc(2010, 10, 5, 18, 14, 14, 0) +
+            6 * 3600 * 1000L;
+        assertEquals("offset", expected,
+            XsDateCodec.parseDateTime("2010-10-05T18:14:14-06:00", UTC));
+        assertEquals("offset without colon", expected,
+            XsDateCodec.parseDateTime("2010-10-05T18:14:14-0600", UTC));
+        assertEquals("Z", expected,
+            XsDateCodec.parseDateTime("2010-10-06T00:14:14Z", UTC));
+        assertEquals("positive offset", expected,
+            XsDateCodec.parseDateTime("2010-10-06T05:44:14+05:30", UTC));
+        assertEquals("default zone", expected,
+            XsDateCodec.parseDateTime("2010-10-05T18:14:14", MOUNTAIN));
+        assertEquals("fraction", expected + 123,
+            XsDateCodec.parseDateTime("2010-10-06T00:14:14.1239Z", UTC));
+        assertEquals("end of day", Date.utc(2010, 10, 6, 0, 0, 0, 0),
+            XsDateCodec.parseDateTime("2010-10-05T24:00:00Z", UTC));
+        assertEquals("leap day", Date.utc(2000, 2, 29, 0, 0, 0, 0),
+            XsDateCodec.parseDateTime("2000-02-29T00:00:00Z", UTC));
+        assertEquals("long year", Date.utc(12000, 1, 1, 0, 0, 0, 0),
+            XsDateCodec.parseDateTime("12000-01-01T00:00:00Z", UTC));
+        assertEquals("negative year", "-0044-03-15T00:00:00Z",
+            XsDateCodec.formatDateTime(XsDateCodec.parseDateTime(
+                "-0044-03-15T00:00:00Z", UTC), UTC,
+                new StringBuilder()).toString());
+    }
+
+    public void testParseDate() throws ParseException
+    {
+        assertEquals("default zone",
+            new GregorianCalendar(2009, 11, 12).getTimeInMillis(),
+            XsDateCodec.parseDate("2009-12-12", TimeZone.getDefault()));
+        assertEquals("Z", Date.utc(2009, 12, 12, 0, 0, 0, 0),
+            XsDateCodec.parseDate("2009-12-12Z", MOUNTAIN));
+        assertEquals("offset", Date.utc(2009, 12, 12, 7, 0, 0, 0),
+            XsDateCodec.parseDate("2009-12-12-07:00", UTC));
+    }
+
+    public void testInvalid()
+    {
+        final String[] invalid = {"", "2009", "blah2009-12-12", "09-12-12",
+            "2009-13-01", "2009-02-29", "2009-12-12T", "2009-12-12 00:00:00",
+            "2009-12-12T25:00:00", "2009-12-12T24:00:01", "2009-12-12T10:60:00",
+            "2009-12-12T10:00:00.", "2009-12-12T10:00:00+15:00",
+            "2009-12-12T10:00:00Zjunk", "02009-12-12T10:00:00Z"};
+        for (int index = 0; index < invalid.length; index++)
+        {
+            try
+            {
+                XsDateCodec.parseDateTime(invalid[index], UTC);
+                fail("should not parse \"" + invalid[index] + "\"");
+            }
+            catch (ParseException ignored)
+            {
+            }
+        }
+    }
+
+    public void testMountainFormat()
+    {
+        final Calendar summer = Calendar.getInstance(UTC);
+        summer.setTimeInMillis(Date.utc(2010, 7, 1, 12, 30, 15, 999));
+        assertEquals("summer", "2010-07-01T06:30:15-06:00",
+            XMLUtil.xsDateTimeFormatMountain(summer));
+        final Calendar winter = Calendar.getInstance(UTC);
+        winter.setTimeInMillis(Date.utc(2010, 1, 1, 2, 0, 0, 0));
+        assertEquals("winter", "2009-12-31T19:00:00-07:00",
+            XMLUtil.xsDateTimeFormatMountain(winter));
+    }
+
+    /**
+     * Builds UTC instants for the expected values.
+     */
+    private static class Date
+    {
+        private static long utc(final int year, final int month,
+            final int day, final int hour, final int minute, final int second,
+            final int millis)
+        {
+            final GregorianCalendar calendar = new GregorianCalendar(UTC);
+            calendar.clear();
+            calendar.set(year, month - 1, day, hour, minute, second);
+            calendar.set(Calendar.MILLISECOND, millis);
+            return calendar.getTimeInMillis();
+        }
+    }
+}